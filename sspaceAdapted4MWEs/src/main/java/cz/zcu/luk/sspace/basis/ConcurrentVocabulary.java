@@ -0,0 +1,190 @@
+package cz.zcu.luk.sspace.basis;
+
+import edu.ucla.sspace.basis.BasisMapping;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link BasisMapping} from terms to dense int ids which may be read and
+ * extended by many threads at once.  The look-up of a known term does not
+ * lock; a new term takes a lock on one of a fixed number of stripes, chosen by
+ * the hash of the term, so the threads that add different terms rarely wait
+ * for each other.  The ids are assigned in the order in which the terms are
+ * added, from 0 without gaps, and the term of each id is kept in an array, so
+ * {@link #getDimensionDescription(int)} does not search the mapping.<p>
+ *
+ * A single vocabulary may be shared by all the models and tokenizers of a
+ * run, so that each term is hashed once per occurrence and all later work is
+ * done on its id.  Once the vocabulary is {@link #setReadOnly(boolean) read
+ * only}, unknown terms are mapped to {@code -1}.
+ *
+ * @see cz.zcu.luk.sspace.text.TokenIdIterator
+ */
+public class ConcurrentVocabulary
+        implements BasisMapping<String, String>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of terms in each chunk of {@link #terms}, as a power of two.
+     */
+    private static final int CHUNK_BITS = 12;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    /**
+     * The locks taken when a term is added, shared by all the vocabularies.
+     */
+    private static final Object[] STRIPES = new Object[64];
+
+    static {
+        for (int i = 0; i < STRIPES.length; ++i)
+            STRIPES[i] = new Object();
+    }
+
+    /**
+     * The id of each term.
+     */
+    private final ConcurrentMap<String, Integer> ids;
+
+    /**
+     * The next id to assign.
+     */
+    private final AtomicInteger nextId;
+
+    /**
+     * The term of each id, in chunks of {@link #CHUNK_SIZE} terms, which are
+     * allocated as the vocabulary grows.
+     */
+    private volatile String[][] terms;
+
+    private volatile boolean readOnly;
+
+    /**
+     * Creates an empty vocabulary.
+     */
+    public ConcurrentVocabulary() {
+        ids = new ConcurrentHashMap<String, Integer>();
+        nextId = new AtomicInteger();
+        terms = new String[16][];
+        readOnly = false;
+    }
+
+    /**
+     * Returns the id of the term, adding it to the vocabulary if it is not
+     * known yet, or {@code -1} if it is not known and the vocabulary is read
+     * only.
+     */
+    public int getDimension(String term) {
+        Integer id = ids.get(term);
+        if (id != null)
+            return id;
+        if (readOnly)
+            return -1;
+        synchronized (STRIPES[(term.hashCode() & 0x7fffffff)
+                              % STRIPES.length]) {
+            // recheck in case another thread added the term while this one
+            // was waiting for the lock
+            id = ids.get(term);
+            if (id != null)
+                return id;
+            int i = nextId.getAndIncrement();
+            setTerm(i, term);
+            // Publish the id only once its term has been stored
+            ids.put(term, i);
+            return i;
+        }
+    }
+
+    /**
+     * Returns the id of the term, or {@code -1} if the term is not known,
+     * without adding it.
+     */
+    public int indexOf(String term) {
+        Integer id = ids.get(term);
+        return (id == null) ? -1 : id.intValue();
+    }
+
+    private void setTerm(int id, String term) {
+        int chunk = id >>> CHUNK_BITS;
+        String[][] chunks = terms;
+        if (chunk >= chunks.length || chunks[chunk] == null) {
+            synchronized (this) {
+                chunks = terms;
+                if (chunk >= chunks.length)
+                    chunks = Arrays.copyOf(chunks,
+                        Math.max(2 * chunks.length, chunk + 1));
+                if (chunks[chunk] == null)
+                    chunks[chunk] = new String[CHUNK_SIZE];
+                terms = chunks;
+            }
+        }
+        chunks[chunk][id & (CHUNK_SIZE - 1)] = term;
+    }
+
+    /**
+     * Returns the term with the id.
+     *
+     * @throws IllegalArgumentException if no term has the id
+     */
+    public String getDimensionDescription(int dimension) {
+        String[][] chunks = terms;
+        int chunk = dimension >>> CHUNK_BITS;
+        String term = (dimension >= 0 && chunk < chunks.length
+                       && chunks[chunk] != null)
+            ? chunks[chunk][dimension & (CHUNK_SIZE - 1)]
+            : null;
+        if (term == null)
+            throw new IllegalArgumentException(
+                "invalid dimension: " + dimension);
+        return term;
+    }
+
+    /**
+     * Returns the terms of the vocabulary, indexed by their ids.  The terms
+     * should not be added to the vocabulary at the same time.
+     */
+    public String[] terms() {
+        int size = numDimensions();
+        String[] copy = new String[size];
+        String[][] chunks = terms;
+        for (int start = 0; start < size; start += CHUNK_SIZE)
+            System.arraycopy(chunks[start >>> CHUNK_BITS], 0, copy, start,
+                             Math.min(CHUNK_SIZE, size - start));
+        return copy;
+    }
+
+    /**
+     * Returns an unmodifiable view of the terms of the vocabulary.
+     */
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(ids.keySet());
+    }
+
+    /**
+     * Returns the number of terms whose ids have been published.
+     */
+    public int numDimensions() {
+        return ids.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+}
@@ -0,0 +1,263 @@
+package cz.zcu.luk.sspace.basis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A vocabulary of bounded size which tracks only the most frequent terms of a
+ * stream, with the Space-Saving algorithm of Metwally, Agrawal and El Abbadi
+ * (2005).  At most {@code capacity} terms are tracked at once, each with an
+ * estimated count.  A term that is not tracked replaces the tracked term with
+ * the lowest count, and starts from that count, which is kept as the error of
+ * its estimate.  So the estimated count of a term never falls below its true
+ * count and exceeds it by at most its error, which is at most the total count
+ * of the stream divided by the capacity.  Every term whose true count is
+ * above that bound is tracked.<p>
+ *
+ * Each tracked term has an int id below the capacity, which may be looked up
+ * without locking.  A term that replaces another one takes its id, so the ids
+ * stay bounded however many terms the stream has.  Each replacement advances
+ * the epoch of the vocabulary, and {@link #epochOf(int)} tells the epoch at
+ * which an id was last given to another term, so that the caller can tell
+ * what it kept under an id before the id was reused from what it kept after.
+ * The counts are added under the lock of the vocabulary, in batches such as
+ * the counts of a document.
+ */
+public class SpaceSavingVocabulary {
+
+    private final int capacity;
+
+    /**
+     * The id of each tracked term.
+     */
+    private final ConcurrentMap<String, Integer> ids;
+
+    /**
+     * The position of each tracked term in the heap.
+     */
+    private final Map<String, Integer> positions;
+
+    /**
+     * The tracked terms, as a min-heap on their counts.
+     */
+    private final String[] heapTerms;
+
+    private final long[] heapCounts;
+
+    private final long[] heapErrors;
+
+    private int size;
+
+    /**
+     * The number of times an id was given to a term in place of another one.
+     */
+    private volatile long epoch;
+
+    /**
+     * The epoch at which each id was last given to a term in place of another
+     * one, or zero if it never was.
+     */
+    private final AtomicLongArray idEpochs;
+
+    /**
+     * Creates an empty vocabulary.
+     *
+     * @param capacity the number of terms to track
+     */
+    public SpaceSavingVocabulary(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException(
+                "The capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        ids = new ConcurrentHashMap<String, Integer>();
+        positions = new HashMap<String, Integer>();
+        heapTerms = new String[capacity];
+        heapCounts = new long[capacity];
+        heapErrors = new long[capacity];
+        size = 0;
+        epoch = 0;
+        idEpochs = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Returns the number of terms which may be tracked.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the id of the term, or {@code -1} if the term is not tracked.
+     */
+    public int indexOf(String term) {
+        Integer id = ids.get(term);
+        return (id == null) ? -1 : id.intValue();
+    }
+
+    /**
+     * Returns the number of times an id was given to a term in place of
+     * another one.  An id looked up after this was called was given to its
+     * term at this epoch or earlier.
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the epoch at which the id was last given to a term in place of
+     * another one, or zero if it never was.
+     */
+    public long epochOf(int id) {
+        return idEpochs.get(id);
+    }
+
+    /**
+     * Returns the number of tracked terms.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds the counts of the terms, tracking the terms which are not tracked
+     * yet in place of the tracked terms with the lowest counts.  A term which
+     * is tracked in place of another one takes its id, and advances the epoch.
+     *
+     * @return the terms which stopped being tracked, which may include terms
+     *         of {@code counts} which replaced each other
+     */
+    public synchronized List<String> add(Map<String, Integer> counts) {
+        List<String> replaced = new ArrayList<String>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            String term = e.getKey();
+            long count = e.getValue().intValue();
+            Integer position = positions.get(term);
+            if (position != null) {
+                heapCounts[position] += count;
+                siftDown(position);
+                continue;
+            }
+            int slot;
+            int id;
+            long error = 0;
+            boolean reused = (size == capacity);
+            if (!reused) {
+                slot = size;
+                id = size++;
+            }
+            else {
+                // Replace the term with the lowest count, which is the root
+                slot = 0;
+                String old = heapTerms[0];
+                positions.remove(old);
+                id = ids.remove(old);
+                replaced.add(old);
+                error = heapCounts[0];
+            }
+            heapTerms[slot] = term;
+            heapCounts[slot] = error + count;
+            heapErrors[slot] = error;
+            positions.put(term, slot);
+            ids.put(term, id);
+            if (reused) {
+                // The epoch is advanced once the id is given, so that the ids
+                // looked up after reading the epoch are not older than it
+                idEpochs.set(id, epoch + 1);
+                epoch = epoch + 1;
+            }
+            if (error > 0)
+                siftDown(slot);
+            else
+                siftUp(slot);
+        }
+        return replaced;
+    }
+
+    /**
+     * Returns the estimated count of the term, which is at least its true
+     * count, or {@code 0} if the term is not tracked.
+     */
+    public synchronized long count(String term) {
+        Integer position = positions.get(term);
+        return (position == null) ? 0 : heapCounts[position];
+    }
+
+    /**
+     * Returns the most by which the estimated count of the term may exceed
+     * its true count, or {@code 0} if the term is not tracked.
+     */
+    public synchronized long error(String term) {
+        Integer position = positions.get(term);
+        return (position == null) ? 0 : heapErrors[position];
+    }
+
+    /**
+     * Returns the tracked terms by decreasing estimated count.  Terms with the
+     * same count are in decreasing order.
+     */
+    public synchronized List<String> termsByCount() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                long c1 = heapCounts[o1];
+                long c2 = heapCounts[o2];
+                if (c1 != c2)
+                    return (c2 < c1) ? -1 : 1;
+                return heapTerms[o2].compareTo(heapTerms[o1]);
+            }
+        });
+        List<String> terms = new ArrayList<String>(size);
+        for (Integer i : order)
+            terms.add(heapTerms[i]);
+        return terms;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapCounts[parent] <= heapCounts[i])
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && heapCounts[left] < heapCounts[smallest])
+                smallest = left;
+            if (right < size && heapCounts[right] < heapCounts[smallest])
+                smallest = right;
+            if (smallest == i)
+                break;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String term = heapTerms[i];
+        heapTerms[i] = heapTerms[j];
+        heapTerms[j] = term;
+        long count = heapCounts[i];
+        heapCounts[i] = heapCounts[j];
+        heapCounts[j] = count;
+        long error = heapErrors[i];
+        heapErrors[i] = heapErrors[j];
+        heapErrors[j] = error;
+        positions.put(heapTerms[i], i);
+        positions.put(heapTerms[j], j);
+    }
+}
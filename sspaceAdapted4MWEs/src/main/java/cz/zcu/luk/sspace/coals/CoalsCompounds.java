@@ -23,9 +23,7 @@ package cz.zcu.luk.sspace.coals;
 
 
 import edu.ucla.sspace.common.SemanticSpace;
-import edu.ucla.sspace.matrix.CellMaskedSparseMatrix;
 import edu.ucla.sspace.matrix.CorrelationTransform;
-import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.MatrixFactorization;
 import edu.ucla.sspace.matrix.MatrixFile;
@@ -47,7 +45,13 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import cz.zcu.luk.sspace.common.SemanticSpacePartial;
+import cz.zcu.luk.sspace.common.SemanticSpaceTwoPass;
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
+import cz.zcu.luk.sspace.basis.SpaceSavingVocabulary;
 import cz.zcu.luk.sspace.matrix.*;
+import cz.zcu.luk.sspace.text.CompoundMatcher;
+import cz.zcu.luk.sspace.text.SlidingWindow;
 
 
 /**
@@ -71,11 +75,69 @@ import cz.zcu.luk.sspace.matrix.*;
  * this transform, all negative correlations are dropped and replaced with a 0.
  * Finally, and optionally, the {@link SVD} is used to reduce the semantic
  * space.  To set the number of retained dimensions via {@link SVD}, set the
- * {@value REDUCE_DIMENSION_PROPERTY} property.
+ * {@value REDUCE_DIMENSION_PROPERTY} property.<p>
+ *
+ * If the {@value CooccurrenceMatrices#MATRIX_TYPE_PROPERTY} system property is
+ * set, the co-occurrence counts of words and compounds are accumulated in
+ * {@link CooccurrenceMatrix} instances of that type instead of in per-word
+ * vectors.  With the {@code mapped} type, the counts are kept off the heap and
+ * only the rows retained by {@link #processSpace(Properties)} are ever loaded
+ * into memory.<p>
+ *
+ * If the {@value #SPILL_DIRECTORY_PROPERTY} system property is set, the
+ * counts are instead buffered per thread and spilled as sorted runs into that
+ * directory, with at most {@value #SPILL_BUFFER_SIZE_PROPERTY} distinct cells
+ * buffered by each thread.  The runs are merged by {@link
+ * #processSpace(Properties)}; when the space is reduced, the merged counts are
+ * written straight into the file passed to the reducer and the co-occurrence
+ * matrix is never held in memory.<p>
+ *
+ * A corpus may be processed in shards by separate JVMs: each shard calls
+ * {@link #writePartial(File) writePartial} instead of {@code processSpace},
+ * the partial files are merged with {@link PartialCooccurrences#merge(File,
+ * List)} and the merged file is loaded with {@link #readPartial(File)
+ * readPartial} before {@code processSpace} is called.  The partial files hold
+ * the word and compound co-occurrences and the word frequencies.  They cannot
+ * be written from spilled counts.<p>
+ *
+ * If the {@value #TWO_PASS_PROPERTY} system property is {@code true}, the
+ * corpus is read twice, as described by {@link SemanticSpaceTwoPass}.  The
+ * first pass only counts the word frequencies, from which the {@code N}
+ * retained words and the {@code M} retained features are fixed, and the second
+ * pass counts only the co-occurrences of those words with those features, in
+ * a {@link BoundedCooccurrenceCounts} of at most {@code N} by {@code M} cells.
+ * The counts of all the other words, which are dropped by {@link
+ * #processSpace(Properties)} anyway, are never accumulated.  This mode takes
+ * precedence over the spilled and the matrix-backed counts, and it cannot be
+ * combined with partial files.<p>
+ *
+ * If the {@value #TRACKED_WORDS_PROPERTY} system property is set, the exact
+ * frequencies of all the words are not kept.  Instead, a {@link
+ * SpaceSavingVocabulary} tracks the estimated frequencies of at most that many
+ * candidate words, which should be several times {@code N}, such as {@code
+ * 4N}, and only the candidates have an index.  The co-occurrences of a word
+ * are counted only while it is a candidate.  A word that stops being a
+ * candidate gives its index to the word which replaces it, and its counts are
+ * dropped, both as a row and as a column, so the memory does not grow with the
+ * number of distinct words.  The counts of a column record the epoch of the
+ * candidates at which they were taken, so that those taken before the index
+ * was given to another word are dropped when the column is counted again, or
+ * when the space is processed, without traversing the semantics at each
+ * replacement.  The retained words and features are chosen from
+ * the candidates by their estimated frequencies, which exceed the true ones
+ * by at most the number of words of the corpus divided by the number of
+ * candidates.  Combined with reading the corpus twice, the candidates are only
+ * tracked in the first pass and the counts of the retained words are exact.
+ * Otherwise, the frequencies of the words of a document are tracked as its
+ * co-occurrences are counted, and the counts of a word start with the
+ * document after the one where it last became a candidate, so they may be
+ * lower than its true counts.  The candidates cannot be tracked with the
+ * spilled or the matrix-backed counts, nor with partial files.
  *
  * @author Keith Stevens
  */
-public class CoalsCompounds implements SemanticSpace {
+public class CoalsCompounds
+        implements SemanticSpace, SemanticSpacePartial, SemanticSpaceTwoPass {
 
     /**
      * The property prefix for other settings.
@@ -115,6 +177,40 @@ public class CoalsCompounds implements SemanticSpace {
     public static final String DO_NOT_NORMALIZE_PROPERTY =
         PROPERTY_PREFIX + ".doNotNormalize";
 
+    /**
+     * Specifies the directory into which the co-occurrence counts are spilled.
+     */
+    public static final String SPILL_DIRECTORY_PROPERTY =
+        PROPERTY_PREFIX + ".spillDirectory";
+
+    /**
+     * Specifies the number of distinct co-occurrences each thread buffers
+     * before spilling them.
+     */
+    public static final String SPILL_BUFFER_SIZE_PROPERTY =
+        PROPERTY_PREFIX + ".spillBufferSize";
+
+    /**
+     * Specifies whether the corpus is read twice, first to count the word
+     * frequencies and then to count only the retained co-occurrences.
+     */
+    public static final String TWO_PASS_PROPERTY =
+        PROPERTY_PREFIX + ".twoPass";
+
+    /**
+     * Specifies the number of candidate words whose frequencies are tracked,
+     * if the exact frequencies of all words are not kept.
+     */
+    public static final String TRACKED_WORDS_PROPERTY =
+        PROPERTY_PREFIX + ".trackedWords";
+
+    /**
+     * The names of the sections of a partial file.
+     */
+    private static final String PARTIAL_WORDS = "words";
+    private static final String PARTIAL_COMPOUNDS = "compounds";
+    private static final String PARTIAL_FREQUENCIES = "frequencies";
+
     /**
      * The default number of dimensions to reduce to.
      */
@@ -148,7 +244,57 @@ public class CoalsCompounds implements SemanticSpace {
     private Map<String, SparseDoubleVector> wordToSemantics;
 
     /**
-     * A mapping from word to index number.
+     * The co-occurrence counts of each word, indexed by the word's index, if
+     * the counts are kept in a matrix rather than in {@code wordToSemantics}.
+     */
+    private CooccurrenceMatrix wordCooccurrences;
+
+    /**
+     * The co-occurrence counts of each compound, indexed by the compound's
+     * index, if the counts are kept in a matrix rather than in {@code
+     * compoundToSemantics}.
+     */
+    private CooccurrenceMatrix compoundCooccurrences;
+
+    /**
+     * The spilled co-occurrence counts of each word, if the counts are spilled
+     * to disk.
+     */
+    private SpilledCooccurrenceCounts wordCounts;
+
+    /**
+     * The spilled co-occurrence counts of each compound, if the counts are
+     * spilled to disk.
+     */
+    private SpilledCooccurrenceCounts compoundCounts;
+
+    /**
+     * Whether the corpus is read twice.
+     */
+    private final boolean twoPass;
+
+    /**
+     * The co-occurrence counts of the retained words with the retained
+     * features, indexed by the frequency rank of both, if the corpus is read
+     * twice.  They are created when the first pass ends.
+     */
+    private BoundedCooccurrenceCounts retainedWordCounts;
+
+    /**
+     * The co-occurrence counts of each compound with the retained features, if
+     * the corpus is read twice.
+     */
+    private BoundedCooccurrenceCounts retainedCompoundCounts;
+
+    /**
+     * The index of each word in the co-occurrence counts, which is assigned
+     * by the threads that process the documents.
+     */
+    private final ConcurrentVocabulary wordToIndex;
+
+    /**
+     * A mapping from word to index number in the final matrix, or {@code
+     * null} until the space is processed.
      */
     private Map<String, Integer> termToIndex;
 
@@ -156,17 +302,12 @@ public class CoalsCompounds implements SemanticSpace {
      * LK added..
      * A mapping from compound to index number.
      */
-    private Map<String, Integer> compoundToIndex;
+    private final ConcurrentVocabulary compoundToIndex;
     /**
      * LK added..
      * A mapping from each compound to the vector the represents its semantics
      */
     private Map<String, SparseDoubleVector> compoundToSemantics;
-    /**
-     * LK added..
-     * A counter for keeping track of the index values of compounds.
-     */
-    private int compoundIndexCounter;
     /**
      * LK added..
      * The final reduced matrix for compounds
@@ -174,10 +315,19 @@ public class CoalsCompounds implements SemanticSpace {
     private Matrix finalCorrelationCompounds;
 
     /**
-     * A map containg the total frequency counts of each word.
+     * A map containg the total frequency counts of each word, or {@code null}
+     * if only the frequencies of the candidate words are tracked.
      */
     private ConcurrentMap<String, AtomicInteger> totalWordFreq;
 
+    /**
+     * The candidate words and their estimated frequencies, or {@code null} if
+     * the exact frequencies of all words are kept.  In that case, the indices
+     * of the words are those of the candidates rather than of {@link
+     * #wordToIndex}, until the first pass over the corpus ends.
+     */
+    private SpaceSavingVocabulary wordTracker;
+
     /**
      * The final reduced matrix.
      */
@@ -200,11 +350,6 @@ public class CoalsCompounds implements SemanticSpace {
      */
     private final int maxDimensions;
 
-    /**
-     * A counter for keeping track of the index values of words.
-     */
-    private int wordIndexCounter;
-
     /**
      * The {@link edu.ucla.sspace.matrix.MatrixFactorization} algorithm that will decompose the word by
      * document feature space into two smaller feature spaces: a word by class
@@ -221,6 +366,32 @@ public class CoalsCompounds implements SemanticSpace {
     // LK added
     private Set<String> compounds;
 
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
+    /**
+     * The weights of the words around the focus word: 4 for the adjacent words
+     * down to 1 for the words four positions away.
+     */
+    private static final double[] WINDOW_WEIGHTS =
+        new double[] { 1, 2, 3, 4, 0, 4, 3, 2, 1 };
+
+    /**
+     * Maps the tokens of a document to their indices in {@link #wordToIndex},
+     * leaving out the tokens rejected by the filter.
+     */
+    private final SlidingWindow.Indexer termIndexer =
+        new SlidingWindow.Indexer() {
+            public int index(String token) {
+                return token.equals(IteratorFactory.EMPTY_TOKEN)
+                    ? -1
+                    : getIndexFor(token);
+            }
+        };
+
     public CoalsCompounds(TransformExtended transform, MatrixFactorization reducer) {
         this(transform, reducer, DEFAULT_REDUCE_DIMENSIONS,
              DEFAULT_MAX_WORDS, DEFAULT_MAX_DIMENSIONS);
@@ -241,11 +412,44 @@ public class CoalsCompounds implements SemanticSpace {
     public CoalsCompounds(TransformExtended transform, MatrixFactorization reducer,
                           int reducedDimensions, int maxWords, int maxDimensions, Set<String> compounds) {
         // LK changed
-        termToIndex = new HashMap<String, Integer>();
-        compoundToIndex = new HashMap<String, Integer>(); // LK added
-        totalWordFreq = new ConcurrentHashMap<String, AtomicInteger>();
+        wordToIndex = new ConcurrentVocabulary();
+        termToIndex = null;
+        compoundToIndex = new ConcurrentVocabulary(); // LK added
+        String trackedWords = System.getProperty(TRACKED_WORDS_PROPERTY);
+        wordTracker = (trackedWords != null)
+            ? new SpaceSavingVocabulary(Integer.parseInt(trackedWords))
+            : null;
+        totalWordFreq = (wordTracker == null)
+            ? new ConcurrentHashMap<String, AtomicInteger>()
+            : null;
         wordToSemantics = new HashMap<String, SparseDoubleVector>(1024, 4f);
         compoundToSemantics = new HashMap<String, SparseDoubleVector>(1024, 4f); // LK added
+        twoPass = Boolean.parseBoolean(System.getProperty(TWO_PASS_PROPERTY));
+        String spillDirectory = System.getProperty(SPILL_DIRECTORY_PROPERTY);
+        if (twoPass) {
+            // The counts are created once the first pass has fixed the
+            // retained words and features
+        }
+        else if (spillDirectory != null) {
+            int bufferSize = Integer.parseInt(System.getProperty(
+                SPILL_BUFFER_SIZE_PROPERTY,
+                String.valueOf(SpilledCooccurrenceCounts.DEFAULT_BUFFER_SIZE)));
+            wordCounts = new SpilledCooccurrenceCounts(
+                new File(spillDirectory), bufferSize);
+            compoundCounts = new SpilledCooccurrenceCounts(
+                new File(spillDirectory), bufferSize);
+        }
+        else if (CooccurrenceMatrices.isConfigured(System.getProperties())) {
+            wordCooccurrences =
+                CooccurrenceMatrices.create(System.getProperties());
+            compoundCooccurrences =
+                CooccurrenceMatrices.create(System.getProperties());
+        }
+        if (wordTracker != null
+                && (wordCounts != null || wordCooccurrences != null))
+            throw new IllegalArgumentException(
+                "The candidate words cannot be tracked with spilled or " +
+                "matrix-backed counts");
         finalCorrelation = null;
         this.transform = transform;
         this.reducer = reducer;
@@ -259,6 +463,9 @@ public class CoalsCompounds implements SemanticSpace {
                 ? DEFAULT_MAX_DIMENSIONS
                 : maxDimensions;
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
     }
 //
 //    /**
@@ -274,7 +481,9 @@ public class CoalsCompounds implements SemanticSpace {
      */
     public Set<String> getWords() {
         Set<String> wordsAndCompounds = new LinkedHashSet<String>();
-        wordsAndCompounds.addAll(termToIndex.keySet());
+        wordsAndCompounds.addAll((termToIndex != null)
+                                 ? termToIndex.keySet()
+                                 : wordToIndex.keySet());
         if (compounds != null) {
             wordsAndCompounds.addAll(compoundToIndex.keySet());
         }
@@ -297,19 +506,19 @@ public class CoalsCompounds implements SemanticSpace {
      * {@inheritDoc}
      */
     public Vector getVector(String term) {
+        if (termToIndex == null)
+            return null;
         Integer index = termToIndex.get(term);
         if (index != null) {
-            return Vectors.immutable(
-                    finalCorrelation.getRowVector(index.intValue()));
+            return rowVector(finalCorrelation, index.intValue());
         }
         if (compounds != null) {
-            index = compoundToIndex.get(term);
-            if (index == null) {
+            index = compoundToIndex.indexOf(term);
+            if (index < 0) {
                 return null;
             }
             else {
-                return Vectors.immutable(
-                    finalCorrelationCompounds.getRowVector(index.intValue()));
+                return rowVector(finalCorrelationCompounds, index.intValue());
             }
         }
         else {
@@ -332,57 +541,73 @@ public class CoalsCompounds implements SemanticSpace {
     }
 
 
-    /*
-     * LK added
-     */
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
-    }
 
     /**
      * {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
+        if (twoPass && retainedWordCounts == null)
+            throw new IllegalStateException(
+                "The frequency pass has not ended");
         Map<String, Integer> wordFreq = new HashMap<String, Integer>();
+        // The epoch is read before any index of the document is looked up
+        long epoch = (wordTracker != null) ? wordTracker.epoch() : 0;
+        countDocument(document, wordFreq, epoch);
+
+        // Store the total frequency counts of the words seen in this document
+        // so far.
+        if (!wordFreq.isEmpty())
+            addFrequencies(wordFreq);
+    }
+
+    /**
+     * Adds the co-occurrences of the document to the semantics of its words
+     * and compounds, and the frequencies of its words to {@code wordFreq}.
+     *
+     * @param epoch the epoch of the candidate words when the document started
+     *        to be counted, if only the candidate words are tracked
+     */
+    private void countDocument(BufferedReader document,
+                               Map<String, Integer> wordFreq,
+                               long epoch)
+            throws IOException {
         Map<String, SparseDoubleVector> wordDocSemantics =
             new HashMap<String, SparseDoubleVector>();
         Map<String, SparseDoubleVector> compoundDocSemantics =
                 new HashMap<String, SparseDoubleVector>();
 
-        // LK added
-        String removed = "";
-        String removedOld = "";
-
-        // Setup queues to track the set of previous and next words in a
-        // context.
-        Queue<String> prevWords = new ArrayDeque<String>();
-        Queue<String> nextWords = new ArrayDeque<String>();
-
-        Iterator<String> it = IteratorFactory.tokenizeOrdered(document);
-
-        for (int i = 0; i < 4 && it.hasNext(); ++i)
-            nextWords.offer(it.next());
+        // Slide a window of four words on each side over the document.  The two
+        // words which have left the window are kept for the contexts of the
+        // compounds that end at the focus word.
+        SlidingWindow window = new SlidingWindow(
+            4, 4, 2, WINDOW_WEIGHTS, termIndexer, compoundMatcher);
+        window.reset(IteratorFactory.tokenizeOrdered(document));
+        SemanticsCounter counter = new SemanticsCounter();
+        int[] compoundContext = new int[6];
 
         // Compute the co-occurrance statistics of each focus word in the
         // document.
-        while (!nextWords.isEmpty()) {
-
-            // Slide over the context by one word.
-            if (it.hasNext())
-                nextWords.offer(it.next());
+        while (window.next()) {
 
             // Get the focus word
-            String focusWord = nextWords.remove();
-            if (!focusWord.equals(IteratorFactory.EMPTY_TOKEN)) {
-                getIndexFor(focusWord);
-
-                // Update the frequency count of the focus word.
+            String focusWord = window.token(0);
+            int focusIndex = window.id(0);
+            // The words which are only retained as features have no row
+            if (twoPass && focusIndex >= retainedWordCounts.rows())
+                focusIndex = -1;
+
+            // Update the frequency count of the focus word, unless it is
+            // already known.  The words which are not candidates are counted
+            // too, since they may replace a candidate.
+            if (!twoPass && (focusIndex >= 0 || (wordTracker != null
+                    && !focusWord.equals(IteratorFactory.EMPTY_TOKEN)))) {
                 Integer focusFreq = wordFreq.get(focusWord);
                 wordFreq.put(focusWord, (focusFreq == null)
                         ? 1
                         : 1 + focusFreq.intValue());
+            }
 
+            if (focusIndex >= 0) {
 
                 // Get the temprorary semantics for the focus word, create a new
                 // vector for them if needed.
@@ -394,59 +619,29 @@ public class CoalsCompounds implements SemanticSpace {
                     wordDocSemantics.put(focusWord, focusSemantics);
                 }
 
-                // Process the previous words.
-                int offset = 4 - prevWords.size();
-                for (String word : prevWords) {
-                    offset++;
-                    if (word.equals(IteratorFactory.EMPTY_TOKEN))
-                        continue;
-                    int index = getIndexFor(word);
-                    focusSemantics.add(index, offset);
-                }
-
-                // Process the next words.
-                offset = 5;
-                for (String word : nextWords) {
-                    offset--;
-                    if (word.equals(IteratorFactory.EMPTY_TOKEN))
-                        continue;
-                    int index = getIndexFor(word);
-                    focusSemantics.add(index, offset);
-                }
+                // Process the previous and the next words.
+                counter.semantics = focusSemantics;
+                window.visit(focusIndex, -4, 4, counter);
             }
 
             // LK added
-            if (compounds != null) {
-                String[] prevWordsArr = prevWords.toArray(new String[0]);
-                String prevPrevWord = null;
-                String prevWord = null;
-                if (prevWordsArr.length > 2) {
-                    prevPrevWord = prevWordsArr[prevWordsArr.length - 2];
-                }
-                if (prevWordsArr.length > 1) {
-                    prevWord = prevWordsArr[prevWordsArr.length - 1];
-                }
-                String possibleCompoundTrigram = prevPrevWord + " " + prevWord + " " + focusWord;
-                String possibleCompoundBigram = prevWord + " " + focusWord;
-                String compound = null;
+            if (compoundMatcher != null) {
+                int before = window.before();
+                int match = CompoundMatcher.NONE;
                 int compoundSize = 0;
-                if (isCompound(possibleCompoundTrigram)) {
-                    compound = mapTrigramCompound(possibleCompoundTrigram);
+                if (before > 2)
+                    match = window.trigram(0);
+                if (match != CompoundMatcher.NONE)
                     compoundSize = 3;
-                }
-                else if (isCompound(possibleCompoundBigram)) {
-                    compound = possibleCompoundBigram;
+                else if (before > 1) {
+                    match = window.bigram(0);
                     compoundSize = 2;
                 }
+                String compound = (match != CompoundMatcher.NONE)
+                    ? compoundMatcher.compound(match)
+                    : null;
                 if (compound != null) {
-                    getIndexForCompound(compound);
-
-//                    // Update the frequency count of the focus word.
-//                    Integer focusFreq = wordFreq.get(compound);
-//                    wordFreq.put(compound, (focusFreq == null)
-//                            ? 1
-//                            : 1 + focusFreq.intValue());
-
+                    int compoundIndex = getIndexForCompound(compound);
 
                     // Get the temprorary semantics for the focus word, create a new
                     // vector for them if needed.
@@ -459,89 +654,473 @@ public class CoalsCompounds implements SemanticSpace {
                     }
 
                     // Process the previous words.
-                    int offset = 4 - prevWords.size();
-                    ArrayList<String> prevWordsList = new ArrayList<String>();
-                    if (compoundSize == 3) {
-                        if (!removedOld.equals("")) prevWordsList.add(removedOld);
-                        // if removed is "" and removedOld is not empty.. than add..
-                        if (!removedOld.equals("") || !removed.equals("")) prevWordsList.add(removed);
-                        for (int i = 0; i < prevWordsArr.length-2; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-                    else if (compoundSize == 2) {
-                        if (!removed.equals("")) prevWordsList.add(removed);
-                        for (int i = 0; i < prevWordsArr.length-1; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-
-                    for (String word : prevWordsList) {
+                    int contexts = compoundContext(
+                        window, compoundSize, compoundContext);
+                    int offset = 4 - before;
+                    for (int i = 0; i < contexts; ++i) {
                         offset++;
-                        if (word.equals(IteratorFactory.EMPTY_TOKEN))
-                            continue;
-                        int index = getIndexFor(word);
-                        focusSemanticsCompound.add(index, offset);
+                        int index = window.id(compoundContext[i]);
+                        if (index >= 0)
+                            focusSemanticsCompound.add(index, offset);
                     }
 
                     // Process the next words.
-                    offset = 5;
-                    for (String word : nextWords) {
-                        offset--;
-                        if (word.equals(IteratorFactory.EMPTY_TOKEN))
-                            continue;
-                        int index = getIndexFor(word);
-                        focusSemanticsCompound.add(index, offset);
-                    }
+                    counter.semantics = focusSemanticsCompound;
+                    window.visit(compoundIndex, 1, 4, counter);
                 }
             }
-
-            prevWords.offer(focusWord);
-            if (prevWords.size() > 4) {
-                removedOld = removed;
-                removed = prevWords.remove();
-            }
         }
 
         // Add the temporary vectors for each word in this document to the
         // actual semantic vectors.
         for (Map.Entry<String, SparseDoubleVector> e :
-                wordDocSemantics.entrySet()) {
-            SparseDoubleVector focusSemantics = getSemanticVector(
-                    e.getKey());
-            // Get the non zero indices before hand so that they are cached
-            // during the synchronized section.
-            focusSemantics.getNonZeroIndices();
-            synchronized (focusSemantics) {
-                VectorMath.add(focusSemantics, e.getValue());
-            }
-        }
+                wordDocSemantics.entrySet())
+            addWordCounts(e.getKey(), e.getValue(), epoch);
 
         // LK added .. add the temporary vectors for each compound in this document to the
         // actual semantic vectors.
         for (Map.Entry<String, SparseDoubleVector> e :
-                compoundDocSemantics.entrySet()) {
-            SparseDoubleVector focusSemanticsCompound = getSemanticVectorCompound(
-                    e.getKey());
-            // Get the non zero indices before hand so that they are cached
-            // during the synchronized section.
-            focusSemanticsCompound.getNonZeroIndices();
-            synchronized (focusSemanticsCompound) {
-                VectorMath.add(focusSemanticsCompound, e.getValue());
+                compoundDocSemantics.entrySet())
+            addCompoundCounts(e.getKey(), e.getValue(), epoch);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isTwoPass() {
+        return twoPass;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void processFrequencies(BufferedReader document)
+            throws IOException {
+        if (!twoPass)
+            throw new IllegalStateException(
+                "The corpus is not read twice");
+        if (retainedWordCounts != null)
+            throw new IllegalStateException(
+                "The frequency pass has already ended");
+        addFrequencies(countWords(IteratorFactory.tokenizeOrdered(document)));
+    }
+
+    /**
+     * Returns the frequency of each word of a document, leaving out the
+     * tokens rejected by the filter.
+     */
+    private static Map<String, Integer> countWords(Iterator<String> tokens) {
+        Map<String, Integer> wordFreq = new HashMap<String, Integer>();
+        while (tokens.hasNext()) {
+            String word = tokens.next();
+            if (word.equals(IteratorFactory.EMPTY_TOKEN))
+                continue;
+            Integer freq = wordFreq.get(word);
+            wordFreq.put(word, (freq == null) ? 1 : 1 + freq.intValue());
+        }
+        return wordFreq;
+    }
+
+    /**
+     * {@inheritDoc}  The words are indexed by their frequency rank, in the
+     * same order as {@link #processSpace(Properties)} sorts them, and only the
+     * words retained as rows or as features are indexed.
+     */
+    public void endFrequencyPass() {
+        if (!twoPass)
+            throw new IllegalStateException(
+                "The corpus is not read twice");
+        if (retainedWordCounts != null)
+            throw new IllegalStateException(
+                "The frequency pass has already ended");
+        List<String> wordCountList = wordsByFrequency();
+        // From now on, the words are indexed by the vocabulary
+        wordTracker = null;
+        totalWordFreq = null;
+        int rows = Math.min(maxWords, wordCountList.size());
+        int columns = Math.min(maxDimensions, wordCountList.size());
+        int indexed = Math.max(rows, columns);
+        for (int i = 0; i < indexed; ++i)
+            getIndexFor(wordCountList.get(i));
+        wordToIndex.setReadOnly(true);
+        COALS_LOGGER.info("Retaining " + rows + " words and " + columns +
+                          " features of " + wordCountList.size() + " words.");
+        retainedWordCounts = new BoundedCooccurrenceCounts(rows, columns);
+        if (compounds != null)
+            retainedCompoundCounts = new BoundedCooccurrenceCounts(
+                compoundMatcher.size(), columns);
+    }
+
+    /**
+     * LK added.. stores the offsets of the words before the compound of {@code
+     * compoundSize} words that ends at the focus word of {@code window} in
+     * {@code offsets} and returns their number.  The words before the
+     * compound which have already left the window are included as well, but
+     * only if they, or the word that left before them, are not empty.
+     */
+    private static int compoundContext(SlidingWindow window,
+                                       int compoundSize,
+                                       int[] offsets) {
+        int before = window.before();
+        String removed = window.token(-before - 1, "");
+        String removedOld = window.token(-before - 2, "");
+        int count = 0;
+        if (compoundSize == 3) {
+            if (!removedOld.equals(""))
+                offsets[count++] = -before - 2;
+            // if removed is "" and removedOld is not empty.. than add..
+            if (!removedOld.equals("") || !removed.equals(""))
+                offsets[count++] = -before - 1;
+        }
+        else if (!removed.equals(""))
+            offsets[count++] = -before - 1;
+        for (int offset = -before; offset <= -compoundSize; ++offset)
+            offsets[count++] = offset;
+        return count;
+    }
+
+    /**
+     * Adds the weighted contexts of a {@link SlidingWindow} to the semantics
+     * of the focus word or compound.
+     */
+    private static class SemanticsCounter
+            implements SlidingWindow.PairVisitor {
+
+        SparseDoubleVector semantics;
+
+        public void pair(int focus, int context, int distance, double weight) {
+            semantics.add(context, weight);
+        }
+    }
+
+    /**
+     * Adds co-occurrence counts to the semantics of the word.
+     *
+     * @param epoch the epoch of the candidate words when the counts started
+     *        to be taken, if only the candidate words are tracked
+     */
+    private void addWordCounts(String word, SparseDoubleVector counts,
+                               long epoch) {
+        if (retainedWordCounts != null) {
+            retainedWordCounts.add(getIndexFor(word), counts);
+            return;
+        }
+        if (wordCounts != null) {
+            addToCounts(wordCounts, getIndexFor(word), counts);
+            return;
+        }
+        if (wordCooccurrences != null) {
+            addToMatrix(wordCooccurrences, getIndexFor(word), counts);
+            return;
+        }
+        // The word stopped being a candidate after its counts were started
+        if (wordTracker != null) {
+            int index = wordTracker.indexOf(word);
+            if (index < 0 || wordTracker.epochOf(index) > epoch)
+                return;
+        }
+        SparseDoubleVector focusSemantics = getSemanticVector(word);
+        if (focusSemantics == null)
+            return;
+        // Get the non zero indices before hand so that they are cached
+        // during the synchronized section.
+        focusSemantics.getNonZeroIndices();
+        synchronized (focusSemantics) {
+            addSemantics(focusSemantics, counts, epoch);
+        }
+    }
+
+    /**
+     * LK added.. adds co-occurrence counts to the semantics of the compound.
+     */
+    private void addCompoundCounts(String compound,
+                                   SparseDoubleVector counts,
+                                   long epoch) {
+        if (retainedCompoundCounts != null) {
+            retainedCompoundCounts.add(getIndexForCompound(compound), counts);
+            return;
+        }
+        if (compoundCounts != null) {
+            addToCounts(compoundCounts, getIndexForCompound(compound), counts);
+            return;
+        }
+        if (compoundCooccurrences != null) {
+            addToMatrix(compoundCooccurrences, getIndexForCompound(compound),
+                        counts);
+            return;
+        }
+        SparseDoubleVector focusSemanticsCompound =
+            getSemanticVectorCompound(compound);
+        // Get the non zero indices before hand so that they are cached
+        // during the synchronized section.
+        focusSemanticsCompound.getNonZeroIndices();
+        synchronized (focusSemanticsCompound) {
+            addSemantics(focusSemanticsCompound, counts, epoch);
+        }
+    }
+
+    /**
+     * Adds the counts to the semantics, which must be locked.  If only the
+     * candidate words are tracked, the counts of the columns which were given
+     * to another word since the counts started to be taken are left out,
+     * since they may belong to either word, and the counts the semantics kept
+     * for a column before it was given to another word are dropped.
+     */
+    private void addSemantics(SparseDoubleVector semantics,
+                              SparseDoubleVector counts,
+                              long epoch) {
+        if (!(semantics instanceof CandidateSemantics)) {
+            VectorMath.add(semantics, counts);
+            return;
+        }
+        SparseDoubleVector epochs = ((CandidateSemantics) semantics).epochs;
+        for (int column : counts.getNonZeroIndices()) {
+            long given = wordTracker.epochOf(column);
+            if (given > epoch)
+                continue;
+            if (epochs.get(column) < given)
+                semantics.set(column, 0);
+            semantics.add(column, counts.get(column));
+            epochs.set(column, epoch);
+        }
+    }
+
+    /**
+     * Drops the counts that the semantics kept for the columns which were
+     * given to another word since the counts were taken.
+     */
+    private void dropStaleCounts(Collection<SparseDoubleVector> semantics) {
+        for (SparseDoubleVector v : semantics) {
+            SparseDoubleVector epochs = ((CandidateSemantics) v).epochs;
+            for (int column : v.getNonZeroIndices())
+                if (epochs.get(column) < wordTracker.epochOf(column))
+                    v.set(column, 0);
+        }
+    }
+
+    /**
+     * The semantics of a word or compound while only the candidate words are
+     * tracked, with the epoch of the candidates at which each of its columns
+     * was last counted.
+     */
+    private static class CandidateSemantics extends CompactSparseVector {
+
+        private static final long serialVersionUID = 1L;
+
+        final SparseDoubleVector epochs = new CompactSparseVector();
+    }
+
+    /**
+     * Adds the frequency counts of the words of a document.  If only the
+     * candidate words are tracked, the semantics of the words which stop
+     * being candidates are dropped.
+     */
+    private void addFrequencies(Map<String, Integer> wordFreq) {
+        if (wordTracker == null) {
+            for (Map.Entry<String, Integer> entry : wordFreq.entrySet())
+                addFrequency(entry.getKey(), entry.getValue().intValue());
+            return;
+        }
+        List<String> replaced = wordTracker.add(wordFreq);
+        if (!replaced.isEmpty()) {
+            synchronized (this) {
+                for (String word : replaced)
+                    wordToSemantics.remove(word);
             }
         }
+    }
 
-        // Store the total frequency counts of the words seen in this document
-        // so far.
-        for (Map.Entry<String, Integer> entry : wordFreq.entrySet()) {
-            int count = entry.getValue().intValue();
-            AtomicInteger freq = totalWordFreq.putIfAbsent(
-                    entry.getKey(), new AtomicInteger(count));
-            if (freq != null)
-                freq.addAndGet(count);
+    /**
+     * Returns the words, by decreasing frequency.
+     */
+    private List<String> wordsByFrequency() {
+        if (wordTracker != null)
+            return wordTracker.termsByCount();
+        ArrayList<Map.Entry<String, AtomicInteger>> wordCountList =
+            new ArrayList<Map.Entry<String, AtomicInteger>>(
+                    totalWordFreq.entrySet());
+        Collections.sort(wordCountList, new EntryComp());
+        List<String> words = new ArrayList<String>(wordCountList.size());
+        for (Map.Entry<String, AtomicInteger> entry : wordCountList)
+            words.add(entry.getKey());
+        return words;
+    }
+
+    /**
+     * Adds to the total frequency count of the word.
+     */
+    private void addFrequency(String word, int count) {
+        AtomicInteger freq = totalWordFreq.putIfAbsent(
+                word, new AtomicInteger(count));
+        if (freq != null)
+            freq.addAndGet(count);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the counts are spilled to disk, the
+     *         corpus is read twice or the candidate words are tracked
+     */
+    public void writePartial(File file) {
+        if (wordCounts != null)
+            throw new IllegalStateException(
+                "Partial files cannot be written from spilled counts");
+        if (twoPass || wordTracker != null)
+            throw new IllegalStateException(
+                "Partial files cannot be written when the corpus is read " +
+                "twice or the candidate words are tracked");
+        if (finalCorrelation != null)
+            throw new IllegalStateException(
+                "The space has already been processed");
+        final String[] words = wordToIndex.terms();
+        final String[] compoundTerms = compoundToIndex.terms();
+        try {
+            PartialCooccurrences.Writer writer =
+                new PartialCooccurrences.Writer(file, 3);
+            writer.writeSection(PARTIAL_WORDS, words, words,
+                new PartialCooccurrences.RowSource() {
+                    public SparseDoubleVector getRow(int row) {
+                        if (wordCooccurrences == null)
+                            return wordToSemantics.get(words[row]);
+                        return (row < wordCooccurrences.rows())
+                            ? wordCooccurrences.getRowVectorUnsafe(row)
+                            : null;
+                    }
+                });
+            writer.writeSection(PARTIAL_COMPOUNDS, compoundTerms, words,
+                new PartialCooccurrences.RowSource() {
+                    public SparseDoubleVector getRow(int row) {
+                        if (compoundCooccurrences == null)
+                            return compoundToSemantics.get(compoundTerms[row]);
+                        return (row < compoundCooccurrences.rows())
+                            ? compoundCooccurrences.getRowVectorUnsafe(row)
+                            : null;
+                    }
+                });
+            writer.writeSection(PARTIAL_FREQUENCIES, words,
+                new String[] { PARTIAL_FREQUENCIES },
+                new PartialCooccurrences.RowSource() {
+                    public SparseDoubleVector getRow(int row) {
+                        AtomicInteger freq = totalWordFreq.get(words[row]);
+                        return (freq == null)
+                            ? null
+                            : new CompactSparseVector(
+                                new int[] { 0 },
+                                new double[] { freq.get() }, 1);
+                    }
+                });
+            writer.close();
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalStateException if the corpus is read twice or the
+     *         candidate words are tracked
+     */
+    public void readPartial(File file) {
+        if (twoPass || wordTracker != null)
+            throw new IllegalStateException(
+                "Partial files cannot be read when the corpus is read twice " +
+                "or the candidate words are tracked");
+        if (finalCorrelation != null)
+            throw new IllegalStateException(
+                "The space has already been processed");
+        try {
+            PartialCooccurrences.Reader reader =
+                new PartialCooccurrences.Reader(file);
+            try {
+                readPartialSection(reader, PARTIAL_WORDS, file);
+                readPartialSection(reader, PARTIAL_COMPOUNDS, file);
+                readPartialSection(reader, PARTIAL_FREQUENCIES, file);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
         }
     }
 
+    /**
+     * Adds the rows of the next section of a partial file in the same way as
+     * the rows of a processed document.
+     */
+    private void readPartialSection(PartialCooccurrences.Reader reader,
+                                    String section, File file)
+            throws IOException {
+        if (!section.equals(reader.nextSection()))
+            throw new IllegalArgumentException(
+                file + " is not a partial COALS file");
+        String[] rowTerms = reader.rowTerms();
+        String[] colTerms = reader.columnTerms();
+        int[] cols = new int[colTerms.length];
+        if (!section.equals(PARTIAL_FREQUENCIES))
+            for (int i = 0; i < colTerms.length; ++i)
+                cols[i] = getIndexFor(colTerms[i]);
+
+        int lastRow = -1;
+        SparseDoubleVector counts = null;
+        while (true) {
+            boolean more = reader.nextCell();
+            if (lastRow >= 0 && (!more || reader.row() != lastRow)) {
+                String term = rowTerms[lastRow];
+                if (section.equals(PARTIAL_WORDS))
+                    addWordCounts(term, counts, 0);
+                else if (section.equals(PARTIAL_COMPOUNDS))
+                    addCompoundCounts(term, counts, 0);
+                else
+                    addFrequency(term, (int) counts.get(0));
+            }
+            if (!more)
+                break;
+            if (reader.row() != lastRow) {
+                lastRow = reader.row();
+                counts = new SparseHashDoubleVector(Integer.MAX_VALUE);
+            }
+            counts.set(cols[reader.column()], reader.value());
+        }
+    }
+
+    /**
+     * Adds the co-occurrence counts of a document to a row of the matrix.
+     */
+    private static void addToMatrix(CooccurrenceMatrix matrix, int row,
+                                    SparseDoubleVector counts) {
+        for (int col : counts.getNonZeroIndices())
+            matrix.addAndGet(row, col, counts.get(col));
+    }
+
+    /**
+     * Adds the co-occurrence counts of a document to a row of the spilled
+     * counts.
+     */
+    private static void addToCounts(SpilledCooccurrenceCounts spilled, int row,
+                                    SparseDoubleVector counts) {
+        for (int col : counts.getNonZeroIndices())
+            spilled.add(row, col, counts.get(col));
+    }
+
+    /**
+     * Returns a copy of a row of the matrix as a compact vector with the same
+     * length as the vectors of {@code wordToSemantics}.
+     */
+    private static SparseDoubleVector copyRow(CooccurrenceMatrix matrix,
+                                              int row) {
+        if (row >= matrix.rows())
+            return new CompactSparseVector();
+        SparseDoubleVector rowVec = matrix.getRowVectorUnsafe(row);
+        int[] indices = rowVec.getNonZeroIndices();
+        Arrays.sort(indices);
+        double[] values = new double[indices.length];
+        for (int i = 0; i < indices.length; ++i)
+            values[i] = rowVec.get(indices[i]);
+        return new CompactSparseVector(indices, values, Integer.MAX_VALUE);
+    }
+
     /**
      * Returns the current semantic vector for the provided word, or if the word
      * is not currently in the semantic space, a vector is added for it and
@@ -549,7 +1128,8 @@ public class CoalsCompounds implements SemanticSpace {
      *
      * @param word a word
      *
-     * @return the {@code SemanticVector} for the provide word.
+     * @return the {@code SemanticVector} for the provide word, or {@code
+     *         null} if the word is not a candidate
      */
     private SparseDoubleVector getSemanticVector(String word) {
         SparseDoubleVector v = wordToSemantics.get(word);
@@ -560,8 +1140,14 @@ public class CoalsCompounds implements SemanticSpace {
                 // recheck in case another thread added it while we were waiting
                 // for the lock
                 v = wordToSemantics.get(word);
+                // A word that is not a candidate has no semantics
+                if (v == null && wordTracker != null
+                        && wordTracker.indexOf(word) < 0)
+                    return null;
                 if (v == null) {
-                    v = new CompactSparseVector();
+                    v = (wordTracker != null)
+                        ? new CandidateSemantics()
+                        : new CompactSparseVector();
                     wordToSemantics.put(word, v);
                 }
             }
@@ -579,7 +1165,9 @@ public class CoalsCompounds implements SemanticSpace {
                 // for the lock
                 v = compoundToSemantics.get(compound);
                 if (v == null) {
-                    v = new CompactSparseVector();
+                    v = (wordTracker != null)
+                        ? new CandidateSemantics()
+                        : new CompactSparseVector();
                     compoundToSemantics.put(compound, v);
                 }
             }
@@ -593,39 +1181,29 @@ public class CoalsCompounds implements SemanticSpace {
      * returns that index.
      */
     private int getIndexFor(String word) {
-        Integer index = termToIndex.get(word);
-        if (index == null) {
-            synchronized(this) {
-                // recheck to see if the term was added while blocking
-                index = termToIndex.get(word);
-                // if another thread has not already added this word while the
-                // current thread was blocking waiting on the lock, then add it.
-                if (index == null) {
-                    int i = wordIndexCounter++;
-                    termToIndex.put(word, i);
-                    return i; // avoid the auto-boxing to assign i to index
-                }
-            }
-        }
-        return index;
+        return (wordTracker != null)
+            ? wordTracker.indexOf(word)
+            : wordToIndex.getDimension(word);
     }
 
     private int getIndexForCompound(String compound) {
-        Integer index = compoundToIndex.get(compound);
-        if (index == null) {
-            synchronized(this) {
-                // recheck to see if the term was added while blocking
-                index = compoundToIndex.get(compound);
-                // if another thread has not already added this word while the
-                // current thread was blocking waiting on the lock, then add it.
-                if (index == null) {
-                    int i = compoundIndexCounter++;
-                    compoundToIndex.put(compound, i);
-                    return i; // avoid the auto-boxing to assign i to index
-                }
-            }
+        return compoundToIndex.getDimension(compound);
+    }
+
+    /**
+     * Copies the indices of the words into {@link #termToIndex}, which is then
+     * modified to account for the words retained in the final matrix.
+     */
+    private void copyWordIndices() {
+        termToIndex = new HashMap<String, Integer>();
+        if (wordTracker != null) {
+            for (String word : wordTracker.termsByCount())
+                termToIndex.put(word, wordTracker.indexOf(word));
+            return;
         }
-        return index;
+        String[] words = wordToIndex.terms();
+        for (int i = 0; i < words.length; ++i)
+            termToIndex.put(words[i], i);
     }
 
     /**
@@ -633,8 +1211,21 @@ public class CoalsCompounds implements SemanticSpace {
      */
     public void processSpace(Properties props) {
         COALS_LOGGER.info("Droppring dimensions from co-occurrance matrix.");
+        if (wordTracker != null) {
+            dropStaleCounts(wordToSemantics.values());
+            dropStaleCounts(compoundToSemantics.values());
+        }
+        TermMasks masks = maskTerms(maxWords, maxDimensions);
+        // LK added..
+        if (compounds != null)
+            finalCorrelationCompounds = buildCompoundMatrix(masks);
+        if (wordCounts != null && reducer != null) {
+            processSpilledSpace(masks);
+            freeze();
+            return;
+        }
         // Read in the matrix from a file with dimensions dropped.
-        finalCorrelation = buildMatrix(maxWords, maxDimensions);
+        finalCorrelation = buildMatrix(masks);
         COALS_LOGGER.info("Done dropping dimensions.");
 
         if (transform != null) {
@@ -643,21 +1234,7 @@ public class CoalsCompounds implements SemanticSpace {
             // Normalize the matrix using correlation.
             int wordCount = finalCorrelation.rows();
             finalCorrelation = transform.transform(finalCorrelation);
-
-            // LK added.. transform compoundMatrix
-            if (compounds != null) {
-                SparseDoubleVector[] compoundVectors = new SparseDoubleVector[finalCorrelationCompounds.rows()];
-                for (int i = 0; i < finalCorrelationCompounds.rows(); i++) {
-                    DoubleVector dv = transform.transformRow(finalCorrelationCompounds.getRowVector(i));
-                    if (dv instanceof SparseDoubleVector) {
-                        compoundVectors[i] = (SparseDoubleVector)dv;
-                    }
-                    else {
-                        throw new IllegalStateException("Expected sparse format of vector, but it is dense!");
-                    }
-                }
-                finalCorrelationCompounds = Matrices.asSparseMatrix(Arrays.asList(compoundVectors));
-            }
+            transformCompounds();
 
             COALS_LOGGER.info("Done normalizing co-occurrance matrix.");
         }
@@ -668,23 +1245,112 @@ public class CoalsCompounds implements SemanticSpace {
                         "Cannot reduce to more dimensions than exist");
 
             COALS_LOGGER.info("Reducing using SVD.");
-            try {
-                File coalsMatrixFile =
-                    File.createTempFile("coals-term-doc-matrix", "dat");
-                coalsMatrixFile.deleteOnExit();
-                MatrixIO.writeMatrix(finalCorrelation,
-                                     coalsMatrixFile,
-                                     Format.SVDLIBC_SPARSE_BINARY);
-
-                MatrixFile processedSpace = new MatrixFile(
-                        coalsMatrixFile, Format.SVDLIBC_SPARSE_BINARY);
-                reducer.factorize(processedSpace, reducedDimensions);
+            if (reducer instanceof SingularValueDecompositionRandomized
+                    && finalCorrelation instanceof SparseMatrix) {
+                // The randomized decomposition runs on the matrix in memory,
+                // so there is no need to write it out first
+                reducer.factorize((SparseMatrix) finalCorrelation,
+                                  reducedDimensions);
+            } else {
+                try {
+                    File coalsMatrixFile =
+                        File.createTempFile("coals-term-doc-matrix", "dat");
+                    coalsMatrixFile.deleteOnExit();
+                    MatrixIO.writeMatrix(finalCorrelation,
+                                         coalsMatrixFile,
+                                         Format.SVDLIBC_SPARSE_BINARY);
+
+                    MatrixFile processedSpace = new MatrixFile(
+                            coalsMatrixFile, Format.SVDLIBC_SPARSE_BINARY);
+                    reducer.factorize(processedSpace, reducedDimensions);
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
+            }
+            finalCorrelation = reducer.dataClasses();
+            COALS_LOGGER.info("Done reducing using SVD.");
+        }
+        freeze();
+    }
 
-                finalCorrelation = reducer.dataClasses();
-            } catch (IOException ioe) {
-                throw new IOError(ioe);
+    /**
+     * Compacts the sparse final matrices into {@link FrozenSparseMatrix}
+     * instances, from which {@link #getVector(String) getVector} returns the
+     * shared row views.  Dense matrices produced by the reducer are kept as
+     * they are.
+     */
+    private void freeze() {
+        finalCorrelation = freeze(finalCorrelation);
+        if (finalCorrelationCompounds != null)
+            finalCorrelationCompounds = freeze(finalCorrelationCompounds);
+    }
+
+    private static Matrix freeze(Matrix m) {
+        return (m instanceof SparseMatrix)
+            ? FrozenSparseMatrix.freeze((SparseMatrix) m, false)
+            : m;
+    }
+
+    /**
+     * Returns an immutable vector of the row, which is the shared view if the
+     * matrix is frozen.
+     */
+    private static DoubleVector rowVector(Matrix m, int row) {
+        return (m instanceof FrozenSparseMatrix)
+            ? m.getRowVector(row)
+            : Vectors.immutable(m.getRowVector(row));
+    }
+
+    /**
+     * LK added.. transforms the compound matrix with the transform of the
+     * word matrix.
+     */
+    private void transformCompounds() {
+        if (compounds != null) {
+            finalCorrelationCompounds = transform.transformRows(finalCorrelationCompounds);
+        }
+    }
+
+    /**
+     * Merges the spilled counts of the retained rows and columns straight into
+     * the file that is reduced, so the co-occurrence matrix is never held in
+     * memory.  If a transform is set, it is applied to the file.
+     */
+    private void processSpilledSpace(TermMasks masks) {
+        if (reducedDimensions > masks.columns)
+            throw new IllegalArgumentException(
+                    "Cannot reduce to more dimensions than exist");
+        try {
+            File coalsMatrixFile =
+                File.createTempFile("coals-term-doc-matrix", "dat");
+            coalsMatrixFile.deleteOnExit();
+            wordCounts.writeSparseBinary(coalsMatrixFile,
+                                         masks.rowMap, masks.rows,
+                                         masks.colMap, masks.columns);
+            wordCounts.close();
+            wordCounts = null;
+            COALS_LOGGER.info("Done dropping dimensions.");
+
+            if (transform != null) {
+                COALS_LOGGER.info("Normalizing co-occurrance matrix.");
+                File transformedFile = transform.transform(
+                        coalsMatrixFile, Format.SVDLIBC_SPARSE_BINARY);
+                transformedFile.deleteOnExit();
+                coalsMatrixFile.delete();
+                coalsMatrixFile = transformedFile;
+                transformCompounds();
+                COALS_LOGGER.info("Done normalizing co-occurrance matrix.");
             }
+
+            COALS_LOGGER.info("Reducing using SVD.");
+            MatrixFile processedSpace = new MatrixFile(
+                    coalsMatrixFile, Format.SVDLIBC_SPARSE_BINARY);
+            reducer.factorize(processedSpace, reducedDimensions);
+
+            finalCorrelation = reducer.dataClasses();
             COALS_LOGGER.info("Done reducing using SVD.");
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
         }
     }
 
@@ -720,42 +1386,65 @@ public class CoalsCompounds implements SemanticSpace {
     }
 
     /**
-     * Returns a {@link edu.ucla.sspace.matrix.Matrix} that contains {@code maxWords} and {@code
-     * maxDimensions} columns.  If {@code maxWords} is 0, then all words will be
-     * returned in the semantic {@link edu.ucla.sspace.matrix.Matrix}.  If {@code maxDimensions} is
-     * larger than the number of observed features, then all observed features
-     * will be maintained.  The resulting rows and columns are both ordred based
-     * on the frequency of each term, in descending order, {@code termToIndex}
-     * is modified to account for these changed.
+     * The rows and columns of the co-occurrence counts that are retained in
+     * the final matrix.
      */
-    private Matrix buildMatrix(int maxWords, int maxDimensions) {
-        // Convert the vectors in the semantic map to a matrix.
-        SparseDoubleVector[] vectorList =
-            new SparseDoubleVector[wordToSemantics.size()];
-        for (Map.Entry<String, SparseDoubleVector> e :
-                wordToSemantics.entrySet())
-            vectorList[getIndexFor(e.getKey())] = e.getValue();
-        SparseMatrix matrix = Matrices.asSparseMatrix(
-                Arrays.asList(vectorList));
+    private static class TermMasks {
+
+        /**
+         * The new row of each original term index, or {@code -1} if the term
+         * is dropped.
+         */
+        int[] rowMap;
+
+        /**
+         * The new column of each original term index, or {@code -1} if the
+         * term is not retained as a feature.
+         */
+        int[] colMap;
+
+        /**
+         * The original term index of each new column.
+         */
+        int[] colMask;
+
+        /**
+         * The number of retained rows.
+         */
+        int rows;
+
+        /**
+         * The number of retained columns.
+         */
+        int columns;
+    }
 
-        // If maxwords was set to 0, save all words.
-        if (maxWords == 0 || maxWords > wordToSemantics.size())
-            maxWords = wordToSemantics.size();
+    /**
+     * Selects the {@code maxWords} rows and {@code maxDimensions} columns that
+     * are retained in the final matrix.  If {@code maxWords} is 0, then all
+     * words will be retained.  If {@code maxDimensions} is larger than the
+     * number of observed features, then all observed features will be
+     * maintained.  The retained rows and columns are both ordred based on the
+     * frequency of each term, in descending order, {@code termToIndex} is
+     * modified to account for these changed.
+     */
+    private TermMasks maskTerms(int maxWords, int maxDimensions) {
+        copyWordIndices();
+        if (retainedWordCounts != null)
+            return retainedMasks();
+        int numWords = (wordCooccurrences == null && wordCounts == null
+                        && wordTracker == null)
+            ? wordToSemantics.size()
+            : termToIndex.size();
 
-        COALS_LOGGER.info("Forming the inverse mapping from terms to indices.");
-        // Calculate an inverse mapping from index to word since the binary file
-        // stores things by index number.
-        String[] indexToTerm = new String[termToIndex.size()];
-        for (Map.Entry<String, Integer> entry : termToIndex.entrySet())
-            indexToTerm[entry.getValue()] = entry.getKey();
+        // If maxwords was set to 0, save all words.
+        if (maxWords == 0 || maxWords > numWords)
+            maxWords = numWords;
 
         COALS_LOGGER.info("Sorting the terms based on frequency.");
         // Calculate the new indices for each word that will be kept based on
         // the frequency count, where the most frequent word will be first.
-        ArrayList<Map.Entry<String, AtomicInteger>> wordCountList =
-            new ArrayList<Map.Entry<String, AtomicInteger>>(
-                    totalWordFreq.entrySet());
-        Collections.sort(wordCountList, new EntryComp());
+        List<String> wordCountList = wordsByFrequency();
 
         // Calculate the new term to index mapping based on the order of the
         // word frequencies.
@@ -766,20 +1455,21 @@ public class CoalsCompounds implements SemanticSpace {
             ? maxDimensions 
             : wordCountList.size();
 
-        int[] rowMask = new int[maxWords];
-        int[] colMask = new int[wordCount];
-
-        // Create a new vector list to store the word semantics that will be
-        // retained.  When this method exits, it will throw away all the other
-        // vectors.
-        SparseDoubleVector[] newVectorList = new SparseDoubleVector[maxWords];
+        TermMasks masks = new TermMasks();
+        masks.rowMap = new int[termToIndex.size()];
+        masks.colMap = new int[termToIndex.size()];
+        Arrays.fill(masks.rowMap, -1);
+        Arrays.fill(masks.colMap, -1);
+        masks.colMask = new int[wordCount];
+        masks.rows = maxWords;
+        masks.columns = wordCount;
 
         // For each of the terms that we have a mapping, add row and column
         // maskings for the indices of the first maxWords terms.  For all other
         // terms, remove the term to index mapping.
         int termCount = 0;
-        for (Map.Entry<String, AtomicInteger> entry : wordCountList) {
-            Integer oldIndex = termToIndex.get(entry.getKey());
+        for (String word : wordCountList) {
+            Integer oldIndex = termToIndex.get(word);
 
             // Skip any non mapped terms.
             if (oldIndex == null)
@@ -788,44 +1478,133 @@ public class CoalsCompounds implements SemanticSpace {
             // Add a row and/or column mask from the index of this word to it's
             // index in the original matrix.
             if (termCount < maxWords) {
-                if (termCount <  wordCount)
-                    colMask[termCount] = oldIndex;
-                // Add the vector for this reserved word to the new vector list.
-                newVectorList[termCount] = vectorList[oldIndex];
-                
+                if (termCount <  wordCount) {
+                    masks.colMask[termCount] = oldIndex;
+                    masks.colMap[oldIndex] = termCount;
+                }
+
                 // Record the new dimension for this term.
-                rowMask[termCount] = termCount;
-                termToIndex.put(entry.getKey(), termCount);
+                masks.rowMap[oldIndex] = termCount;
+                termToIndex.put(word, termCount);
                 termCount++;
             }
             // Drop all other mappings.
             else
-                termToIndex.remove(entry.getKey());
+                termToIndex.remove(word);
         }
+        return masks;
+    }
 
-        wordToSemantics = null;
-        matrix = Matrices.asSparseMatrix(Arrays.asList(newVectorList));
+    /**
+     * Returns the rows and columns fixed by the first pass over the corpus,
+     * which are already the only ones counted.  {@code termToIndex} is
+     * modified to keep only the words retained as rows.
+     */
+    private TermMasks retainedMasks() {
+        TermMasks masks = new TermMasks();
+        masks.rows = retainedWordCounts.rows();
+        masks.columns = retainedWordCounts.columns();
+        Iterator<Integer> indices = termToIndex.values().iterator();
+        while (indices.hasNext())
+            if (indices.next().intValue() >= masks.rows)
+                indices.remove();
+        return masks;
+    }
 
-        // LK added..
-        if (compounds != null) {
-            // Convert the vectors in the semantic map to a matrix.
-            SparseDoubleVector[] vectorListCompounds =
-                    new SparseDoubleVector[compoundToSemantics.size()];
+    /**
+     * Returns a {@link edu.ucla.sspace.matrix.Matrix} that contains the rows
+     * and columns selected by {@link #maskTerms(int, int)}.
+     */
+    private Matrix buildMatrix(TermMasks masks) {
+        if (retainedWordCounts != null) {
+            Matrix matrix = retainedWordCounts.toMatrix(masks.rows);
+            retainedWordCounts = null;
+            wordToSemantics = null;
+            return matrix;
+        }
+        if (wordCounts != null) {
+            Matrix matrix = wordCounts.toMatrix(
+                masks.rowMap, masks.rows, masks.colMap, masks.columns);
+            wordCounts.close();
+            wordCounts = null;
+            return matrix;
+        }
+
+        // Create a new vector list to store the word semantics that will be
+        // retained.  When this method exits, it will throw away all the other
+        // vectors.
+        SparseDoubleVector[] newVectorList =
+            new SparseDoubleVector[masks.rows];
+        if (wordCooccurrences == null) {
             for (Map.Entry<String, SparseDoubleVector> e :
-                    compoundToSemantics.entrySet())
-                vectorListCompounds[getIndexForCompound(e.getKey())] = e.getValue();
-            SparseMatrix matrixCompound = Matrices.asSparseMatrix(
-                    Arrays.asList(vectorListCompounds));
-            int[] allRows = new int[compoundToSemantics.size()];
-            for (int i = 0; i < allRows.length; i++) {
-                allRows[i] = i;
+                    wordToSemantics.entrySet()) {
+                Integer row = termToIndex.get(e.getKey());
+                if (row != null)
+                    newVectorList[row] = e.getValue();
             }
-            finalCorrelationCompounds = new CellMaskedSparseMatrix(matrixCompound, allRows, colMask);
+            // A candidate word may have been counted only as a feature
+            for (int row = 0; row < newVectorList.length; ++row)
+                if (newVectorList[row] == null)
+                    newVectorList[row] = new CompactSparseVector();
+        }
+        else {
+            // Copy the retained rows out of the co-occurrence matrix one at a
+            // time.
+            for (int oldIndex = 0; oldIndex < masks.rowMap.length; ++oldIndex)
+                if (masks.rowMap[oldIndex] >= 0)
+                    newVectorList[masks.rowMap[oldIndex]] =
+                        copyRow(wordCooccurrences, oldIndex);
+        }
+
+        wordToSemantics = null;
+        wordCooccurrences = null;
+
+        // Copy the retained columns into a compact matrix, rather than
+        // masking the original vectors on every access.
+        return CompressedSparseRowMatrix.fromRows(newVectorList, masks.colMask);
+    }
+
+    /**
+     * LK added..
+     * Returns the matrix of all compounds restricted to the columns selected
+     * by {@link #maskTerms(int, int)}.
+     */
+    private Matrix buildCompoundMatrix(TermMasks masks) {
+        if (retainedCompoundCounts != null) {
+            Matrix matrix = retainedCompoundCounts.toMatrix(
+                compoundToIndex.numDimensions());
+            retainedCompoundCounts = null;
             compoundToSemantics = null;
+            return matrix;
+        }
+        if (compoundCounts != null) {
+            Matrix matrix = compoundCounts.toMatrix(
+                null, compoundToIndex.numDimensions(), masks.colMap, masks.columns);
+            compoundCounts.close();
+            compoundCounts = null;
+            return matrix;
         }
 
-        // Return a masked version of the original matrix.
-        return new CellMaskedSparseMatrix(matrix, rowMask, colMask);
+        // Convert the vectors in the semantic map to a matrix.
+        SparseDoubleVector[] vectorListCompounds;
+        if (compoundCooccurrences == null) {
+            vectorListCompounds =
+                new SparseDoubleVector[compoundToSemantics.size()];
+            for (Map.Entry<String, SparseDoubleVector> e :
+                    compoundToSemantics.entrySet())
+                vectorListCompounds[getIndexForCompound(e.getKey())] = e.getValue();
+        }
+        else {
+            vectorListCompounds =
+                new SparseDoubleVector[compoundToIndex.numDimensions()];
+            for (int i = 0; i < vectorListCompounds.length; i++)
+                vectorListCompounds[i] =
+                    copyRow(compoundCooccurrences, i);
+        }
+        compoundToSemantics = null;
+        compoundCooccurrences = null;
+        return CompressedSparseRowMatrix.fromRows(
+            vectorListCompounds, masks.colMask);
     }
 
     private class EntryComp
@@ -23,10 +23,6 @@ package cz.zcu.luk.sspace.coals;
 
 
 import edu.ucla.sspace.common.SemanticSpace;
-import edu.ucla.sspace.matrix.ArrayMatrix;
-import edu.ucla.sspace.matrix.CellMaskedSparseMatrix;
-import edu.ucla.sspace.matrix.DiagonalMatrix;
-import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.MatrixFile;
 import edu.ucla.sspace.matrix.MatrixIO;
@@ -40,15 +36,18 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import cz.zcu.luk.sspace.common.WordTransformer;
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
 import cz.zcu.luk.sspace.matrix.*;
+import cz.zcu.luk.sspace.text.CompoundMatcher;
 import cz.zcu.luk.sspace.text.IteratorFactoryStopwords;
+import cz.zcu.luk.sspace.text.SlidingWindow;
 
 
 /**
@@ -79,7 +78,6 @@ import cz.zcu.luk.sspace.text.IteratorFactoryStopwords;
 public class CoalsCompoundsStopwords implements SemanticSpace {
 
     // LK added
-    private transient WeakReference<Matrix> SigmaInvTimesVtRef;
     private Matrix sigma;
 
     /**
@@ -153,7 +151,14 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
     private Map<String, SparseDoubleVector> wordToSemantics;
 
     /**
-     * A mapping from word to index number.
+     * The index of each word in the co-occurrence counts, which is assigned
+     * by the threads that process the documents.
+     */
+    private final ConcurrentVocabulary wordToIndex;
+
+    /**
+     * A mapping from word to index number in the final matrix, or {@code
+     * null} until the space is processed.
      */
     private Map<String, Integer> termToIndex;
 
@@ -161,17 +166,12 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
      * LK added..
      * A mapping from compound to index number.
      */
-    private Map<String, Integer> compoundToIndex;
+    private final ConcurrentVocabulary compoundToIndex;
     /**
      * LK added..
      * A mapping from each compound to the vector the represents its semantics
      */
     private Map<String, SparseDoubleVector> compoundToSemantics;
-    /**
-     * LK added..
-     * A counter for keeping track of the index values of compounds.
-     */
-    private int compoundIndexCounter;
     /**
      * LK added..
      * The final reduced matrix for compounds
@@ -205,11 +205,6 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
      */
     private final int maxDimensions;
 
-    /**
-     * A counter for keeping track of the index values of words.
-     */
-    private int wordIndexCounter;
-
     /**
      * The {@link edu.ucla.sspace.matrix.MatrixFactorization} algorithm that will decompose the word by
      * document feature space into two smaller feature spaces: a word by class
@@ -226,6 +221,33 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
     // LK added
     private Set<String> compounds;
 
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
+    /**
+     * The weights of the words around the focus word: 4 for the adjacent words
+     * down to 1 for the words four positions away.
+     */
+    private static final double[] WINDOW_WEIGHTS =
+        new double[] { 1, 2, 3, 4, 0, 4, 3, 2, 1 };
+
+    /**
+     * Maps the tokens of a document to their indices in {@link #wordToIndex},
+     * leaving out the tokens rejected by the filter.
+     */
+    private final SlidingWindow.Indexer termIndexer =
+        new SlidingWindow.Indexer() {
+            public int index(String token) {
+                return (token.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)
+                        || token.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
+                    ? -1
+                    : getIndexFor(token);
+            }
+        };
+
     public CoalsCompoundsStopwords(TransformExtended transform, SingularValueDecomposition reducer) {
         this(transform, reducer, DEFAULT_REDUCE_DIMENSIONS,
              DEFAULT_MAX_WORDS, DEFAULT_MAX_DIMENSIONS);
@@ -246,8 +268,9 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
     public CoalsCompoundsStopwords(TransformExtended transform, SingularValueDecomposition reducer,
                                    int reducedDimensions, int maxWords, int maxDimensions, Set<String> compounds) {
         // LK changed
-        termToIndex = new HashMap<String, Integer>();
-        compoundToIndex = new HashMap<String, Integer>(); // LK added
+        wordToIndex = new ConcurrentVocabulary();
+        termToIndex = null;
+        compoundToIndex = new ConcurrentVocabulary(); // LK added
         totalWordFreq = new ConcurrentHashMap<String, AtomicInteger>();
         wordToSemantics = new HashMap<String, SparseDoubleVector>(1024, 4f);
         compoundToSemantics = new HashMap<String, SparseDoubleVector>(1024, 4f); // LK added
@@ -264,6 +287,9 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
                 ? DEFAULT_MAX_DIMENSIONS
                 : maxDimensions;
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
     }
 //
 //    /**
@@ -279,7 +305,9 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
      */
     public Set<String> getWords() {
         Set<String> wordsAndCompounds = new LinkedHashSet<String>();
-        wordsAndCompounds.addAll(termToIndex.keySet());
+        wordsAndCompounds.addAll((termToIndex != null)
+                                 ? termToIndex.keySet()
+                                 : wordToIndex.keySet());
         if (compounds != null) {
             wordsAndCompounds.addAll(compoundToIndex.keySet());
         }
@@ -302,19 +330,19 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
      * {@inheritDoc}
      */
     public Vector getVector(String term) {
+        if (termToIndex == null)
+            return null;
         Integer index = termToIndex.get(term);
         if (index != null) {
-            return Vectors.immutable(
-                    finalCorrelation.getRowVector(index.intValue()));
+            return rowVector(finalCorrelation, index.intValue());
         }
         if (compounds != null) {
-            index = compoundToIndex.get(term);
-            if (index == null) {
+            index = compoundToIndex.indexOf(term);
+            if (index < 0) {
                 return null;
             }
             else {
-                return Vectors.immutable(
-                    finalCorrelationCompounds.getRowVector(index.intValue()));
+                return rowVector(finalCorrelationCompounds, index.intValue());
             }
         }
         else {
@@ -337,13 +365,6 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
     }
 
 
-    /*
-     * LK added
-     */
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
-    }
 
     /**
      * {@inheritDoc}
@@ -355,43 +376,23 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
         Map<String, SparseDoubleVector> compoundDocSemantics =
                 new HashMap<String, SparseDoubleVector>();
 
-        // LK added
-        String removed = null;
-        String removedOld = null;
-
-        // Setup queues to track the set of previous and next words in a
-        // context.
-        Queue<String> prevWords = new ArrayDeque<String>();
-        Queue<String> nextWords = new ArrayDeque<String>();
-
-        Iterator<String> it = IteratorFactoryStopwords.tokenizeOrdered(document);
-
-        for (int i = 0; i < 4 && it.hasNext(); ++i)
-            nextWords.offer(it.next());
+        // Slide a window of four words on each side over the document.  The two
+        // words which have left the window are kept for the contexts of the
+        // compounds that end at the focus word.
+        SlidingWindow window = new SlidingWindow(
+            4, 4, 2, WINDOW_WEIGHTS, termIndexer, compoundMatcher);
+        window.reset(IteratorFactoryStopwords.tokenizeOrdered(document));
+        SemanticsCounter counter = new SemanticsCounter();
+        int[] compoundContext = new int[6];
 
         // Compute the co-occurrance statistics of each focus word in the
         // document.
-        while (!nextWords.isEmpty()) {
-
-            // Slide over the context by one word.
-            if (it.hasNext())
-                nextWords.offer(it.next());
-
-            // Get the focus word
-            String focusWord;
-            // String notStopwordDeleted;
-            String possibleFocusWord = nextWords.remove();
-            // System.out.println("possibleFocusWord: \""+possibleFocusWord+"\"");
-            if (possibleFocusWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                focusWord = IteratorFactoryStopwords.EMPTY_TOKEN;
-            }
-            else {
-                focusWord = possibleFocusWord;
-            }
-            // System.out.println("0\""+focusWord+"\" ");
+        while (window.next()) {
 
-            if (!focusWord.equals(IteratorFactoryStopwords.EMPTY_TOKEN)) {
-                getIndexFor(focusWord);
+            // Get the focus word; the stopwords are only used in compounds
+            String focusWord = WordTransformer.getWord(window.token(0));
+            int focusIndex = window.id(0);
+            if (focusIndex >= 0) {
 
                 // Update the frequency count of the focus word.
                 Integer focusFreq = wordFreq.get(focusWord);
@@ -410,99 +411,29 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
                     wordDocSemantics.put(focusWord, focusSemantics);
                 }
 
-                // Process the previous words.
-                int offset = 4 - prevWords.size();
-                for (String possibleWord : prevWords) {
-                    String word;
-                    if (possibleWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                        word = IteratorFactoryStopwords.EMPTY_TOKEN;
-                    }
-                    else {
-                        word = possibleWord;
-                    }
-                    //System.out.print("1\""+word+"\" ");
-
-                    offset++;
-                    if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
-                        continue;
-                    int index = getIndexFor(word);
-                    focusSemantics.add(index, offset);
-                }
-                //System.out.println();
-
-                // Process the next words.
-                offset = 5;
-                for (String possibleWord : nextWords) {
-                    String word;
-                    if (possibleWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                        word = IteratorFactoryStopwords.EMPTY_TOKEN;
-                    }
-                    else {
-                        word = possibleWord;
-                    }
-                    // System.out.print("2\""+word+"\" ");
-
-                    offset--;
-                    if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
-                        continue;
-                    int index = getIndexFor(word);
-                    focusSemantics.add(index, offset);
-                }
+                // Process the previous and the next words.
+                counter.semantics = focusSemantics;
+                window.visit(focusIndex, -4, 4, counter);
             }
-            // System.out.println();
 
             // LK added
-            if (compounds != null) {
-                String[] prevWordsArr = prevWords.toArray(new String[0]);
-                String prevPrevWord = null;
-                String prevWord = null;
-                String prevWordReal = null;
-                if (prevWordsArr.length > 1) {
-                    String possiblePrevPrevWord = prevWordsArr[prevWordsArr.length - 2];
-                    if (possiblePrevPrevWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                        prevPrevWord = IteratorFactoryStopwords.EMPTY_TOKEN;
-                    }
-                    else {
-                        prevPrevWord = possiblePrevPrevWord;
-                    }
-                }
-                if (prevWordsArr.length > 0) {
-                    String possiblePrevWord = prevWordsArr[prevWordsArr.length - 1];
-                    if (possiblePrevWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                        prevWord = IteratorFactoryStopwords.EMPTY_TOKEN;
-                        prevWordReal = possiblePrevWord.substring(0, possiblePrevWord.length()-IteratorFactoryStopwords.STOPWORD_FLAG.length());  // store the stopword!
-                    }
-                    else {
-                        prevWord = possiblePrevWord;
-                        prevWordReal = possiblePrevWord;
-                    }
-                }
-
-                // prevPrevWord and prevWord can be null.. it is expected that
-                // compound does not contain null strings..
-                String possibleCompoundTrigram = prevPrevWord + " " + prevWordReal + " " + focusWord;
-                //System.out.println("posComTrigram: \"" +possibleCompoundTrigram+"\"");
-                String possibleCompoundBigram = prevWord + " " + focusWord;
-                //System.out.println("posComBigram: \"" +possibleCompoundBigram+"\"");
-                String compound = null;
+            if (compoundMatcher != null) {
+                int before = window.before();
+                int match = CompoundMatcher.NONE;
                 int compoundSize = 0;
-                if (isCompound(possibleCompoundTrigram)) {
-                    compound = mapTrigramCompound(possibleCompoundTrigram);
+                if (before > 1)
+                    match = window.trigram(0);
+                if (match != CompoundMatcher.NONE)
                     compoundSize = 3;
-                }
-                else if (isCompound(possibleCompoundBigram)) {
-                    compound = possibleCompoundBigram;
+                else if (before > 0) {
+                    match = window.bigram(0);
                     compoundSize = 2;
                 }
+                String compound = (match != CompoundMatcher.NONE)
+                    ? compoundMatcher.compound(match)
+                    : null;
                 if (compound != null) {
-                    getIndexForCompound(compound);
-                    // System.out.println("3\""+compound+"\" ");
-//                    // Update the frequency count of the focus word.
-//                    Integer focusFreq = wordFreq.get(compound);
-//                    wordFreq.put(compound, (focusFreq == null)
-//                            ? 1
-//                            : 1 + focusFreq.intValue());
-
+                    int compoundIndex = getIndexForCompound(compound);
 
                     // Get the temprorary semantics for the focus word, create a new
                     // vector for them if needed.
@@ -515,69 +446,21 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
                     }
 
                     // Process the previous words.
-                    ArrayList<String> prevWordsList = new ArrayList<String>();
-                    if (compoundSize == 3) {
-                        if (removedOld != null) {
-                            prevWordsList.add(removedOld);
-                        }
-                        if (removed != null) {
-                            prevWordsList.add(removed);
-                        }
-                        for (int i = 0; i < prevWordsArr.length-2; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-                    else if (compoundSize == 2) {
-                        if (removed != null) prevWordsList.add(removed);
-                        for (int i = 0; i < prevWordsArr.length-1; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-
-                    int offset = 4 - prevWordsList.size();
-                    for (String possibleWord : prevWordsList) {
-                        String word;
-                        if (possibleWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                            word = IteratorFactoryStopwords.EMPTY_TOKEN;
-                        }
-                        else {
-                            word = possibleWord;
-                        }
-                        //System.out.println("4\""+word+"\" ");
-
+                    int contexts = compoundContext(
+                        window, compoundSize, compoundContext);
+                    int offset = 4 - contexts;
+                    for (int i = 0; i < contexts; ++i) {
                         offset++;
-                        if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
-                            continue;
-                        int index = getIndexFor(word);
-                        focusSemanticsCompound.add(index, offset);
+                        int index = window.id(compoundContext[i]);
+                        if (index >= 0)
+                            focusSemanticsCompound.add(index, offset);
                     }
 
                     // Process the next words.
-                    offset = 5;
-                    for (String possibleWord : nextWords) {
-                        String word;
-                        if (possibleWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                            word = IteratorFactoryStopwords.EMPTY_TOKEN;
-                        }
-                        else {
-                            word = possibleWord;
-                        }
-                        // System.out.println("5\""+word+"\" ");
-
-                        offset--;
-                        if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
-                            continue;
-                        int index = getIndexFor(word);
-                        focusSemanticsCompound.add(index, offset);
-                    }
+                    counter.semantics = focusSemanticsCompound;
+                    window.visit(compoundIndex, 1, 4, counter);
                 }
             }
-            //  System.out.println();
-            prevWords.offer(possibleFocusWord);
-            if (prevWords.size() > 4) {
-                removedOld = removed;
-                removed = prevWords.remove();
-            }
         }
 
         // Add the temporary vectors for each word in this document to the
@@ -619,6 +502,40 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
         }
     }
 
+    /**
+     * LK added.. stores the offsets of the words before the compound of {@code
+     * compoundSize} words that ends at the focus word of {@code window} in
+     * {@code offsets} and returns their number.  The words before the
+     * compound which have already left the window are included as well.
+     */
+    private static int compoundContext(SlidingWindow window,
+                                       int compoundSize,
+                                       int[] offsets) {
+        int before = window.before();
+        int count = 0;
+        if (compoundSize == 3 && window.has(-before - 2))
+            offsets[count++] = -before - 2;
+        if (window.has(-before - 1))
+            offsets[count++] = -before - 1;
+        for (int offset = -before; offset <= -compoundSize; ++offset)
+            offsets[count++] = offset;
+        return count;
+    }
+
+    /**
+     * Adds the weighted contexts of a {@link SlidingWindow} to the semantics
+     * of the focus word or compound.
+     */
+    private static class SemanticsCounter
+            implements SlidingWindow.PairVisitor {
+
+        SparseDoubleVector semantics;
+
+        public void pair(int focus, int context, int distance, double weight) {
+            semantics.add(context, weight);
+        }
+    }
+
     /**
      * Returns the current semantic vector for the provided word, or if the word
      * is not currently in the semantic space, a vector is added for it and
@@ -670,39 +587,22 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
      * returns that index.
      */
     private int getIndexFor(String word) {
-        Integer index = termToIndex.get(word);
-        if (index == null) {
-            synchronized(this) {
-                // recheck to see if the term was added while blocking
-                index = termToIndex.get(word);
-                // if another thread has not already added this word while the
-                // current thread was blocking waiting on the lock, then add it.
-                if (index == null) {
-                    int i = wordIndexCounter++;
-                    termToIndex.put(word, i);
-                    return i; // avoid the auto-boxing to assign i to index
-                }
-            }
-        }
-        return index;
+        return wordToIndex.getDimension(word);
     }
 
     private int getIndexForCompound(String compound) {
-        Integer index = compoundToIndex.get(compound);
-        if (index == null) {
-            synchronized(this) {
-                // recheck to see if the term was added while blocking
-                index = compoundToIndex.get(compound);
-                // if another thread has not already added this word while the
-                // current thread was blocking waiting on the lock, then add it.
-                if (index == null) {
-                    int i = compoundIndexCounter++;
-                    compoundToIndex.put(compound, i);
-                    return i; // avoid the auto-boxing to assign i to index
-                }
-            }
-        }
-        return index;
+        return compoundToIndex.getDimension(compound);
+    }
+
+    /**
+     * Copies the indices of the words into {@link #termToIndex}, which is then
+     * modified to account for the words retained in the final matrix.
+     */
+    private void copyWordIndices() {
+        String[] words = wordToIndex.terms();
+        termToIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < words.length; ++i)
+            termToIndex.put(words[i], i);
     }
 
     /**
@@ -723,17 +623,7 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
 
             // LK added.. transform compoundMatrix
             if (compounds != null) {
-                SparseDoubleVector[] compoundVectors = new SparseDoubleVector[finalCorrelationCompounds.rows()];
-                for (int i = 0; i < finalCorrelationCompounds.rows(); i++) {
-                    DoubleVector dv = transform.transformRow(finalCorrelationCompounds.getRowVector(i));
-                    if (dv instanceof SparseDoubleVector) {
-                        compoundVectors[i] = (SparseDoubleVector)dv;
-                    }
-                    else {
-                        throw new IllegalStateException("Expected sparse format of vector, but it is dense!");
-                    }
-                }
-                finalCorrelationCompounds = Matrices.asSparseMatrix(Arrays.asList(compoundVectors));
+                finalCorrelationCompounds = transform.transformRows(finalCorrelationCompounds);
             }
 
             COALS_LOGGER.info("Done normalizing co-occurrance matrix.");
@@ -745,29 +635,65 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
                         "Cannot reduce to more dimensions than exist");
 
             COALS_LOGGER.info("Reducing using SVD.");
-            try {
-                File coalsMatrixFile =
-                    File.createTempFile("coals-term-doc-matrix", "dat");
-                coalsMatrixFile.deleteOnExit();
-                MatrixIO.writeMatrix(finalCorrelation,
-                                     coalsMatrixFile,
-                                     Format.SVDLIBC_SPARSE_BINARY);
-
-                MatrixFile processedSpace = new MatrixFile(
-                        coalsMatrixFile, Format.SVDLIBC_SPARSE_BINARY);
-                reducer.factorize(processedSpace, reducedDimensions);
-
-                finalCorrelation = reducer.dataClasses();
-
-                // LK added
-                sigma = reducer.getSingularValues();
-                Matrix Vt = reducer.getRightVectors();
-                finalCorrelationCompounds = computeCompoundSpace(finalCorrelationCompounds, Vt);
-            } catch (IOException ioe) {
-                throw new IOError(ioe);
+            if (reducer instanceof SingularValueDecompositionRandomized
+                    && finalCorrelation instanceof SparseMatrix) {
+                // The randomized decomposition runs on the matrix in memory,
+                // so there is no need to write it out first
+                reducer.factorize((SparseMatrix) finalCorrelation,
+                                  reducedDimensions);
+            } else {
+                try {
+                    File coalsMatrixFile =
+                        File.createTempFile("coals-term-doc-matrix", "dat");
+                    coalsMatrixFile.deleteOnExit();
+                    MatrixIO.writeMatrix(finalCorrelation,
+                                         coalsMatrixFile,
+                                         Format.SVDLIBC_SPARSE_BINARY);
+
+                    MatrixFile processedSpace = new MatrixFile(
+                            coalsMatrixFile, Format.SVDLIBC_SPARSE_BINARY);
+                    reducer.factorize(processedSpace, reducedDimensions);
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
             }
+            finalCorrelation = reducer.dataClasses();
+
+            // LK added
+            sigma = reducer.getSingularValues();
+            Matrix Vt = reducer.getRightVectors();
+            finalCorrelationCompounds = computeCompoundSpace(finalCorrelationCompounds, Vt);
             COALS_LOGGER.info("Done reducing using SVD.");
         }
+        freeze();
+    }
+
+    /**
+     * Compacts the sparse final matrices into {@link FrozenSparseMatrix}
+     * instances, from which {@link #getVector(String) getVector} returns the
+     * shared row views.  Dense matrices produced by the reducer are kept as
+     * they are.
+     */
+    private void freeze() {
+        finalCorrelation = freeze(finalCorrelation);
+        if (finalCorrelationCompounds != null)
+            finalCorrelationCompounds = freeze(finalCorrelationCompounds);
+    }
+
+    private static Matrix freeze(Matrix m) {
+        return (m instanceof SparseMatrix)
+            ? FrozenSparseMatrix.freeze((SparseMatrix) m, false)
+            : m;
+    }
+
+    /**
+     * Returns an immutable vector of the row, which is the shared view if the
+     * matrix is frozen.
+     */
+    private static DoubleVector rowVector(Matrix m, int row) {
+        return (m instanceof FrozenSparseMatrix)
+            ? m.getRowVector(row)
+            : Vectors.immutable(m.getRowVector(row));
     }
 
     /**
@@ -820,13 +746,13 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
         for (Map.Entry<String, SparseDoubleVector> e :
                 wordToSemantics.entrySet())
             vectorList[getIndexFor(e.getKey())] = e.getValue();
-        SparseMatrix matrix = Matrices.asSparseMatrix(
-                Arrays.asList(vectorList));
 
         // If maxwords was set to 0, save all words.
         if (maxWords == 0 || maxWords > wordToSemantics.size())
             maxWords = wordToSemantics.size();
 
+        copyWordIndices();
+
         COALS_LOGGER.info("Forming the inverse mapping from terms to indices.");
         // Calculate an inverse mapping from index to word since the binary file
         // stores things by index number.
@@ -851,7 +777,6 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
             ? maxDimensions 
             : wordCountList.size();
 
-        int[] rowMask = new int[maxWords];
         int[] colMask = new int[wordCount];
 
         // Create a new vector list to store the word semantics that will be
@@ -879,7 +804,6 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
                 newVectorList[termCount] = vectorList[oldIndex];
                 
                 // Record the new dimension for this term.
-                rowMask[termCount] = termCount;
                 termToIndex.put(entry.getKey(), termCount);
                 termCount++;
             }
@@ -889,7 +813,6 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
         }
 
         wordToSemantics = null;
-        matrix = Matrices.asSparseMatrix(Arrays.asList(newVectorList));
 
         // LK added..
         if (compounds != null) {
@@ -899,18 +822,13 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
             for (Map.Entry<String, SparseDoubleVector> e :
                     compoundToSemantics.entrySet())
                 vectorListCompounds[getIndexForCompound(e.getKey())] = e.getValue();
-            SparseMatrix matrixCompound = Matrices.asSparseMatrix(
-                    Arrays.asList(vectorListCompounds));
-            int[] allRows = new int[compoundToSemantics.size()];
-            for (int i = 0; i < allRows.length; i++) {
-                allRows[i] = i;
-            }
-            finalCorrelationCompounds = new CellMaskedSparseMatrix(matrixCompound, allRows, colMask);
+            finalCorrelationCompounds = CompressedSparseRowMatrix.fromRows(
+                    vectorListCompounds, colMask);
             compoundToSemantics = null;
         }
 
-        // Return a masked version of the original matrix.
-        return new CellMaskedSparseMatrix(matrix, rowMask, colMask);
+        // Return the retained columns of the retained rows.
+        return CompressedSparseRowMatrix.fromRows(newVectorList, colMask);
     }
 
     /**
@@ -918,7 +836,6 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
      */
     private Matrix computeCompoundSpace(Matrix processedCompoundSpace, Matrix Vt) {
         System.out.println(" -------------- PROJECTING COMPOUNDS! -------------- ");
-        Matrix projectedCompounds = new ArrayMatrix(processedCompoundSpace.rows(), reducedDimensions);
 
         // Check that we can actually project the document
         if (finalCorrelation == null)
@@ -931,63 +848,9 @@ public class CoalsCompoundsStopwords implements SemanticSpace {
         //termToIndex.setReadOnly(true);
         //super.compoundToIndex.setReadOnly(true);
 
-        for (int k = 0; k < processedCompoundSpace.rows(); k++) {
-            DoubleVector compoundInRow = processedCompoundSpace.getRowVector(k);
-
-            SparseDoubleVector compoundInRowSparse = new SparseHashDoubleVector(compoundInRow.length());
-            for (int j = 0; j < compoundInRow.length(); j++) {
-                if (compoundInRow.get(j) != 0) {
-                    compoundInRowSparse.set(j, compoundInRow.get(j));
-                }
-            }
-
-            // Represent the compound as a 1-column matrix
-            Matrix queryAsMatrix = new ArrayMatrix(compoundInRow.length(), 1);
-            for (int nz : compoundInRowSparse.getNonZeroIndices())
-                queryAsMatrix.set(nz, 0, compoundInRowSparse.get(nz));
-
-            // Project the new compound vector, t, by using
-            //
-            //   Sigma_k^-1 * Vt_k * t
-            //
-            // where k is the dimensionality of the LSA space
-
-            Matrix SigmaInvTimesVt = null;
-
-            // We cache the results of the U_k * Sigma_k^-1 multiplication since
-            // this will be the same for all projections.
-            while (SigmaInvTimesVt == null) {
-                if (SigmaInvTimesVtRef != null
-                        && ((SigmaInvTimesVt = SigmaInvTimesVtRef.get()) != null))
-                    break;
-
-                int rows = sigma.rows();
-                double[] sigmaInv = new double[rows];
-                for (int i = 0; i < rows; ++i)
-                    sigmaInv[i] = 1d / sigma.get(i, i);
-                DiagonalMatrix sigmaInvMatrix = new DiagonalMatrix(sigmaInv);
-
-                System.out.println("sigmaInv: " + sigmaInvMatrix.rows() + " " + sigmaInvMatrix.columns());
-                System.out.println("Vt: " + Vt.rows() + " " + Vt.columns());
-                SigmaInvTimesVt =
-                        Matrices.multiply(sigmaInvMatrix, Vt);
-                System.out.println("SigmaInvTimesVt: " + SigmaInvTimesVt.rows() + " " + SigmaInvTimesVt.columns());
-                // Update the field with the new reference to the precomputed matrix
-                SigmaInvTimesVtRef = new WeakReference<Matrix>(SigmaInvTimesVt);
-            }
-
-            // Compute the resulting projected vector as a matrix
-            Matrix result = Matrices.multiply(SigmaInvTimesVt, queryAsMatrix);
-
-            int rows = result.rows();
-            DoubleVector projected = new DenseVector(result.rows());
-            for (int i = 0; i < rows; ++i)
-                projected.set(i, result.get(i, 0));
-
-            projectedCompounds.setRow(k, projected);
-        }
-
-        return projectedCompounds;
+        // Project all the rows at once, as a sparse by dense product with
+        // Sigma^-1 * Vt, which is released when the rows are projected
+        return FoldInProjection.foldIn(sigma, Vt, processedCompoundSpace);
     }
 
 
@@ -440,17 +440,7 @@ public class CoalsLoadStats implements SemanticSpaceLoadStats {
             COALS_LOGGER.info("Normalizing co-occurrance matrix.");
 
             // Normalize the matrix using correlation.
-            SparseDoubleVector[] compoundVectors = new SparseDoubleVector[otherFinalCorrelation.rows()];
-            for (int i = 0; i < otherFinalCorrelation.rows(); i++) {
-                DoubleVector dv = transform.transformRow(otherFinalCorrelation.getRowVector(i));
-                if (dv instanceof SparseDoubleVector) {
-                    compoundVectors[i] = (SparseDoubleVector)dv;
-                }
-                else {
-                    throw new IllegalStateException("Expected sparse format of vector, but it is dense!");
-                }
-            }
-            otherFinalCorrelation = Matrices.asSparseMatrix(Arrays.asList(compoundVectors));
+            otherFinalCorrelation = transform.transformRows(otherFinalCorrelation);
             COALS_LOGGER.info("Done normalizing co-occurrance matrix.");
         }
 //        System.out.println();
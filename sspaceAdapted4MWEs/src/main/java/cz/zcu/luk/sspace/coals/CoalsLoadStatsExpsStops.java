@@ -545,17 +545,7 @@ public class CoalsLoadStatsExpsStops implements SemanticSpaceLoadStats {
             COALS_LOGGER.info("Normalizing co-occurrance matrix.");
 
             // Normalize the matrix using correlation.
-            SparseDoubleVector[] compoundVectors = new SparseDoubleVector[expressionFinalCorrelation.rows()];
-            for (int i = 0; i < expressionFinalCorrelation.rows(); i++) {
-                DoubleVector dv = transform.transformRow(expressionFinalCorrelation.getRowVector(i));
-                if (dv instanceof SparseDoubleVector) {
-                    compoundVectors[i] = (SparseDoubleVector)dv;
-                }
-                else {
-                    throw new IllegalStateException("Expected sparse format of vector, but it is dense!");
-                }
-            }
-            expressionFinalCorrelation = Matrices.asSparseMatrix(Arrays.asList(compoundVectors));
+            expressionFinalCorrelation = transform.transformRows(expressionFinalCorrelation);
             COALS_LOGGER.info("Done normalizing co-occurrance matrix.");
         }
 //        System.out.println();
@@ -22,9 +22,7 @@
 package cz.zcu.luk.sspace.coals;
 
 
-import edu.ucla.sspace.matrix.CellMaskedSparseMatrix;
 import edu.ucla.sspace.matrix.CorrelationTransform;
-import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.MatrixFactorization;
 import edu.ucla.sspace.matrix.MatrixFile;
@@ -483,8 +481,6 @@ public class CoalsSaveStats implements SemanticSpaceSaveStats {
         for (Map.Entry<String, SparseDoubleVector> e :
                 wordToSemantics.entrySet())
             vectorList[getIndexFor(e.getKey())] = e.getValue();
-        SparseMatrix matrix = Matrices.asSparseMatrix(
-                Arrays.asList(vectorList));
 
         // If maxwords was set to 0, save all words.
         if (maxWords == 0 || maxWords > wordToSemantics.size())
@@ -507,7 +503,6 @@ public class CoalsSaveStats implements SemanticSpaceSaveStats {
             ? maxDimensions 
             : wordCountList.size();
 
-        int[] rowMask = new int[maxWords];
         int[] colMask = new int[wordCount];
 
         // Create a new vector list to store the word semantics that will be
@@ -535,7 +530,6 @@ public class CoalsSaveStats implements SemanticSpaceSaveStats {
                 newVectorList[termCount] = vectorList[oldIndex];
                 
                 // Record the new dimension for this term.
-                rowMask[termCount] = termCount;
                 termToIndex.put(entry.getKey(), termCount);
                 termCount++;
             }
@@ -553,9 +547,8 @@ public class CoalsSaveStats implements SemanticSpaceSaveStats {
             indexToTerm[entry.getValue()] = entry.getKey();
 
         wordToSemantics = null;
-        matrix = Matrices.asSparseMatrix(Arrays.asList(newVectorList));
-        // Return a masked version of the original matrix.
-        return new CellMaskedSparseMatrix(matrix, rowMask, colMask);
+        // Return the retained columns of the retained rows.
+        return CompressedSparseRowMatrix.fromRows(newVectorList, colMask);
     }
 
     public void saveStatistics(String dirPlusSpaceNameNoExtension) {
@@ -6,13 +6,12 @@
 package cz.zcu.luk.sspace.common;
 
 import edu.ucla.sspace.basis.BasisMapping;
-import edu.ucla.sspace.basis.StringBasisMapping;
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
 import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.MatrixBuilder;
 import edu.ucla.sspace.matrix.MatrixFile;
-import edu.ucla.sspace.matrix.SparseHashMatrix;
 import edu.ucla.sspace.text.IteratorFactory;
 import edu.ucla.sspace.util.*;
 import edu.ucla.sspace.vector.*;
@@ -27,6 +26,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import cz.zcu.luk.sspace.matrix.*;
+import cz.zcu.luk.sspace.text.CompoundMatcher;
 
 
 /**
@@ -66,6 +66,12 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
     // LK added..
     private Set<String> compounds;
 
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
     private static final long serialVersionUID = 1L;
 
     protected static final Logger LOG =
@@ -127,7 +133,7 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
      *         the backing array files required for processing
      */
     public GenericTermDocumentVectorSpaceCompounds() throws IOException {
-        this(false,new StringBasisMapping(),Matrices.getMatrixBuilderForSVD(), Matrices.getMatrixBuilderForSVD(), null);
+        this(false,new ConcurrentVocabulary(),Matrices.getMatrixBuilderForSVD(), Matrices.getMatrixBuilderForSVD(), null);
     }
 
     /**
@@ -155,10 +161,13 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
         this.readHeaderToken = readHeaderToken;
         this.termToIndex = termToIndex;
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
         documentCounter = new AtomicInteger(0);
 
         // LK added..
-        this.compoundToIndex = new StringBasisMapping();
+        this.compoundToIndex = new ConcurrentVocabulary();
         this.compoundDocumentMatrixBuilder = compoundDocumentMatrixBuilder;
 
         this.termDocumentMatrixBuilder = termDocumentMatrixBuilder;
@@ -166,15 +175,17 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
         wordSpace = null;
     }
 
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
-    }
+    /**
+     * Counts the compound with the id {@code compound} in {@link
+     * #compoundMatcher}, if any, in the compound counts of a document.
+     */
+    private void countCompound(int compound, Counter<String> compoundCounts) {
+        if (compound == CompoundMatcher.NONE)
+            return;
+        String compoundMapped = compoundMatcher.compound(compound);
+        compoundToIndex.getDimension(compoundMapped);
 
-    private String mapTrigramCompound(String possibleCompound) {
-        String[] wordsInTrigram = possibleCompound.split(" ");
-        // remove the word in the middle
-        return wordsInTrigram[0] + " " + wordsInTrigram[2];
+        compoundCounts.count(compoundMapped);
     }
 
 
@@ -190,9 +201,10 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
      * @param document {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
-        // LK added
-        String removed = "";
-        String removedOld = "";
+        // LK added.. the compound matcher ids of the two previous words
+        int removedOuter = CompoundMatcher.NONE;
+        int removedMiddle = CompoundMatcher.NONE;
+        int removedOldOuter = CompoundMatcher.NONE;
 
         // Create a mapping for each term that is seen in the document to the
         // number of times it has been seen.  This mapping would more elegantly
@@ -226,21 +238,17 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
             String word = documentTokens.next();
 
             // LK added.. for compounds..
-            String possibleCompoundTrigram = removedOld + " " + removed + " " + word;
-            if (isCompound(possibleCompoundTrigram)) {
-                String compoundMapped = mapTrigramCompound(possibleCompoundTrigram);
-                compoundToIndex.getDimension(compoundMapped);
-
-                compoundCounts.count(compoundMapped);
-            }
-            String possibleCompoundBigram = removed + " " + word;
-            if (isCompound(possibleCompoundBigram)) {
-                // it should not happen that this is true when the previous condition is,
-                // however there is no "else" for unity since there is no "else"
-                // in HyperspaceAnalogueToLanguageCompounds..
-                compoundToIndex.getDimension(possibleCompoundBigram);
-
-                compoundCounts.count(possibleCompoundBigram);
+            int wordOuter = CompoundMatcher.NONE;
+            if (compoundMatcher != null) {
+                wordOuter = compoundMatcher.outerId(word);
+                countCompound(compoundMatcher.trigram(
+                        removedOldOuter, removedMiddle, wordOuter),
+                        compoundCounts);
+                // it should not happen that the bigram matches when the
+                // trigram does, however there is no "else" for unity since
+                // there is no "else" in HyperspaceAnalogueToLanguageCompounds..
+                countCompound(compoundMatcher.bigram(removedOuter, wordOuter),
+                        compoundCounts);
             }
 
                 // Skip added empty tokens for words that have been filtered out
@@ -254,8 +262,11 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
             termCounts.count(word);
 
             // LK added
-            removedOld = removed;
-            removed = word;
+            if (compoundMatcher != null) {
+                removedOldOuter = removedOuter;
+                removedOuter = wordOuter;
+                removedMiddle = compoundMatcher.middleId(word);
+            }
         }
 
         document.close();
@@ -404,8 +415,14 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
 
     /**
      * LK added
-     * @param transform
-     * @return
+     * Transforms the compound-document matrix with the statistics of the
+     * transform of the term-document matrix.  The matrix is read from the file
+     * of its builder straight into a {@link CompressedSparseRowMatrix}, and
+     * only its non-zero cells are transformed, on blocks of rows in parallel.
+     *
+     * @param transform the transform of the term-document matrix
+     * @return the transformed compound-document matrix, or {@code null} if
+     *         there is no transform
      */
     protected Matrix processCompoundSpace(TransformExtended transform) {
         // first ensure that we are no longer writing to the matrix
@@ -414,7 +431,6 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
         // Get the finished matrix file from the builder
         File compoundDocumentMatrix = compoundDocumentMatrixBuilder.getFile();
 
-        Matrix matrixCompounds = null;
         Matrix matrixCompoundsTransformed = null;
 
         // If a transform was specified, perform the matrix transform.
@@ -426,21 +442,14 @@ public abstract class GenericTermDocumentVectorSpaceCompounds
                     compoundDocumentMatrixBuilder.getMatrixFormat(),
                     compoundDocumentMatrix.getAbsolutePath());
 
-            // Convert the raw term counts using the specified transform
+            // Convert the raw compound counts using the specified transform
             MatrixFile mFile = new MatrixFile(
                     compoundDocumentMatrix,
                     compoundDocumentMatrixBuilder.getMatrixFormat());
-            matrixCompounds = mFile.load();
-            matrixCompoundsTransformed = new SparseHashMatrix(matrixCompounds.rows(), matrixCompounds.columns());
-            for (int i = 0; i < matrixCompounds.rows(); i++) {
-                DoubleVector dvs = new SparseHashDoubleVector(matrixCompounds.columns());
-                for (int j = 0; j < matrixCompounds.columns(); j++) {
-                    if (matrixCompounds.get(i, j) != 0) dvs.set(j, matrixCompounds.get(i, j));
-                }
-
-                transform.transformRow(dvs);
-                matrixCompoundsTransformed.setRow(i, dvs);
-            }
+            Matrix matrixCompounds = CompressedSparseRowMatrix.fromFile(
+                    mFile, compoundToIndex.numDimensions(), 0);
+            matrixCompoundsTransformed =
+                transform.transformRows(matrixCompounds);
 
             LoggerUtil.verbose(
                     LOG, "transformed matrix to %s",
@@ -6,31 +6,30 @@
 package cz.zcu.luk.sspace.common;
 
 import edu.ucla.sspace.basis.BasisMapping;
-import edu.ucla.sspace.basis.StringBasisMapping;
 import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.MatrixBuilder;
 import edu.ucla.sspace.matrix.MatrixFile;
-import edu.ucla.sspace.matrix.SparseHashMatrix;
 import edu.ucla.sspace.util.*;
-import edu.ucla.sspace.vector.DoubleVector;
-import edu.ucla.sspace.vector.SparseHashDoubleVector;
 import edu.ucla.sspace.vector.Vector;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
 import cz.zcu.luk.sspace.matrix.*;
+import cz.zcu.luk.sspace.text.CompoundMatcher;
 import cz.zcu.luk.sspace.text.IteratorFactoryStopwords;
+import cz.zcu.luk.sspace.text.TokenIdIterator;
 
 
 /**
@@ -70,6 +69,12 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
     // LK added..
     private Set<String> compounds;
 
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
     private static final long serialVersionUID = 1L;
 
     protected static final Logger LOG =
@@ -131,7 +136,7 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
      *         the backing array files required for processing
      */
     public GenericTermDocumentVectorSpaceCompoundsStopwords() throws IOException {
-        this(false,new StringBasisMapping(),Matrices.getMatrixBuilderForSVD(), Matrices.getMatrixBuilderForSVD(), null);
+        this(false,new ConcurrentVocabulary(),Matrices.getMatrixBuilderForSVD(), Matrices.getMatrixBuilderForSVD(), null);
     }
 
     /**
@@ -159,10 +164,13 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
         this.readHeaderToken = readHeaderToken;
         this.termToIndex = termToIndex;
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
         documentCounter = new AtomicInteger(0);
 
         // LK added..
-        this.compoundToIndex = new StringBasisMapping();
+        this.compoundToIndex = new ConcurrentVocabulary();
         this.compoundDocumentMatrixBuilder = compoundDocumentMatrixBuilder;
 
         this.termDocumentMatrixBuilder = termDocumentMatrixBuilder;
@@ -170,21 +178,14 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
         wordSpace = null;
     }
 
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
-    }
-
-    private String mapTrigramCompound(String possibleCompound) {
-        String[] wordsInTrigram = possibleCompound.split(" ");
-        // remove the word in the middle
-        return wordsInTrigram[0] + " " + wordsInTrigram[2];
-    }
-
-
     /**
-     * Tokenizes the document using the {@link edu.ucla.sspace.text.IteratorFactory} and updates the
-     * term-document frequency counts.
+     * Tokenizes the document to the {@link
+     * IteratorFactoryStopwords#tokenizeOrderedIds(BufferedReader,
+     * BasisMapping) dimensions} of its terms in {@link #termToIndex} and
+     * updates the term-document frequency counts.  The stopwords are dropped
+     * before they reach the basis, and are only matched as the middle words of
+     * the compounds, by their ids in the {@link CompoundMatcher}.  A compound
+     * is added to {@link #compoundToIndex} when it is first matched.
      *
      * <p>
      *
@@ -194,31 +195,28 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
      * @param document {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
-        // LK added
-        String removed = null;
-        String removedOld = null;
-
-        // Create a mapping for each term that is seen in the document to the
-        // number of times it has been seen.  This mapping would more elegantly
-        // be a SparseArray<Integer> however, the length of the sparse array
-        // isn't known ahead of time, which prevents it being used by the
-        // MatrixBuilder.  Note that the SparseArray implementation would also
-        // incur an additional performance hit since each word would have to be
-        // converted to its index form for each occurrence, which results in a
-        // double Map look-up.
-        Counter<String> termCounts = new ObjectCounter<String>();
+        // LK added.. the matcher ids of the two previous tokens, where the
+        // stopwords are only matched in the middle of a trigram
+        int removedOuter = CompoundMatcher.NONE;
+        int removedMiddle = CompoundMatcher.NONE;
+        int removedOldOuter = CompoundMatcher.NONE;
+
+        // The number of occurrences of each term dimension and compound id in
+        // the document
+        IdCounter termCounts = new IdCounter();
 
         // LK added
-        Counter<String> compoundCounts = new ObjectCounter<String>();
+        IdCounter compoundCounts = new IdCounter();
 
-        Iterator<String> documentTokens = IteratorFactoryStopwords.tokenizeOrdered(document);
+        TokenIdIterator documentTokens =
+            IteratorFactoryStopwords.tokenizeOrderedIds(document, termToIndex);
 
         // Increaes the count of documents observed so far.
         int docCount = documentCounter.getAndAdd(1);
 
         // If the first token is to be interpreted as a document header read it.
         if (readHeaderToken)
-            handleDocumentHeader(docCount, documentTokens.next());
+            handleDocumentHeader(docCount, documentTokens.nextToken());
 
         // If the document is empty, skip it
         if (!documentTokens.hasNext())
@@ -227,73 +225,36 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
         // For each word in the text document, keep a count of how many times it
         // has occurred
         while (documentTokens.hasNext()) {
-            // LK changed
-            //String word = documentTokens.next();
-            String word;
-            String possibleWord = documentTokens.next();
-            if (possibleWord.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                word = IteratorFactoryStopwords.EMPTY_TOKEN;
-            }
-            else {
-                word = possibleWord;
-            }
+            int term = documentTokens.next();
+            boolean stopword = documentTokens.stopword();
 
             // LK added.. for compounds..
-            if (compounds != null) {
-                String removedOldWord = null;
-                if (removedOld != null) {
-                    if (removedOld.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                        removedOldWord = IteratorFactoryStopwords.EMPTY_TOKEN;
-                    }
-                    else {
-                        removedOldWord = removedOld;
-                    }
-                }
-                String removedReal = null;
-                String removedWord = null;
-                if (removed != null) {
-                    if (removed.endsWith(IteratorFactoryStopwords.STOPWORD_FLAG)) {
-                        removedWord = IteratorFactoryStopwords.EMPTY_TOKEN;
-                        removedReal = removed.substring(0, removed.length()-IteratorFactoryStopwords.STOPWORD_FLAG.length()); // store the stopword!
-                    }
-                    else {
-                        removedWord = removed;
-                        removedReal = removed;
-                    }
-                }
-
-                String possibleCompoundTrigram = removedOldWord + " " + removedReal + " " + word;
-                if (isCompound(possibleCompoundTrigram)) {
-                    String compoundMapped = mapTrigramCompound(possibleCompoundTrigram);
-                    compoundToIndex.getDimension(compoundMapped);
-
-                    compoundCounts.count(compoundMapped);
-                }
-                String possibleCompoundBigram = removedWord + " " + word;
-                if (isCompound(possibleCompoundBigram)) {
-                    // it should not happen that this is true when the previous condition is,
-                    // however there is no "else" for unity since there is no "else"
-                    // in HyperspaceAnalogueToLanguageCompounds..
-                    compoundToIndex.getDimension(possibleCompoundBigram);
-
-                    compoundCounts.count(possibleCompoundBigram);
-                }
+            if (compoundMatcher != null) {
+                String token = documentTokens.token();
+                int tokenOuter = stopword
+                    ? CompoundMatcher.NONE
+                    : compoundMatcher.outerId(token);
+                int compound = compoundMatcher.trigram(
+                    removedOldOuter, removedMiddle, tokenOuter);
+                if (compound != CompoundMatcher.NONE)
+                    compoundCounts.add(compound);
+                // it should not happen that the bigram matches when the
+                // trigram does, however there is no "else" for unity since
+                // there is no "else" in HyperspaceAnalogueToLanguageCompounds..
+                compound = compoundMatcher.bigram(removedOuter, tokenOuter);
+                if (compound != CompoundMatcher.NONE)
+                    compoundCounts.add(compound);
+
+                // I believe there was a bug!!! removedOld and removed has to be set before skipping the word..!
+                // LK added
+                removedOldOuter = removedOuter;
+                removedOuter = tokenOuter;
+                removedMiddle = compoundMatcher.middleId(token);
             }
 
-            // I believe there was a bug!!! removedOld and removed has to be set before skipping the word..!
-            // LK added
-            removedOld = removed;
-            removed = possibleWord;
-
-                // Skip added empty tokens for words that have been filtered out
-            if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
-                continue;
-
-            // Add the term to the total list of terms to ensure it has a proper
-            // index.  If the term was already added, this method is a no-op
-            termToIndex.getDimension(word);
-
-            termCounts.count(word);
+            // Skip the words that have been filtered out
+            if (term >= 0)
+                termCounts.add(term);
         }
 
         document.close();
@@ -306,16 +267,22 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
         if (termCounts.size() == 0 && compoundCounts.size() == 0)
             return;
 
+        // Add the compounds to the total list of compounds to ensure they have
+        // a proper index.  If a compound was already added, this is a no-op
+        int[] compoundIndices = new int[compoundCounts.size()];
+        for (int i = 0; i < compoundIndices.length; ++i)
+            compoundIndices[i] = compoundToIndex.getDimension(
+                compoundMatcher.compound(compoundCounts.id(i)));
+
         // Get the total number of terms encountered so far, including any new
         // unique terms found in the most recent document
         int totalNumberOfUniqueWords = termToIndex.numDimensions();
 
-        // Convert the Map count to a SparseArray
+        // Convert the counts to a SparseArray
         SparseArray<Integer> documentColumn =
             new SparseIntHashArray(totalNumberOfUniqueWords);
-        for (Map.Entry<String,Integer> e : termCounts)
-            documentColumn.set(
-                    termToIndex.getDimension(e.getKey()), e.getValue());
+        for (int i = 0; i < termCounts.size(); ++i)
+            documentColumn.set(termCounts.id(i), termCounts.count(i));
 
         // Update the term-document matrix with the results of processing the
         // document.
@@ -323,16 +290,79 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
 
         // LK added.. for compounds..
         int totalNumberOfUniqueCompounds = compoundToIndex.numDimensions();
-        // Convert the Map count to a SparseArray
+        // Convert the counts to a SparseArray
         SparseArray<Integer> documentColumnForCompounds =
                 new SparseIntHashArray(totalNumberOfUniqueCompounds);
-        for (Map.Entry<String,Integer> e : compoundCounts) {
+        for (int i = 0; i < compoundIndices.length; ++i)
             documentColumnForCompounds.set(
-                    compoundToIndex.getDimension(e.getKey()), e.getValue());
-        }
+                    compoundIndices[i], compoundCounts.count(i));
         compoundDocumentMatrixBuilder.addColumn(documentColumnForCompounds);
     }
 
+    /**
+     * The number of occurrences of each id in a document, kept in the order of
+     * the first occurrence of the ids.
+     */
+    private static class IdCounter {
+
+        private int[] ids = new int[16];
+
+        private int[] counts = new int[16];
+
+        private int size = 0;
+
+        /**
+         * The position of each counted id in {@code ids} plus one, in an
+         * open-addressing table, where 0 marks a free slot.
+         */
+        private int[] table = new int[32];
+
+        void add(int id) {
+            int mask = table.length - 1;
+            int slot = (id * 0x9E3779B9) >>> 1 & mask;
+            while (table[slot] != 0) {
+                int i = table[slot] - 1;
+                if (ids[i] == id) {
+                    counts[i]++;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                counts = Arrays.copyOf(counts, 2 * size);
+            }
+            ids[size] = id;
+            counts[size] = 1;
+            table[slot] = ++size;
+            if (2 * size > table.length)
+                rehash();
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            int mask = table.length - 1;
+            for (int i = 0; i < size; ++i) {
+                int slot = (ids[i] * 0x9E3779B9) >>> 1 & mask;
+                while (table[slot] != 0)
+                    slot = (slot + 1) & mask;
+                table[slot] = i + 1;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        int id(int i) {
+            return ids[i];
+        }
+
+        int count(int i) {
+            return counts[i];
+        }
+    }
+
 //    /**
 //     * {@inheritDoc}
 //     */
@@ -442,8 +472,14 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
 
     /**
      * LK added
-     * @param transform
-     * @return
+     * Transforms the compound-document matrix with the statistics of the
+     * transform of the term-document matrix.  The matrix is read from the file
+     * of its builder straight into a {@link CompressedSparseRowMatrix}, and
+     * only its non-zero cells are transformed, on blocks of rows in parallel.
+     *
+     * @param transform the transform of the term-document matrix
+     * @return the transformed compound-document matrix, or {@code null} if
+     *         there is no transform
      */
     protected Matrix processCompoundSpace(TransformExtended transform) {
         // first ensure that we are no longer writing to the matrix
@@ -452,7 +488,6 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
         // Get the finished matrix file from the builder
         File compoundDocumentMatrix = compoundDocumentMatrixBuilder.getFile();
 
-        Matrix matrixCompounds = null;
         Matrix matrixCompoundsTransformed = null;
 
         // If a transform was specified, perform the matrix transform.
@@ -464,21 +499,14 @@ public abstract class GenericTermDocumentVectorSpaceCompoundsStopwords
                     compoundDocumentMatrixBuilder.getMatrixFormat(),
                     compoundDocumentMatrix.getAbsolutePath());
 
-            // Convert the raw term counts using the specified transform
+            // Convert the raw compound counts using the specified transform
             MatrixFile mFile = new MatrixFile(
                     compoundDocumentMatrix,
                     compoundDocumentMatrixBuilder.getMatrixFormat());
-            matrixCompounds = mFile.load();
-            matrixCompoundsTransformed = new SparseHashMatrix(matrixCompounds.rows(), matrixCompounds.columns());
-            for (int i = 0; i < matrixCompounds.rows(); i++) {
-                DoubleVector dvs = new SparseHashDoubleVector(matrixCompounds.columns());
-                for (int j = 0; j < matrixCompounds.columns(); j++) {
-                    if (matrixCompounds.get(i, j) != 0) dvs.set(j, matrixCompounds.get(i, j));
-                }
-
-                transform.transformRow(dvs);
-                matrixCompoundsTransformed.setRow(i, dvs);
-            }
+            Matrix matrixCompounds = CompressedSparseRowMatrix.fromFile(
+                    mFile, compoundToIndex.numDimensions(), 0);
+            matrixCompoundsTransformed =
+                transform.transformRows(matrixCompounds);
 
             LoggerUtil.verbose(
                     LOG, "transformed matrix to %s",
@@ -27,11 +27,9 @@ import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.MatrixBuilder;
 import edu.ucla.sspace.matrix.MatrixFile;
-import edu.ucla.sspace.matrix.SparseHashMatrix;
 import edu.ucla.sspace.matrix.Transform;
 import edu.ucla.sspace.text.IteratorFactory;
 import edu.ucla.sspace.util.*;
-import edu.ucla.sspace.vector.SparseDoubleVector;
 import edu.ucla.sspace.vector.Vector;
 
 import java.io.BufferedReader;
@@ -84,7 +82,11 @@ public abstract class GenericTermDocumentVectorSpaceLoadStats
     protected static final Logger LOG =
         Logger.getLogger(GenericTermDocumentVectorSpaceLoadStats.class.getName());
 
-    protected ArrayList<Integer> processedDocNumbers;
+    /**
+     * The numbers of the documents which the first pass over the corpus
+     * processed, which are the only ones processed again.
+     */
+    protected ProcessedDocuments processedDocNumbers;
 
     /**
      * A mapping from a word to the row index in the that word-document matrix
@@ -197,18 +199,20 @@ public abstract class GenericTermDocumentVectorSpaceLoadStats
         // converted to its index form for each occurrence, which results in a
         // double Map look-up.
         Counter<String> otherCounts = new ObjectCounter<String>();
-        //Iterator<String> documentTokens = IteratorFactory.tokenize(document);
-        // LK change.. otherwise document is considered as empty even if it contains stopwords!
-        Iterator<String> documentTokens = IteratorFactory.tokenizeOrdered(document);
-        //System.out.println(documentTokens.getClass().toString());
-
         // Increaes the count of documents observed so far.
         int docCount = documentCounter.getAndAdd(1);
 
-        // LK added..
+        // LK added.. documents which the first pass did not process are
+        // skipped before they are tokenized
         if (!processedDocNumbers.contains(docCount)) {
+            document.close();
             return;
         }
+
+        //Iterator<String> documentTokens = IteratorFactory.tokenize(document);
+        // LK change.. otherwise document is considered as empty even if it contains stopwords!
+        Iterator<String> documentTokens = IteratorFactory.tokenizeOrdered(document);
+        //System.out.println(documentTokens.getClass().toString());
         //System.out.println(processedDocNumbers.toString());
         // If the first token is to be interpreted as a document header read it.
         if (readHeaderToken)
@@ -344,8 +348,14 @@ public abstract class GenericTermDocumentVectorSpaceLoadStats
 
     /**
      * LK added
-     * @param transform
-     * @return
+     * Transforms the other-document matrix with the statistics of the
+     * transform of the term-document matrix.  The matrix is read from the file
+     * of its builder straight into a {@link CompressedSparseRowMatrix}, and
+     * only its non-zero cells are transformed, on blocks of rows in parallel.
+     *
+     * @param transform the transform of the term-document matrix
+     * @return the transformed other-document matrix, or {@code null} if there
+     *         is no transform
      */
     protected Matrix processOtherSpace(TransformExtended transform) {
         // first ensure that we are no longer writing to the matrix
@@ -370,29 +380,14 @@ public abstract class GenericTermDocumentVectorSpaceLoadStats
             MatrixFile mFile = new MatrixFile(
                     otherDocumentMatrix,
                     otherDocumentMatrixBuilder.getMatrixFormat());
-            matrixOthers = mFile.load();
+            // The matrix file does not have to record the empty columns of the
+            // last documents, so the matrix is given a column for each
+            // processed document
+            matrixOthers = CompressedSparseRowMatrix.fromFile(
+                    mFile, 0, processedDocNumbers.size());
             LoggerUtil.info(LOG, "Matrix loaded in memory!");
 
-            // new LK hack.. since the matrix size does not have to be stored into file
-            // (consider adding last empty column to Matlab sparse matrix builder and its finish method..)
-            // add 0 (does not change anything since the value is 0) to ensure the right matrix size..
-            if (matrixOthers.columns() != processedDocNumbers.size()) {
-                int oldColsCount = matrixOthers.columns();
-                matrixOthers.set(0, processedDocNumbers.size()-1, 0);
-                System.out.println("Fixing column size!!! From: " + oldColsCount + " to: " + matrixOthers.columns() + "=" + (processedDocNumbers.size()));
-            }
-            else {
-                System.out.println("Fixing column size not needed!!! " + matrixOthers.columns() + " = " + (processedDocNumbers.size()));
-            }
-
-            matrixOthersTransformed = new SparseHashMatrix(matrixOthers.rows(), matrixOthers.columns());
-            for (int i = 0; i < matrixOthers.rows(); i++) {
-                SparseDoubleVector transformedRowVec = transform.transformRow(matrixOthers.getRowVector(i));
-                for (int nz : transformedRowVec.getNonZeroIndices()) {
-                    matrixOthersTransformed.set(i, nz, transformedRowVec.get(nz));
-                }
-                if (i % 10000 == 0) LoggerUtil.info(LOG, "Transformed row number: %s", i);
-            }
+            matrixOthersTransformed = transform.transformRows(matrixOthers);
 
             LoggerUtil.verbose(
                     LOG, "transformed matrix to %s",
@@ -85,7 +85,11 @@ public abstract class GenericTermDocumentVectorSpaceLoadStatsExpsStops
     protected static final Logger LOG =
         Logger.getLogger(GenericTermDocumentVectorSpaceLoadStatsExpsStops.class.getName());
 
-    protected ArrayList<Integer> processedDocNumbers;
+    /**
+     * The numbers of the documents which the first pass over the corpus
+     * processed, which are the only ones processed again.
+     */
+    protected ProcessedDocuments processedDocNumbers;
 
     /**
      * A mapping from a word to the row index in the that word-document matrix
@@ -221,19 +225,21 @@ public abstract class GenericTermDocumentVectorSpaceLoadStatsExpsStops
         // converted to its index form for each occurrence, which results in a
         // double Map look-up.
         Counter<String> expressionCounts = new ObjectCounter<String>();
-        //Iterator<String> documentTokens = IteratorFactoryStopwords.tokenize(document);
-        // LK change.. otherwise document is considered as empty even if it contains stopwords!
-        Iterator<String> documentTokens = IteratorFactoryStopwords.tokenizeOrdered(document);
-        //System.out.println(documentTokens.getClass().toString());
-
         // Increases the count of documents observed so far.
         int docCount = documentCounter.getAndAdd(1);
 
-        // LK added..
+        // LK added.. documents which the first pass did not process are
+        // skipped before they are tokenized
         if (!processedDocNumbers.contains(docCount)) {
+            document.close();
             return;
         }
 
+        //Iterator<String> documentTokens = IteratorFactoryStopwords.tokenize(document);
+        // LK change.. otherwise document is considered as empty even if it contains stopwords!
+        Iterator<String> documentTokens = IteratorFactoryStopwords.tokenizeOrdered(document);
+        //System.out.println(documentTokens.getClass().toString());
+
         // If the first token is to be interpreted as a document header read it.
         if (readHeaderToken)
             handleDocumentHeader(docCount, documentTokens.next());
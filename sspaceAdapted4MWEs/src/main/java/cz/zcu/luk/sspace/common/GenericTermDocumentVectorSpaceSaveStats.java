@@ -82,7 +82,11 @@ public abstract class GenericTermDocumentVectorSpaceSaveStats
     protected static final Logger LOG =
         Logger.getLogger(GenericTermDocumentVectorSpaceSaveStats.class.getName());
 
-    protected ArrayList<Integer> processedDocNumbers;
+    /**
+     * The numbers of the documents which contain at least one term, which
+     * are the only ones processed by the second pass over the corpus.
+     */
+    protected final ProcessedDocuments processedDocNumbers;
 
     /**
      * A mapping from a word to the row index in the that word-document matrix
@@ -154,7 +158,7 @@ public abstract class GenericTermDocumentVectorSpaceSaveStats
         this.termDocumentMatrixBuilder = termDocumentMatrixBuilder;
 
         // LK added
-        processedDocNumbers = new ArrayList<Integer>();
+        processedDocNumbers = new ProcessedDocuments();
 
         wordSpace = null;
     }
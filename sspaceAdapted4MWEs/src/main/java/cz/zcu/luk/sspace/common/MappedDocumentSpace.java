@@ -0,0 +1,342 @@
+package cz.zcu.luk.sspace.common;
+
+import edu.ucla.sspace.common.SemanticSpace;
+import edu.ucla.sspace.util.BoundedSortedMultiMap;
+import edu.ucla.sspace.util.SortedMultiMap;
+import edu.ucla.sspace.vector.DenseVector;
+import edu.ucla.sspace.vector.DoubleVector;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cz.zcu.luk.sspace.lsa.LatentSemanticAnalysisModified;
+import cz.zcu.luk.sspace.matrix.RowBlocks;
+
+/**
+ * A read-only document space whose vectors are kept in a memory-mapped file,
+ * so that it is opened without reading the file and its size is bounded by the
+ * page cache rather than by the heap.  The words of the space are the integer
+ * headers of the documents, as {@link DocumentSemanticSpace} has them.<p>
+ *
+ * The file starts with the number of documents and of dimensions, followed by
+ * the headers in increasing order, and then by the vectors of the documents in
+ * the same order, as contiguous rows of floats.  A header is found by a binary
+ * search of the mapped headers, whose position is the row of its vector, so no
+ * index is built on the heap.  {@link #getMostSimilar(String, int)} compares a
+ * document with all the others in one sequential pass over the rows, on blocks
+ * of rows in parallel, with {@link RowBlocks}.<p>
+ *
+ * The file is written by {@link #write(File, LatentSemanticAnalysisModified)}
+ * from a space which retained its document space.  The vectors are stored as
+ * floats, so they are read back with the precision of a float.
+ */
+public class MappedDocumentSpace implements SemanticSpace {
+
+    /**
+     * The bytes of the counts which start the file.
+     */
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * The largest number of bytes of vectors mapped at once.
+     */
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    /**
+     * The number of documents compared by one task of {@link
+     * #getMostSimilar(String, int)}.
+     */
+    private static final int ROWS_PER_TASK = 4096;
+
+    private final String spaceName;
+
+    private final int documents;
+
+    private final int dimensions;
+
+    /**
+     * The headers of the documents, in increasing order.
+     */
+    private final IntBuffer headers;
+
+    /**
+     * The vectors of the documents, in chunks of {@link #rowsPerChunk} rows.
+     */
+    private final FloatBuffer[] chunks;
+
+    private final int rowsPerChunk;
+
+    /**
+     * Maps the file written by {@link #write(File,
+     * LatentSemanticAnalysisModified)}.
+     *
+     * @param spaceName the name returned by {@link #getSpaceName()}
+     */
+    public MappedDocumentSpace(File file, String spaceName) {
+        this.spaceName = spaceName;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                0, HEADER_BYTES);
+                documents = counts.getInt(0);
+                dimensions = counts.getInt(4);
+                if (documents < 0 || dimensions <= 0)
+                    throw new IllegalArgumentException(
+                        "Not a document space file: " + file);
+                long vectorsStart = HEADER_BYTES + 4L * documents;
+                if (channel.size() !=
+                        vectorsStart + 4L * documents * dimensions)
+                    throw new IllegalArgumentException(
+                        "Truncated document space file: " + file);
+                headers = channel.map(FileChannel.MapMode.READ_ONLY,
+                                      HEADER_BYTES, 4L * documents)
+                    .asIntBuffer();
+                rowsPerChunk = Math.max(1, MAX_CHUNK_BYTES / (4 * dimensions));
+                chunks = new FloatBuffer[
+                    (documents + rowsPerChunk - 1) / rowsPerChunk];
+                for (int c = 0; c < chunks.length; ++c) {
+                    int rows = Math.min(rowsPerChunk,
+                                        documents - c * rowsPerChunk);
+                    MappedByteBuffer chunk = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        vectorsStart + 4L * c * rowsPerChunk * dimensions,
+                        4L * rows * dimensions);
+                    chunks[c] = chunk.asFloatBuffer();
+                }
+            } finally {
+                // The mappings stay valid after the file is closed
+                raf.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Writes the document space of the LSA space to the file, with the
+     * headers of the documents which were processed.
+     *
+     * @throws IllegalArgumentException if the space did not retain its
+     *         document space
+     */
+    public static void write(File file, LatentSemanticAnalysisModified lsa) {
+        Map<Integer, Integer> headerToIndex = lsa.getHeaderToIndex();
+        int size = lsa.documentSpaceSize();
+        int[] sorted = new int[headerToIndex.size()];
+        int count = 0;
+        for (Map.Entry<Integer, Integer> e : headerToIndex.entrySet())
+            if (e.getValue() < size)
+                sorted[count++] = e.getKey();
+        sorted = Arrays.copyOf(sorted, count);
+        Arrays.sort(sorted);
+        int dimensions = lsa.getDimensions();
+        try {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(count);
+                out.writeInt(dimensions);
+                for (int header : sorted)
+                    out.writeInt(header);
+                for (int header : sorted) {
+                    DoubleVector vector =
+                        lsa.getDocumentVector(headerToIndex.get(header));
+                    for (int i = 0; i < dimensions; ++i)
+                        out.writeFloat((float) vector.get(i));
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Returns the row of the document with the header, or {@code -1} if the
+     * space does not hold the document.
+     */
+    private int rowOf(String word) {
+        int header;
+        try {
+            header = Integer.parseInt(word);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+        int low = 0;
+        int high = documents - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int h = headers.get(mid);
+            if (h < header)
+                low = mid + 1;
+            else if (h > header)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the vector of the row into {@code vector}.
+     */
+    private void readRow(int row, float[] vector) {
+        FloatBuffer chunk = chunks[row / rowsPerChunk].duplicate();
+        chunk.position((row % rowsPerChunk) * dimensions);
+        chunk.get(vector);
+    }
+
+    /**
+     * Returns the number of documents in the space.
+     */
+    public int documents() {
+        return documents;
+    }
+
+    /**
+     * Returns the headers of the documents, in increasing order.
+     */
+    public Set<String> getWords() {
+        return new AbstractSet<String>() {
+            public int size() {
+                return documents;
+            }
+
+            public boolean contains(Object o) {
+                return o instanceof String && rowOf((String) o) >= 0;
+            }
+
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int row = 0;
+
+                    public boolean hasNext() {
+                        return row < documents;
+                    }
+
+                    public String next() {
+                        if (row >= documents)
+                            throw new NoSuchElementException();
+                        return String.valueOf(headers.get(row++));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException(
+                            "The document space is read only");
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the vector of the document with the header, or {@code null} if
+     * the space does not hold the document.
+     */
+    public DoubleVector getVector(String word) {
+        int row = rowOf(word);
+        if (row < 0)
+            return null;
+        float[] vector = new float[dimensions];
+        readRow(row, vector);
+        double[] values = new double[dimensions];
+        for (int i = 0; i < dimensions; ++i)
+            values[i] = vector[i];
+        return new DenseVector(values);
+    }
+
+    /**
+     * Returns the {@code k} documents whose vectors have the highest cosine
+     * similarity with the vector of the document with the header, which is
+     * not among them, or {@code null} if the space does not hold the
+     * document.  An exception thrown while comparing the documents is
+     * rethrown once all the comparisons have finished.
+     */
+    public SortedMultiMap<Double, String> getMostSimilar(String word,
+                                                         final int k) {
+        final int row = rowOf(word);
+        if (row < 0)
+            return null;
+        final float[] query = new float[dimensions];
+        readRow(row, query);
+        final double queryNorm = norm(query);
+
+        int tasks = (documents + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        final AtomicReferenceArray<SortedMultiMap<Double, Integer>> partials =
+            new AtomicReferenceArray<SortedMultiMap<Double, Integer>>(tasks);
+        RowBlocks.forEachBlock(documents, ROWS_PER_TASK,
+                               new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                SortedMultiMap<Double, Integer> mostSimilar =
+                    new BoundedSortedMultiMap<Double, Integer>(k, false);
+                float[] vector = new float[dimensions];
+                for (int r = from; r < to; ++r) {
+                    if (r == row)
+                        continue;
+                    readRow(r, vector);
+                    double dot = 0;
+                    for (int i = 0; i < dimensions; ++i)
+                        dot += (double) query[i] * vector[i];
+                    double norms = queryNorm * norm(vector);
+                    mostSimilar.put((norms == 0) ? 0 : dot / norms, r);
+                }
+                partials.set(from / ROWS_PER_TASK, mostSimilar);
+            }
+        });
+
+        SortedMultiMap<Double, String> mostSimilar =
+            new BoundedSortedMultiMap<Double, String>(k, false);
+        for (int i = 0; i < tasks; ++i)
+            for (Map.Entry<Double, Integer> e : partials.get(i).entrySet())
+                mostSimilar.put(e.getKey(),
+                                String.valueOf(headers.get(e.getValue())));
+        return mostSimilar;
+    }
+
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (int i = 0; i < vector.length; ++i)
+            sum += (double) vector[i] * vector[i];
+        return Math.sqrt(sum);
+    }
+
+    public void processDocument(BufferedReader document) throws IOException {
+        throw new UnsupportedOperationException(
+            "The document space is read only");
+    }
+
+    public void processSpace(Properties properties) {
+        throw new UnsupportedOperationException(
+            "The document space is read only");
+    }
+
+    public String getSpaceName() {
+        return spaceName;
+    }
+
+    public int getVectorLength() {
+        return dimensions;
+    }
+}
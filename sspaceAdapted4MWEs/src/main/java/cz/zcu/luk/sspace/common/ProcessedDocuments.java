@@ -0,0 +1,186 @@
+package cz.zcu.luk.sspace.common;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * The numbers of the documents which a first pass over a corpus processed, as
+ * a bitmap, so that the second pass tells in constant time whether to process
+ * a document.  The bitmap is split in pages of {@value #BITS_PER_PAGE} bits,
+ * which are allocated when their first document is added, and its bits are set
+ * and read atomically, so documents may be added and looked up by several
+ * threads at once without locking.<p>
+ *
+ * The set is serialized as the words of the bitmap up to its highest document.
+ * {@link #load(String)} also reads the lists of document numbers which were
+ * saved before the set existed.
+ */
+public class ProcessedDocuments implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int PAGE_SHIFT = 16;
+
+    private static final int BITS_PER_PAGE = 1 << PAGE_SHIFT;
+
+    private static final int WORDS_PER_PAGE = BITS_PER_PAGE / 64;
+
+    /**
+     * The number of pages which cover all the non-negative ints.
+     */
+    private static final int PAGES = 1 << (31 - PAGE_SHIFT);
+
+    private transient AtomicReferenceArray<AtomicLongArray> pages;
+
+    private transient AtomicInteger size;
+
+    /**
+     * Creates an empty set.
+     */
+    public ProcessedDocuments() {
+        pages = new AtomicReferenceArray<AtomicLongArray>(PAGES);
+        size = new AtomicInteger();
+    }
+
+    /**
+     * Reads the set written to the file by {@link
+     * Serializer#serializeData(Object, String)}, or a collection of the
+     * document numbers written by earlier versions.
+     *
+     * @throws IllegalArgumentException if the file does not hold the numbers
+     *         of the processed documents
+     */
+    public static ProcessedDocuments load(String fileName) {
+        Object data = Serializer.deserialiazeData(fileName);
+        if (data instanceof ProcessedDocuments)
+            return (ProcessedDocuments) data;
+        if (!(data instanceof Collection))
+            throw new IllegalArgumentException(
+                "No processed documents in file: " + fileName);
+        ProcessedDocuments documents = new ProcessedDocuments();
+        for (Object docNumber : (Collection<?>) data)
+            documents.add((Integer) docNumber);
+        return documents;
+    }
+
+    /**
+     * Adds the document number to the set.
+     *
+     * @return {@code true} if the set did not hold the number
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public boolean add(int docNumber) {
+        if (docNumber < 0)
+            throw new IllegalArgumentException(
+                "Negative document number: " + docNumber);
+        AtomicLongArray page = pages.get(docNumber >>> PAGE_SHIFT);
+        if (page == null) {
+            pages.compareAndSet(docNumber >>> PAGE_SHIFT, null,
+                                new AtomicLongArray(WORDS_PER_PAGE));
+            page = pages.get(docNumber >>> PAGE_SHIFT);
+        }
+        int word = (docNumber & (BITS_PER_PAGE - 1)) >>> 6;
+        long bit = 1L << docNumber;
+        long bits = page.get(word);
+        while ((bits & bit) == 0) {
+            if (page.compareAndSet(word, bits, bits | bit)) {
+                size.incrementAndGet();
+                return true;
+            }
+            bits = page.get(word);
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if the set holds the document number.
+     */
+    public boolean contains(int docNumber) {
+        if (docNumber < 0)
+            return false;
+        AtomicLongArray page = pages.get(docNumber >>> PAGE_SHIFT);
+        if (page == null)
+            return false;
+        int word = (docNumber & (BITS_PER_PAGE - 1)) >>> 6;
+        return (page.get(word) & (1L << docNumber)) != 0;
+    }
+
+    /**
+     * Returns the number of documents in the set.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the document numbers of the set, in increasing order.
+     */
+    public int[] toArray() {
+        int[] docNumbers = new int[size()];
+        int count = 0;
+        for (int p = 0; p < PAGES && count < docNumbers.length; ++p) {
+            AtomicLongArray page = pages.get(p);
+            if (page == null)
+                continue;
+            for (int w = 0; w < WORDS_PER_PAGE; ++w) {
+                long bits = page.get(w);
+                while (bits != 0 && count < docNumbers.length) {
+                    int b = Long.numberOfTrailingZeros(bits);
+                    docNumbers[count++] = (p << PAGE_SHIFT) + (w << 6) + b;
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return docNumbers;
+    }
+
+    /**
+     * Writes the number of words of the bitmap up to its highest document,
+     * and the words.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int lastPage = PAGES - 1;
+        while (lastPage >= 0 && pages.get(lastPage) == null)
+            lastPage--;
+        int words = 0;
+        if (lastPage >= 0) {
+            AtomicLongArray page = pages.get(lastPage);
+            int lastWord = WORDS_PER_PAGE - 1;
+            while (lastWord > 0 && page.get(lastWord) == 0)
+                lastWord--;
+            words = lastPage * WORDS_PER_PAGE + lastWord + 1;
+        }
+        out.writeInt(words);
+        for (int w = 0; w < words; ++w) {
+            AtomicLongArray page = pages.get(w / WORDS_PER_PAGE);
+            out.writeLong((page == null) ? 0 : page.get(w % WORDS_PER_PAGE));
+        }
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pages = new AtomicReferenceArray<AtomicLongArray>(PAGES);
+        size = new AtomicInteger();
+        int words = in.readInt();
+        for (int w = 0; w < words; ++w) {
+            long bits = in.readLong();
+            if (bits == 0)
+                continue;
+            AtomicLongArray page = pages.get(w / WORDS_PER_PAGE);
+            if (page == null) {
+                page = new AtomicLongArray(WORDS_PER_PAGE);
+                pages.set(w / WORDS_PER_PAGE, page);
+            }
+            page.set(w % WORDS_PER_PAGE, bits);
+            size.addAndGet(Long.bitCount(bits));
+        }
+    }
+}
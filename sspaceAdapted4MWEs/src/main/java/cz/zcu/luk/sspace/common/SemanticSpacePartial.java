@@ -0,0 +1,28 @@
+package cz.zcu.luk.sspace.common;
+
+import edu.ucla.sspace.common.SemanticSpace;
+
+import java.io.File;
+
+/**
+ * A {@link SemanticSpace} whose co-occurrence counts can be written to and read
+ * from a partial co-occurrence file, so that a corpus can be processed in
+ * shards by separate JVMs and the shards merged with {@link
+ * cz.zcu.luk.sspace.matrix.PartialCooccurrences#merge(File, java.util.List)}
+ * before the space is processed.
+ */
+public interface SemanticSpacePartial extends SemanticSpace {
+
+    /**
+     * Writes the counts of the documents processed so far to a partial file.
+     * This must not be called while documents are being processed.
+     */
+    public void writePartial(File file);
+
+    /**
+     * Adds the counts of a partial file, as if its documents had been
+     * processed by this space.  This must be called before {@link
+     * #processSpace(java.util.Properties) processSpace}.
+     */
+    public void readPartial(File file);
+}
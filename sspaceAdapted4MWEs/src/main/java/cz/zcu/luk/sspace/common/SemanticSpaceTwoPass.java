@@ -0,0 +1,36 @@
+package cz.zcu.luk.sspace.common;
+
+import edu.ucla.sspace.common.SemanticSpace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * A {@link SemanticSpace} which may read the corpus twice: a cheap first pass
+ * counts the frequencies of the terms, from which the space fixes the rows
+ * and columns it retains, and the second pass, made of the usual calls to
+ * {@link #processDocument(BufferedReader) processDocument}, only counts the
+ * co-occurrences of those rows and columns.
+ */
+public interface SemanticSpaceTwoPass extends SemanticSpace {
+
+    /**
+     * Returns whether the space is configured to read the corpus twice, in
+     * which case every document must be passed to {@link
+     * #processFrequencies(BufferedReader) processFrequencies}, followed by a
+     * call to {@link #endFrequencyPass()}, before any document is passed to
+     * {@code processDocument}.
+     */
+    public boolean isTwoPass();
+
+    /**
+     * Counts the frequencies of the terms of a document in the first pass.
+     * This may be called by several threads at once.
+     */
+    public void processFrequencies(BufferedReader document) throws IOException;
+
+    /**
+     * Ends the first pass and fixes the retained rows and columns.
+     */
+    public void endFrequencyPass();
+}
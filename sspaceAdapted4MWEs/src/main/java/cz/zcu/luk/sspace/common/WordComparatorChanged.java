@@ -34,6 +34,8 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 
+import cz.zcu.luk.sspace.matrix.FrozenSparseMatrix;
+
 
 /**
  * A utility class for finding the {@code k} most-similar words to a provided
@@ -219,8 +221,17 @@ public class WordComparatorChanged {
             try {            
                 Vector otherV = sspace.getVector(other);
 
-                Double similarity = Similarity.getSimilarity(
-                    similarityMeasure, vector, otherV);
+                // Rows of a frozen space are compared directly, without
+                // copying their indices
+                Double similarity =
+                    (similarityMeasure == Similarity.SimType.COSINE
+                     && vector instanceof FrozenSparseMatrix.SparseRow
+                     && otherV instanceof FrozenSparseMatrix.SparseRow)
+                    ? FrozenSparseMatrix.SparseRow.cosineSimilarity(
+                          (FrozenSparseMatrix.SparseRow) vector,
+                          (FrozenSparseMatrix.SparseRow) otherV)
+                    : Similarity.getSimilarity(
+                          similarityMeasure, vector, otherV);
                 
                 // lock on the Map, as it is not thread-safe
                 synchronized(mostSimilar) {
@@ -22,30 +22,31 @@
 package cz.zcu.luk.sspace.hal;
 
 import edu.ucla.sspace.basis.BasisMapping;
-import edu.ucla.sspace.basis.StringBasisMapping;
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
 import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.hal.ConcatenatedSparseDoubleVector;
 import edu.ucla.sspace.hal.LinearWeighting;
 import edu.ucla.sspace.hal.WeightingFunction;
-import edu.ucla.sspace.matrix.AtomicGrowingSparseHashMatrix;
-import edu.ucla.sspace.matrix.MatrixEntropy;
 import edu.ucla.sspace.matrix.SparseMatrix;
-import edu.ucla.sspace.matrix.YaleSparseMatrix;
 import edu.ucla.sspace.matrix.MatrixEntropy.EntropyStats;
 import edu.ucla.sspace.text.IteratorFactory;
 import edu.ucla.sspace.util.BoundedSortedMultiMap;
 import edu.ucla.sspace.util.MultiMap;
-import edu.ucla.sspace.util.Pair;
 import edu.ucla.sspace.vector.CompactSparseVector;
 import edu.ucla.sspace.vector.SparseDoubleVector;
 import edu.ucla.sspace.vector.Vector;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOError;
 import java.io.IOException;
 import java.util.*;
 import java.util.logging.Logger;
 
+import cz.zcu.luk.sspace.common.SemanticSpacePartial;
 import cz.zcu.luk.sspace.matrix.*;
+import cz.zcu.luk.sspace.text.CompoundMatcher;
+import cz.zcu.luk.sspace.text.SlidingWindow;
 
 
 /**
@@ -117,6 +118,9 @@ import cz.zcu.luk.sspace.matrix.*;
  * retainColumns} columns.  Columns will be ordered according to their entropy,
  * and the {@code retainColumns} columns with the highest entropy will be
  * retained.  This parameter cannot be set in conjunction with {@code columnThreshold}
+ * The entropy of the columns is updated as the co-occurrences are merged, so
+ * no further pass over the matrix is needed, and {@link #rankColumns(int)}
+ * shows which columns a given value would retain.
  *
  * <dt> <i>Property:</i> {@code columnThreshold} </br>
  *      <i>Default:</i> -1
@@ -126,10 +130,39 @@ import cz.zcu.luk.sspace.matrix.*;
  *      specified threshold.  This parameter may not be set concurrently with
  *      {@code retainColumns}.
  *
+ * <dt> <i>Property:</i> {@value
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrices#MATRIX_TYPE_PROPERTY}
+ *      </br>
+ *      <i>Default:</i> {@code hash}
+ *
+ * <dd style="padding-top: .5em">This system property selects the {@link
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrix} implementation used to
+ *      accumulate the co-occurrences.  See {@link
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrices} for the accepted values.
+ *
+ * <dt> <i>Property:</i> {@value #FLUSH_THRESHOLD_PROPERTY} </br>
+ *      <i>Default:</i> {@value
+ *      cz.zcu.luk.sspace.matrix.ThreadLocalCooccurrenceBuffers#DEFAULT_FLUSH_THRESHOLD}
+ *
+ * <dd style="padding-top: .5em">This system property sets how many distinct
+ *      co-occurrences each processing thread sums locally, across documents,
+ *      before merging them into the shared co-occurrence matrix as one sorted
+ *      batch.  The remaining co-occurrences are merged at the start of {@link
+ *      #processSpace(Properties) processSpace}.
+ *
  * </dl>
  *
  * <p>
  *
+ * A corpus may be processed in shards by separate JVMs: each shard calls
+ * {@link #writePartial(File) writePartial} instead of {@code processSpace},
+ * the partial files are merged with {@link
+ * cz.zcu.luk.sspace.matrix.PartialCooccurrences#merge(File, List)} and the
+ * merged file is loaded with {@link #readPartial(File) readPartial} before
+ * {@code processSpace} is called.
+ *
+ * <p>
+ *
  * For models that require a non-symmetric window, a special {@link
  * WeightingFunction} can be used which assigns a weight of {@code 0} to
  * co-occurrences that match the non-symmetric window size.
@@ -140,7 +173,8 @@ import cz.zcu.luk.sspace.matrix.*;
  * @see SemanticSpace
  * @see WeightingFunction
  */
-public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
+public class HyperspaceAnalogueToLanguageCompounds
+        implements SemanticSpace, SemanticSpacePartial {
 
     /**
      * Logger for HAL
@@ -148,11 +182,30 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
     private static final Logger LOGGER =
             Logger.getLogger(HyperspaceAnalogueToLanguageCompounds.class.getName());
 
+    /**
+     * The prefix for naming public properties.
+     */
+    private static final String PROPERTY_PREFIX =
+            "cz.zcu.luk.sspace.hal.HyperspaceAnalogueToLanguageCompounds";
+
+    /**
+     * The property to specify the number of distinct co-occurrences each
+     * processing thread buffers before merging them into the shared
+     * co-occurrence matrix.
+     */
+    public static final String FLUSH_THRESHOLD_PROPERTY =
+            PROPERTY_PREFIX + ".flushThreshold";
+
     /**
      * The default number of words before and after the focus word to include
      */
     public static final int DEFAULT_WINDOW_SIZE = 5;
 
+    /**
+     * The name of the section of a partial file holding the co-occurrences.
+     */
+    private static final String PARTIAL_SECTION = "hal";
+
     /**
      * A mapping from terms to initial indices in the co-occurrence matrix.
      */
@@ -193,21 +246,53 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
      * The matrix used for storing weight co-occurrence statistics of those
      * words that occur both before and after.
      */
-    private AtomicGrowingSparseHashMatrix cooccurrenceMatrix;
+    private CooccurrenceMatrix cooccurrenceMatrix;
 
     /**
-     * The reduced matrix, if columns are to be dropped.
+     * The per-thread buffers in which the co-occurrences of the processed
+     * documents are summed before being merged into {@link
+     * #cooccurrenceMatrix}.
+     */
+    private final ThreadLocalCooccurrenceBuffers buffers;
+
+    /**
+     * The entropy statistics of the rows and columns of {@link
+     * #cooccurrenceMatrix}, updated whenever the buffers are merged into it.
+     */
+    private final EntropyStatistics entropyStats;
+
+    /**
+     * The frozen matrix of the processed space, with the rows and columns of
+     * the co-occurrence matrix concatenated and any dropped columns removed.
      */
     private SparseMatrix reduced;
 
     private Set<String> compounds;
 
+    /**
+     * The weight of each distance before the focus word, as given by {@link
+     * #weighting}, indexed as the weights of a {@link SlidingWindow}.
+     */
+    private final double[] windowWeights;
+
+    /**
+     * Maps the tokens of a document to their indices in {@link #termToIndex},
+     * leaving out the tokens rejected by the filter.
+     */
+    private final SlidingWindow.Indexer termIndexer;
+
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
     /**
      * Constructs a new instance using the default parameters used in the
      * original publication.
      */
     public HyperspaceAnalogueToLanguageCompounds() {
-        this(new StringBasisMapping(),
+        this(new ConcurrentVocabulary(),
                 DEFAULT_WINDOW_SIZE,
                 new LinearWeighting(),
                 -1d,
@@ -249,7 +334,16 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
                                         int retainColumns,
                                         Set<String> compounds
                                         ) {
-        this.cooccurrenceMatrix = new AtomicGrowingSparseHashMatrix();
+        this.cooccurrenceMatrix =
+                CooccurrenceMatrices.create(System.getProperties());
+        String flushThresholdProp =
+                System.getProperty(FLUSH_THRESHOLD_PROPERTY);
+        this.entropyStats = new EntropyStatistics();
+        this.buffers = new ThreadLocalCooccurrenceBuffers(cooccurrenceMatrix,
+                (flushThresholdProp != null)
+                        ? Integer.parseInt(flushThresholdProp)
+                        : ThreadLocalCooccurrenceBuffers.DEFAULT_FLUSH_THRESHOLD,
+                entropyStats);
         this.termToIndex = basis;
         this.windowSize = windowSize;
         this.weighting = weightFunction;
@@ -258,6 +352,9 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
         reduced = null;
         wordIndexCounter = 0;
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
 
         // Validate all the parameters early to prevent processing with invalid
         // parameters.
@@ -276,11 +373,18 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
                     "columnThreshold and retainColumns cannot both be active.\n" +
                             "columnThreshold: " + columnThreshold + "\n" +
                             "retainColumns: " + retainColumns+ "\n");
-    }
 
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
+        windowWeights = new double[2 * windowSize + 1];
+        for (int distance = -windowSize; distance < 0; ++distance)
+            windowWeights[distance + windowSize] =
+                    weighting.weight(distance, windowSize);
+        termIndexer = new SlidingWindow.Indexer() {
+            public int index(String token) {
+                return token.equals(IteratorFactory.EMPTY_TOKEN)
+                    ? -1
+                    : termToIndex.getDimension(token);
+            }
+        };
     }
 
     private String mapTrigramCompound(String possibleCompound) {
@@ -293,228 +397,112 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
      * {@inheritDoc}
      */
     public void  processDocument(BufferedReader document) throws IOException {
-        Queue<String> nextWords = new ArrayDeque<String>();
-        Queue<String> prevWords = new ArrayDeque<String>();
-
-        // LK added
-        String removed = "";
-        String removedOld = "";
-
-        Iterator<String> documentTokens =
-                IteratorFactory.tokenizeOrdered(document);
-
-        String focus = null;
-
         // Rather than updating the matrix every time an occurrence is seen,
         // keep a thread-local count of what needs to be modified in the matrix
-        // and update after the document has been processed.  This saves
+        // and update once enough documents have been processed.  This saves
         // potential contention from concurrent writes.
-        Map<Pair<Integer>,Double> matrixEntryToCount =
-                new HashMap<Pair<Integer>,Double>();
-
-        //Load the first windowSize words into the Queue
-        for(int i = 0;  i < windowSize && documentTokens.hasNext(); i++)
-            nextWords.offer(documentTokens.next());
-
-        while(!nextWords.isEmpty()) {
-
-            // Load the top of the nextWords Queue into the focus word
-            focus = nextWords.remove();
-
-            // Add the next word to nextWords queue (if possible)
-            if (documentTokens.hasNext())
-                nextWords.offer(documentTokens.next());
-
-            // If the filter does not accept this word, skip the semantic
-            // processing, continue with the next word
-            if (!focus.equals(IteratorFactory.EMPTY_TOKEN)) {
-                int focusIndex = termToIndex.getDimension(focus);
-                // Only process co-occurrences with words with non-negative
-                // dimensions.
-                if (focusIndex >= 0) {
-                    // in front of the focus word
-                    int wordDistance = -windowSize + (windowSize - prevWords.size());
-
-                    // LK changed.. added removed, removedOld
-                    addTokens(prevWords, focusIndex, wordDistance, matrixEntryToCount, removed, removedOld);
+        final CooccurrenceBuffer matrixEntryToCount = buffers.get();
+
+        // The buffer is locked while the document is counted, so that it may
+        // be flushed by another thread between documents
+        synchronized (matrixEntryToCount) {
+            // The words before the focus word are its contexts.  The words
+            // after it are only needed for the compounds that start at the
+            // focus word.  The compounds that end at each word are matched as
+            // it enters the window.
+            SlidingWindow window = new SlidingWindow(
+                    windowSize, windowSize, 0, windowWeights, termIndexer,
+                    compoundMatcher);
+            window.reset(IteratorFactory.tokenizeOrdered(document));
+            SlidingWindow.PairVisitor counter = new SlidingWindow.PairVisitor() {
+                public void pair(int focus, int context, int distance,
+                                 double weight) {
+                    // LK change - swapped index and focusIndex to store predecessors before followers into matrix..
+                    matrixEntryToCount.add(focus, context, weight);
                 }
-            }
+            };
 
-            // LK change - added
-            // if focus word and words following create a compound.. add prev words to the compound..
-            if (!nextWords.isEmpty() && compounds != null) { // if some words follow and if compounds should be taken into account
-                String[] nextWordsArr = nextWords.toArray(new String[0]);
-                if (nextWordsArr.length > 1) { // trigram compound
-                    String possibleCompoundTrigram = focus + " " + nextWordsArr[0] + " " + nextWordsArr[1];
-                    if (isCompound(possibleCompoundTrigram)) {
-                        String compoundMapped = mapTrigramCompound(possibleCompoundTrigram);
-                        int focusIndex = termToIndex.getDimension(compoundMapped);
-
-                        if (focusIndex >= 0) {
-                            // in front of the focus word
-                            int wordDistance = -windowSize + (windowSize - prevWords.size());
-                            addTokens(prevWords, focusIndex, wordDistance, matrixEntryToCount, removed, removedOld);
-                        }
-                    }
-                }
-                if (isCompound((focus + " " + nextWordsArr[0]))) { // bigram compound
-                    int focusIndex = termToIndex.getDimension(focus + " " + nextWordsArr[0]);
-                    if (focusIndex >= 0) {
-                        // in front of the focus word
-                        int wordDistance = -windowSize + (windowSize - prevWords.size());
-                        addTokens(prevWords, focusIndex, wordDistance, matrixEntryToCount, removed, removedOld);
+            while (window.next()) {
+                // Only process co-occurrences with words with non-negative
+                // dimensions; the words rejected by the filter have none.
+                int focusIndex = window.id(0);
+                if (focusIndex >= 0)
+                    addTokens(window, focusIndex, counter, matrixEntryToCount);
+
+                // LK change - added
+                // if focus word and words following create a compound.. add prev words to the compound..
+                if (window.after() > 0 && compoundMatcher != null) { // if some words follow and if compounds should be taken into account
+                    if (window.after() > 1) { // trigram compound
+                        addCompoundTokens(window, window.trigram(2), counter,
+                                          matrixEntryToCount);
                     }
+                    // bigram compound
+                    addCompoundTokens(window, window.bigram(1), counter,
+                                      matrixEntryToCount);
                 }
             }
-//            for (int i = 0; i < termToIndex.keySet().size(); i++) {
-//                System.out.print(i + " " + termToIndex.getDimensionDescription(i) + " X ");
-//            }
-//            System.out.println();
 
-            // last, put this focus word in the prev words and shift off the
-            // front if it is larger than the window
-            prevWords.offer(focus);
-            if (prevWords.size() > windowSize) {
-                // LK change
-                removedOld = removed;
-                removed = prevWords.remove();
-            }
-        }
-
-        // Once the document has been processed, update the co-occurrence matrix
-        // accordingly.
-        for (Map.Entry<Pair<Integer>,Double> e : matrixEntryToCount.entrySet()){
-            Pair<Integer> p = e.getKey();
-            cooccurrenceMatrix.addAndGet(p.x, p.y, e.getValue());
+            // Once the document has been processed, update the co-occurrence
+            // matrix if enough co-occurrences have been buffered.
+            buffers.documentFinished(matrixEntryToCount);
         }
     }
 
     /**
-     * LK change - added removed and oldRemoved
+     * LK change - added the compounds
      *
-     * Adds co-occurrence counts between the list of previous words in {@code
-     * words} and the focus word represented by {@code focusIndex} which start
-     * at {@code distance} tokens away from the focus word.  All Counts will be
-     * added into {@code matrixEntryToCount}.
+     * Adds co-occurrence counts between the words before the focus word of
+     * {@code window} and the focus word or compound represented by {@code
+     * focusIndex}.  The compounds that end at each of those words are counted
+     * with the weight of their last word.  All Counts will be added into {@code
+     * matrixEntryToCount}.
      */
-    private void addTokens(Queue<String> words,
+    private void addTokens(SlidingWindow window,
                            int focusIndex,
-                           int distance,
-                           Map<Pair<Integer>, Double> matrixEntryToCount,
-                           String removed,
-                           String removedOld) {
-        String[] wordsArr = words.toArray(new String[0]);
-        for (int i = 0; i < wordsArr.length; i++) {
-            String word = wordsArr[i];
-            //System.out.print(word + " ");
-            // skip adding co-occurence values for words that are not
-            // accepted by the filter
-            if (!word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                int index = termToIndex.getDimension(word);
-                if (index >= 0) {
-                    addPairToMatrixEntryToCount(focusIndex, index, distance, windowSize, matrixEntryToCount);
-                }
-            }
-
-            if (compounds != null) { // compounds should be taken into account
-                String possibleCompound = null;
-                if (i == 0) {
-                    possibleCompound = removedOld + " " + removed + " " + wordsArr[0];
-                    if (isCompound(possibleCompound)) {
-                        int compoundIndex = termToIndex.getDimension(mapTrigramCompound(possibleCompound));
-                        if (compoundIndex >= 0) {
-                            addPairToMatrixEntryToCount(focusIndex, compoundIndex, distance, windowSize, matrixEntryToCount);
-                        }
-                    }
-                    possibleCompound = removed + " " + wordsArr[0];
-                    if (isCompound(possibleCompound)) {
-                        int compoundIndex = termToIndex.getDimension(possibleCompound);
-                        if (compoundIndex >= 0) {
-                            addPairToMatrixEntryToCount(focusIndex, compoundIndex, distance, windowSize, matrixEntryToCount);
-                        }
-                    }
-                }
-                else if (i == 1) {
-                    possibleCompound = removed + " " + wordsArr[0] + " " + wordsArr[1];
-                    if (isCompound(possibleCompound)) {
-                        int compoundIndex = termToIndex.getDimension(mapTrigramCompound(possibleCompound));
-                        if (compoundIndex >= 0) {
-                            addPairToMatrixEntryToCount(focusIndex, compoundIndex, distance, windowSize, matrixEntryToCount);
-                        }
-                    }
-                    possibleCompound = wordsArr[0] + " " + wordsArr[1];
-                    if (isCompound(possibleCompound)) {
-                        int compoundIndex = termToIndex.getDimension(possibleCompound);
-                        if (compoundIndex >= 0) {
-                            addPairToMatrixEntryToCount(focusIndex, compoundIndex, distance, windowSize, matrixEntryToCount);
-                        }
-                    }
-                }
-                else {
-                    possibleCompound = wordsArr[i-2] + " " + wordsArr[i-1] + " " + wordsArr[i];
-                    if (isCompound(possibleCompound)) {
-                        int compoundIndex = termToIndex.getDimension(mapTrigramCompound(possibleCompound));
-                        if (compoundIndex >= 0) {
-                            addPairToMatrixEntryToCount(focusIndex, compoundIndex, distance, windowSize, matrixEntryToCount);
-                        }
-                    }
-                    possibleCompound = wordsArr[i-1] + " " + wordsArr[i];
-                    if (isCompound(possibleCompound)) {
-                        int compoundIndex = termToIndex.getDimension(possibleCompound);
-                        if (compoundIndex >= 0) {
-                            addPairToMatrixEntryToCount(focusIndex, compoundIndex, distance, windowSize, matrixEntryToCount);
-                        }
-                    }
-                }
+                           SlidingWindow.PairVisitor counter,
+                           CooccurrenceBuffer matrixEntryToCount) {
+        window.visit(focusIndex, -windowSize, -1, counter);
+
+        if (compoundMatcher != null) { // compounds should be taken into account
+            for (int distance = -window.before(); distance < 0; ++distance) {
+                addCompound(focusIndex, window.trigram(distance),
+                            window.weight(distance), matrixEntryToCount);
+                addCompound(focusIndex, window.bigram(distance),
+                            window.weight(distance), matrixEntryToCount);
             }
-
-//            if (i == 0 && (removed + " " + wordsArr[i]).equals("raced past")) {
-//                int index = termToIndex.getDimension(word);
-//                if (index >= 0) {
-//                    int compoundIndex = termToIndex.getDimension("raced past");
-//                    // Get the current number of times that the focus word has
-//                    // co-occurred with this word before after it.  Weight the
-//                    // word appropriately baed on distance
-//                    // LK change - swapped index and focusIndex to store predecessors before followers into matrix..
-//                    Pair<Integer> p = new Pair<Integer>(focusIndex, compoundIndex);
-//                    double value = weighting.weight(distance, windowSize);
-//                    Double curCount = matrixEntryToCount.get(p);
-//                    matrixEntryToCount.put(p, (curCount == null)
-//                            ? value : value + curCount);
-//                }
-//            }
-//            else if (i != 0 && (wordsArr[i-1] + " " + wordsArr[i]).equals("raced past")) {
-//                int index = termToIndex.getDimension(word);
-//                if (index >= 0) {
-//                    int compoundIndex = termToIndex.getDimension("raced past");
-//                    // Get the current number of times that the focus word has
-//                    // co-occurred with this word before after it.  Weight the
-//                    // word appropriately baed on distance
-//                    // LK change - swapped index and focusIndex to store predecessors before followers into matrix..
-//                    Pair<Integer> p = new Pair<Integer>(focusIndex, compoundIndex);
-//                    double value = weighting.weight(distance, windowSize);
-//                    Double curCount = matrixEntryToCount.get(p);
-//                    matrixEntryToCount.put(p, (curCount == null)
-//                            ? value : value + curCount);
-//                }
-//            }
-
-            distance++;
         }
-        //System.out.println();
     }
 
-    private void addPairToMatrixEntryToCount(int focusIndex, int compoundIndex, int distance, int windowSize,
-                                             Map<Pair<Integer>,Double> matrixEntryToCount) {
-        // Get the current number of times that the focus word has
-        // co-occurred with this word before after it.  Weight the
-        // word appropriately baed on distance
-        // LK change - swapped index and focusIndex to store predecessors before followers into matrix..
-        Pair<Integer> p = new Pair<Integer>(focusIndex, compoundIndex);
-        double value = weighting.weight(distance, windowSize);
-        Double curCount = matrixEntryToCount.get(p);
-        matrixEntryToCount.put(p, (curCount == null)
-                ? value : value + curCount);
+    /**
+     * Adds the co-occurrence counts of the compound with the id {@code
+     * compound} in {@link #compoundMatcher}, if it has a dimension, as done by
+     * {@link #addTokens} for a focus word.
+     */
+    private void addCompoundTokens(SlidingWindow window,
+                                   int compound,
+                                   SlidingWindow.PairVisitor counter,
+                                   CooccurrenceBuffer matrixEntryToCount) {
+        if (compound == CompoundMatcher.NONE)
+            return;
+        int compoundIndex =
+                termToIndex.getDimension(compoundMatcher.compound(compound));
+        if (compoundIndex >= 0)
+            addTokens(window, compoundIndex, counter, matrixEntryToCount);
+    }
+
+    /**
+     * Adds a co-occurrence count between {@code focusIndex} and the compound
+     * with the id {@code compound} in {@link #compoundMatcher}, if it has a
+     * dimension.
+     */
+    private void addCompound(int focusIndex, int compound, double weight,
+                             CooccurrenceBuffer matrixEntryToCount) {
+        if (compound == CompoundMatcher.NONE)
+            return;
+        int compoundIndex =
+                termToIndex.getDimension(compoundMatcher.compound(compound));
+        if (compoundIndex >= 0)
+            matrixEntryToCount.add(focusIndex, compoundIndex, weight);
     }
 
     /**
@@ -549,8 +537,8 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
             return new ConcatenatedSparseDoubleVector(rowVec, colVec);
         }
 
-        // The co-occurrence matrix has had columns dropped so the vector is
-        // just the word's row
+        // The space has been frozen, possibly with columns dropped, so the
+        // vector is just the word's row, which is an immutable view
         return reduced.getRowVector(index);
     }
 
@@ -567,6 +555,13 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
      * {@inheritDoc}
      */
     public void processSpace(Properties properties) {
+        // Merge the co-occurrences still buffered by the processing threads
+        buffers.flushAll();
+
+        // No more words are added once the space is processed
+        if (compounds != null)
+            termToIndex.setReadOnly(true);
+
         // Ensure that the bottom right corner of the matrix has a valid value
         // so that we always create a 2 * n set of dimensions in the default
         // case.
@@ -612,26 +607,46 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
 //        for (int i = 0; i < termToIndex.keySet().size(); i++) {
 //            System.out.println(i + " " + termToIndex.getDimensionDescription(i));
 //        }
+
+        freeze();
+    }
+
+    /**
+     * Compacts the final space into a {@link FrozenSparseMatrix}, from which
+     * {@link #getVector(String) getVector} returns shared row views.  If no
+     * columns were dropped, the rows and columns of the co-occurrence matrix
+     * are concatenated first.
+     */
+    private void freeze() {
+        if (reduced == null) {
+            int words = termToIndex.numDimensions();
+            BitSet allColumns = new BitSet(2 * words);
+            allColumns.set(0, 2 * words);
+            reduced = retainColumns(allColumns);
+            cooccurrenceMatrix = null;
+        }
+        reduced = FrozenSparseMatrix.freeze(reduced, false);
     }
 
     /**
      * LK added
      */
-    private Set<Integer> loadCompoundIndices(int words) {
-        termToIndex.setReadOnly(true);
-        Set<Integer> compoundsIndices = new HashSet<Integer>();
+    private BitSet loadCompoundIndices(int words) {
+        // The compounds are looked up in the key set, since getDimension
+        // would add the missing ones to a basis which is not read only
+        Set<String> terms = termToIndex.keySet();
+        BitSet compoundsIndices = new BitSet(2 * words);
         for (String oneCompound : compounds) {
-            int indexC;
-            if (oneCompound.split(" ").length == 3) {
-                indexC = termToIndex.getDimension(mapTrigramCompound(oneCompound));
-            }
-            else {
-                indexC = termToIndex.getDimension(oneCompound);
-            }
+            String term = (oneCompound.split(" ").length == 3)
+                ? mapTrigramCompound(oneCompound)
+                : oneCompound;
+            int indexC = terms.contains(term)
+                ? termToIndex.getDimension(term)
+                : -1;
             //System.out.println("B: "+indexC);
             if (indexC >= 0) {
-                compoundsIndices.add(indexC);
-                compoundsIndices.add(indexC + words);
+                compoundsIndices.set(indexC);
+                compoundsIndices.set(indexC + words);
             }
         }
         return compoundsIndices;
@@ -645,16 +660,15 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
         //System.out.println("WORDS COUNT");
         //System.out.println(words);
         //System.out.println("WORDS COUNT");
-        Set<Integer> indicesToKeep =
-                new HashSet<Integer>();
+        BitSet indicesToKeep = new BitSet(2 * words);
 
         // load compounds indices
-        Set<Integer> compoundsIndices = loadCompoundIndices(words);
+        BitSet compoundsIndices = loadCompoundIndices(words);
 
         for (int i = 0; i < words; i++) {
-            if (!compoundsIndices.contains(i)) {
-                indicesToKeep.add(i);
-                indicesToKeep.add(i+words);
+            if (!compoundsIndices.get(i)) {
+                indicesToKeep.set(i);
+                indicesToKeep.set(i+words);
             }
         }
 //        System.out.println("KEEPING");
@@ -669,37 +683,75 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
     }
 
     /**
-     * Drops all but the specified number of columns, retaining those that have
-     * the highest information theoretic entropy.
+     * Returns the entropy of each row and column of the co-occurrence matrix,
+     * as computed from the counts processed so far.  The statistics are kept
+     * up to date while the counts are merged, so this does not traverse the
+     * matrix.  It may be called while documents are being processed, in which
+     * case the counts buffered by the processing threads are merged first and
+     * the documents in progress are counted in later calls.
      *
-     * @param columns the number of columns to keep
+     * @throws IllegalStateException if {@link #processSpace(Properties)
+     *         processSpace} has already been called
      */
-    private void retainOnly(int columns) {
-        LOGGER.info("Sorting the columns by entropy and computing the top " +
-                columns + " columns to retain");
+    public EntropyStats getEntropyStats() {
+        if (cooccurrenceMatrix == null)
+            throw new IllegalStateException(
+                    "The space has already been processed");
+        buffers.flushAll();
+        int words = termToIndex.numDimensions();
+        return entropyStats.entropy(words, words);
+    }
 
+    /**
+     * Returns the indices of the highest entropy columns of the concatenated
+     * row and column vectors, in decreasing order of entropy, as {@code
+     * retainColumns} would select them.  Indices below the number of words
+     * denote the columns of the co-occurrence matrix and the others denote
+     * its rows.  This can be used to choose a value of {@code retainColumns}
+     * before calling {@link #processSpace(Properties) processSpace}, and
+     * does not change the space.
+     *
+     * @param columns the maximum number of columns to rank
+     *
+     * @throws IllegalStateException if {@link #processSpace(Properties)
+     *         processSpace} has already been called
+     */
+    public int[] rankColumns(int columns) {
+        MultiMap<Double,Integer> entropyToIndex =
+                highestEntropyColumns(getEntropyStats(), columns);
+        int[] ranked = new int[entropyToIndex.range()];
+        int i = ranked.length;
+        for (Integer index : entropyToIndex.values())
+            ranked[--i] = index;
+        return ranked;
+    }
+
+    /**
+     * Returns the specified number of columns of the concatenated row and
+     * column vectors with the highest entropy, keyed by their entropy.  The
+     * columns of compounds are never selected.
+     */
+    private MultiMap<Double,Integer> highestEntropyColumns(EntropyStats stats,
+                                                          int columns) {
         int words = termToIndex.numDimensions();
         MultiMap<Double,Integer> entropyToIndex =
                 new BoundedSortedMultiMap<Double,Integer>(
                         columns, false, true, true);
 
-        // Compute the entropy of each row and column.
-        EntropyStats stats = MatrixEntropy.entropy(cooccurrenceMatrix);
-
         // LK changed.. added condition for compounds.. - do not retain indices of compounds
         // load compounds indices
         if (compounds != null) {
-            Set<Integer> compoundsIndices = loadCompoundIndices(words);
+            BitSet compoundsIndices = loadCompoundIndices(words);
             // Add the entropy values for each column.  Since the rows will be
             // concatenated as columns, they represent currently non-existing
             // columns beyond the number of words.
             for (int col = 0; col < words; ++col) {
-                if (!compoundsIndices.contains(col)) {
+                if (!compoundsIndices.get(col)) {
                     entropyToIndex.put(stats.colEntropy[col], col);
                 }
             }
             for (int row = 0; row < words; ++row) {
-                if (!compoundsIndices.contains(row)) {
+                if (!compoundsIndices.get(row)) {
                     entropyToIndex.put(stats.rowEntropy[row], row+words);
                 }
             }
@@ -713,9 +765,30 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
             for (int row = 0; row < words; ++row)
                 entropyToIndex.put(stats.rowEntropy[row], row+words);
         }
+        return entropyToIndex;
+    }
 
-        Set<Integer> indicesToKeep =
-                new HashSet<Integer>(entropyToIndex.values());
+    /**
+     * Drops all but the specified number of columns, retaining those that have
+     * the highest information theoretic entropy.
+     *
+     * @param columns the number of columns to keep
+     */
+    private void retainOnly(int columns) {
+        LOGGER.info("Sorting the columns by entropy and computing the top " +
+                columns + " columns to retain");
+
+        int words = termToIndex.numDimensions();
+
+        // The entropy of each row and column is known from the statistics
+        // kept while merging the counts.
+        EntropyStats stats = entropyStats.entropy(words, words);
+        MultiMap<Double,Integer> entropyToIndex =
+                highestEntropyColumns(stats, columns);
+
+        BitSet indicesToKeep = new BitSet(2 * words);
+        for (Integer index : entropyToIndex.values())
+            indicesToKeep.set(index);
 
 //        System.out.println("KEEPING");
 //        System.out.println(indicesToKeep.toString());
@@ -740,10 +813,11 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
                 "specified threshold");
 
         int words = termToIndex.numDimensions();
-        Set<Integer> colsToRetain = new HashSet<Integer>();
+        BitSet colsToRetain = new BitSet(2 * words);
 
-        // Compute the entropy of each row and column.
-        EntropyStats stats = MatrixEntropy.entropy(cooccurrenceMatrix);
+        // The entropy of each row and column is known from the statistics
+        // kept while merging the counts.
+        EntropyStats stats = entropyStats.entropy(words, words);
 
         // Compare the entropy of each column to the threshold and save and
         // indices that pass the threshold. Since the rows will be concatenated
@@ -751,13 +825,13 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
         // number of words.
         for (int col = 0; col < words; ++col)
             if (stats.colEntropy[col] >= threshold)
-                colsToRetain.add(col);
+                colsToRetain.set(col);
 
         for (int row = 0; row < words; ++row)
             if (stats.rowEntropy[row] >= threshold)
-                colsToRetain.add(row+words);
+                colsToRetain.set(row+words);
 
-        LOGGER.info("Retaining " + colsToRetain.size() + "/" + (words*2) +
+        LOGGER.info("Retaining " + colsToRetain.cardinality() + "/" + (words*2) +
                 " columns, which passed the threshold of " + threshold);
 
         reduced = retainColumns(colsToRetain);
@@ -766,50 +840,13 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
 
     /**
      * Returns a reduced and concatenated version of {@code cooccurrenceMatrix}
-     * which has only the columns specified in {@code indicesToKeep}.
+     * which has only the columns specified in {@code indicesToKeep}.  The
+     * retained columns keep their relative order.
      */
-    private SparseMatrix retainColumns(Set<Integer> indicesToKeepSet) {
-        // LK change - added - do not want to shuffle columns' indices..
-        ArrayList<Integer> indicesToKeep = new ArrayList<Integer>(indicesToKeepSet);
-        Collections.sort(indicesToKeep);
-
+    private SparseMatrix retainColumns(BitSet indicesToKeep) {
         int words = termToIndex.numDimensions();
-        int cols = indicesToKeep.size();
-
-        // Create a mapping from old indices to their new index value.
-        Map<Integer, Integer> indexMap = new HashMap<Integer, Integer>();
-        int newIndex = 0;
-        for (Integer index : indicesToKeep)
-            indexMap.put(index, newIndex++);
-
-        // Create a reduced matrix that will have only the selected columns in
-        // the final space.
-        SparseMatrix reduced = new YaleSparseMatrix(
-                words, indicesToKeep.size());
-
-        // Iterate over the sparse values in the matrix for added efficiency.
-        for (int row = 0; row < words; ++ row) {
-            if ((row % 10000) == 0) {
-                LOGGER.info("reducing of " + row + " rows done..");
-            }
-            SparseDoubleVector sv = cooccurrenceMatrix.getRowVector(row);
-            for (int col : sv.getNonZeroIndices()) {
-                double v = cooccurrenceMatrix.get(row, col);
-
-                // If the original column was retained, get it's new index
-                // value and add it to the reduced matrix.
-                Integer newColIndex = indexMap.get(col);
-                if (newColIndex != null)
-                    reduced.set(row, newColIndex, v);
-
-                // If the transposed row column was retained, get it's new index
-                // value and add it to the reduced matrix.  This turns the col
-                // value into the row and the new index as the column.
-                newColIndex = indexMap.get(row + words);
-                if (newColIndex != null)
-                    reduced.set(col, newColIndex, v);
-            }
-        }
+        SparseMatrix reduced = ConcatenatedColumns.retain(
+                cooccurrenceMatrix, words, indicesToKeep);
 
         // LK added
         LOGGER.info("reducing columns finished..");
@@ -817,6 +854,84 @@ public class HyperspaceAnalogueToLanguageCompounds implements SemanticSpace {
         return reduced;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void writePartial(File file) {
+        if (cooccurrenceMatrix == null)
+            throw new IllegalStateException(
+                    "The space has already been processed");
+        buffers.flushAll();
+        String[] terms = new String[termToIndex.numDimensions()];
+        for (String term : termToIndex.keySet())
+            terms[termToIndex.getDimension(term)] = term;
+        try {
+            PartialCooccurrences.Writer writer =
+                    new PartialCooccurrences.Writer(file, 1);
+            writer.writeSection(PARTIAL_SECTION, terms, terms,
+                    new PartialCooccurrences.RowSource() {
+                        public SparseDoubleVector getRow(int row) {
+                            return (row < cooccurrenceMatrix.rows())
+                                    ? cooccurrenceMatrix.getRowVectorUnsafe(row)
+                                    : null;
+                        }
+                    });
+            writer.close();
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void readPartial(File file) {
+        if (cooccurrenceMatrix == null)
+            throw new IllegalStateException(
+                    "The space has already been processed");
+        try {
+            PartialCooccurrences.Reader reader =
+                    new PartialCooccurrences.Reader(file);
+            try {
+                if (!PARTIAL_SECTION.equals(reader.nextSection()))
+                    throw new IllegalArgumentException(
+                            file + " is not a partial HAL file");
+                int[] rows = indicesOf(reader.rowTerms());
+                int[] cols = indicesOf(reader.columnTerms());
+                // The counts go through the buffers like those of a document,
+                // which keeps the entropy statistics up to date
+                CooccurrenceBuffer buffer = buffers.get();
+                synchronized (buffer) {
+                    int lastRow = -1;
+                    while (reader.nextCell()) {
+                        if (reader.row() != lastRow) {
+                            buffers.documentFinished(buffer);
+                            lastRow = reader.row();
+                        }
+                        buffer.add(rows[reader.row()], cols[reader.column()],
+                                   reader.value());
+                    }
+                    buffers.documentFinished(buffer);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Returns the index of each term, adding the terms that are not yet
+     * known.
+     */
+    private int[] indicesOf(String[] terms) {
+        int[] indices = new int[terms.length];
+        for (int i = 0; i < terms.length; ++i)
+            indices[i] = termToIndex.getDimension(terms[i]);
+        return indices;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -42,7 +42,8 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
-import cz.zcu.luk.sspace.matrix.AtomicGrowingSparseHashMatrix;
+import cz.zcu.luk.sspace.matrix.CooccurrenceMatrices;
+import cz.zcu.luk.sspace.matrix.CooccurrenceMatrix;
 import cz.zcu.luk.sspace.util.MapUtil;
 
 
@@ -126,6 +127,16 @@ import cz.zcu.luk.sspace.util.MapUtil;
  *      not be set concurrently with {@value #RETAIN_PROPERTY}, and will throw
  *      an exception if done so.
  *
+ * <dt> <i>Property:</i> <code><b>{@value
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrices#MATRIX_TYPE_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@code hash}
+ *
+ * <dd style="padding-top: .5em">This optional property selects the {@link
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrix} implementation used to
+ *      accumulate the co-occurrences.  See {@link
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrices} for the accepted values.
+ *
  * </dl><p>
  *
  * Note that the weight function can also be used to create special cases of the
@@ -218,7 +229,7 @@ public class HyperspaceAnalogueToLanguageLK implements SemanticSpace {
      * The matrix used for storing weight co-occurrence statistics of those
      * words that occur both before and after.
      */
-    private AtomicGrowingSparseHashMatrix cooccurrenceMatrix;
+    private CooccurrenceMatrix cooccurrenceMatrix;
 
     /**
      * The reduced matrix, if columns are to be dropped.
@@ -237,7 +248,7 @@ public class HyperspaceAnalogueToLanguageLK implements SemanticSpace {
      * configuration.
      */
     public HyperspaceAnalogueToLanguageLK(Properties properties) {
-        cooccurrenceMatrix = new AtomicGrowingSparseHashMatrix();
+        cooccurrenceMatrix = CooccurrenceMatrices.create(properties);
         reduced = null;
         termToIndex = new ConcurrentHashMap<String,Integer>();
 
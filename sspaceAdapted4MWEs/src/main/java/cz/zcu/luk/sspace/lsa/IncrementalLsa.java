@@ -0,0 +1,338 @@
+package cz.zcu.luk.sspace.lsa;
+
+import cz.zcu.luk.sspace.common.Serializer;
+import cz.zcu.luk.sspace.matrix.IncrementalSvd;
+import cz.zcu.luk.sspace.matrix.TransformExtended;
+
+import edu.ucla.sspace.basis.BasisMapping;
+import edu.ucla.sspace.common.SemanticSpace;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.text.Document;
+import edu.ucla.sspace.text.IteratorFactory;
+import edu.ucla.sspace.util.LoggerUtil;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+import edu.ucla.sspace.vector.SparseHashDoubleVector;
+import edu.ucla.sspace.vector.Vector;
+
+import java.io.BufferedReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+
+/**
+ * A trained Latent Semantic Analysis model to which new documents are added
+ * without processing the whole corpus again.  The model keeps the term basis,
+ * the transform with the statistics of the term-document matrix it was
+ * trained on, and the {@link IncrementalSvd decomposition} of the transformed
+ * matrix.  The documents are tokenized with the {@link IteratorFactory}, their
+ * terms which are not in the basis are ignored, and their counts are
+ * transformed with the statistics of the training matrix.  Each batch of
+ * documents is then either folded in or added by a rank-{@code k} update of
+ * the decomposition, as selected by the {@link UpdateMode}.  The model keeps
+ * the {@link IteratorFactory} properties of the training, so the added
+ * documents are tokenized as the trained ones were.<p>
+ *
+ * Neither mode adds terms to the basis or updates the statistics of the
+ * transform, and folding in does not change the word space at all, so the
+ * model drifts from the one a full training on the grown corpus would give.
+ * {@link #needsRecomputation(double)} tells when enough documents have been
+ * added that the model should be trained again from the whole corpus.<p>
+ *
+ * The model is saved with {@link #save(String)} and read back with {@link
+ * #load(String)}, and its current word space is available as a {@link
+ * SemanticSpace} from {@link #getWordSpace()}.
+ */
+public class IncrementalLsa implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG =
+        Logger.getLogger(IncrementalLsa.class.getName());
+
+    /**
+     * The number of documents transformed and added to the decomposition at
+     * once.
+     */
+    private static final int DOCUMENTS_PER_BATCH = 4096;
+
+    /**
+     * How new documents are added to the decomposition.
+     */
+    public enum UpdateMode {
+
+        /**
+         * The documents are projected into the document space, and the word
+         * space is left unchanged.
+         */
+        FOLD_IN,
+
+        /**
+         * The decomposition is updated to the one of the grown matrix.
+         */
+        SVD_UPDATE
+    }
+
+    /**
+     * The name of the space the model was trained as.
+     */
+    private final String spaceName;
+
+    private final BasisMapping<String, String> termToIndex;
+
+    private final TransformExtended transform;
+
+    private final IncrementalSvd svd;
+
+    /**
+     * The {@link IteratorFactory#ITERATOR_FACTORY_PROPERTIES} of the training.
+     */
+    private final Properties tokenizerProperties;
+
+    /**
+     * The number of documents the model was trained on.
+     */
+    private final int trainedDocuments;
+
+    /**
+     * The number of documents added since the model was trained.
+     */
+    private int addedDocuments;
+
+    /**
+     * Creates the model from the results of a training.
+     *
+     * @param spaceName the name of the trained space
+     * @param termToIndex the term basis of the term-document matrix
+     * @param transform the transform of the term-document matrix, which holds
+     *        the statistics of the matrix
+     * @param U the left singular vectors of the transformed matrix
+     * @param sigma the diagonal matrix of the singular values
+     * @param Vt the transposed right singular vectors
+     * @param properties the properties of the training, of which the {@link
+     *        IteratorFactory#ITERATOR_FACTORY_PROPERTIES} are kept, or {@code
+     *        null} if the documents were tokenized with the defaults
+     */
+    public IncrementalLsa(String spaceName,
+                          BasisMapping<String, String> termToIndex,
+                          TransformExtended transform,
+                          Matrix U, Matrix sigma, Matrix Vt,
+                          Properties properties) {
+        this.spaceName = spaceName;
+        this.termToIndex = termToIndex;
+        this.transform = transform;
+        svd = new IncrementalSvd(U, sigma, Vt);
+        trainedDocuments = svd.columns();
+        addedDocuments = 0;
+        tokenizerProperties = new Properties();
+        if (properties != null) {
+            for (String name : IteratorFactory.ITERATOR_FACTORY_PROPERTIES) {
+                String value = properties.getProperty(name);
+                if (value != null)
+                    tokenizerProperties.setProperty(name, value);
+            }
+        }
+        termToIndex.setReadOnly(true);
+    }
+
+    /**
+     * Reads a model written by {@link #save(String)}, and sets the {@link
+     * IteratorFactory} to tokenize the documents as the training did.
+     *
+     * @throws IllegalArgumentException if the file does not hold a model
+     */
+    public static IncrementalLsa load(String fileName) {
+        Object model = Serializer.deserialiazeData(fileName);
+        if (!(model instanceof IncrementalLsa))
+            throw new IllegalArgumentException(
+                "Not an incremental LSA model: " + fileName);
+        IncrementalLsa lsa = (IncrementalLsa) model;
+        IteratorFactory.setProperties(lsa.tokenizerProperties);
+        return lsa;
+    }
+
+    /**
+     * Writes the model to the file.
+     */
+    public void save(String fileName) {
+        Serializer.serializeData(this, fileName);
+    }
+
+    /**
+     * Adds the documents to the model, in batches of {@value
+     * #DOCUMENTS_PER_BATCH}.
+     *
+     * @return the number of documents added
+     */
+    public int addDocuments(Iterator<Document> docs, UpdateMode mode) {
+        int added = 0;
+        List<SparseDoubleVector> batch = new ArrayList<SparseDoubleVector>();
+        while (docs.hasNext()) {
+            batch.add(transform.transformColumn(countTerms(docs.next())));
+            if (batch.size() == DOCUMENTS_PER_BATCH || !docs.hasNext()) {
+                SparseDoubleVector[] columns =
+                    batch.toArray(new SparseDoubleVector[batch.size()]);
+                if (mode == UpdateMode.FOLD_IN)
+                    svd.foldIn(columns);
+                else
+                    svd.update(columns);
+                added += columns.length;
+                batch.clear();
+                LoggerUtil.verbose(LOG, "added %d documents", added);
+            }
+        }
+        addedDocuments += added;
+        LoggerUtil.info(LOG, "added %d documents by %s, %d since the training",
+                        added, mode, addedDocuments);
+        return added;
+    }
+
+    /**
+     * Returns the number of occurrences of each term of the basis in the
+     * document.
+     */
+    private SparseDoubleVector countTerms(Document doc) {
+        SparseDoubleVector docVec = new SparseHashDoubleVector(svd.rows());
+        Iterator<String> docTokens = IteratorFactory.tokenize(doc.reader());
+        while (docTokens.hasNext()) {
+            int dim = termToIndex.getDimension(docTokens.next());
+            if (dim >= 0 && dim < svd.rows())
+                docVec.add(dim, 1d);
+        }
+        return docVec;
+    }
+
+    /**
+     * Returns {@code true} if the documents added since the training exceed
+     * the fraction of the documents the model was trained on, so that the
+     * model should be trained again from the whole corpus.
+     */
+    public boolean needsRecomputation(double maxAddedFraction) {
+        return addedDocuments > maxAddedFraction * trainedDocuments;
+    }
+
+    /**
+     * Returns the number of documents the model was trained on.
+     */
+    public int trainedDocuments() {
+        return trainedDocuments;
+    }
+
+    /**
+     * Returns the number of documents added since the training.
+     */
+    public int addedDocuments() {
+        return addedDocuments;
+    }
+
+    /**
+     * Returns the term basis of the model, which is read only.
+     */
+    public BasisMapping<String, String> getTermBasis() {
+        return termToIndex;
+    }
+
+    /**
+     * Returns the decomposition of the model, whose {@link
+     * IncrementalSvd#dataClasses() data classes} are the word space and whose
+     * {@link IncrementalSvd#classFeatures() class features} are the document
+     * space.
+     */
+    public IncrementalSvd getDecomposition() {
+        return svd;
+    }
+
+    /**
+     * Returns the {@link IteratorFactory} properties the documents of the
+     * model are tokenized with.
+     */
+    public Properties getTokenizerProperties() {
+        return tokenizerProperties;
+    }
+
+    /**
+     * Returns the current word space of the model, the {@link
+     * IncrementalSvd#dataClasses() data classes} of its decomposition, as a
+     * {@link SemanticSpace} which may be saved with {@link
+     * edu.ucla.sspace.common.SemanticSpaceIO}.  The space is a snapshot, which
+     * does not change when more documents are added.
+     */
+    public SemanticSpace getWordSpace() {
+        return new WordSpace(spaceName, termToIndex, svd.dataClasses());
+    }
+
+    /**
+     * A snapshot of the word space of the model.
+     */
+    private static class WordSpace implements SemanticSpace {
+
+        private final String spaceName;
+
+        private final BasisMapping<String, String> termToIndex;
+
+        private final Matrix wordSpace;
+
+        WordSpace(String spaceName, BasisMapping<String, String> termToIndex,
+                  Matrix wordSpace) {
+            this.spaceName = spaceName;
+            this.termToIndex = termToIndex;
+            this.wordSpace = wordSpace;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Set<String> getWords() {
+            return Collections.unmodifiableSet(termToIndex.keySet());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Vector getVector(String word) {
+            int index = termToIndex.getDimension(word);
+            return (index < 0 || index >= wordSpace.rows())
+                ? null
+                : wordSpace.getRowVector(index);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public String getSpaceName() {
+            return spaceName;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int getVectorLength() {
+            return wordSpace.columns();
+        }
+
+        /**
+         * Not supported; documents are added with {@link
+         * IncrementalLsa#addDocuments(Iterator, UpdateMode)}.
+         *
+         * @throws UnsupportedOperationException if called
+         */
+        public void processDocument(BufferedReader document) {
+            throw new UnsupportedOperationException(
+                "The word space of an incremental model cannot be updated");
+        }
+
+        /**
+         * Not supported.
+         *
+         * @throws UnsupportedOperationException if called
+         */
+        public void processSpace(Properties props) {
+            throw new UnsupportedOperationException(
+                "The word space of an incremental model cannot be updated");
+        }
+    }
+}
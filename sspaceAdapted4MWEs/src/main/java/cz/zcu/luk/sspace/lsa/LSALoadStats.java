@@ -23,28 +23,22 @@ package cz.zcu.luk.sspace.lsa;
 
 import edu.ucla.sspace.basis.BasisMapping;
 import edu.ucla.sspace.basis.StringBasisMapping;
-import edu.ucla.sspace.matrix.ArrayMatrix;
-import edu.ucla.sspace.matrix.DiagonalMatrix;
-import edu.ucla.sspace.matrix.Matrices;
 import edu.ucla.sspace.matrix.Matrix;
 import edu.ucla.sspace.matrix.SVD;
 import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
 import edu.ucla.sspace.text.Document;
 import edu.ucla.sspace.text.IteratorFactory;
 import edu.ucla.sspace.util.LoggerUtil;
-import edu.ucla.sspace.vector.DenseVector;
 import edu.ucla.sspace.vector.DoubleVector;
-import edu.ucla.sspace.vector.SparseDoubleVector;
-import edu.ucla.sspace.vector.SparseHashDoubleVector;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.IOException;
-import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import cz.zcu.luk.sspace.common.GenericTermDocumentVectorSpaceLoadStats;
+import cz.zcu.luk.sspace.common.ProcessedDocuments;
 import cz.zcu.luk.sspace.common.Serializer;
 import cz.zcu.luk.sspace.matrix.*;
 
@@ -226,14 +220,24 @@ public class LSALoadStats extends GenericTermDocumentVectorSpaceLoadStats
 
 
     /**
-     * The precomputed result of U * Sigma^-1, which is used to project new
-     * document vectors into the latent document space.  Since this matrix is
-     * potentially large and its use only depends on the number of calls to
-     * {@link #project(edu.ucla.sspace.text.Document)}, we cache the results with a {@code
-     * WeakReference}, letting the result be garbage collected if memory
-     * pressure gets too high.
+     * Tokenizes the documents projected into the latent document space, as
+     * the documents of the model were.
      */
-    private transient WeakReference<Matrix> UtimesSigmaInvRef;
+    private static final QueryProjection.Tokenizer TOKENIZER =
+        new QueryProjection.Tokenizer() {
+            public Iterator<String> tokenize(Document doc) {
+                return IteratorFactory.tokenize(doc.reader());
+            }
+        };
+
+    /**
+     * The projection of new documents into the latent document space, which
+     * holds the precomputed result of U * Sigma^-1.  It is created by the
+     * first call to {@link #getQueryProjection()} and kept from then on, so
+     * that the product is computed only once.
+     */
+    private final QueryProjection.Lazy queryProjection =
+        new QueryProjection.Lazy(TOKENIZER);
 
     /**
      * The left factor matrix of the SVD operation, which is the word space
@@ -241,7 +245,6 @@ public class LSALoadStats extends GenericTermDocumentVectorSpaceLoadStats
      */
     private Matrix U;
     private Matrix Vt;
-    private transient WeakReference<Matrix> SigmaInvTimesVtRef;
 
     /**
      * The {@link edu.ucla.sspace.matrix.factorization.SingularValueDecomposition} algorithm that will decompose the word by
@@ -414,7 +417,6 @@ public class LSALoadStats extends GenericTermDocumentVectorSpaceLoadStats
      */
     private Matrix computeOtherSpace(Matrix processedOtherSpace, Matrix Vt) {
         System.out.println(" -------------- PROJECTING OTHERS! -------------- ");
-        Matrix projectedOthers = new ArrayMatrix(processedOtherSpace.rows(), dimensions);
 
 //        // Check that we can actually project the document
 //        if (wordSpace == null)
@@ -426,69 +428,9 @@ public class LSALoadStats extends GenericTermDocumentVectorSpaceLoadStats
         // add any new terms to this space's basis.
         //termToIndex.setReadOnly(true);
 
-        for (int k = 0; k < processedOtherSpace.rows(); k++) {
-            if (k % 10000 == 0) LoggerUtil.info(LOG, "Processing other space row: %s", k);
-            DoubleVector otherInRow = processedOtherSpace.getRowVector(k);
-
-            SparseDoubleVector otherInRowSparse = new SparseHashDoubleVector(otherInRow.length());
-            for (int j = 0; j < otherInRow.length(); j++) {
-                if (otherInRow.get(j) != 0) {
-                    otherInRowSparse.set(j, otherInRow.get(j));
-                }
-            }
-
-            // Represent the other as a 1-column matrix
-//            Matrix queryAsMatrix = new ArrayMatrix(otherInRow.length(), 1);
-//            for (int nz : otherInRowSparse.getNonZeroIndices())
-//                queryAsMatrix.set(nz, 0, otherInRowSparse.get(nz));
-
-            // Project the new other vector, t, by using
-            //
-            //   Sigma_k^-1 * Vt_k * t
-            //
-            // where k is the dimensionality of the LSA space
-
-            Matrix SigmaInvTimesVt = null;
-
-            // We cache the results of the U_k * Sigma_k^-1 multiplication since
-            // this will be the same for all projections.
-            while (SigmaInvTimesVt == null) {
-                if (SigmaInvTimesVtRef != null
-                        && ((SigmaInvTimesVt = SigmaInvTimesVtRef.get()) != null))
-                    break;
-
-                int rows = sigma.rows();
-                double[] sigmaInv = new double[rows];
-                for (int i = 0; i < rows; ++i)
-                    sigmaInv[i] = 1d / sigma.get(i, i);
-                DiagonalMatrix sigmaInvMatrix = new DiagonalMatrix(sigmaInv);
-
-                System.out.println("sigmaInv: " + sigmaInvMatrix.rows() + " " + sigmaInvMatrix.columns());
-                System.out.println("Vt: " + Vt.rows() + " " + Vt.columns());
-                SigmaInvTimesVt =
-                        Matrices.multiply(sigmaInvMatrix, Vt);
-                System.out.println("SigmaInvTimesVt: " + SigmaInvTimesVt.rows() + " " + SigmaInvTimesVt.columns());
-                // Update the field with the new reference to the precomputed matrix
-                SigmaInvTimesVtRef = new WeakReference<Matrix>(SigmaInvTimesVt);
-            }
-
-            // Compute the resulting projected vector as a matrix
-            //Matrix result = Matrices.multiply(SigmaInvTimesVt, queryAsMatrix);
-            //Matrix result = Matrices.multiply(SigmaInvTimesVt, queryAsMatrix);
-            DoubleVector res = Matrices.multiplyByTransposedMatrix(otherInRowSparse, SigmaInvTimesVt);
-    //System.out.println(SigmaInvTimesVt.rows() + " " + SigmaInvTimesVt.columns());
-    //System.out.println(queryAsMatrix.rows() + " " + queryAsMatrix.columns());
-    //System.out.println(result.rows() + " " + result.columns());
-     //       int rows = result.rows();
-      //      DoubleVector projected = new DenseVector(result.rows());
-       //     for (int i = 0; i < rows; ++i)
-         //       projected.set(i, result.get(i, 0));
-
-            projectedOthers.setRow(k, res);
-
-        }
-
-        return projectedOthers;
+        // Project all the rows at once, as a sparse by dense product with
+        // Sigma^-1 * Vt, which is released when the rows are projected
+        return FoldInProjection.foldIn(sigma, Vt, processedOtherSpace);
     }
 
     /**
@@ -527,78 +469,33 @@ public class LSALoadStats extends GenericTermDocumentVectorSpaceLoadStats
      *         yet).
      */
     public DoubleVector project(Document doc) {
-        // Check that we can actually project the document
-        if (wordSpace == null) 
-            throw new IllegalStateException(
-                "processSpace has not been called, so the latent document " +
-                "space does not yet exist");
-
-        // Tokenize the document using the existing tokenization rules
-        Iterator<String> docTokens = 
-            IteratorFactory.tokenize(doc.reader());
-        
-        // Ensure that when we are projecting the new document that we do not
-        // add any new terms to this space's basis.
-        termToIndex.setReadOnly(true);
-        int numDims = termToIndex.numDimensions();
-
-        // Iterate through the document's tokens and build the document
-        // representation for those terms that have an existing basis in the
-        // space
-        SparseDoubleVector docVec = new SparseHashDoubleVector(numDims);
-        while (docTokens.hasNext()) {
-            int dim = termToIndex.getDimension(docTokens.next());
-            if (dim >= 0)
-                docVec.add(dim, 1d);
-        }        
-        
-        // Transform the vector according to this instance's transform's state,
-        // which should normalize the vector as the original vectors were.
-        DoubleVector transformed = transform.transform(docVec);
-
-        // Represent the document as a 1-column matrix        
-        Matrix queryAsMatrix = new ArrayMatrix(1, numDims);
-        for (int nz : docVec.getNonZeroIndices())
-            queryAsMatrix.set(0, nz, docVec.get(nz));
-        
-        // Project the new document vector, d, by using
-        //
-        //   d * U_k * Sigma_k^-1
-        //
-        // where k is the dimensionality of the LSA space
-        
-        Matrix UtimesSigmaInv = null;
-            
-        // We cache the reuslts of the U_k * Sigma_k^-1 multiplication since
-        // this will be the same for all projections.
-        while (UtimesSigmaInv == null) {
-            if (UtimesSigmaInvRef != null
-                    && ((UtimesSigmaInv = UtimesSigmaInvRef.get()) != null))
-                break;
-            
-            int rows = sigma.rows();
-            double[] sigmaInv = new double[rows];
-            for (int i = 0; i < rows; ++i)
-                sigmaInv[i] = 1d / sigma.get(i, i);
-            DiagonalMatrix sigmaInvMatrix = new DiagonalMatrix(sigmaInv);
-
-            UtimesSigmaInv =
-                Matrices.multiply(U, sigmaInvMatrix);
-            // Update the field with the new reference to the precomputed matrix
-            UtimesSigmaInvRef = new WeakReference<Matrix>(UtimesSigmaInv);
-        }
+        return getQueryProjection().project(doc);
+    }
+
+    /**
+     * Projects the documents into the latent document space in parallel, as
+     * {@link #project(Document)} does.
+     *
+     * @return the projected documents, in the order of the iterator
+     *
+     * @throws IllegalStateException if {@link #processSpace(java.util.Properties)} has
+     *         not yet been called (that is, no latent document space exists
+     *         yet).
+     */
+    public List<DoubleVector> projectAll(Iterator<Document> docs) {
+        return getQueryProjection().projectAll(docs);
+    }
 
-        // Compute the resulting projected vector as a matrix
-        Matrix result = Matrices.multiply(queryAsMatrix, UtimesSigmaInv);
-
-        // Copy out the vector itself so that we don't retain a reference to the
-        // matrix as a result of its getRowVector call, which isn't guaranteed
-        // to return a copy.
-        int cols = result.columns();
-        DoubleVector projected = new DenseVector(result.columns());
-        for (int i = 0; i < cols; ++i)
-            projected.set(i, result.get(0, i));
-        return projected;
+    /**
+     * Returns the projection of new documents into the latent document space,
+     * whose counters report the latency and throughput of the projections.
+     *
+     * @throws IllegalStateException if {@link #processSpace(java.util.Properties)} has
+     *         not yet been called (that is, no latent document space exists
+     *         yet).
+     */
+    public QueryProjection getQueryProjection() {
+        return queryProjection.get(wordSpace, termToIndex, U, sigma);
     }
 
     public void loadStatistics(String dirPlusSpaceNameNoExtensionLoaded) {
@@ -612,6 +509,6 @@ public class LSALoadStats extends GenericTermDocumentVectorSpaceLoadStats
         //this.termToIndex = (BasisMapping<String, String>)Serializer.deserialiazeData(dirPlusSpaceNameNoExtensionLoaded + ".indmap");
         this.Vt = (Matrix)Serializer.deserialiazeData(dirPlusSpaceNameNoExtensionLoaded + ".vtmatrix");
         this.sigma = (Matrix)Serializer.deserialiazeData(dirPlusSpaceNameNoExtensionLoaded + ".smatrix");
-        this.processedDocNumbers = (ArrayList<Integer>)Serializer.deserialiazeData(dirPlusSpaceNameNoExtensionLoaded + ".pdnums");
+        this.processedDocNumbers = ProcessedDocuments.load(dirPlusSpaceNameNoExtensionLoaded + ".pdnums");
     }
 }
@@ -0,0 +1,294 @@
+package cz.zcu.luk.sspace.lsa;
+
+import cz.zcu.luk.sspace.matrix.FoldInProjection;
+import cz.zcu.luk.sspace.matrix.RowBlocks;
+
+import edu.ucla.sspace.basis.BasisMapping;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.text.Document;
+import edu.ucla.sspace.util.LoggerUtil;
+import edu.ucla.sspace.util.WorkQueue;
+import edu.ucla.sspace.vector.DenseVector;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+import edu.ucla.sspace.vector.SparseHashDoubleVector;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+
+/**
+ * Projects new documents into the latent document space of a Latent Semantic
+ * Analysis model, as {@code d U_k Sigma_k^-1}, where {@code d} holds the
+ * number of occurrences of each term of the space in the document.  The
+ * product {@code U_k Sigma_k^-1} is computed once, when the projection is
+ * created, and held as a dense array in a {@link FoldInProjection}, so that a
+ * document costs one pass over its tokens plus one row of the array for each
+ * distinct term it contains.<p>
+ *
+ * A projection may be used by several threads at once, and {@link
+ * #projectAll(Iterator)} projects documents in parallel with the threads of
+ * the {@link WorkQueue}, with {@link RowBlocks}.  The
+ * projection counts the documents it projects and the time spent on each of
+ * them, which {@link #toString()} reports.<p>
+ *
+ * Subclasses tokenize the documents as the documents of the model were.  A
+ * model that does not subclass it hands its tokenizer to a {@link Lazy},
+ * which creates the projection when it is first used.
+ */
+public abstract class QueryProjection {
+
+    private static final Logger LOG =
+        Logger.getLogger(QueryProjection.class.getName());
+
+    /**
+     * The number of documents read from the iterator of {@link
+     * #projectAll(Iterator)} and projected at once.
+     */
+    private static final int DOCUMENTS_PER_BATCH = 1024;
+
+    private final BasisMapping<String, String> termToIndex;
+
+    private final FoldInProjection projection;
+
+    /**
+     * The number of documents projected.
+     */
+    private final AtomicLong documents;
+
+    /**
+     * The total and the longest time taken to project a document.
+     */
+    private final AtomicLong latencyNanos;
+
+    private final AtomicLong maxLatencyNanos;
+
+    /**
+     * The number of documents projected by {@link #projectAll(Iterator)} and
+     * the time it took to project them.
+     */
+    private final AtomicLong batchDocuments;
+
+    private final AtomicLong batchNanos;
+
+    /**
+     * Creates the projection into the latent document space of a model.
+     *
+     * @param termToIndex the basis of the terms of the model, which should be
+     *        read only
+     * @param U the left singular vectors of the term-document matrix
+     * @param sigma the diagonal matrix of the singular values
+     */
+    public QueryProjection(BasisMapping<String, String> termToIndex,
+                           Matrix U, Matrix sigma) {
+        this.termToIndex = termToIndex;
+        projection = FoldInProjection.ofLeftVectors(sigma, U);
+        documents = new AtomicLong();
+        latencyNanos = new AtomicLong();
+        maxLatencyNanos = new AtomicLong();
+        batchDocuments = new AtomicLong();
+        batchNanos = new AtomicLong();
+    }
+
+    /**
+     * Creates the projection into the latent document space of a model, whose
+     * documents are tokenized by the tokenizer.  The basis is made read only,
+     * so that projecting documents does not add new terms to it.
+     *
+     * @param termToIndex the basis of the terms of the model
+     * @param U the left singular vectors of the term-document matrix
+     * @param sigma the diagonal matrix of the singular values
+     * @param tokenizer the tokenizer the documents of the model were read with
+     */
+    public static QueryProjection create(BasisMapping<String, String> termToIndex,
+                                         Matrix U, Matrix sigma,
+                                         final Tokenizer tokenizer) {
+        termToIndex.setReadOnly(true);
+        return new QueryProjection(termToIndex, U, sigma) {
+            protected Iterator<String> tokenize(Document doc) {
+                return tokenizer.tokenize(doc);
+            }
+        };
+    }
+
+    /**
+     * Returns the tokens of the document, as the documents of the model were
+     * tokenized.
+     */
+    protected abstract Iterator<String> tokenize(Document doc);
+
+    /**
+     * Projects the document into the latent document space.  Tokens that are
+     * not in the basis of the model are ignored.
+     */
+    public DoubleVector project(Document doc) {
+        long start = System.nanoTime();
+        int columns = projection.columns();
+        SparseDoubleVector docVec = new SparseHashDoubleVector(columns);
+        Iterator<String> docTokens = tokenize(doc);
+        while (docTokens.hasNext()) {
+            int dim = termToIndex.getDimension(docTokens.next());
+            if (dim >= 0 && dim < columns)
+                docVec.add(dim, 1d);
+        }
+        DoubleVector projected = new DenseVector(projection.project(docVec));
+        record(System.nanoTime() - start);
+        return projected;
+    }
+
+    /**
+     * Projects the documents into the latent document space in parallel.  The
+     * documents are read from the iterator by the calling thread, in batches
+     * of {@value #DOCUMENTS_PER_BATCH}, and each batch is projected before the
+     * next one is read.
+     *
+     * @return the projected documents, in the order of the iterator
+     */
+    public List<DoubleVector> projectAll(Iterator<Document> docs) {
+        long start = System.nanoTime();
+        List<DoubleVector> projected = new ArrayList<DoubleVector>();
+        final Document[] batch = new Document[DOCUMENTS_PER_BATCH];
+        final DoubleVector[] results = new DoubleVector[DOCUMENTS_PER_BATCH];
+        while (docs.hasNext()) {
+            int size = 0;
+            while (size < batch.length && docs.hasNext())
+                batch[size++] = docs.next();
+            RowBlocks.forEachBlock(size, 1, new RowBlocks.RowBlock() {
+                public void run(int from, int to) {
+                    for (int i = from; i < to; ++i)
+                        results[i] = project(batch[i]);
+                }
+            });
+            projected.addAll(Arrays.asList(results).subList(0, size));
+            Arrays.fill(batch, null);
+            Arrays.fill(results, null);
+        }
+        batchDocuments.addAndGet(projected.size());
+        batchNanos.addAndGet(System.nanoTime() - start);
+        LoggerUtil.verbose(LOG, "%s", this);
+        return projected;
+    }
+
+    private void record(long nanos) {
+        documents.incrementAndGet();
+        latencyNanos.addAndGet(nanos);
+        long max = maxLatencyNanos.get();
+        while (nanos > max && !maxLatencyNanos.compareAndSet(max, nanos))
+            max = maxLatencyNanos.get();
+    }
+
+    /**
+     * Returns the number of dimensions of the projected documents.
+     */
+    public int dimensions() {
+        return projection.dimensions();
+    }
+
+    /**
+     * Returns the number of documents projected.
+     */
+    public long documentsProjected() {
+        return documents.get();
+    }
+
+    /**
+     * Returns the mean time taken to project a document, in milliseconds.
+     */
+    public double meanLatencyMillis() {
+        long count = documents.get();
+        return (count == 0) ? 0 : latencyNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Returns the longest time taken to project a document, in milliseconds.
+     */
+    public double maxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * Returns the number of documents projected by {@link
+     * #projectAll(Iterator)} per second.
+     */
+    public double throughput() {
+        long nanos = batchNanos.get();
+        return (nanos == 0) ? 0 : batchDocuments.get() * 1e9 / nanos;
+    }
+
+    /**
+     * Returns the values of the counters of the projection.
+     */
+    public String toString() {
+        return String.format(
+            "projected %d documents, mean latency %.3f ms, max latency " +
+            "%.3f ms, %.1f documents/s in batches",
+            documentsProjected(), meanLatencyMillis(), maxLatencyMillis(),
+            throughput());
+    }
+
+    /**
+     * Tokenizes the documents to be projected, as the documents of a model
+     * were tokenized.
+     */
+    public interface Tokenizer extends Serializable {
+
+        Iterator<String> tokenize(Document doc);
+    }
+
+    /**
+     * The projection of a model, created by {@link #get(Matrix,
+     * BasisMapping, Matrix, Matrix) get} when it is first used and shared by
+     * all the threads that use it afterwards.  The projection itself is not
+     * serialized with the model, only its tokenizer.
+     */
+    public static class Lazy implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Tokenizer tokenizer;
+
+        private transient volatile QueryProjection projection;
+
+        public Lazy(Tokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+        }
+
+        /**
+         * Returns the projection into the latent document space of the
+         * model, which is created by the first call.
+         *
+         * @param wordSpace the word space of the model, or {@code null} if it
+         *        has not been computed yet
+         * @param termToIndex the basis of the terms of the model
+         * @param U the left singular vectors of the term-document matrix
+         * @param sigma the diagonal matrix of the singular values
+         *
+         * @throws IllegalStateException if the word space has not been
+         *         computed yet
+         */
+        public QueryProjection get(Matrix wordSpace,
+                                   BasisMapping<String, String> termToIndex,
+                                   Matrix U, Matrix sigma) {
+            QueryProjection p = projection;
+            if (p == null) {
+                synchronized (this) {
+                    p = projection;
+                    if (p == null) {
+                        if (wordSpace == null)
+                            throw new IllegalStateException(
+                                "processSpace has not been called, so the " +
+                                "latent document space does not yet exist");
+                        p = create(termToIndex, U, sigma, tokenizer);
+                        projection = p;
+                    }
+                }
+            }
+            return p;
+        }
+    }
+}
@@ -52,6 +52,10 @@ import cz.zcu.luk.sspace.matrix.*;
  *
  * <li> {code --reduceDimensions=<int>} size of the reduced svd vectors. See
  *      {@link edu.ucla.sspace.coals.Coals} for a default value.
+ *
+ * <li> {@code --svdAlgorithm=<name>} the SVD algorithm to use, as accepted by
+ *      {@link cz.zcu.luk.sspace.matrix.SvdAlgorithms}.  The fastest available
+ *      one is used by default.
  * </ul>
  *
  * <p>
@@ -91,6 +95,11 @@ public class CoalsMainCompounds extends GenericMainModified {
                             "Set to true if the co-occurrance matrix should " +
                             "be reduced using the Singluar Value Decomposition",
                             false, null, "Optional");
+          options.addOption('S', "svdAlgorithm",
+                            "Set the SVD algorithm to use if --reduce is " +
+                            "set.  The fastest available one is used by " +
+                            "default.",
+                            true, "SVD.Algorithm", "Optional");
           options.addOption('c', "compoundsInvestigated", "a file where each line is a " +
                 "recognized compound for which a statistic is being done." +
                 " No words' vectors are influenced", true, "FILE",
@@ -107,9 +116,12 @@ public class CoalsMainCompounds extends GenericMainModified {
      */
     public SemanticSpace getSpace() {
         TransformExtended transform = new CorrelationTransformExtended();
-        MatrixFactorization reducer = (argOptions.hasOption("reduce"))
-            ? SVD.getFastestAvailableFactorization()
-            : null;
+        MatrixFactorization reducer = null;
+        if (argOptions.hasOption("reduce"))
+            reducer = (argOptions.hasOption("svdAlgorithm"))
+                ? SvdAlgorithms.getFactorization(
+                    argOptions.getStringOption("svdAlgorithm"))
+                : SVD.getFastestAvailableFactorization();
 
         // LK changed - added processing of compounds..
         Set<String> compounds = null;
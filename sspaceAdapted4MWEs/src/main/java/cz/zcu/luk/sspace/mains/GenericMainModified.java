@@ -43,6 +43,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import cz.zcu.luk.sspace.common.SemanticSpacePartial;
+import cz.zcu.luk.sspace.common.SemanticSpaceTwoPass;
 import cz.zcu.luk.sspace.config.Config;
 import cz.zcu.luk.sspace.text.*;
 
@@ -91,6 +93,26 @@ import cz.zcu.luk.sspace.text.*;
  *        information to standard out
  *
  *   </ul>
+ *
+ * <li> <u>Sharding Options</u>, for spaces that implement {@link
+ *      cz.zcu.luk.sspace.common.SemanticSpacePartial}
+ *
+ *   <ul>
+ *
+ *   <li> {@code -D}, {@code --docRange=FROM,TO} processes only the documents
+ *        from {@code FROM}, inclusive, to {@code TO}, exclusive, counting the
+ *        documents of all sources from 0.
+ *
+ *   <li> {@code -P}, {@code --writePartial=FILE} writes the co-occurrence
+ *        counts of the documents to a partial file instead of processing and
+ *        saving the space.
+ *
+ *   <li> {@code -M}, {@code --readPartial=FILE[,FILE...]} builds the space
+ *        from partial files, usually merged by {@link
+ *        cz.zcu.luk.sspace.matrix.PartialCooccurrences}, instead of from
+ *        documents.
+ *
+ *   </ul>
  * </ul>
  *
  * @author David Jurgens
@@ -270,6 +292,17 @@ public abstract class GenericMainModified {
                           "an document can return",
                           true, "INT", "Tokenizing Options");
 
+        // Add sharding options.
+        options.addOption('D', "docRange", "processes only the documents " +
+                          "from FROM, inclusive, to TO, exclusive",
+                          true, "FROM,TO", "Sharding Options");
+        options.addOption('P', "writePartial", "writes the co-occurrence " +
+                          "counts to a partial file instead of processing " +
+                          "the space", true, "FILE", "Sharding Options");
+        options.addOption('M', "readPartial", "builds the space from " +
+                          "partial files instead of documents",
+                          true, "FILE[,FILE...]", "Sharding Options");
+
         addExtraOptions(options);
         return options;
     }
@@ -304,6 +337,19 @@ public abstract class GenericMainModified {
         // combine all of the document iterators into one iterator.
         Iterator<Document> docIter = new CombinedIterator<Document>(docIters);
 
+        // Skip the documents before the requested range and stop at its end.
+        if (argOptions.hasOption("docRange")) {
+            String[] range = argOptions.getStringOption("docRange").split(",");
+            int from = Integer.parseInt(range[0]);
+            int to = Integer.parseInt(range[1]);
+            if (from < 0 || to < from)
+                throw new IllegalArgumentException(
+                    "Invalid document range: " + from + "," + to);
+            for (int i = 0; i < from && docIter.hasNext(); ++i)
+                docIter.next();
+            docIter = new LimitedIterator<Document>(docIter, to - from);
+        }
+
         // Return a limited iterator if requested.
         if (argOptions.hasOption("docLimit"))
             return new LimitedIterator<Document>(
@@ -434,10 +480,45 @@ public abstract class GenericMainModified {
         System.out.println(threadSet2.toString());
 
 
-        // all the documents are listed in one file, with one document per line
-        Iterator<Document> docIter = getDocumentIterator();
+        if (argOptions.hasOption("readPartial")) {
+            // The counts of the documents were written by separate runs
+            SemanticSpacePartial partialSpace = partialSpace(space);
+            for (String file :
+                     argOptions.getStringOption("readPartial").split(","))
+                partialSpace.readPartial(new File(file));
 
-        processDocumentsAndSpace(space, docIter, numThreads, props);
+            long startTime = System.currentTimeMillis();
+            space.processSpace(props);
+            long endTime = System.currentTimeMillis();
+            verbose("processed space in %.3f seconds",
+                    ((endTime - startTime) / 1000d));
+        }
+        else {
+            // all the documents are listed in one file, with one document per
+            // line
+            Iterator<Document> docIter = getDocumentIterator();
+
+            if (space instanceof SemanticSpaceTwoPass
+                    && ((SemanticSpaceTwoPass) space).isTwoPass()) {
+                // Count the term frequencies in a first pass over the
+                // documents, then read them again for the co-occurrences
+                parseDocumentsMultiThreaded(space, docIter, numThreads, true);
+                ((SemanticSpaceTwoPass) space).endFrequencyPass();
+                docIter = getDocumentIterator();
+            }
+
+            if (argOptions.hasOption("writePartial")) {
+                // Only this shard's counts are written; the space is processed
+                // once the partial files of all shards have been merged
+                SemanticSpacePartial partialSpace = partialSpace(space);
+                parseDocumentsMultiThreaded(space, docIter, numThreads);
+                partialSpace.writePartial(
+                    new File(argOptions.getStringOption("writePartial")));
+                return;
+            }
+
+            processDocumentsAndSpace(space, docIter, numThreads, props);
+        }
 
         File outputPath = new File(argOptions.getPositionalArg(0));
         File outputFile = null;
@@ -500,6 +581,19 @@ public abstract class GenericMainModified {
         postProcessing();
     }
 
+    /**
+     * Returns the space as a {@link SemanticSpacePartial}.
+     *
+     * @throws IllegalArgumentException if the space cannot be processed in
+     *         shards
+     */
+    private static SemanticSpacePartial partialSpace(SemanticSpace space) {
+        if (!(space instanceof SemanticSpacePartial))
+            throw new IllegalArgumentException(
+                space.getSpaceName() + " cannot be processed in shards");
+        return (SemanticSpacePartial) space;
+    }
+
     /**
      * Serializes the {@link edu.ucla.sspace.common.SemanticSpace} object to {@code outputFile} using a
      * given {@link edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat}.
@@ -571,6 +665,26 @@ public abstract class GenericMainModified {
                                                final Iterator<Document> docIter,
                                                int numThreads)        
         throws IOException, InterruptedException {
+        parseDocumentsMultiThreaded(sspace, docIter, numThreads, false);
+    }
+
+    /**
+     * Calls {@link edu.ucla.sspace.common.SemanticSpace#processDocument(java.io.BufferedReader)
+     * processDocument}, or {@link SemanticSpaceTwoPass#processFrequencies(
+     * java.io.BufferedReader) processFrequencies} in the first pass of a
+     * {@link SemanticSpaceTwoPass}, once for every document in {@code docIter}
+     * using the specified number of threads.
+     *
+     * @param sspace the space to build
+     * @param docIter an iterator over all the documents to process
+     * @param numThreads the number of threads to use
+     * @param frequencyPass whether the documents are read in the first pass
+     */
+    private void parseDocumentsMultiThreaded(final SemanticSpace sspace,
+                                             final Iterator<Document> docIter,
+                                             int numThreads,
+                                             final boolean frequencyPass)
+        throws IOException, InterruptedException {
 
         Collection<Thread> threads = new LinkedList<Thread>();
 
@@ -598,7 +712,11 @@ public abstract class GenericMainModified {
                         int docNumber = count.incrementAndGet();
                         int terms = 0;
                         try {
-                            sspace.processDocument(doc.reader());
+                            if (frequencyPass)
+                                ((SemanticSpaceTwoPass) sspace)
+                                    .processFrequencies(doc.reader());
+                            else
+                                sspace.processDocument(doc.reader());
                         } catch (Throwable t) {
                             t.printStackTrace();
                         }
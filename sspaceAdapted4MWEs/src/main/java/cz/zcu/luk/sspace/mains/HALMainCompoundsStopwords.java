@@ -21,7 +21,6 @@
 
 package cz.zcu.luk.sspace.mains;
 
-import edu.ucla.sspace.basis.StringBasisMapping;
 import edu.ucla.sspace.common.ArgOptions;
 import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
@@ -37,6 +36,7 @@ import java.io.IOException;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
 import cz.zcu.luk.sspace.hal.HyperspaceAnalogueToLanguageCompoundsStopwords;
 
 
@@ -207,7 +207,7 @@ public class HALMainCompoundsStopwords extends GenericMainModifiedStopwords {
         }
 
         return new HyperspaceAnalogueToLanguageCompoundsStopwords(
-                new StringBasisMapping(), windowSize, weighting,
+                new ConcurrentVocabulary(), windowSize, weighting,
                 threshold, retain, compounds);
     }
 
@@ -28,8 +28,6 @@ import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.common.SemanticSpaceIO;
 import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
 import edu.ucla.sspace.matrix.LogEntropyTransform;
-import edu.ucla.sspace.matrix.SVD;
-import edu.ucla.sspace.matrix.SVD.Algorithm;
 import edu.ucla.sspace.matrix.Transform;
 import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
 import edu.ucla.sspace.util.ReflectionUtil;
@@ -40,9 +38,10 @@ import java.io.IOError;
 import java.io.IOException;
 import java.util.Map;
 
-import cz.zcu.luk.sspace.common.DocumentSemanticSpace;
+import cz.zcu.luk.sspace.common.MappedDocumentSpace;
 import cz.zcu.luk.sspace.config.Config;
 import cz.zcu.luk.sspace.lsa.LatentSemanticAnalysisModified;
+import cz.zcu.luk.sspace.matrix.SvdAlgorithms;
 
 
 /**
@@ -84,7 +83,10 @@ import cz.zcu.luk.sspace.lsa.LatentSemanticAnalysisModified;
  *
  *   <li> {@code -S}, {@code --svdAlgorithm}={@link
  *        edu.ucla.sspace.matrix.SVD.Algorithm} species a specific {@code
- *        SVD.Algorithm} method to use when reducing the dimensionality in LSA.
+ *        SVD.Algorithm} method, or {@code RANDOMIZED} or {@code STREAMING}
+ *        (see {@link cz.zcu.luk.sspace.matrix.SvdAlgorithms}), to use when
+ *        reducing the dimensionality in LSA.  {@code STREAMING} decomposes
+ *        the term-document matrix file without loading it.
  *        In general, users should not need to specify this option, as the
  *        default setting will choose the fastest algorithm available on the
  *        system.  This is only provided as an advanced option for users who
@@ -137,6 +139,12 @@ import cz.zcu.luk.sspace.lsa.LatentSemanticAnalysisModified;
  */
 public class LSAMainDocumentsSim extends GenericMainModified {
 
+    /**
+     * The extension of the file of the {@link MappedDocumentSpace} written
+     * next to the {@code .sspace} file of the document space.
+     */
+    public static final String DOC_STORE_EXT = ".docspace";
+
     private BasisMapping<String, String> basis;
 
     private LatentSemanticAnalysisModified lsaInst;
@@ -176,8 +184,8 @@ public class LSAMainDocumentsSim extends GenericMainModified {
                 transform = ReflectionUtil.getObjectInstance(
                         argOptions.getStringOption("preprocess"));
             String algName = argOptions.getStringOption("svdAlgorithm", "ANY");
-            SingularValueDecomposition factorization = SVD.getFactorization(
-                    Algorithm.valueOf(algName.toUpperCase()));
+            SingularValueDecomposition factorization =
+                SvdAlgorithms.getFactorization(algName);
             basis = new StringBasisMapping();
 
             // LK change - first param set to true - preserve doc. space
@@ -237,18 +245,26 @@ public class LSAMainDocumentsSim extends GenericMainModified {
 //                lsaInst.getDocumentVector((1000)),
 //                lsaInst.getDocumentVector((299440))));
 
-        DocumentSemanticSpace docSemSpace = new DocumentSemanticSpace(lsaInst);
         // cannot get number of processed documents in the following way
         // the reason is that empty documents are not processed,
         // however, counted -> they increase headerToIndex size..
         //System.out.println("Number of processed documents: " + lsaInst.getHeaderToIndex().size());
         System.out.println("Number of processed documents: " + lsaInst.getDocumentCounter());
-        System.out.println("Document space size: " + docSemSpace.getWords().size());
         try {
 
             Map<String, String> configuration = Config.getInstance().configuration;
             String lsaDocSpaces = configuration.get("dataDir") + "/" + configuration.get("lsaDocSpacesDN");
 
+            // The document vectors are written once, as rows of floats, and
+            // the .sspace file is saved from their mapping
+            String spaceName = "LSA-DocsSpace-D" + lsaInst.getDimensions() +
+                "-" + lsaInst.getTransform().toString();
+            File storeFile = new File(lsaDocSpaces + "/" + spaceName + DOC_STORE_EXT);
+            MappedDocumentSpace.write(storeFile, lsaInst);
+            MappedDocumentSpace docSemSpace = new MappedDocumentSpace(storeFile, spaceName);
+            System.out.println("Document space size: " + docSemSpace.documents());
+            System.out.println("Docs store file name: " + storeFile);
+
             String outputFN = lsaDocSpaces + "/" + docSemSpace.getSpaceName() + EXT;
             System.out.println("Docs space output file name: " + outputFN);
             SemanticSpaceIO.save(docSemSpace, new File(outputFN), SSpaceFormat.BINARY);
@@ -266,6 +282,7 @@ public class LSAMainDocumentsSim extends GenericMainModified {
             "algorithm should\nbe used internally.  This option should not be" +
             " used normally, as LSA will\nselect the fastest algorithm " +
             "available.  However, in the event that it\nis needed, valid" +
-            " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA and COLT\n";
+            " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA, COLT,\n" +
+            "RANDOMIZED and STREAMING\n";
     }
 }
@@ -0,0 +1,76 @@
+package cz.zcu.luk.sspace.mains;
+
+import cz.zcu.luk.sspace.lsa.IncrementalLsa;
+
+import edu.ucla.sspace.common.SemanticSpaceIO;
+import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
+import edu.ucla.sspace.text.OneLinePerDocumentIterator;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Adds the documents of a file, one per line, to an incremental LSA model
+ * saved with the {@code --saveIncrementalModel} option of {@link
+ * LSAMainSaveStats}, and saves the grown model to the same file.  The
+ * documents are tokenized with the {@link edu.ucla.sspace.text.IteratorFactory}
+ * settings of the training, which are saved with the model.  The word space of
+ * the grown model is written in the {@link SSpaceFormat#BINARY binary} format
+ * next to the model, as {@code MODEL_FILE} with its extension replaced by
+ * {@value #EXT}.  The documents are folded in unless {@code SVD_UPDATE} is
+ * given, see {@link IncrementalLsa.UpdateMode}.  Once the documents added since the training
+ * exceed the fraction of the trained ones, which is {@value
+ * #DEFAULT_MAX_ADDED_FRACTION} unless given, the main warns that the model
+ * should be trained again from the whole corpus.
+ *
+ * <pre>
+ *   java LSAMainIncremental MODEL_FILE DOCS_FILE [FOLD_IN|SVD_UPDATE]
+ *                           [MAX_ADDED_FRACTION]
+ * </pre>
+ */
+public class LSAMainIncremental {
+
+    private static final double DEFAULT_MAX_ADDED_FRACTION = 0.1;
+
+    private static final String EXT = ".sspace";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            System.out.println("usage: java LSAMainIncremental " +
+                               "MODEL_FILE DOCS_FILE [FOLD_IN|SVD_UPDATE] " +
+                               "[MAX_ADDED_FRACTION]");
+            System.exit(1);
+        }
+        IncrementalLsa.UpdateMode mode = (args.length > 2)
+            ? IncrementalLsa.UpdateMode.valueOf(args[2])
+            : IncrementalLsa.UpdateMode.FOLD_IN;
+        double maxAddedFraction = (args.length > 3)
+            ? Double.parseDouble(args[3])
+            : DEFAULT_MAX_ADDED_FRACTION;
+
+        IncrementalLsa model = IncrementalLsa.load(args[0]);
+        model.addDocuments(new OneLinePerDocumentIterator(args[1]), mode);
+        model.save(args[0]);
+        File spaceFile = spaceFile(args[0]);
+        SemanticSpaceIO.save(model.getWordSpace(), spaceFile,
+                             SSpaceFormat.BINARY);
+        System.out.println("saved the word space to " + spaceFile);
+        if (model.needsRecomputation(maxAddedFraction))
+            System.err.println(
+                "warning: " + model.addedDocuments() + " documents were " +
+                "added to the " + model.trainedDocuments() + " documents " +
+                "of the training, the model should be trained again");
+    }
+
+    /**
+     * Returns the file of the word space of the model saved to the file.
+     */
+    private static File spaceFile(String modelFile) {
+        File file = new File(modelFile);
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0)
+            name = name.substring(0, dot);
+        return new File(file.getAbsoluteFile().getParentFile(), name + EXT);
+    }
+}
@@ -24,8 +24,6 @@ package cz.zcu.luk.sspace.mains;
 import edu.ucla.sspace.basis.BasisMapping;
 import edu.ucla.sspace.common.ArgOptions;
 import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
-import edu.ucla.sspace.matrix.SVD;
-import edu.ucla.sspace.matrix.SVD.Algorithm;
 import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
 import edu.ucla.sspace.util.FileResourceFinder;
 import edu.ucla.sspace.util.ReflectionUtil;
@@ -42,6 +40,7 @@ import cz.zcu.luk.sspace.common.SemanticSpaceLoadStats;
 import cz.zcu.luk.sspace.lsa.LSALoadStatsExpsStops;
 import cz.zcu.luk.sspace.matrix.LogEntropyTransformExtended;
 import cz.zcu.luk.sspace.matrix.TransformExtended;
+import cz.zcu.luk.sspace.matrix.SvdAlgorithms;
 
 
 /**
@@ -83,7 +82,10 @@ import cz.zcu.luk.sspace.matrix.TransformExtended;
  *
  *   <li> {@code -S}, {@code --svdAlgorithm}={@link
  *        edu.ucla.sspace.matrix.SVD.Algorithm} species a specific {@code
- *        SVD.Algorithm} method to use when reducing the dimensionality in LSA.
+ *        SVD.Algorithm} method, or {@code RANDOMIZED} or {@code STREAMING}
+ *        (see {@link cz.zcu.luk.sspace.matrix.SvdAlgorithms}), to use when
+ *        reducing the dimensionality in LSA.  {@code STREAMING} decomposes
+ *        the term-document matrix file without loading it.
  *        In general, users should not need to specify this option, as the
  *        default setting will choose the fastest algorithm available on the
  *        system.  This is only provided as an advanced option for users who
@@ -177,8 +179,8 @@ public class LSAMainLoadStatsExpsStops extends GenericMainLoadStatsStopwords {
                 transform = ReflectionUtil.getObjectInstance(
                         argOptions.getStringOption("preprocess"));
             String algName = argOptions.getStringOption("svdAlgorithm", "ANY");
-            SingularValueDecomposition factorization = SVD.getFactorization(
-                    Algorithm.valueOf(algName.toUpperCase()));
+            SingularValueDecomposition factorization =
+                SvdAlgorithms.getFactorization(algName);
             basis = null; // LK changed - not needed..
 
             // LK changed - added processing of compounds..
@@ -231,6 +233,7 @@ public class LSAMainLoadStatsExpsStops extends GenericMainLoadStatsStopwords {
             "algorithm should\nbe used internally.  This option should not be" +
             " used normally, as LSA will\nselect the fastest algorithm " +
             "available.  However, in the event that it\nis needed, valid" +
-            " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA and COLT\n";
+            " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA, COLT,\n" +
+            "RANDOMIZED and STREAMING\n";
     }
 }
@@ -25,8 +25,6 @@ import edu.ucla.sspace.basis.BasisMapping;
 import edu.ucla.sspace.basis.StringBasisMapping;
 import edu.ucla.sspace.common.ArgOptions;
 import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
-import edu.ucla.sspace.matrix.SVD;
-import edu.ucla.sspace.matrix.SVD.Algorithm;
 import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
 import edu.ucla.sspace.util.ReflectionUtil;
 import edu.ucla.sspace.util.SerializableUtil;
@@ -38,6 +36,7 @@ import cz.zcu.luk.sspace.common.SemanticSpaceSaveStats;
 import cz.zcu.luk.sspace.lsa.LSASaveStats;
 import cz.zcu.luk.sspace.matrix.LogEntropyTransformExtended;
 import cz.zcu.luk.sspace.matrix.TransformExtended;
+import cz.zcu.luk.sspace.matrix.SvdAlgorithms;
 
 
 /**
@@ -79,7 +78,10 @@ import cz.zcu.luk.sspace.matrix.TransformExtended;
  *
  *   <li> {@code -S}, {@code --svdAlgorithm}={@link
  *        edu.ucla.sspace.matrix.SVD.Algorithm} species a specific {@code
- *        SVD.Algorithm} method to use when reducing the dimensionality in LSA.
+ *        SVD.Algorithm} method, or {@code RANDOMIZED} or {@code STREAMING}
+ *        (see {@link cz.zcu.luk.sspace.matrix.SvdAlgorithms}), to use when
+ *        reducing the dimensionality in LSA.  {@code STREAMING} decomposes
+ *        the term-document matrix file without loading it.
  *        In general, users should not need to specify this option, as the
  *        default setting will choose the fastest algorithm available on the
  *        system.  This is only provided as an advanced option for users who
@@ -134,6 +136,8 @@ public class LSAMainSaveStats extends GenericMainSaveStats {
 
     private BasisMapping<String, String> basis;
 
+    private LSASaveStats space;
+
     private LSAMainSaveStats() {
     }
 
@@ -154,6 +158,11 @@ public class LSAMainSaveStats extends GenericMainSaveStats {
                           "If true, the term basis mapping will be stored " +
                           "to the given file name",
                           true, "FILE", "Optional");
+        options.addOption('I', "saveIncrementalModel",
+                          "If set, the model to which new documents may be " +
+                          "added by LSAMainIncremental will be stored to " +
+                          "the given file name",
+                          true, "FILE", "Optional");
     }
 
     public static void main(String[] args) throws Exception {
@@ -169,12 +178,13 @@ public class LSAMainSaveStats extends GenericMainSaveStats {
                 transform = ReflectionUtil.getObjectInstance(
                         argOptions.getStringOption("preprocess"));
             String algName = argOptions.getStringOption("svdAlgorithm", "ANY");
-            SingularValueDecomposition factorization = SVD.getFactorization(
-                    Algorithm.valueOf(algName.toUpperCase()));
+            SingularValueDecomposition factorization =
+                SvdAlgorithms.getFactorization(algName);
             basis = new StringBasisMapping();
 
-            return new LSASaveStats(
+            space = new LSASaveStats(
                 false, dimensions, transform, factorization, false, basis);
+            return space;
         } catch (IOException ioe) {
             throw new IOError(ioe);
         }
@@ -191,6 +201,9 @@ public class LSAMainSaveStats extends GenericMainSaveStats {
     protected void postProcessing() {
         if (argOptions.hasOption('B'))
             SerializableUtil.save(basis, argOptions.getStringOption('B'));
+        if (argOptions.hasOption('I'))
+            space.createIncrementalModel().save(
+                argOptions.getStringOption('I'));
     }
 
     /**
@@ -202,6 +215,7 @@ public class LSAMainSaveStats extends GenericMainSaveStats {
             "algorithm should\nbe used internally.  This option should not be" +
             " used normally, as LSA will\nselect the fastest algorithm " +
             "available.  However, in the event that it\nis needed, valid" +
-            " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA and COLT\n";
+            " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA, COLT,\n" +
+            "RANDOMIZED and STREAMING\n";
     }
 }
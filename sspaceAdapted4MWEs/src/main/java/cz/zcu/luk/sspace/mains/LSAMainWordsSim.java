@@ -33,8 +33,6 @@ import edu.ucla.sspace.common.ArgOptions;
 import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
 import edu.ucla.sspace.matrix.LogEntropyTransform;
-import edu.ucla.sspace.matrix.SVD;
-import edu.ucla.sspace.matrix.SVD.Algorithm;
 import edu.ucla.sspace.matrix.Transform;
 import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
 import edu.ucla.sspace.util.ReflectionUtil;
@@ -44,6 +42,7 @@ import java.io.IOError;
 import java.io.IOException;
 
 import cz.zcu.luk.sspace.lsa.LatentSemanticAnalysisModified;
+import cz.zcu.luk.sspace.matrix.SvdAlgorithms;
 
 
 /**
@@ -85,7 +84,10 @@ import cz.zcu.luk.sspace.lsa.LatentSemanticAnalysisModified;
  *
  *   <li> {@code -S}, {@code --svdAlgorithm}={@link
  *        edu.ucla.sspace.matrix.SVD.Algorithm} species a specific {@code
- *        SVD.Algorithm} method to use when reducing the dimensionality in LSA.
+ *        SVD.Algorithm} method, or {@code RANDOMIZED} or {@code STREAMING}
+ *        (see {@link cz.zcu.luk.sspace.matrix.SvdAlgorithms}), to use when
+ *        reducing the dimensionality in LSA.  {@code STREAMING} decomposes
+ *        the term-document matrix file without loading it.
  *        In general, users should not need to specify this option, as the
  *        default setting will choose the fastest algorithm available on the
  *        system.  This is only provided as an advanced option for users who
@@ -177,8 +179,8 @@ public class LSAMainWordsSim extends GenericMainModified {
                 transform = ReflectionUtil.getObjectInstance(
                         argOptions.getStringOption("preprocess"));
             String algName = argOptions.getStringOption("svdAlgorithm", "ANY");
-            SingularValueDecomposition factorization = SVD.getFactorization(
-                    Algorithm.valueOf(algName.toUpperCase()));
+            SingularValueDecomposition factorization =
+                SvdAlgorithms.getFactorization(algName);
             basis = new StringBasisMapping();
 
             // LK change ? - only preserves lsa instance..
@@ -266,6 +268,7 @@ public class LSAMainWordsSim extends GenericMainModified {
                         "algorithm should\nbe used internally.  This option should not be" +
                         " used normally, as LSA will\nselect the fastest algorithm " +
                         "available.  However, in the event that it\nis needed, valid" +
-                        " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA and COLT\n";
+                        " options are: SVDLIBC, SVDLIBJ, MATLAB, OCTAVE, JAMA, COLT,\n" +
+                        "RANDOMIZED and STREAMING\n";
     }
 }
@@ -0,0 +1,32 @@
+package cz.zcu.luk.sspace.mains;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.zcu.luk.sspace.matrix.PartialCooccurrences;
+
+/**
+ * Merges the partial co-occurrence files written by the shards of a corpus,
+ * see {@link PartialCooccurrences}.  The merged file can be loaded with the
+ * {@code --readPartial} option of the HAL and COALS mains, or merged again.
+ *
+ * <pre>
+ *   java MergePartialsMain MERGED_FILE PARTIAL_FILE [PARTIAL_FILE...]
+ * </pre>
+ */
+public class MergePartialsMain {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: java MergePartialsMain " +
+                               "MERGED_FILE PARTIAL_FILE [PARTIAL_FILE...]");
+            System.exit(1);
+        }
+        List<File> inputs = new ArrayList<File>();
+        for (int i = 1; i < args.length; ++i)
+            inputs.add(new File(args[i]));
+        PartialCooccurrences.merge(new File(args[0]), inputs);
+    }
+}
@@ -21,7 +21,6 @@
 
 package cz.zcu.luk.sspace.mains;
 
-import edu.ucla.sspace.basis.StringBasisMapping;
 import edu.ucla.sspace.common.ArgOptions;
 import edu.ucla.sspace.common.SemanticSpace;
 import edu.ucla.sspace.common.SemanticSpaceIO.SSpaceFormat;
@@ -36,6 +35,7 @@ import java.io.IOException;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import cz.zcu.luk.sspace.basis.ConcurrentVocabulary;
 import cz.zcu.luk.sspace.matrix.LogEntropyTransformExtended;
 import cz.zcu.luk.sspace.matrix.TransformExtended;
 import cz.zcu.luk.sspace.vsm.VectorSpaceModelCompoundsStopwords;
@@ -112,7 +112,7 @@ public class VsmMainCompoundsStopwords extends GenericMainModifiedStopwords {
                 }
             }
 
-            return new VectorSpaceModelCompoundsStopwords(false, new StringBasisMapping(), transform, new SvdlibcSparseBinaryMatrixBuilder(),
+            return new VectorSpaceModelCompoundsStopwords(false, new ConcurrentVocabulary(), transform, new SvdlibcSparseBinaryMatrixBuilder(),
                     new SvdlibcSparseBinaryMatrixBuilder(), compounds);
         } catch (IOException ioe) {
             throw new IOError(ioe);
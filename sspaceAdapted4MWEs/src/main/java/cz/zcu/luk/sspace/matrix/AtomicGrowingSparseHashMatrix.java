@@ -21,17 +21,12 @@
 
 package cz.zcu.luk.sspace.matrix;
 
-import edu.ucla.sspace.matrix.AtomicMatrix;
-import edu.ucla.sspace.matrix.SparseMatrix;
 import edu.ucla.sspace.vector.DoubleVector;
 import edu.ucla.sspace.vector.SparseDoubleVector;
 import edu.ucla.sspace.vector.SparseHashDoubleVector;
 import edu.ucla.sspace.vector.Vectors;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -47,15 +42,12 @@ import java.util.concurrent.atomic.AtomicInteger;
  * edu.ucla.sspace.matrix.AtomicGrowingSparseMatrix}.  Specifically, this class supports concurrent
  * write access to the same row.  Atomicity is localized to the specific matrix
  * entry, which ensures high concurrency for workloads consisting primarily of
- * {@code get}, {@code addAndGet}, {@code getAndAdd} and {@code set}.  This
- * performance comes at a cost for the full row- or column-related operations.
- * Each time these operations are used after a modification to the matrix, a
- * full {@code O(m * n)} computation must be done to determine the structure of
- * the matrix.  An subsequent calls until the next modification will not incur
- * this penalty and will operate in {@code O(k)} where {@code k} is the number
- * of non-zero entries in the row or column.  It is therefore highly recommended
- * that vector method be used only during periods when the matrix is not likely
- * to be modified.<p>
+ * {@code get}, {@code addAndGet}, {@code getAndAdd} and {@code set}.  The
+ * structure of the matrix is kept in a {@link RowColumnIndex}, which is updated
+ * whenever a cell becomes non-zero or zero.  The full row- or column-related
+ * operations therefore operate in {@code O(k)} where {@code k} is the number of
+ * non-zero entries in the row or column, even while the matrix is being
+ * concurrently modified.<p>
  *
  * This class also provides support for access the matrix data without ensuring
  * data coherency (i.e. non-atomic) through the {@link #getRowVectorUnsafe(int)}
@@ -71,7 +63,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @see edu.ucla.sspace.matrix.Matrices#synchronizedMatrix(edu.ucla.sspace.matrix.Matrix)
  */
 public class AtomicGrowingSparseHashMatrix 
-        implements AtomicMatrix, SparseMatrix, java.io.Serializable {
+        implements CooccurrenceMatrix, java.io.Serializable {
 
     private static final long serialVersionUID = 1L;
     
@@ -98,33 +90,10 @@ public class AtomicGrowingSparseHashMatrix
     private final AtomicInteger cols;
 
     /**
-     * A counter of the number of modications to this matrix.  This value is
-     * compared with the {@link #lastVectorCacheUpdate} to determine whether the
-     * vector cache is out of date.
+     * The rows and columns that contain non-zero values.  The index is updated
+     * while the lock of the modified entry is held.
      */
-    private final AtomicInteger modifications;
-
-    /**
-     * The value of {@link #modifications} when {@link #updateVectorCache()} was
-     * last called.
-     */
-    private final AtomicInteger lastVectorCacheUpdate;
-
-    /**
-     * A mapping from row to the columns that contain non-zero values.  This
-     * mapping is only valid when the vector-cache is valid.
-     *
-     * @see #updateVectorCache()
-     */
-    private int[][] rowToColsCache;
-
-    /**
-     * A mapping from column to the rows that contain non-zero values.  This
-     * mapping is only valid when the vector-cache is valid.
-     *
-     * @see #updateVectorCache()
-     */
-    private int[][] colToRowsCache;
+    private final RowColumnIndex index;
 
     /**
      * Create an {@code AtomicGrowingSparseMatrix} with 0 rows and 0 columns.
@@ -132,11 +101,7 @@ public class AtomicGrowingSparseHashMatrix
     public AtomicGrowingSparseHashMatrix() {
         this.rows = new AtomicInteger(0);
         this.cols = new AtomicInteger(0);
-        modifications = new AtomicInteger(0);
-        lastVectorCacheUpdate = new AtomicInteger(0);
-
-        rowToColsCache = null;
-        colToRowsCache = null;
+        index = new RowColumnIndex();
 
         // Base the concurrency of the maps on the number of avaible processors,
         // which assumes that all use cases use this value as a hint for
@@ -163,14 +128,13 @@ public class AtomicGrowingSparseHashMatrix
         double newVal = (val == null) ? delta : delta + val;
         if (newVal != 0) {
             matrixEntries.put(e, newVal);
-            // Only invalidate the cache if the number of rows or columns
-            // containing data has changed
+            // Only update the index if the cell has become non-zero
             if (val == null)
-                modifications.incrementAndGet();
+                index.add(row, col);
         }
-        else {
+        else if (val != null) {
             matrixEntries.remove(e);
-            modifications.incrementAndGet();
+            index.remove(row, col);
         }
         lockedEntries.remove(e);
         return newVal;
@@ -231,14 +195,13 @@ public class AtomicGrowingSparseHashMatrix
         double newVal = (val == null) ? delta : delta + val;
         if (newVal != 0) {
             matrixEntries.put(e, newVal);
-            // Only invalidate the cache if the number of rows or columns
-            // containing data has changed
+            // Only update the index if the cell has become non-zero
             if (val == null)
-                modifications.incrementAndGet();
+                index.add(row, col);
         }
-        else {
+        else if (val != null) {
             matrixEntries.remove(e);
-            modifications.incrementAndGet();
+            index.remove(row, col);
         }
         lockedEntries.remove(e);
         return (val == null) ? 0 : val;
@@ -276,21 +239,28 @@ public class AtomicGrowingSparseHashMatrix
 
     /**
      * Returns the column vector, locking the data if {@code shouldLock} is
-     * {@code true}.
+     * {@code true}.  Only the entries that are non-zero at the time of the call
+     * are locked, so cells that become non-zero during the call may not be
+     * reflected in the returned vector.
      */
     private SparseDoubleVector getColumnVector(int column, boolean shouldLock) {
         int r = rows.get();
-        if (shouldLock)
-            lockColumn(column, r);
-        // Ensure that the column data is up to date 
-        while (lastVectorCacheUpdate.get() != modifications.get()) 
-            updateVectorCache();
-        int[] rowArr = colToRowsCache[column];
+        int[] rowArr = index.rowsOf(column);
+        if (shouldLock) {
+            // The entries are locked in increasing order, so that two threads
+            // locking overlapping entries cannot wait on each other
+            Arrays.sort(rowArr);
+            lockEntries(rowArr, column, false);
+        }
         SparseDoubleVector colVec = new SparseHashDoubleVector(r);
-        for (int row : rowArr)
-            colVec.set(row, matrixEntries.get(new Entry(row, column)));
+        for (int row : rowArr) {
+            // The entry may have been removed after the index was read
+            Double val = matrixEntries.get(new Entry(row, column));
+            if (val != null)
+                colVec.set(row, val);
+        }
         if (shouldLock)
-            unlockColumn(column, r);
+            unlockEntries(rowArr, column, false);
         return colVec;
     }
 
@@ -325,24 +295,59 @@ public class AtomicGrowingSparseHashMatrix
 
     /**
      * Returns the row vector, locking the data if {@code shouldLock} is {@code
-     * true}.
+     * true}.  Only the entries that are non-zero at the time of the call are
+     * locked, so cells that become non-zero during the call may not be
+     * reflected in the returned vector.
      */
     private SparseDoubleVector getRowVector(int row, boolean shouldLock) {
         int c = cols.get();
-        if (shouldLock)
-            lockRow(row, c);
-        // Ensure that the column data is up to date 
-        while (lastVectorCacheUpdate.get() != modifications.get()) 
-            updateVectorCache();
-        int[] colArr = rowToColsCache[row];
+        int[] colArr = index.columnsOf(row);
+        if (shouldLock) {
+            // The entries are locked in increasing order, so that two threads
+            // locking overlapping entries cannot wait on each other
+            Arrays.sort(colArr);
+            lockEntries(colArr, row, true);
+        }
         SparseDoubleVector rowVec = new SparseHashDoubleVector(c);
-        for (int column : colArr)
-            rowVec.set(column, matrixEntries.get(new Entry(row, column)));
+        for (int column : colArr) {
+            // The entry may have been removed after the index was read
+            Double val = matrixEntries.get(new Entry(row, column));
+            if (val != null)
+                rowVec.set(column, val);
+        }
         if (shouldLock)
-            unlockRow(row, c);
+            unlockEntries(colArr, row, true);
         return rowVec;
     }
 
+    /**
+     * Locks the entries of a single row or column, given by the indices of the
+     * other dimension.
+     *
+     * @param indices the columns of the row or the rows of the column to lock,
+     *        in increasing order
+     * @param fixed the row or column whose entries are locked
+     * @param isRow {@code true} if {@code fixed} is a row index
+     */
+    private void lockEntries(int[] indices, int fixed, boolean isRow) {
+        for (int i : indices) {
+            Entry e = (isRow) ? new Entry(fixed, i) : new Entry(i, fixed);
+            // Spin waiting for the entry to be unlocked
+            while (lockedEntries.putIfAbsent(e, new Object()) != null)
+                ;
+        }
+    }
+
+    /**
+     * Unlocks the entries previously locked by {@link #lockEntries(int[], int,
+     * boolean)} with the same arguments.
+     */
+    private void unlockEntries(int[] indices, int fixed, boolean isRow) {
+        for (int i : indices)
+            lockedEntries.remove(
+                (isRow) ? new Entry(fixed, i) : new Entry(i, fixed));
+    }
+
     /**
      * Locks all the column entries for this row, thereby preventing write or
      * read access to the values.  Note that the number of columns to lock
@@ -404,14 +409,12 @@ public class AtomicGrowingSparseHashMatrix
         boolean present = matrixEntries.containsKey(e);
         if (val != 0) {
             matrixEntries.put(e, val);
-            // Only invalidate the cache if the number of rows or columns
-            // containing data has changed
             if (!present)
-                modifications.incrementAndGet();
+                index.add(row, col);
         }
         else if (present) {
             matrixEntries.remove(e);
-            modifications.incrementAndGet();
+            index.remove(row, col);
         }
 
         lockedEntries.remove(e);
@@ -431,24 +434,20 @@ public class AtomicGrowingSparseHashMatrix
         checkIndices(rowValues.length(), column, true);
         int r = rows.get();
         lockColumn(column, r);
-        boolean modified = false;
         for (int row = 0; row < r; ++row) {
             double val = rowValues.get(row);
             Entry e = new Entry(row, column);
             boolean present = matrixEntries.containsKey(e);
             if (val != 0) {
                 matrixEntries.put(e, val);
-                // Only invalidate the cache if the number of rows or columns
-                // containing data has changed
-                modified = modified || !present;
+                if (!present)
+                    index.add(row, column);
             }
             else if (present) {
                 matrixEntries.remove(e);
-                modified = true;
+                index.remove(row, column);
             }
         }
-        if (modified)
-            modifications.incrementAndGet();
         unlockColumn(column, r);
     }
   
@@ -466,24 +465,20 @@ public class AtomicGrowingSparseHashMatrix
         checkIndices(row, colValues.length(), true);
         int c = cols.get();
         lockRow(row, c);
-        boolean modified = false;
         for (int col = 0; col < c; ++col) {
             double val = colValues.get(col);
             Entry e = new Entry(row, col);
             boolean present = matrixEntries.containsKey(e);
             if (val != 0) {
                 matrixEntries.put(e, val);
-                // Only invalidate the cache if the number of rows or columns
-                // containing data has changed
-                modified = modified || !present;
+                if (!present)
+                    index.add(row, col);
             }
             else if (present) {
                 matrixEntries.remove(e);
-                modified = true;
+                index.remove(row, col);
             }
         }
-        if (modified)
-            modifications.incrementAndGet();
         unlockRow(row, c);
     }
   
@@ -498,7 +493,8 @@ public class AtomicGrowingSparseHashMatrix
 
         double[][] m = new double[r][0];
         for (int i = 0; i < r; ++i) {
-            DoubleVector row = getRowVector(i);
+            // The rows are already locked
+            DoubleVector row = getRowVectorUnsafe(i);
             // Ensure that we see a consistent length for all the rows
             if (row.length() != c)
                 row = Vectors.subview(row, 0, c);
@@ -539,71 +535,6 @@ public class AtomicGrowingSparseHashMatrix
             lockedEntries.remove(new Entry(row, col));
     }
 
-    /**
-     * Updates the {@link Vector} cache data so that any call to {@link
-     * #getRowVector(int)} or {@link #getColumnVector(int)} has an accurate
-     * mapping of that row or column's non-zero values.  Should the matrix be
-     * modifed during this call, the cache will be repeatedly computed until it
-     * is up-to-date.
-     */
-    private synchronized void updateVectorCache() {
-        // NOTE: this method is synchronized to prevent having mulitple threads
-        // potentiall recomputing the cache at the same time.
-        while (lastVectorCacheUpdate.get() != modifications.get()) {
-            lastVectorCacheUpdate.set(modifications.get());
-            Map<Integer,List<Integer>> rowVals = 
-                new HashMap<Integer,List<Integer>>();
-            Map<Integer,List<Integer>> colVals = 
-                new HashMap<Integer,List<Integer>>();
-
-            for (Entry e : matrixEntries.keySet()) {
-                int row = e.row;
-                int col = e.col;
-                List<Integer> c = rowVals.get(row);
-                if (c == null) {
-                    c = new ArrayList<Integer>();
-                    rowVals.put(row, c);
-                }
-                c.add(col);
-                List<Integer> r = colVals.get(col);
-                if (r == null) {
-                    r = new ArrayList<Integer>();
-                    colVals.put(col, r);
-                }
-                r.add(row);
-            }
-            
-            // Convert the object version to integer lists to save space and
-            // improve access
-            rowToColsCache = new int[rows.get()][0];
-            for (Map.Entry<Integer,List<Integer>> e : rowVals.entrySet()) {
-                int row = e.getKey();
-                List<Integer> cols = e.getValue();
-                int[] colArr = new int[cols.size()];
-                for (int i = 0; i < cols.size(); ++i)
-                    colArr[i] = cols.get(i);
-                rowToColsCache[row] = colArr;
-                // null out the list for GC to try to cancel out the overhead of
-                // having both the array and the list in memory at the same time
-                e.setValue(null);
-            }
-            rowVals = null;
-        
-            colToRowsCache = new int[cols.get()][0];
-            for (Map.Entry<Integer,List<Integer>> e : colVals.entrySet()) {
-                int col = e.getKey();
-                List<Integer> rows = e.getValue();
-                int[] rowArr = new int[rows.size()];
-                for (int i = 0; i < rows.size(); ++i)
-                    rowArr[i] = rows.get(i);
-                colToRowsCache[col] = rowArr;
-                // null out the list for GC to try to cancel out the overhead of
-                // having both the array and the list in memory at the same time
-                e.setValue(null);                
-            }
-        }
-    }
-
     /**
      * A utility class for holding the row-value pair
      */
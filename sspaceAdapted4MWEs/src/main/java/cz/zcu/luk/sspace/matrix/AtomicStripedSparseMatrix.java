@@ -0,0 +1,665 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+import edu.ucla.sspace.vector.SparseHashDoubleVector;
+import edu.ucla.sspace.vector.Vectors;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A concurrent, thread-safe, growable {@code SparseMatrix} with the same
+ * contract as {@link AtomicGrowingSparseHashMatrix}, but which stores its
+ * entries in primitive open-addressing tables instead of a {@code
+ * ConcurrentHashMap<Entry,Double>}.<p>
+ *
+ * Each (row, column) pair is packed into a single {@code long} key.  The key
+ * space is split into a fixed number of stripes, each of which is an
+ * independent linear-probing table of {@code long} keys and {@code double}
+ * values guarded by its own lock.  Single-cell updates therefore lock only one
+ * stripe, never spin, and perform no allocation unless the stripe's table has
+ * to grow.<p>
+ *
+ * The structure of the matrix is kept in a {@link RowColumnIndex} that is
+ * updated while the stripe lock is held, so the row- and column-related
+ * operations operate in {@code O(k)} where {@code k} is the number of non-zero
+ * entries in the row or column.
+ *
+ * @see AtomicGrowingSparseHashMatrix
+ * @see CooccurrenceMatrices
+ */
+public class AtomicStripedSparseMatrix
+        implements CooccurrenceMatrix, java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The key marking an unused slot of a stripe table.  Packed keys are never
+     * negative because row and column indices are non-negative.
+     */
+    private static final long EMPTY = -1L;
+
+    /**
+     * The initial number of slots of each stripe table.
+     */
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+    /**
+     * The stripes holding the matrix entries.  The number of stripes is always
+     * a power of two.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The number of low-order bits of the hash used to select the stripe.
+     */
+    private final int stripeMask;
+
+    /**
+     * The number of rows represented in this matrix.
+     */
+    private final AtomicInteger rows;
+
+    /**
+     * The number of columns represented in this matrix.
+     */
+    private final AtomicInteger cols;
+
+    /**
+     * The rows and columns that contain non-zero values.
+     */
+    private final RowColumnIndex index;
+
+    /**
+     * Creates an {@code AtomicStripedSparseMatrix} with 0 rows and 0 columns,
+     * using a number of stripes based on the available processors.
+     */
+    public AtomicStripedSparseMatrix() {
+        this((System.getenv().get("PBS_NUM_PPN") == null ?
+                Runtime.getRuntime().availableProcessors() :
+                (Integer.parseInt(System.getenv().get("PBS_NUM_PPN")) - 1))
+             * 16);
+    }
+
+    /**
+     * Creates an {@code AtomicStripedSparseMatrix} with 0 rows and 0 columns,
+     * using at least {@code concurrencyLevel} stripes.
+     *
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *        threads times the desired number of stripes per thread
+     */
+    public AtomicStripedSparseMatrix(int concurrencyLevel) {
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException(
+                "concurrencyLevel must be positive: " + concurrencyLevel);
+        int numStripes = 1;
+        while (numStripes < concurrencyLevel)
+            numStripes <<= 1;
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; ++i)
+            stripes[i] = new Stripe();
+        stripeMask = numStripes - 1;
+
+        rows = new AtomicInteger(0);
+        cols = new AtomicInteger(0);
+        index = new RowColumnIndex();
+    }
+
+    /**
+     * Packs the row and column into a single non-negative key.
+     */
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Spreads the bits of the key so that both the stripe and the slot within
+     * the stripe are well distributed.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Returns the index of the stripe responsible for the provided key.
+     */
+    private int stripeIndex(long key) {
+        return (int) (mix(key) >>> 40) & stripeMask;
+    }
+
+    /**
+     * Returns the stripe responsible for the provided key.
+     */
+    private Stripe stripeFor(long key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double addAndGet(int row, int col, double delta) {
+        checkIndices(row, col, true);
+        long k = key(row, col);
+        Stripe s = stripeFor(k);
+        double oldVal;
+        double newVal;
+        s.lock();
+        try {
+            oldVal = s.get(k);
+            newVal = oldVal + delta;
+            s.put(k, newVal);
+            updateIndex(row, col, oldVal, newVal);
+        } finally {
+            s.unlock();
+        }
+        return newVal;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getAndAdd(int row, int col, double delta) {
+        checkIndices(row, col, true);
+        long k = key(row, col);
+        Stripe s = stripeFor(k);
+        double oldVal;
+        double newVal;
+        s.lock();
+        try {
+            oldVal = s.get(k);
+            newVal = oldVal + delta;
+            s.put(k, newVal);
+            updateIndex(row, col, oldVal, newVal);
+        } finally {
+            s.unlock();
+        }
+        return oldVal;
+    }
+
+    /**
+     * Adds a batch of values to the matrix, acquiring the lock of each stripe
+     * only once.  The keys are packed (row, column) pairs as produced by {@link
+     * CooccurrenceBuffer}.
+     *
+     * @param keys the packed cells to update
+     * @param deltas the values to add to the respective cells
+     * @param size the number of valid entries in {@code keys} and {@code
+     *        deltas}
+     * @param oldValues if not {@code null}, receives the value each cell had
+     *        before its delta was added; entries with a zero delta are left
+     *        unchanged
+     */
+    void addAll(long[] keys, double[] deltas, int size, double[] oldValues) {
+        // Group the entries by stripe with a counting sort, which keeps the
+        // order of the keys within each stripe
+        int[] stripeIds = new int[size];
+        int[] offsets = new int[stripes.length + 1];
+        for (int i = 0; i < size; ++i) {
+            long k = keys[i];
+            int row = (int) (k >>> 32);
+            int col = (int) k;
+            checkIndices(row, col, true);
+            stripeIds[i] = stripeIndex(k);
+            offsets[stripeIds[i] + 1]++;
+        }
+        for (int i = 0; i < stripes.length; ++i)
+            offsets[i + 1] += offsets[i];
+        int[] order = new int[size];
+        int[] next = Arrays.copyOf(offsets, stripes.length);
+        for (int i = 0; i < size; ++i)
+            order[next[stripeIds[i]]++] = i;
+
+        for (int id = 0; id < stripes.length; ++id) {
+            if (offsets[id] == offsets[id + 1])
+                continue;
+            Stripe s = stripes[id];
+            s.lock();
+            try {
+                for (int j = offsets[id]; j < offsets[id + 1]; ++j) {
+                    int i = order[j];
+                    if (deltas[i] == 0)
+                        continue;
+                    long k = keys[i];
+                    double oldVal = s.get(k);
+                    double newVal = oldVal + deltas[i];
+                    s.put(k, newVal);
+                    updateIndex((int) (k >>> 32), (int) k, oldVal, newVal);
+                    if (oldValues != null)
+                        oldValues[i] = oldVal;
+                }
+            } finally {
+                s.unlock();
+            }
+        }
+    }
+
+    /**
+     * Records a change of the cell in the {@link #index} if it became non-zero
+     * or zero.  Must be called while holding the lock of the cell's stripe.
+     */
+    private void updateIndex(int row, int col, double oldVal, double newVal) {
+        if (oldVal == 0 && newVal != 0)
+            index.add(row, col);
+        else if (oldVal != 0 && newVal == 0)
+            index.remove(row, col);
+    }
+
+    /**
+     * Verify that the given row and column value is non-negative, and
+     * optionally expand the size of the matrix if the row or column are outside
+     * the current bounds.
+     */
+    private void checkIndices(int row, int col, boolean expand) {
+         if (row < 0 || col < 0) {
+             throw new ArrayIndexOutOfBoundsException();
+         }
+         if (expand) {
+             int r = row + 1;
+             int cur = 0;
+             while (r > (cur = rows.get()) && !rows.compareAndSet(cur, r))
+                 ;
+             int c = col + 1;
+             cur = 0;
+             while (c > (cur = cols.get()) && !cols.compareAndSet(cur, c))
+                 ;
+         }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int columns() {
+        return cols.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int rows() {
+        return rows.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double get(int row, int col) {
+        checkIndices(row, col, false);
+        long k = key(row, col);
+        Stripe s = stripeFor(k);
+        s.lock();
+        try {
+            return s.get(k);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void set(int row, int col, double val) {
+        checkIndices(row, col, true);
+        long k = key(row, col);
+        Stripe s = stripeFor(k);
+        s.lock();
+        try {
+            double oldVal = s.get(k);
+            s.put(k, val);
+            updateIndex(row, col, oldVal, val);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * Returns the value of the cell without acquiring the stripe lock.  The
+     * caller must already hold the lock of every stripe.
+     */
+    private double getLocked(int row, int col) {
+        long k = key(row, col);
+        return stripeFor(k).get(k);
+    }
+
+    /**
+     * Sets the value of the cell without acquiring the stripe lock.  The caller
+     * must already hold the lock of every stripe.
+     */
+    private void setLocked(int row, int col, double val) {
+        long k = key(row, col);
+        Stripe s = stripeFor(k);
+        double oldVal = s.get(k);
+        s.put(k, val);
+        updateIndex(row, col, oldVal, val);
+    }
+
+    /**
+     * Acquires the locks of all stripes, in index order.
+     */
+    private void lockAll() {
+        for (Stripe s : stripes)
+            s.lock();
+    }
+
+    /**
+     * Releases the locks of all stripes.
+     */
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; --i)
+            stripes[i].unlock();
+    }
+
+    /**
+     * Acquires, in index order, the locks of the stripes holding the cells of a
+     * single row or column and returns the distinct stripe indices that were
+     * locked.
+     *
+     * @param indices the columns of the row or the rows of the column
+     * @param fixed the row or column whose cells are locked
+     * @param isRow {@code true} if {@code fixed} is a row index
+     */
+    private int[] lockLine(int[] indices, int fixed, boolean isRow) {
+        int[] stripeIds = new int[indices.length];
+        for (int i = 0; i < indices.length; ++i) {
+            long k = (isRow) ? key(fixed, indices[i]) : key(indices[i], fixed);
+            stripeIds[i] = stripeIndex(k);
+        }
+        Arrays.sort(stripeIds);
+        int n = 0;
+        for (int i = 0; i < stripeIds.length; ++i)
+            if (i == 0 || stripeIds[i] != stripeIds[i - 1])
+                stripeIds[n++] = stripeIds[i];
+        stripeIds = Arrays.copyOf(stripeIds, n);
+        for (int id : stripeIds)
+            stripes[id].lock();
+        return stripeIds;
+    }
+
+    /**
+     * Releases the stripe locks acquired by {@link #lockLine(int[], int,
+     * boolean)}.
+     */
+    private void unlockLine(int[] stripeIds) {
+        for (int i = stripeIds.length - 1; i >= 0; --i)
+            stripes[stripeIds[i]].unlock();
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned column reflects the size of
+     * matrix at the time of the call, which may be different from earlier calls
+     * to {@link #rows()}
+     */
+    public double[] getColumn(int column) {
+        return getColumnVector(column).toArray();
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned row vector reflects the size of
+     * matrix at the time of the call, which may be different from earlier calls
+     * to {@link #rows()}
+     */
+    public SparseDoubleVector getColumnVector(int column) {
+        return getColumnVector(column, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SparseDoubleVector getColumnVectorUnsafe(int column) {
+        return getColumnVector(column, false);
+    }
+
+    /**
+     * Returns the column vector, locking the data if {@code shouldLock} is
+     * {@code true}.
+     */
+    private SparseDoubleVector getColumnVector(int column, boolean shouldLock) {
+        int r = rows.get();
+        int[] rowArr = index.rowsOf(column);
+        SparseDoubleVector colVec = new SparseHashDoubleVector(r);
+        if (shouldLock) {
+            int[] locked = lockLine(rowArr, column, false);
+            try {
+                for (int row : rowArr)
+                    colVec.set(row, getLocked(row, column));
+            } finally {
+                unlockLine(locked);
+            }
+        }
+        else {
+            for (int row : rowArr)
+                colVec.set(row, get(row, column));
+        }
+        return colVec;
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned row reflects the size of matrix
+     * at the time of the call, which may be different from earlier calls to
+     * {@link #columns()}.
+     */
+    public double[] getRow(int row) {
+        return getRowVector(row).toArray();
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned row vector reflects the size of
+     * matrix at the time of the call, which may be different from earlier calls
+     * to {@link #columns()}.
+     */
+    public SparseDoubleVector getRowVector(int row) {
+        return getRowVector(row, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SparseDoubleVector getRowVectorUnsafe(int row) {
+        return getRowVector(row, false);
+    }
+
+    /**
+     * Returns the row vector, locking the data if {@code shouldLock} is {@code
+     * true}.
+     */
+    private SparseDoubleVector getRowVector(int row, boolean shouldLock) {
+        int c = cols.get();
+        int[] colArr = index.columnsOf(row);
+        SparseDoubleVector rowVec = new SparseHashDoubleVector(c);
+        if (shouldLock) {
+            int[] locked = lockLine(colArr, row, true);
+            try {
+                for (int column : colArr)
+                    rowVec.set(column, getLocked(row, column));
+            } finally {
+                unlockLine(locked);
+            }
+        }
+        else {
+            for (int column : colArr)
+                rowVec.set(column, get(row, column));
+        }
+        return rowVec;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumn(int column, double[] values) {
+        setColumn(column, Vectors.asVector(values));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumn(int column, DoubleVector rowValues) {
+        checkIndices(rowValues.length(), column, true);
+        int r = rows.get();
+        lockAll();
+        try {
+            for (int row = 0; row < r; ++row)
+                setLocked(row, column, rowValues.get(row));
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRow(int row, double[] columns) {
+        setRow(row, Vectors.asVector(columns));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRow(int row, DoubleVector colValues) {
+        checkIndices(row, colValues.length(), true);
+        int c = cols.get();
+        lockAll();
+        try {
+            for (int col = 0; col < c; ++col)
+                setLocked(row, col, colValues.get(col));
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[][] toDenseArray() {
+        lockAll();
+        try {
+            int r = rows.get();
+            int c = cols.get();
+            double[][] m = new double[r][c];
+            for (Stripe s : stripes) {
+                for (int i = 0; i < s.keys.length; ++i) {
+                    long k = s.keys[i];
+                    if (k == EMPTY)
+                        continue;
+                    int row = (int) (k >>> 32);
+                    int col = (int) k;
+                    if (row < r && col < c)
+                        m[row][col] = s.values[i];
+                }
+            }
+            return m;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * A lock-guarded linear-probing hash table from packed {@code long} keys to
+     * {@code double} values.  Zero values are never stored.  All methods must
+     * be called while holding the lock.
+     */
+    private static final class Stripe extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        long[] keys;
+
+        double[] values;
+
+        int size;
+
+        Stripe() {
+            keys = new long[INITIAL_STRIPE_CAPACITY];
+            Arrays.fill(keys, EMPTY);
+            values = new double[INITIAL_STRIPE_CAPACITY];
+            size = 0;
+        }
+
+        /**
+         * Returns the slot of the key, or the empty slot where it would be
+         * inserted.
+         */
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int i = (int) mix(key) & mask;
+            long k;
+            while ((k = keys[i]) != EMPTY && k != key)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        double get(long key) {
+            int i = slot(key);
+            return (keys[i] == EMPTY) ? 0 : values[i];
+        }
+
+        /**
+         * Stores the value for the key, removing the key if the value is zero.
+         */
+        void put(long key, double value) {
+            int i = slot(key);
+            if (keys[i] == EMPTY) {
+                if (value == 0)
+                    return;
+                keys[i] = key;
+                values[i] = value;
+                // Keep the load factor at or below one half
+                if (++size * 2 > keys.length)
+                    rehash(keys.length << 1);
+            }
+            else if (value != 0)
+                values[i] = value;
+            else
+                removeAt(i);
+        }
+
+        /**
+         * Removes the entry at slot {@code i}, shifting back the following
+         * entries of the probe sequence so that no tombstones are needed.
+         */
+        private void removeAt(int i) {
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                long k = keys[j];
+                if (k == EMPTY)
+                    break;
+                int ideal = (int) mix(k) & mask;
+                // Skip the entry if its ideal slot lies cyclically in (i, j]
+                boolean inRange = (i <= j)
+                    ? (i < ideal && ideal <= j)
+                    : (i < ideal || ideal <= j);
+                if (inRange)
+                    continue;
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+            keys[i] = EMPTY;
+            values[i] = 0;
+            size--;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            double[] oldValues = values;
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new double[capacity];
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldKeys[i] == EMPTY)
+                    continue;
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
@@ -44,6 +44,14 @@ public abstract class BaseTransformExtended
 
     private GlobalTransformExtended transform;
 
+    /**
+     * The value which {@code transformColRow} computes for the whole row when
+     * it is called for column 0, and reads back for the other columns of the
+     * row.  It is kept per thread, so that rows may be transformed
+     * concurrently.
+     */
+    private transient volatile ThreadLocal<double[]> rowCache;
+
     public BaseTransformExtended() {
         transform = null;
     }
@@ -91,6 +99,65 @@ public abstract class BaseTransformExtended
         return dvs;
     }
 
+    /**
+     * Transforms the rows of the matrix with {@link #transformRow(DoubleVector)
+     * transformRow} on blocks of rows in parallel.
+     *
+     * @return the transformed rows, in a new {@link CompressedSparseRowMatrix}
+     */
+    public SparseMatrix transformRows(Matrix matrix) {
+        if (transform == null)
+            throw new IllegalStateException(
+                    "the initial matrix has not been transformed yet");
+        return ParallelRowTransform.transformRows(matrix, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SparseDoubleVector transformColumn(SparseDoubleVector column) {
+        if (transform == null)
+            throw new IllegalStateException(
+                    "the initial matrix has not been transformed yet");
+        SparseDoubleVector transformed =
+            new SparseHashDoubleVector(column.length());
+        for (int nz : column.getNonZeroIndices())
+            transformed.set(nz, transform.transform(nz, column));
+        return transformed;
+    }
+
+    /**
+     * Caches the value computed for the row being transformed by the current
+     * thread.
+     */
+    protected void setRowCache(double value) {
+        rowCache().get()[0] = value;
+    }
+
+    /**
+     * Returns the value cached for the row being transformed by the current
+     * thread.
+     */
+    protected double getRowCache() {
+        return rowCache().get()[0];
+    }
+
+    private ThreadLocal<double[]> rowCache() {
+        ThreadLocal<double[]> cache = rowCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (rowCache == null)
+                    rowCache = new ThreadLocal<double[]>() {
+                        protected double[] initialValue() {
+                            return new double[1];
+                        }
+                    };
+                cache = rowCache;
+            }
+        }
+        return cache;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -114,9 +181,17 @@ public abstract class BaseTransformExtended
     }
 
     /**
-     * {@inheritDoc}
+     * {@inheritDoc}  A sparse matrix is transformed on blocks of rows in
+     * parallel: a {@link CompressedSparseRowMatrix} in place, and any other
+     * sparse matrix into a new {@code CompressedSparseRowMatrix}, which is
+     * returned.
      */
     public Matrix transform(Matrix matrix) {
+        if (matrix instanceof SparseMatrix) {
+            transform = getTransform(matrix);
+            return ParallelRowTransform.transform(
+                (SparseMatrix) matrix, transform);
+        }
         return transform(matrix, matrix);
     }
 
@@ -0,0 +1,231 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.util.Arrays;
+
+
+/**
+ * A thread-safe accumulator of weighted co-occurrence counts over a fixed
+ * number of rows and columns, for the models which know the retained rows and
+ * columns of the final matrix before they count the co-occurrences.  Counts
+ * in the columns past the last retained one are dropped as they are added, so
+ * the memory held by the counts never exceeds that of a dense {@code rows} by
+ * {@code columns} matrix.<p>
+ *
+ * Each row starts as a primitive open-addressing table of its columns and is
+ * turned into a dense array of all the columns once the table would take more
+ * memory than the array.  The rows are locked independently, so threads that
+ * add to different rows do not contend.<p>
+ *
+ * Once all counts have been added, {@link #toMatrix(int)} compacts the rows
+ * into a {@link CompressedSparseRowMatrix} and releases them.
+ */
+public class BoundedCooccurrenceCounts {
+
+    /**
+     * The column marking an unused slot of a sparse row.
+     */
+    private static final int EMPTY = -1;
+
+    private final int columns;
+
+    /**
+     * The counts of each row, or {@code null} once the row has been compacted
+     * by {@link #toMatrix(int)}.
+     */
+    private final Row[] rows;
+
+    /**
+     * Creates an accumulator with no counts.
+     *
+     * @param rows the number of rows
+     * @param columns the number of retained columns
+     */
+    public BoundedCooccurrenceCounts(int rows, int columns) {
+        if (rows < 0 || columns < 0)
+            throw new IllegalArgumentException(
+                "The number of rows and columns must be non-negative");
+        this.columns = columns;
+        this.rows = new Row[rows];
+        for (int i = 0; i < rows; ++i)
+            this.rows[i] = new Row();
+    }
+
+    /**
+     * Returns the number of rows.
+     */
+    public int rows() {
+        return rows.length;
+    }
+
+    /**
+     * Returns the number of retained columns.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Adds the counts to the row.  The counts of the columns which are not
+     * retained are ignored.
+     *
+     * @throws IndexOutOfBoundsException if the row does not exist
+     * @throws IllegalStateException if the counts have already been compacted
+     */
+    public void add(int row, SparseDoubleVector counts) {
+        Row r = rows[row];
+        if (r == null)
+            throw new IllegalStateException(
+                "The counts have already been compacted");
+        int[] nonZero = counts.getNonZeroIndices();
+        synchronized (r) {
+            for (int col : nonZero)
+                if (col < columns)
+                    r.add(col, counts.get(col), columns);
+        }
+    }
+
+    /**
+     * Returns the first {@code rows} rows as a matrix and releases the counts,
+     * after which no more counts may be added.
+     *
+     * @param rows the number of rows of the matrix, which may be less than
+     *        the number of rows of the counts if not all of them were used
+     */
+    public CompressedSparseRowMatrix toMatrix(int rows) {
+        if (rows > this.rows.length)
+            throw new IllegalArgumentException(
+                "The counts have only " + this.rows.length + " rows");
+        int[] rowStarts = new int[rows + 1];
+        for (int row = 0; row < rows; ++row)
+            rowStarts[row + 1] = rowStarts[row] + this.rows[row].cells();
+        int[] columnIndices = new int[rowStarts[rows]];
+        double[] values = new double[rowStarts[rows]];
+        for (int row = 0; row < rows; ++row) {
+            this.rows[row].copyTo(columnIndices, values, rowStarts[row]);
+            this.rows[row] = null;
+        }
+        Arrays.fill(this.rows, rows, this.rows.length, null);
+        CompressedSparseRowMatrix.sortRows(rowStarts, columnIndices, values);
+        return new CompressedSparseRowMatrix(
+            rows, columns, rowStarts, columnIndices, values);
+    }
+
+    /**
+     * The counts of one row, which are guarded by the lock of the row.
+     */
+    private static class Row {
+
+        /**
+         * The columns of the sparse table, or {@code null} if the row is
+         * dense.
+         */
+        private int[] keys;
+
+        private double[] values;
+
+        /**
+         * The number of used slots of the sparse table.
+         */
+        private int size;
+
+        Row() {
+            keys = new int[0];
+            values = new double[0];
+            size = 0;
+        }
+
+        private static int hash(int col) {
+            int h = col * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        void add(int col, double delta, int columns) {
+            if (keys == null) {
+                values[col] += delta;
+                return;
+            }
+            if (keys.length > 0) {
+                int mask = keys.length - 1;
+                int i = hash(col) & mask;
+                int k;
+                while ((k = keys[i]) != EMPTY && k != col)
+                    i = (i + 1) & mask;
+                if (k == col) {
+                    values[i] += delta;
+                    return;
+                }
+            }
+            // A new column; keep the load factor at or below one half, unless
+            // the dense array would be smaller than the grown table
+            if ((size + 1) * 2 > keys.length) {
+                int capacity = Math.max(16, keys.length << 1);
+                if (12L * capacity >= 8L * columns) {
+                    toDense(columns);
+                    values[col] += delta;
+                    return;
+                }
+                rehash(capacity);
+            }
+            int mask = keys.length - 1;
+            int i = hash(col) & mask;
+            while (keys[i] != EMPTY)
+                i = (i + 1) & mask;
+            keys[i] = col;
+            values[i] = delta;
+            size++;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            double[] oldValues = values;
+            keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new double[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; ++j) {
+                if (oldKeys[j] != EMPTY) {
+                    int i = hash(oldKeys[j]) & mask;
+                    while (keys[i] != EMPTY)
+                        i = (i + 1) & mask;
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private void toDense(int columns) {
+            double[] dense = new double[columns];
+            for (int j = 0; j < keys.length; ++j)
+                if (keys[j] != EMPTY)
+                    dense[keys[j]] = values[j];
+            keys = null;
+            values = dense;
+        }
+
+        /**
+         * Returns the number of non-zero cells of the row.
+         */
+        int cells() {
+            int cells = 0;
+            for (int j = 0; j < values.length; ++j)
+                if (values[j] != 0 && (keys == null || keys[j] != EMPTY))
+                    cells++;
+            return cells;
+        }
+
+        /**
+         * Copies the non-zero cells of the row from {@code offset} on, in no
+         * particular order of the columns.
+         */
+        void copyTo(int[] columnIndices, double[] cellValues, int offset) {
+            for (int j = 0; j < values.length; ++j) {
+                if (values[j] != 0 && (keys == null || keys[j] != EMPTY)) {
+                    columnIndices[offset] = (keys == null) ? j : keys[j];
+                    cellValues[offset++] = values[j];
+                }
+            }
+        }
+    }
+}
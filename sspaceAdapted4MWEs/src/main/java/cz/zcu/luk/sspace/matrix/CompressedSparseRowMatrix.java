@@ -0,0 +1,477 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.MatrixEntry;
+import edu.ucla.sspace.matrix.MatrixFile;
+import edu.ucla.sspace.matrix.MatrixIO;
+import edu.ucla.sspace.matrix.MatrixIO.Format;
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.vector.CompactSparseVector;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+import edu.ucla.sspace.vector.SparseHashDoubleVector;
+import edu.ucla.sspace.vector.Vectors;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+
+/**
+ * A {@code SparseMatrix} in compressed sparse row form: the column indices and
+ * values of all rows are stored consecutively in two primitive arrays, and an
+ * array of row offsets marks where each row starts.  The structure of the
+ * matrix is fixed at construction.  The values of stored cells may be changed,
+ * which allows in-place transforms, but setting a non-zero value in a cell
+ * that is not stored throws {@link UnsupportedOperationException}.<p>
+ *
+ * Cells whose stored value is zero are treated as absent by the row and
+ * column vector operations.
+ */
+public class CompressedSparseRowMatrix implements SparseMatrix,
+                                                  java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int rows;
+
+    private final int columns;
+
+    /**
+     * The offset of the first cell of each row in {@code columnIndices} and
+     * {@code values}, followed by the total number of cells.
+     */
+    private final int[] rowStarts;
+
+    /**
+     * The column of each cell, increasing within each row.
+     */
+    private final int[] columnIndices;
+
+    /**
+     * The value of each cell.
+     */
+    private final double[] values;
+
+    /**
+     * Creates a matrix from its compressed sparse row arrays, which are used
+     * directly rather than copied.
+     *
+     * @param rows the number of rows
+     * @param columns the number of columns
+     * @param rowStarts the offset of the first cell of each row, followed by
+     *        the number of cells, so of length {@code rows + 1}
+     * @param columnIndices the column of each cell, strictly increasing within
+     *        each row
+     * @param values the value of each cell
+     *
+     * @throws IllegalArgumentException if the arrays do not describe a matrix
+     *         of the given size
+     */
+    public CompressedSparseRowMatrix(int rows, int columns, int[] rowStarts,
+                                     int[] columnIndices, double[] values) {
+        if (rowStarts.length != rows + 1 || rowStarts[0] != 0)
+            throw new IllegalArgumentException(
+                "rowStarts must hold rows + 1 offsets starting at 0");
+        if (columnIndices.length < rowStarts[rows]
+                || values.length < rowStarts[rows])
+            throw new IllegalArgumentException(
+                "columnIndices and values must hold all cells");
+        this.rows = rows;
+        this.columns = columns;
+        this.rowStarts = rowStarts;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * Sorts the cells of each row by column.  This is intended for builders
+     * that fill the rows in an arbitrary column order.
+     *
+     * @param rowStarts the row offsets, as passed to the constructor
+     * @param columnIndices the column of each cell
+     * @param values the value of each cell
+     */
+    public static void sortRows(int[] rowStarts, int[] columnIndices,
+                                double[] values) {
+        sortRows(rowStarts, columnIndices, values, 0, rowStarts.length - 1);
+    }
+
+    /**
+     * Sorts the cells of the rows from {@code fromRow}, inclusive, to {@code
+     * toRow}, exclusive, by column.  Disjoint ranges of rows may be sorted
+     * concurrently.
+     *
+     * @param rowStarts the row offsets, as passed to the constructor
+     * @param columnIndices the column of each cell
+     * @param values the value of each cell
+     * @param fromRow the first row to sort
+     * @param toRow the row after the last row to sort
+     */
+    public static void sortRows(int[] rowStarts, int[] columnIndices,
+                                double[] values, int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; ++row) {
+            int from = rowStarts[row];
+            int to = rowStarts[row + 1];
+            boolean sorted = true;
+            for (int i = from + 1; i < to && sorted; ++i)
+                sorted = columnIndices[i - 1] < columnIndices[i];
+            if (sorted)
+                continue;
+            // Sort the columns together with their positions, then permute
+            // the values accordingly
+            long[] order = new long[to - from];
+            for (int i = from; i < to; ++i)
+                order[i - from] = ((long) columnIndices[i] << 32) | (i - from);
+            Arrays.sort(order);
+            double[] rowValues = Arrays.copyOfRange(values, from, to);
+            for (int i = 0; i < order.length; ++i) {
+                columnIndices[from + i] = (int) (order[i] >>> 32);
+                values[from + i] = rowValues[(int) order[i]];
+            }
+        }
+    }
+
+    /**
+     * Copies the given columns of the rows into a new matrix, in parallel on
+     * blocks of rows: column {@code columnMask[i]} of the rows becomes column
+     * {@code i} of the matrix.  The matrix has the contents of a {@link
+     * edu.ucla.sspace.matrix.CellMaskedSparseMatrix} which keeps all the rows,
+     * without the indirection of the mask on every access.  Each row is
+     * released from {@code rows} once it has been copied, so the original
+     * vectors may be reclaimed before all the rows are copied.
+     *
+     * @param rows the rows, of which a {@code null} row is empty
+     * @param columnMask the column of the rows kept as each column of the
+     *        matrix
+     */
+    public static CompressedSparseRowMatrix fromRows(
+            final SparseDoubleVector[] rows, int[] columnMask) {
+        int oldColumns = 0;
+        for (int col : columnMask)
+            oldColumns = Math.max(oldColumns, col + 1);
+        final int[] columnMap = new int[oldColumns];
+        Arrays.fill(columnMap, -1);
+        for (int i = 0; i < columnMask.length; ++i)
+            columnMap[columnMask[i]] = i;
+
+        // Count the kept cells of each row, so the arrays are allocated once
+        // and each block fills its own range of them
+        final int[] rowStarts = new int[rows.length + 1];
+        RowBlocks.forEachBlock(rows.length, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    if (rows[row] == null)
+                        continue;
+                    int cells = 0;
+                    for (int col : rows[row].getNonZeroIndices())
+                        if (col < columnMap.length && columnMap[col] >= 0)
+                            cells++;
+                    rowStarts[row + 1] = cells;
+                }
+            }
+        });
+        for (int row = 0; row < rows.length; ++row)
+            rowStarts[row + 1] += rowStarts[row];
+
+        final int[] columnIndices = new int[rowStarts[rows.length]];
+        final double[] values = new double[rowStarts[rows.length]];
+        RowBlocks.forEachBlock(rows.length, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    SparseDoubleVector rowVec = rows[row];
+                    if (rowVec == null)
+                        continue;
+                    int n = rowStarts[row];
+                    for (int col : rowVec.getNonZeroIndices()) {
+                        if (col < columnMap.length && columnMap[col] >= 0) {
+                            columnIndices[n] = columnMap[col];
+                            values[n++] = rowVec.get(col);
+                        }
+                    }
+                    rows[row] = null;
+                }
+                sortRows(rowStarts, columnIndices, values, from, to);
+            }
+        });
+        return new CompressedSparseRowMatrix(rows.length, columnMask.length,
+                                             rowStarts, columnIndices, values);
+    }
+
+    /**
+     * Reads a sparse matrix file, such as the file of a {@link
+     * edu.ucla.sspace.matrix.MatrixBuilder}, straight into a new matrix,
+     * without loading it into an intermediate matrix first.  The file is read
+     * twice: once to count the cells of each row, so that the arrays are
+     * allocated once, and once to fill them.  The rows are then sorted by
+     * column in parallel on blocks of rows.<p>
+     *
+     * The size of a file in the {@link Format#SVDLIBC_SPARSE_BINARY
+     * SVDLIBC_SPARSE_BINARY} format is read from its header.  Other formats,
+     * such as {@link Format#MATLAB_SPARSE MATLAB_SPARSE}, do not record the
+     * empty rows and columns at the end of the matrix, so the matrix has at
+     * least as many rows and columns as its cells need.  In both cases the
+     * matrix has at least the given number of rows and columns.
+     *
+     * @param mFile the matrix file, whose format is sparse
+     * @param minRows the minimum number of rows of the matrix
+     * @param minColumns the minimum number of columns of the matrix
+     */
+    public static CompressedSparseRowMatrix fromFile(MatrixFile mFile,
+                                                     int minRows,
+                                                     int minColumns) {
+        File file = mFile.getFile();
+        Format format = mFile.getFormat();
+        try {
+            int rows = minRows;
+            int columns = minColumns;
+            if (format == Format.SVDLIBC_SPARSE_BINARY) {
+                DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    rows = Math.max(rows, in.readInt());
+                    columns = Math.max(columns, in.readInt());
+                } finally {
+                    in.close();
+                }
+            }
+
+            // Count the cells of each row, growing the counts when a cell is
+            // beyond the rows known so far
+            int[] counts = new int[rows + 1];
+            long cells = 0;
+            Iterator<MatrixEntry> it =
+                MatrixIO.getMatrixFileIterator(file, format);
+            while (it.hasNext()) {
+                MatrixEntry e = it.next();
+                if (e.value() == 0)
+                    continue;
+                int row = e.row();
+                if (row + 1 >= counts.length)
+                    counts = Arrays.copyOf(
+                        counts, Math.max(row + 2, counts.length * 2));
+                counts[row + 1]++;
+                rows = Math.max(rows, row + 1);
+                columns = Math.max(columns, e.column() + 1);
+                cells++;
+            }
+            if (cells > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(
+                    "The matrix file has too many cells to be loaded: " + file);
+
+            final int[] rowStarts = Arrays.copyOf(counts, rows + 1);
+            for (int row = 0; row < rows; ++row)
+                rowStarts[row + 1] += rowStarts[row];
+            final int[] columnIndices = new int[(int) cells];
+            final double[] values = new double[(int) cells];
+            int[] next = Arrays.copyOf(rowStarts, rows);
+            it = MatrixIO.getMatrixFileIterator(file, format);
+            while (it.hasNext()) {
+                MatrixEntry e = it.next();
+                if (e.value() == 0)
+                    continue;
+                int n = next[e.row()]++;
+                columnIndices[n] = e.column();
+                values[n] = e.value();
+            }
+
+            RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+                public void run(int from, int to) {
+                    sortRows(rowStarts, columnIndices, values, from, to);
+                }
+            });
+            return new CompressedSparseRowMatrix(
+                rows, columns, rowStarts, columnIndices, values);
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Returns the number of stored cells, including those whose value was set
+     * to zero.
+     */
+    public int storedCells() {
+        return rowStarts[rows];
+    }
+
+    /**
+     * Returns the row offsets, which are shared with this matrix.
+     */
+    int[] rowStarts() {
+        return rowStarts;
+    }
+
+    /**
+     * Returns the column of each cell, shared with this matrix.
+     */
+    int[] columnIndices() {
+        return columnIndices;
+    }
+
+    /**
+     * Returns the value of each cell, shared with this matrix.
+     */
+    double[] values() {
+        return values;
+    }
+
+    /**
+     * Returns the position of the cell in the cell arrays, or a negative value
+     * if it is not stored.
+     */
+    private int find(int row, int col) {
+        checkIndices(row, col);
+        return Arrays.binarySearch(
+            columnIndices, rowStarts[row], rowStarts[row + 1], col);
+    }
+
+    private void checkIndices(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= columns)
+            throw new IndexOutOfBoundsException(
+                "(" + row + ", " + col + ") is outside of the matrix");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double get(int row, int col) {
+        int i = find(row, col);
+        return (i < 0) ? 0 : values[i];
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UnsupportedOperationException if {@code val} is non-zero and the
+     *         cell is not stored
+     */
+    public void set(int row, int col, double val) {
+        int i = find(row, col);
+        if (i >= 0)
+            values[i] = val;
+        else if (val != 0)
+            throw new UnsupportedOperationException(
+                "Cannot add a cell to a compressed sparse row matrix");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[] getRow(int row) {
+        return getRowVector(row).toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SparseDoubleVector getRowVector(int row) {
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException("Row is outside of the matrix");
+        int from = rowStarts[row];
+        int to = rowStarts[row + 1];
+        int nonZero = 0;
+        for (int i = from; i < to; ++i)
+            if (values[i] != 0)
+                nonZero++;
+        int[] indices = new int[nonZero];
+        double[] rowValues = new double[nonZero];
+        int n = 0;
+        for (int i = from; i < to; ++i) {
+            if (values[i] != 0) {
+                indices[n] = columnIndices[i];
+                rowValues[n++] = values[i];
+            }
+        }
+        return new CompactSparseVector(indices, rowValues, columns);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[] getColumn(int column) {
+        return getColumnVector(column).toArray();
+    }
+
+    /**
+     * {@inheritDoc} This operation searches every row for the column.
+     */
+    public SparseDoubleVector getColumnVector(int column) {
+        if (column < 0 || column >= columns)
+            throw new IndexOutOfBoundsException(
+                "Column is outside of the matrix");
+        SparseDoubleVector colVec = new SparseHashDoubleVector(rows);
+        for (int row = 0; row < rows; ++row) {
+            int i = Arrays.binarySearch(
+                columnIndices, rowStarts[row], rowStarts[row + 1], column);
+            if (i >= 0 && values[i] != 0)
+                colVec.set(row, values[i]);
+        }
+        return colVec;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRow(int row, double[] columns) {
+        setRow(row, Vectors.asVector(columns));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRow(int row, DoubleVector colValues) {
+        if (colValues.length() != columns)
+            throw new IllegalArgumentException(
+                "The number of values does not match the number of columns");
+        for (int col = 0; col < columns; ++col)
+            set(row, col, colValues.get(col));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumn(int column, double[] values) {
+        setColumn(column, Vectors.asVector(values));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumn(int column, DoubleVector rowValues) {
+        if (rowValues.length() != rows)
+            throw new IllegalArgumentException(
+                "The number of values does not match the number of rows");
+        for (int row = 0; row < rows; ++row)
+            set(row, column, rowValues.get(row));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[][] toDenseArray() {
+        double[][] m = new double[rows][columns];
+        for (int row = 0; row < rows; ++row)
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i)
+                m[row][columnIndices[i]] = values[i];
+        return m;
+    }
+}
@@ -0,0 +1,176 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.util.WorkQueue;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Builds the column-reduced form of a co-occurrence matrix whose rows are
+ * concatenated with its columns, as used by HAL.  The concatenated matrix has
+ * {@code 2 * words} columns: column {@code c < words} holds the cell {@code
+ * (row, c)} of the co-occurrence matrix and column {@code words + r} holds the
+ * transposed cell {@code (r, row)}.  Only the columns selected by a {@link
+ * BitSet} are kept, renumbered in increasing order.<p>
+ *
+ * The result is built as a {@link CompressedSparseRowMatrix} in a single
+ * parallel pass over the rows of the co-occurrence matrix, using an {@code
+ * int[]} table to renumber the columns, so no boxed indices and no per-cell
+ * lookups of the source matrix are needed.
+ */
+public class ConcatenatedColumns {
+
+    /**
+     * The number of rows processed by one task.
+     */
+    private static final int ROWS_PER_TASK = 1024;
+
+    /**
+     * Uninstantiable
+     */
+    private ConcatenatedColumns() { }
+
+    /**
+     * Returns the rows of {@code [matrix | matrix^T]} restricted to the
+     * retained columns.  The matrix must not be modified during the call.
+     *
+     * @param matrix the co-occurrence matrix
+     * @param words the number of rows and columns of the co-occurrence matrix
+     * @param retained the columns of the concatenated matrix to keep, which
+     *        must be below {@code 2 * words}
+     *
+     * @return a {@code words} by {@code retained.cardinality()} matrix
+     */
+    public static CompressedSparseRowMatrix retain(
+            final CooccurrenceMatrix matrix, final int words, BitSet retained) {
+        // Renumber the retained columns in increasing order
+        final int[] remap = new int[2 * words];
+        int columns = 0;
+        for (int i = 0; i < remap.length; ++i)
+            remap[i] = (retained.get(i)) ? columns++ : -1;
+
+        // Each task copies the retained cells of its rows and collects the
+        // transposed cells, which belong to the rows of other tasks
+        final int[][] rowColumns = new int[words][];
+        final double[][] rowValues = new double[words][];
+        final Queue<CellList> transposed = new ConcurrentLinkedQueue<CellList>();
+        final int matrixRows = Math.min(words, matrix.rows());
+        WorkQueue workQueue = WorkQueue.getWorkQueue();
+        int tasks = (matrixRows + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        Object key = workQueue.registerTaskGroup(tasks);
+        for (int t = 0; t < tasks; ++t) {
+            final int from = t * ROWS_PER_TASK;
+            final int to = Math.min(from + ROWS_PER_TASK, matrixRows);
+            workQueue.add(key, new Runnable() {
+                public void run() {
+                    CellList cells = new CellList();
+                    for (int row = from; row < to; ++row) {
+                        SparseDoubleVector sv = matrix.getRowVectorUnsafe(row);
+                        int[] nonZero = sv.getNonZeroIndices();
+                        int transposedColumn = remap[row + words];
+                        int[] cols = new int[nonZero.length];
+                        double[] vals = new double[nonZero.length];
+                        int n = 0;
+                        for (int col : nonZero) {
+                            if (col >= words)
+                                continue;
+                            double v = sv.get(col);
+                            if (remap[col] >= 0) {
+                                cols[n] = remap[col];
+                                vals[n++] = v;
+                            }
+                            if (transposedColumn >= 0)
+                                cells.add(col, transposedColumn, v);
+                        }
+                        rowColumns[row] = Arrays.copyOf(cols, n);
+                        rowValues[row] = Arrays.copyOf(vals, n);
+                    }
+                    transposed.add(cells);
+                }
+            });
+        }
+        workQueue.await(key);
+
+        // Lay out the rows: first the row's own cells, then its transposed
+        // ones
+        final int[] rowStarts = new int[words + 1];
+        for (int row = 0; row < words; ++row)
+            if (rowColumns[row] != null)
+                rowStarts[row + 1] = rowColumns[row].length;
+        for (CellList cells : transposed)
+            for (int i = 0; i < cells.size; ++i)
+                rowStarts[cells.rows[i] + 1]++;
+        for (int row = 0; row < words; ++row)
+            rowStarts[row + 1] += rowStarts[row];
+
+        final int[] columnIndices = new int[rowStarts[words]];
+        final double[] values = new double[rowStarts[words]];
+        int[] next = new int[words];
+        for (int row = 0; row < words; ++row) {
+            next[row] = rowStarts[row];
+            if (rowColumns[row] == null)
+                continue;
+            int n = rowColumns[row].length;
+            System.arraycopy(rowColumns[row], 0, columnIndices, next[row], n);
+            System.arraycopy(rowValues[row], 0, values, next[row], n);
+            next[row] += n;
+            rowColumns[row] = null;
+            rowValues[row] = null;
+        }
+        CellList cells;
+        while ((cells = transposed.poll()) != null) {
+            for (int i = 0; i < cells.size; ++i) {
+                int row = cells.rows[i];
+                columnIndices[next[row]] = cells.cols[i];
+                values[next[row]++] = cells.values[i];
+            }
+        }
+
+        // The cells arrive in hash order, so sort each row by column
+        int sortTasks = (words + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        key = workQueue.registerTaskGroup(sortTasks);
+        for (int t = 0; t < sortTasks; ++t) {
+            final int from = t * ROWS_PER_TASK;
+            final int to = Math.min(from + ROWS_PER_TASK, words);
+            workQueue.add(key, new Runnable() {
+                public void run() {
+                    CompressedSparseRowMatrix.sortRows(
+                        rowStarts, columnIndices, values, from, to);
+                }
+            });
+        }
+        workQueue.await(key);
+
+        return new CompressedSparseRowMatrix(
+            words, columns, rowStarts, columnIndices, values);
+    }
+
+    /**
+     * A growable list of cells.
+     */
+    private static final class CellList {
+
+        int[] rows = new int[1024];
+
+        int[] cols = new int[1024];
+
+        double[] values = new double[1024];
+
+        int size;
+
+        void add(int row, int col, double value) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                cols = Arrays.copyOf(cols, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            rows[size] = row;
+            cols[size] = col;
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package cz.zcu.luk.sspace.matrix;
+
+import java.util.Arrays;
+
+
+/**
+ * A single-threaded accumulation buffer for weighted co-occurrence counts.
+ * Counts are summed in a primitive open-addressing table keyed by the packed
+ * (row, column) pair and are written into a shared {@link CooccurrenceMatrix}
+ * only when the buffer is {@link #flushTo(CooccurrenceMatrix) flushed}.  The
+ * flushed entries are sorted by row and column, so that the shared matrix sees
+ * one large, ordered batch instead of many small concurrent updates.<p>
+ *
+ * Instances are not thread-safe; each thread is expected to own its buffer.
+ *
+ * @see ThreadLocalCooccurrenceBuffers
+ */
+public class CooccurrenceBuffer {
+
+    /**
+     * The key marking an unused slot.  Packed keys are never negative.
+     */
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+
+    private double[] values;
+
+    private int size;
+
+    /**
+     * Creates an empty buffer.
+     */
+    public CooccurrenceBuffer() {
+        this(1024);
+    }
+
+    /**
+     * Creates an empty buffer sized to hold at least {@code expectedSize}
+     * entries before growing.
+     */
+    public CooccurrenceBuffer(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2)
+            capacity <<= 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity];
+        size = 0;
+    }
+
+    /**
+     * Packs the row and column into a single non-negative key.
+     */
+    static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        long k;
+        while ((k = keys[i]) != EMPTY && k != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * Adds {@code delta} to the buffered count of the cell.
+     */
+    public void add(int row, int col, double delta) {
+        if (row < 0 || col < 0)
+            throw new ArrayIndexOutOfBoundsException();
+        long k = key(row, col);
+        int i = slot(k);
+        if (keys[i] == EMPTY) {
+            keys[i] = k;
+            values[i] = delta;
+            // Keep the load factor at or below one half
+            if (++size * 2 > keys.length)
+                rehash(keys.length << 1);
+        }
+        else
+            values[i] += delta;
+    }
+
+    /**
+     * Returns the number of distinct cells currently buffered.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds all buffered counts to {@code matrix}, in increasing order of row
+     * and column, and empties the buffer.  Cells whose buffered counts summed
+     * to zero are skipped.
+     */
+    public void flushTo(CooccurrenceMatrix matrix) {
+        flushTo(matrix, null);
+    }
+
+    /**
+     * Adds all buffered counts to {@code matrix}, as {@link
+     * #flushTo(CooccurrenceMatrix)} does, and reports the resulting changes of
+     * the cells to {@code stats}.
+     *
+     * @param matrix the matrix receiving the counts
+     * @param stats the statistics to update, or {@code null} if none are kept
+     */
+    public void flushTo(CooccurrenceMatrix matrix, EntropyStatistics stats) {
+        if (size == 0)
+            return;
+        long[] sortedKeys = new long[size];
+        double[] sortedValues = new double[size];
+        sorted(sortedKeys, sortedValues);
+        double[] oldValues = (stats != null) ? new double[size] : null;
+
+        if (matrix instanceof AtomicStripedSparseMatrix) {
+            ((AtomicStripedSparseMatrix) matrix).addAll(
+                sortedKeys, sortedValues, size, oldValues);
+        }
+        else {
+            for (int i = 0; i < size; ++i) {
+                if (sortedValues[i] == 0)
+                    continue;
+                long k = sortedKeys[i];
+                if (oldValues != null)
+                    oldValues[i] = matrix.getAndAdd(
+                        (int) (k >>> 32), (int) k, sortedValues[i]);
+                else
+                    matrix.addAndGet(
+                        (int) (k >>> 32), (int) k, sortedValues[i]);
+            }
+        }
+
+        if (stats != null) {
+            // The new values are the old ones plus the buffered counts, which
+            // are no longer needed once they are in the matrix
+            for (int i = 0; i < size; ++i)
+                if (sortedValues[i] != 0)
+                    sortedValues[i] += oldValues[i];
+                else
+                    sortedValues[i] = oldValues[i];
+            stats.update(sortedKeys, oldValues, sortedValues, size);
+        }
+        clear();
+    }
+
+    /**
+     * Copies the buffered cells, in increasing order of row and column, into
+     * the provided arrays without emptying the buffer.
+     *
+     * @param sortedKeys the array receiving the packed cells, of length at
+     *        least {@link #size()}
+     * @param sortedValues the array receiving the counts of the cells, of
+     *        length at least {@link #size()}
+     *
+     * @return the number of cells copied
+     */
+    int sorted(long[] sortedKeys, double[] sortedValues) {
+        int n = 0;
+        for (long k : keys)
+            if (k != EMPTY)
+                sortedKeys[n++] = k;
+        Arrays.sort(sortedKeys, 0, n);
+        for (int i = 0; i < n; ++i)
+            sortedValues[i] = values[slot(sortedKeys[i])];
+        return n;
+    }
+
+    /**
+     * Discards all buffered counts, keeping the allocated table.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new double[capacity];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cz.zcu.luk.sspace.matrix;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A factory for the {@link CooccurrenceMatrix} implementations used by the
+ * co-occurrence based models.  The implementation is selected with the {@value
+ * #MATRIX_TYPE_PROPERTY} property, which accepts the following values:
+ *
+ * <ul>
+ *
+ *   <li> {@code hash} (default) - {@link AtomicGrowingSparseHashMatrix}
+ *
+ *   <li> {@code striped} - {@link AtomicStripedSparseMatrix}, which avoids the
+ *        per-update allocation and spinning of the hash based matrix
+ *
+ *   <li> {@code mapped} - {@link MappedCooccurrenceMatrix}, which keeps the
+ *        entries off the heap in memory-mapped files created in the directory
+ *        given by the {@value #DIRECTORY_PROPERTY} property, or in the default
+ *        temporary directory if it is not set
+ *
+ * </ul>
+ */
+public class CooccurrenceMatrices {
+
+    /**
+     * The prefix for naming public properties.
+     */
+    private static final String PROPERTY_PREFIX =
+        "cz.zcu.luk.sspace.matrix.CooccurrenceMatrices";
+
+    /**
+     * The property to select the co-occurrence matrix implementation.
+     */
+    public static final String MATRIX_TYPE_PROPERTY =
+        PROPERTY_PREFIX + ".type";
+
+    /**
+     * The value of {@link #MATRIX_TYPE_PROPERTY} selecting {@link
+     * AtomicGrowingSparseHashMatrix}.
+     */
+    public static final String HASH = "hash";
+
+    /**
+     * The value of {@link #MATRIX_TYPE_PROPERTY} selecting {@link
+     * AtomicStripedSparseMatrix}.
+     */
+    public static final String STRIPED = "striped";
+
+    /**
+     * The value of {@link #MATRIX_TYPE_PROPERTY} selecting {@link
+     * MappedCooccurrenceMatrix}.
+     */
+    public static final String MAPPED = "mapped";
+
+    /**
+     * The property to set the directory for the backing files of {@link
+     * MappedCooccurrenceMatrix}.
+     */
+    public static final String DIRECTORY_PROPERTY =
+        PROPERTY_PREFIX + ".directory";
+
+    /**
+     * Uninstantiable
+     */
+    private CooccurrenceMatrices() { }
+
+    /**
+     * Returns whether the {@value #MATRIX_TYPE_PROPERTY} property is set in
+     * {@code props}.
+     */
+    public static boolean isConfigured(Properties props) {
+        return props.getProperty(MATRIX_TYPE_PROPERTY) != null;
+    }
+
+    /**
+     * Creates a new, empty co-occurrence matrix of the type specified by the
+     * {@value #MATRIX_TYPE_PROPERTY} property in {@code props}.
+     *
+     * @throws IllegalArgumentException if the property has an unknown value
+     */
+    public static CooccurrenceMatrix create(Properties props) {
+        String type = props.getProperty(MATRIX_TYPE_PROPERTY, HASH);
+        if (type.equals(HASH))
+            return new AtomicGrowingSparseHashMatrix();
+        if (type.equals(STRIPED))
+            return new AtomicStripedSparseMatrix();
+        if (type.equals(MAPPED)) {
+            String dir = props.getProperty(DIRECTORY_PROPERTY);
+            return new MappedCooccurrenceMatrix(
+                (dir == null) ? null : new File(dir));
+        }
+        throw new IllegalArgumentException(
+            "Unknown co-occurrence matrix type: " + type);
+    }
+}
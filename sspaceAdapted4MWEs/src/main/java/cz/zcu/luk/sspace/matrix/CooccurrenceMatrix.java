@@ -0,0 +1,30 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.AtomicMatrix;
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+/**
+ * A concurrent, growable {@code SparseMatrix} used for accumulating weighted
+ * co-occurrence counts from multiple threads.  Besides the atomic single-cell
+ * operations of {@link AtomicMatrix}, implementations provide non-atomic row
+ * and column access for the phase after all documents have been processed.
+ *
+ * @see CooccurrenceMatrices
+ */
+public interface CooccurrenceMatrix extends AtomicMatrix, SparseMatrix {
+
+    /**
+     * Provides non-atomic access to the data at the specified row, which may
+     * present an inconsistent view of the data if this matrix is being
+     * concurrently modified.
+     */
+    SparseDoubleVector getRowVectorUnsafe(int row);
+
+    /**
+     * Provides non-atomic access to the data at the specified column, which may
+     * present an inconsistent view of the data if this matrix is being
+     * concurrently modified.
+     */
+    SparseDoubleVector getColumnVectorUnsafe(int column);
+}
@@ -48,9 +48,6 @@ import java.io.File;
  */
 public class CorrelationTransformExtended extends BaseTransformExtended {
 
-    // LK added
-    private double rowSumCashed;
-
     /**
      * {@inheritDoc}
      */
@@ -192,10 +189,10 @@ public class CorrelationTransformExtended extends BaseTransformExtended {
                     for (int i = 0; i < length; ++i)
                         rowSum += row.get(i);
                 }
-                rowSumCashed = rowSum;
+                setRowCache(rowSum);
             }
             else {
-                rowSum = rowSumCashed;
+                rowSum = getRowCache();
             }
 
             double value = row.get(column);
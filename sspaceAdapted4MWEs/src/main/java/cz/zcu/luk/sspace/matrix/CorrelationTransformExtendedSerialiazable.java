@@ -49,9 +49,6 @@ import java.io.Serializable;
  */
 public class CorrelationTransformExtendedSerialiazable extends BaseTransformExtended {
 
-    // LK added
-    private double rowSumCashed;
-
     /**
      * {@inheritDoc}
      */
@@ -195,10 +192,10 @@ public class CorrelationTransformExtendedSerialiazable extends BaseTransformExte
                     for (int i = 0; i < length; ++i)
                         rowSum += row.get(i);
                 }
-                rowSumCashed = rowSum;
+                setRowCache(rowSum);
             }
             else {
-                rowSum = rowSumCashed;
+                rowSum = getRowCache();
             }
 
             double value = row.get(column);
@@ -0,0 +1,160 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.MatrixEntropy.EntropyStats;
+
+import java.util.Arrays;
+
+
+/**
+ * The sufficient statistics for the entropy of the rows and columns of a
+ * non-negative matrix, maintained incrementally as its cells change.  For each
+ * row and column the sum {@code S} of its values and the sum {@code T} of
+ * {@code x log x} over its values are kept, from which the entropy of the
+ * distribution {@code x / S} follows as {@code (S log S - T) / S}.  This gives
+ * the same values as {@link edu.ucla.sspace.matrix.MatrixEntropy}, up to
+ * rounding, without another traversal of the finished matrix.<p>
+ *
+ * Each change of a cell must be reported with its old and new value through
+ * {@link #update(long[], double[], double[], int) update}.  Updates are
+ * synchronized, so batches from several threads may be reported concurrently,
+ * but the changes of a single cell must be reported in the order in which
+ * they were made.
+ *
+ * @see CooccurrenceBuffer#flushTo(CooccurrenceMatrix, EntropyStatistics)
+ */
+public class EntropyStatistics {
+
+    private double[] rowSums;
+
+    private double[] rowXLogX;
+
+    private int[] rowCells;
+
+    private double[] colSums;
+
+    private double[] colXLogX;
+
+    private int[] colCells;
+
+    /**
+     * Creates empty statistics.
+     */
+    public EntropyStatistics() {
+        rowSums = new double[1024];
+        rowXLogX = new double[1024];
+        rowCells = new int[1024];
+        colSums = new double[1024];
+        colXLogX = new double[1024];
+        colCells = new int[1024];
+    }
+
+    /**
+     * Returns {@code x log x}, which is taken to be zero for {@code x = 0}.
+     */
+    private static double xLogX(double x) {
+        return (x == 0) ? 0 : x * Math.log(x);
+    }
+
+    /**
+     * Records a batch of cell changes.
+     *
+     * @param keys the changed cells, packed as by {@link CooccurrenceBuffer}
+     * @param oldValues the values of the cells before the change
+     * @param newValues the values of the cells after the change
+     * @param size the number of valid entries in the arrays
+     */
+    public synchronized void update(long[] keys, double[] oldValues,
+                                    double[] newValues, int size) {
+        for (int i = 0; i < size; ++i) {
+            double oldVal = oldValues[i];
+            double newVal = newValues[i];
+            if (oldVal == newVal)
+                continue;
+            int row = (int) (keys[i] >>> 32);
+            int col = (int) keys[i];
+            if (row >= rowSums.length || col >= colSums.length)
+                grow(row, col);
+
+            double delta = newVal - oldVal;
+            double xLogXDelta = xLogX(newVal) - xLogX(oldVal);
+            int cellDelta = ((newVal != 0) ? 1 : 0) - ((oldVal != 0) ? 1 : 0);
+            rowSums[row] += delta;
+            rowXLogX[row] += xLogXDelta;
+            rowCells[row] += cellDelta;
+            colSums[col] += delta;
+            colXLogX[col] += xLogXDelta;
+            colCells[col] += cellDelta;
+        }
+    }
+
+    private void grow(int row, int col) {
+        int rows = rowSums.length;
+        while (rows <= row)
+            rows *= 2;
+        rowSums = Arrays.copyOf(rowSums, rows);
+        rowXLogX = Arrays.copyOf(rowXLogX, rows);
+        rowCells = Arrays.copyOf(rowCells, rows);
+        int cols = colSums.length;
+        while (cols <= col)
+            cols *= 2;
+        colSums = Arrays.copyOf(colSums, cols);
+        colXLogX = Arrays.copyOf(colXLogX, cols);
+        colCells = Arrays.copyOf(colCells, cols);
+    }
+
+    /**
+     * Returns the entropy of a row or column from its statistics.  A single
+     * non-zero cell has an entropy of exactly zero, and values that fall
+     * below zero through rounding are clamped.
+     */
+    private static double entropy(double sum, double xLogX, long cells) {
+        if (cells <= 1 || sum <= 0)
+            return 0;
+        return Math.max(0, (sum * Math.log(sum) - xLogX) / sum);
+    }
+
+    /**
+     * Returns the entropy of the row.
+     */
+    public synchronized double rowEntropy(int row) {
+        return (row < rowSums.length)
+            ? entropy(rowSums[row], rowXLogX[row], rowCells[row])
+            : 0;
+    }
+
+    /**
+     * Returns the entropy of the column.
+     */
+    public synchronized double columnEntropy(int col) {
+        return (col < colSums.length)
+            ? entropy(colSums[col], colXLogX[col], colCells[col])
+            : 0;
+    }
+
+    /**
+     * Returns the entropy of the first {@code rows} rows and the first {@code
+     * columns} columns in the form computed by {@link
+     * edu.ucla.sspace.matrix.MatrixEntropy#entropy(
+     * edu.ucla.sspace.matrix.SparseMatrix)}, including the entropy of the
+     * whole matrix.
+     */
+    public synchronized EntropyStats entropy(int rows, int columns) {
+        double total = 0;
+        double totalXLogX = 0;
+        long totalCells = 0;
+        double[] rowEntropy = new double[rows];
+        for (int row = 0; row < Math.min(rows, rowSums.length); ++row) {
+            rowEntropy[row] =
+                entropy(rowSums[row], rowXLogX[row], rowCells[row]);
+            total += rowSums[row];
+            totalXLogX += rowXLogX[row];
+            totalCells += rowCells[row];
+        }
+        double[] colEntropy = new double[columns];
+        for (int col = 0; col < Math.min(columns, colSums.length); ++col)
+            colEntropy[col] =
+                entropy(colSums[col], colXLogX[col], colCells[col]);
+        return new EntropyStats(
+            entropy(total, totalXLogX, totalCells), colEntropy, rowEntropy);
+    }
+}
@@ -0,0 +1,230 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.ArrayMatrix;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.util.Arrays;
+
+
+/**
+ * Folds rows into a reduced space computed by a singular value decomposition
+ * {@code A = U Sigma V^T}.  A row {@code t} over the columns of {@code V^T} is
+ * projected to {@code Sigma^-1 V^T t}, the row of {@code U} it would have had
+ * if it had been part of {@code A}.<p>
+ *
+ * The product {@code Sigma^-1 V^T} is computed once, when the projection is
+ * created, and held as a dense array for as long as the projection is
+ * referenced.  It is stored transposed, so that each non-zero cell of a row
+ * adds a contiguous run of the array to the projected row.  {@link
+ * #project(Matrix)} projects all the rows of a matrix at once as a sparse by
+ * dense product, on blocks of rows in parallel, with the threads of the
+ * {@link edu.ucla.sspace.util.WorkQueue}.<p>
+ *
+ * The columns of {@code A}, such as the documents of a term-document matrix,
+ * are folded in with the projection created by {@link #ofLeftVectors(Matrix,
+ * Matrix) ofLeftVectors}: a column {@code d} over the rows of {@code U} is
+ * projected to {@code Sigma^-1 U^T d}.  A projection may be used by several
+ * threads at once.
+ */
+public class FoldInProjection {
+
+    private final int dimensions;
+
+    private final int columns;
+
+    /**
+     * The transpose of {@code Sigma^-1 V^T} in row-major order: the
+     * projection of column {@code c} starts at {@code c * dimensions}.
+     */
+    private final double[] projection;
+
+    /**
+     * Creates the projection into the space of the decomposition.  A zero
+     * singular value, which a decomposition may return for the dimensions
+     * the matrix does not have, projects to zero.
+     *
+     * @param sigma the diagonal matrix of the singular values
+     * @param Vt the transposed right singular vectors, with a row for each
+     *        singular value
+     */
+    public FoldInProjection(Matrix sigma, Matrix Vt) {
+        if (sigma.rows() != Vt.rows())
+            throw new IllegalArgumentException(
+                "The singular values do not match the right vectors: " +
+                sigma.rows() + " != " + Vt.rows());
+        dimensions = Vt.rows();
+        columns = Vt.columns();
+        if ((long) dimensions * columns > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "The right vectors are too large to be projected in memory");
+        projection = new double[dimensions * columns];
+        for (int i = 0; i < dimensions; ++i) {
+            double s = sigma.get(i, i);
+            double sigmaInv = (s == 0) ? 0 : 1d / s;
+            double[] row = Vt.getRow(i);
+            for (int c = 0; c < columns; ++c)
+                projection[c * dimensions + i] = sigmaInv * row[c];
+        }
+    }
+
+    private FoldInProjection(int dimensions, int columns,
+                             double[] projection) {
+        this.dimensions = dimensions;
+        this.columns = columns;
+        this.projection = projection;
+    }
+
+    /**
+     * Creates the projection of the columns of the decomposed matrix into the
+     * space of the decomposition, which projects a column {@code d} to {@code
+     * Sigma^-1 U^T d}, the row of {@code V} it would have had.  The {@link
+     * #columns()} of the projection are the rows of {@code U}.  A zero
+     * singular value projects to zero.
+     *
+     * @param sigma the diagonal matrix of the singular values
+     * @param U the left singular vectors, with a column for each singular
+     *        value
+     */
+    public static FoldInProjection ofLeftVectors(Matrix sigma, Matrix U) {
+        if (sigma.rows() != U.columns())
+            throw new IllegalArgumentException(
+                "The singular values do not match the left vectors: " +
+                sigma.rows() + " != " + U.columns());
+        int dimensions = U.columns();
+        int rows = U.rows();
+        if ((long) dimensions * rows > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "The left vectors are too large to be projected in memory");
+        double[] sigmaInv = new double[dimensions];
+        for (int i = 0; i < dimensions; ++i) {
+            double s = sigma.get(i, i);
+            sigmaInv[i] = (s == 0) ? 0 : 1d / s;
+        }
+        double[] projection = new double[dimensions * rows];
+        for (int r = 0; r < rows; ++r) {
+            double[] row = U.getRow(r);
+            for (int i = 0; i < dimensions; ++i)
+                projection[r * dimensions + i] = sigmaInv[i] * row[i];
+        }
+        return new FoldInProjection(dimensions, rows, projection);
+    }
+
+    /**
+     * Folds all the rows of the matrix into the space of the decomposition at
+     * once, with a projection that is released when it returns.
+     *
+     * @param sigma the diagonal matrix of the singular values, or {@code
+     *        null} if the matrix has not been decomposed yet
+     * @param Vt the transposed right singular vectors
+     * @param rows the rows to fold in, over the columns of {@code Vt}
+     *
+     * @throws IllegalStateException if the matrix has not been decomposed yet
+     */
+    public static Matrix foldIn(Matrix sigma, Matrix Vt, Matrix rows) {
+        if (sigma == null || Vt == null)
+            throw new IllegalStateException(
+                "processSpace has not been called, so the latent document " +
+                "space does not yet exist");
+        return new FoldInProjection(sigma, Vt).project(rows);
+    }
+
+    /**
+     * Returns the number of dimensions of the projected rows.
+     */
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the number of columns of the rows that may be projected.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Projects each row of the matrix, and returns the projected rows.  The
+     * matrix may have fewer columns than the projection, in which case the
+     * missing columns are taken to be zero.
+     *
+     * @throws IllegalArgumentException if the matrix has more columns than
+     *         the projection
+     */
+    public ArrayMatrix project(final Matrix matrix) {
+        if (matrix.columns() > columns)
+            throw new IllegalArgumentException(
+                "Cannot project rows of " + matrix.columns() +
+                " columns into a space of " + columns + " columns");
+        int rows = matrix.rows();
+        if ((long) rows * dimensions > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "Too many rows to be projected in memory: " + rows);
+        final double[] projected = new double[rows * dimensions];
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row)
+                    projectRow(matrix, row, projected, row * dimensions);
+            }
+        });
+        return new ArrayMatrix(rows, dimensions, projected);
+    }
+
+    /**
+     * Projects the vector, and returns the projected vector.  Only the
+     * non-zero cells of the vector are read, by increasing index.
+     *
+     * @throws IllegalArgumentException if the vector is longer than the
+     *         columns of the projection
+     */
+    public double[] project(SparseDoubleVector vector) {
+        if (vector.length() > columns)
+            throw new IllegalArgumentException(
+                "Cannot project a vector of length " + vector.length() +
+                " into a space of " + columns + " columns");
+        double[] projected = new double[dimensions];
+        int[] nonZero = vector.getNonZeroIndices().clone();
+        Arrays.sort(nonZero);
+        for (int col : nonZero)
+            add(col, vector.get(col), projected, 0);
+        return projected;
+    }
+
+    /**
+     * Adds the projection of the row of the matrix to {@code result}, from
+     * {@code offset} on.  The non-zero cells are added by increasing column.
+     */
+    private void projectRow(Matrix matrix, int row, double[] result,
+                            int offset) {
+        if (matrix instanceof CompressedSparseRowMatrix) {
+            CompressedSparseRowMatrix csr = (CompressedSparseRowMatrix) matrix;
+            int[] rowStarts = csr.rowStarts();
+            int[] columnIndices = csr.columnIndices();
+            double[] values = csr.values();
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i)
+                add(columnIndices[i], values[i], result, offset);
+        } else if (matrix instanceof SparseMatrix) {
+            SparseDoubleVector rowVec =
+                ((SparseMatrix) matrix).getRowVector(row);
+            int[] nonZero = rowVec.getNonZeroIndices().clone();
+            Arrays.sort(nonZero);
+            for (int col : nonZero)
+                add(col, rowVec.get(col), result, offset);
+        } else {
+            DoubleVector rowVec = matrix.getRowVector(row);
+            int length = rowVec.length();
+            for (int col = 0; col < length; ++col)
+                add(col, rowVec.get(col), result, offset);
+        }
+    }
+
+    private void add(int col, double value, double[] result, int offset) {
+        if (value == 0)
+            return;
+        int start = col * dimensions;
+        for (int i = 0; i < dimensions; ++i)
+            result[offset + i] += value * projection[start + i];
+    }
+}
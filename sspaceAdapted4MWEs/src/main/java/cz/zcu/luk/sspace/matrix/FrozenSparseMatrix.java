@@ -0,0 +1,441 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.vector.AbstractDoubleVector;
+import edu.ucla.sspace.vector.CompactSparseVector;
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable, read-optimized {@code SparseMatrix} for finished semantic
+ * spaces.  The non-zero cells are kept in compressed sparse row form, i.e. in
+ * a few contiguous primitive arrays, and the matrix may also keep them in
+ * compressed sparse column form to serve column lookups.  A {@link SparseRow}
+ * view of each row, and of each column if those are indexed, is created once
+ * when the matrix is frozen, so {@link #getRowVector(int)} returns without
+ * allocating or copying.<p>
+ *
+ * All modifying operations throw {@link UnsupportedOperationException}.
+ */
+public class FrozenSparseMatrix implements SparseMatrix, java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int rows;
+
+    private final int columns;
+
+    /**
+     * The view of every row.
+     */
+    private final SparseRow[] rowViews;
+
+    /**
+     * The view of every column, or {@code null} if the columns are not
+     * indexed.
+     */
+    private final SparseRow[] columnViews;
+
+    /**
+     * Creates the matrix from compressed sparse row arrays without any stored
+     * zeros.
+     */
+    private FrozenSparseMatrix(int rows, int columns, int[] rowStarts,
+                               int[] columnIndices, double[] values,
+                               boolean indexColumns) {
+        this.rows = rows;
+        this.columns = columns;
+        rowViews = views(rows, columns, rowStarts, columnIndices, values);
+        columnViews = (indexColumns)
+            ? transposedViews(rows, columns, rowStarts, columnIndices, values)
+            : null;
+    }
+
+    /**
+     * Returns an immutable copy of the matrix.  If the matrix is a {@link
+     * CompressedSparseRowMatrix} without stored zeros, its arrays are shared
+     * rather than copied, so it must not be modified afterwards.
+     *
+     * @param m the matrix to freeze
+     * @param indexColumns whether the columns should also be kept in
+     *        compressed form, which makes {@link #getColumnVector(int)}
+     *        allocation-free at the cost of a second copy of the cells
+     */
+    public static FrozenSparseMatrix freeze(SparseMatrix m,
+                                            boolean indexColumns) {
+        if (m instanceof FrozenSparseMatrix
+                && (!indexColumns
+                    || ((FrozenSparseMatrix) m).columnViews != null))
+            return (FrozenSparseMatrix) m;
+        int rows = m.rows();
+        int[] rowStarts = new int[rows + 1];
+        int[] columnIndices;
+        double[] values;
+
+        if (m instanceof CompressedSparseRowMatrix) {
+            CompressedSparseRowMatrix csr = (CompressedSparseRowMatrix) m;
+            int[] starts = csr.rowStarts();
+            int[] cols = csr.columnIndices();
+            double[] vals = csr.values();
+            int cells = 0;
+            for (int i = 0; i < starts[rows]; ++i)
+                if (vals[i] != 0)
+                    cells++;
+            if (cells == starts[rows])
+                return new FrozenSparseMatrix(
+                    rows, m.columns(), starts, cols, vals, indexColumns);
+            columnIndices = new int[cells];
+            values = new double[cells];
+            int n = 0;
+            for (int row = 0; row < rows; ++row) {
+                for (int i = starts[row]; i < starts[row + 1]; ++i) {
+                    if (vals[i] != 0) {
+                        columnIndices[n] = cols[i];
+                        values[n++] = vals[i];
+                    }
+                }
+                rowStarts[row + 1] = n;
+            }
+        }
+        else {
+            columnIndices = new int[1024];
+            values = new double[1024];
+            int n = 0;
+            for (int row = 0; row < rows; ++row) {
+                SparseDoubleVector sv = m.getRowVector(row);
+                int[] nonZero = sv.getNonZeroIndices();
+                Arrays.sort(nonZero);
+                if (n + nonZero.length > columnIndices.length) {
+                    int capacity = Math.max(
+                        columnIndices.length * 2, n + nonZero.length);
+                    columnIndices = Arrays.copyOf(columnIndices, capacity);
+                    values = Arrays.copyOf(values, capacity);
+                }
+                for (int col : nonZero) {
+                    double v = sv.get(col);
+                    if (v != 0) {
+                        columnIndices[n] = col;
+                        values[n++] = v;
+                    }
+                }
+                rowStarts[row + 1] = n;
+            }
+            columnIndices = Arrays.copyOf(columnIndices, n);
+            values = Arrays.copyOf(values, n);
+        }
+        return new FrozenSparseMatrix(rows, m.columns(), rowStarts,
+                                      columnIndices, values, indexColumns);
+    }
+
+    /**
+     * Creates a view of every row of the compressed arrays.
+     */
+    private static SparseRow[] views(int rows, int columns, int[] rowStarts,
+                                     int[] columnIndices, double[] values) {
+        SparseRow[] views = new SparseRow[rows];
+        for (int row = 0; row < rows; ++row)
+            views[row] = new SparseRow(columnIndices, values, rowStarts[row],
+                                       rowStarts[row + 1], columns);
+        return views;
+    }
+
+    /**
+     * Creates a view of every column of the compressed arrays by transposing
+     * them with a counting sort, which keeps the rows of each column in
+     * increasing order.
+     */
+    private static SparseRow[] transposedViews(int rows, int columns,
+                                               int[] rowStarts,
+                                               int[] columnIndices,
+                                               double[] values) {
+        int cells = rowStarts[rows];
+        int[] colStarts = new int[columns + 1];
+        for (int i = 0; i < cells; ++i)
+            colStarts[columnIndices[i] + 1]++;
+        for (int col = 0; col < columns; ++col)
+            colStarts[col + 1] += colStarts[col];
+        int[] rowIndices = new int[cells];
+        double[] colValues = new double[cells];
+        int[] next = Arrays.copyOf(colStarts, columns);
+        for (int row = 0; row < rows; ++row) {
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i) {
+                int j = next[columnIndices[i]]++;
+                rowIndices[j] = row;
+                colValues[j] = values[i];
+            }
+        }
+        return views(columns, rows, colStarts, rowIndices, colValues);
+    }
+
+    private static UnsupportedOperationException immutable() {
+        return new UnsupportedOperationException(
+            "A frozen matrix cannot be modified");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double get(int row, int col) {
+        if (col < 0 || col >= columns)
+            throw new IndexOutOfBoundsException(
+                "(" + row + ", " + col + ") is outside of the matrix");
+        return getRowVector(row).get(col);
+    }
+
+    /**
+     * Throws {@link UnsupportedOperationException}.
+     */
+    public void set(int row, int col, double val) {
+        throw immutable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[] getRow(int row) {
+        return getRowVector(row).toArray();
+    }
+
+    /**
+     * Returns the shared, immutable view of the row.
+     */
+    public SparseRow getRowVector(int row) {
+        if (row < 0 || row >= rows)
+            throw new IndexOutOfBoundsException("Row is outside of the matrix");
+        return rowViews[row];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[] getColumn(int column) {
+        return getColumnVector(column).toArray();
+    }
+
+    /**
+     * Returns an immutable view of the column.  The view is shared if the
+     * columns are indexed; otherwise every row is searched for the column.
+     */
+    public SparseDoubleVector getColumnVector(int column) {
+        if (column < 0 || column >= columns)
+            throw new IndexOutOfBoundsException(
+                "Column is outside of the matrix");
+        if (columnViews != null)
+            return columnViews[column];
+        int n = 0;
+        for (int row = 0; row < rows; ++row)
+            if (rowViews[row].get(column) != 0)
+                n++;
+        int[] rowIndices = new int[n];
+        double[] colValues = new double[n];
+        n = 0;
+        for (int row = 0; row < rows; ++row) {
+            double v = rowViews[row].get(column);
+            if (v != 0) {
+                rowIndices[n] = row;
+                colValues[n++] = v;
+            }
+        }
+        return new SparseRow(rowIndices, colValues, 0, n, rows);
+    }
+
+    /**
+     * Throws {@link UnsupportedOperationException}.
+     */
+    public void setRow(int row, double[] columns) {
+        throw immutable();
+    }
+
+    /**
+     * Throws {@link UnsupportedOperationException}.
+     */
+    public void setRow(int row, DoubleVector colValues) {
+        throw immutable();
+    }
+
+    /**
+     * Throws {@link UnsupportedOperationException}.
+     */
+    public void setColumn(int column, double[] values) {
+        throw immutable();
+    }
+
+    /**
+     * Throws {@link UnsupportedOperationException}.
+     */
+    public void setColumn(int column, DoubleVector rowValues) {
+        throw immutable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[][] toDenseArray() {
+        double[][] m = new double[rows][];
+        for (int row = 0; row < rows; ++row)
+            m[row] = rowViews[row].toArray();
+        return m;
+    }
+
+    /**
+     * An immutable view of a row, or column, of a {@link FrozenSparseMatrix}.
+     * The view reads the shared arrays of the matrix directly, and its
+     * magnitude is computed once when it is created.
+     */
+    public static final class SparseRow extends AbstractDoubleVector
+            implements SparseDoubleVector, java.io.Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] indices;
+
+        private final double[] values;
+
+        private final int from;
+
+        private final int to;
+
+        private final int length;
+
+        private final double magnitude;
+
+        SparseRow(int[] indices, double[] values, int from, int to,
+                  int length) {
+            this.indices = indices;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.length = length;
+            double m = 0;
+            for (int i = from; i < to; ++i)
+                m += values[i] * values[i];
+            this.magnitude = Math.sqrt(m);
+        }
+
+        /**
+         * Returns the dot product of two views, computed by merging their
+         * sorted indices.
+         */
+        public static double dotProduct(SparseRow a, SparseRow b) {
+            if (a.length != b.length)
+                throw new IllegalArgumentException(
+                    "Vectors are of different lengths");
+            double dot = 0;
+            int i = a.from;
+            int j = b.from;
+            while (i < a.to && j < b.to) {
+                int ai = a.indices[i];
+                int bj = b.indices[j];
+                if (ai == bj)
+                    dot += a.values[i++] * b.values[j++];
+                else if (ai < bj)
+                    i++;
+                else
+                    j++;
+            }
+            return dot;
+        }
+
+        /**
+         * Returns the cosine similarity of two views without allocating,
+         * which equals {@link edu.ucla.sspace.common.Similarity#cosineSimilarity(
+         * DoubleVector, DoubleVector)} for them.
+         */
+        public static double cosineSimilarity(SparseRow a, SparseRow b) {
+            double dot = dotProduct(a, b);
+            return (a.magnitude == 0 || b.magnitude == 0)
+                ? 0
+                : dot / (a.magnitude * b.magnitude);
+        }
+
+        /**
+         * Throws {@link UnsupportedOperationException}.
+         */
+        public double add(int index, double delta) {
+            throw immutable();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public double get(int index) {
+            if (index < 0 || index >= length)
+                throw new IndexOutOfBoundsException(
+                    "Index " + index + " is outside of the vector");
+            int i = Arrays.binarySearch(indices, from, to, index);
+            return (i < 0) ? 0 : values[i];
+        }
+
+        /**
+         * Returns a copy of the indices of the non-zero values, in increasing
+         * order.
+         */
+        public int[] getNonZeroIndices() {
+            return Arrays.copyOfRange(indices, from, to);
+        }
+
+        /**
+         * Returns a modifiable copy of the vector.
+         */
+        public SparseDoubleVector instanceCopy() {
+            return new CompactSparseVector(
+                getNonZeroIndices(), Arrays.copyOfRange(values, from, to),
+                length);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public double magnitude() {
+            return magnitude;
+        }
+
+        /**
+         * Throws {@link UnsupportedOperationException}.
+         */
+        public void set(int index, double value) {
+            throw immutable();
+        }
+
+        /**
+         * Throws {@link UnsupportedOperationException}.
+         */
+        public void set(int index, Number value) {
+            throw immutable();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public double[] toArray() {
+            double[] array = new double[length];
+            for (int i = from; i < to; ++i)
+                array[indices[i]] = values[i];
+            return array;
+        }
+    }
+}
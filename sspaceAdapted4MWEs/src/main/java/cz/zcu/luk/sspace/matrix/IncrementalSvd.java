@@ -0,0 +1,380 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.ArrayMatrix;
+import edu.ucla.sspace.matrix.DiagonalMatrix;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * A truncated singular value decomposition {@code A = U Sigma V^T} of rank
+ * {@code k} to which new columns of {@code A}, such as new documents of a
+ * term-document matrix, are added without decomposing {@code A} again.  The
+ * new columns are either folded in or added by a rank-{@code k} update:
+ * <ul>
+ *
+ *   <li> {@link #foldIn(SparseDoubleVector[]) foldIn} adds the row {@code
+ *        Sigma^-1 U^T d} to {@code V} for each new column {@code d}, and
+ *        leaves {@code U} and {@code Sigma} unchanged.  It is cheap, but the
+ *        decomposition drifts from the one of the grown matrix as more
+ *        columns are folded in.
+ *
+ *   <li> {@link #update(SparseDoubleVector[]) update} computes the rank-{@code
+ *        k} decomposition of {@code [U Sigma V^T, C]} for the new columns
+ *        {@code C}, as described by Brand (2006), Fast low-rank modifications
+ *        of the thin singular value decomposition, <i>Linear Algebra and its
+ *        Applications</i>, <b>415</b>, 20-30.  The part {@code H} of {@code
+ *        C} outside of the span of {@code U} is decomposed as {@code J K}, the
+ *        small matrix {@code [[Sigma, U^T C], [0, K]]} is decomposed, and its
+ *        singular vectors rotate {@code [U, J]} and {@code V}.
+ *
+ * </ul>
+ *
+ * The columns are updated in blocks of {@value #COLUMNS_PER_UPDATE}, and each
+ * block takes a dense {@code rows} by {@value #COLUMNS_PER_UPDATE} matrix
+ * besides the decomposition.  The factors are held as dense row-major arrays,
+ * and the products with them run on blocks of rows in parallel with the
+ * threads of the {@link edu.ucla.sspace.util.WorkQueue}.
+ */
+public class IncrementalSvd implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of new columns added by one rank-{@code k} update.
+     */
+    static final int COLUMNS_PER_UPDATE = 256;
+
+    private final int rows;
+
+    private final int dimensions;
+
+    private int columns;
+
+    /**
+     * The left singular vectors, {@code rows} by {@code dimensions}.
+     */
+    private final double[] u;
+
+    private final double[] sigma;
+
+    /**
+     * The right singular vectors, {@code columns} by {@code dimensions}, in
+     * an array which may have room for more columns.
+     */
+    private double[] v;
+
+    /**
+     * Creates the decomposition from its factors, which are copied.
+     *
+     * @param U the left singular vectors
+     * @param sigma the diagonal matrix of the singular values
+     * @param Vt the transposed right singular vectors
+     */
+    public IncrementalSvd(Matrix U, Matrix sigma, Matrix Vt) {
+        if (U.columns() != sigma.rows() || Vt.rows() != sigma.rows())
+            throw new IllegalArgumentException(
+                "The singular vectors do not match the singular values");
+        rows = U.rows();
+        dimensions = sigma.rows();
+        columns = Vt.columns();
+        checkSize(rows);
+        checkSize(columns);
+        u = new double[rows * dimensions];
+        for (int r = 0; r < rows; ++r)
+            System.arraycopy(U.getRow(r), 0, u, r * dimensions, dimensions);
+        this.sigma = new double[dimensions];
+        for (int i = 0; i < dimensions; ++i)
+            this.sigma[i] = sigma.get(i, i);
+        v = new double[columns * dimensions];
+        for (int i = 0; i < dimensions; ++i) {
+            double[] row = Vt.getRow(i);
+            for (int c = 0; c < columns; ++c)
+                v[c * dimensions + i] = row[c];
+        }
+    }
+
+    private void checkSize(int count) {
+        if ((long) count * dimensions > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "The decomposition is too large to be held in memory");
+    }
+
+    /**
+     * Returns the number of rows of the decomposed matrix.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns of the decomposed matrix, including the
+     * added columns.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the rank of the decomposition.
+     */
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns a copy of the left singular vectors.
+     */
+    public Matrix getLeftVectors() {
+        return new ArrayMatrix(rows, dimensions, u.clone());
+    }
+
+    /**
+     * Returns the diagonal matrix of the singular values.
+     */
+    public Matrix getSingularValues() {
+        return new DiagonalMatrix(sigma.clone());
+    }
+
+    /**
+     * Returns a copy of the transposed right singular vectors.
+     */
+    public Matrix getRightVectors() {
+        return transposedV(false);
+    }
+
+    /**
+     * Returns the left singular vectors scaled by the singular values, {@code
+     * U Sigma}, which are the rows of the reduced space, such as the words of
+     * a term-document matrix.
+     */
+    public Matrix dataClasses() {
+        double[] scaled = new double[rows * dimensions];
+        for (int r = 0; r < rows; ++r)
+            for (int i = 0; i < dimensions; ++i)
+                scaled[r * dimensions + i] =
+                    u[r * dimensions + i] * sigma[i];
+        return new ArrayMatrix(rows, dimensions, scaled);
+    }
+
+    /**
+     * Returns the transposed right singular vectors scaled by the singular
+     * values, {@code Sigma V^T}, whose columns are the columns of the reduced
+     * space, such as the documents of a term-document matrix.
+     */
+    public Matrix classFeatures() {
+        return transposedV(true);
+    }
+
+    private Matrix transposedV(boolean scaled) {
+        double[] vt = new double[dimensions * columns];
+        for (int c = 0; c < columns; ++c)
+            for (int i = 0; i < dimensions; ++i)
+                vt[i * columns + c] = (scaled)
+                    ? sigma[i] * v[c * dimensions + i]
+                    : v[c * dimensions + i];
+        return new ArrayMatrix(dimensions, columns, vt);
+    }
+
+    /**
+     * Folds the columns into the decomposition: each column {@code d} adds
+     * the row {@code Sigma^-1 U^T d} to {@code V}.  A zero singular value
+     * projects to zero.
+     *
+     * @param newColumns the columns, of at most {@link #rows()} cells
+     */
+    public void foldIn(final SparseDoubleVector[] newColumns) {
+        final double[] projected = leftProducts(newColumns);
+        final double[] sigmaInv = new double[dimensions];
+        for (int i = 0; i < dimensions; ++i)
+            sigmaInv[i] = (sigma[i] == 0) ? 0 : 1d / sigma[i];
+        RowBlocks.forEachBlock(newColumns.length, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int j = from; j < to; ++j)
+                    for (int i = 0; i < dimensions; ++i)
+                        projected[j * dimensions + i] *= sigmaInv[i];
+            }
+        });
+        appendV(projected, newColumns.length);
+    }
+
+    /**
+     * Adds the columns to the decomposed matrix, and updates the rank-{@code
+     * k} decomposition to the one of the grown matrix, in blocks of {@value
+     * #COLUMNS_PER_UPDATE} columns.
+     *
+     * @param newColumns the columns, of at most {@link #rows()} cells
+     */
+    public void update(SparseDoubleVector[] newColumns) {
+        for (int from = 0; from < newColumns.length;
+                from += COLUMNS_PER_UPDATE) {
+            int to = Math.min(from + COLUMNS_PER_UPDATE, newColumns.length);
+            updateBlock(Arrays.copyOfRange(newColumns, from, to));
+        }
+    }
+
+    private void updateBlock(final SparseDoubleVector[] block) {
+        final int c = block.length;
+        final int k = dimensions;
+        final int l = k + c;
+
+        // The projections of the columns onto U, L = U^T C, stored as its
+        // c by k transpose
+        final double[] lt = leftProducts(block);
+
+        // The residual H = C - U L, and its decomposition H = J K
+        final double[] h = new double[rows * c];
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int r = from; r < to; ++r) {
+                    int offset = r * k;
+                    for (int j = 0; j < c; ++j) {
+                        double sum = 0;
+                        for (int i = 0; i < k; ++i)
+                            sum += u[offset + i] * lt[j * k + i];
+                        h[r * c + j] = -sum;
+                    }
+                }
+            }
+        });
+        for (int j = 0; j < c; ++j)
+            for (int r : block[j].getNonZeroIndices())
+                h[r * c + j] += block[j].get(r);
+        double[] kFactor = new double[c * c];
+        SingularValueDecompositionRandomized.orthonormalize(h, rows, c,
+                                                            kFactor);
+
+        // The middle matrix [[Sigma, L], [0, K]] and its decomposition
+        double[] middle = new double[l * l];
+        for (int i = 0; i < k; ++i) {
+            middle[i * l + i] = sigma[i];
+            for (int j = 0; j < c; ++j)
+                middle[i * l + k + j] = lt[j * k + i];
+        }
+        for (int a = 0; a < c; ++a)
+            for (int b = 0; b < c; ++b)
+                middle[(k + a) * l + k + b] = kFactor[a * c + b];
+        final double[] um = new double[l * l];
+        final double[] vm = new double[l * l];
+        final double[] s = new double[l];
+        SingularValueDecompositionRandomized.jacobi(middle, l, um, s, vm);
+
+        Integer[] order = new Integer[l];
+        for (int j = 0; j < l; ++j)
+            order[j] = j;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(s[o2], s[o1]);
+            }
+        });
+        final int[] kept = new int[k];
+        for (int q = 0; q < k; ++q) {
+            kept[q] = order[q];
+            sigma[q] = s[kept[q]];
+        }
+
+        // U <- [U, J] Um, keeping the largest singular values
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                double[] row = new double[k];
+                for (int r = from; r < to; ++r) {
+                    int offset = r * k;
+                    for (int q = 0; q < k; ++q) {
+                        int col = kept[q];
+                        double sum = 0;
+                        for (int i = 0; i < k; ++i)
+                            sum += u[offset + i] * um[i * l + col];
+                        for (int j = 0; j < c; ++j)
+                            sum += h[r * c + j] * um[(k + j) * l + col];
+                        row[q] = sum;
+                    }
+                    System.arraycopy(row, 0, u, offset, k);
+                }
+            }
+        });
+
+        // V <- [[V, 0], [0, I]] Vm, keeping the largest singular values
+        final double[] rotated = v;
+        RowBlocks.forEachBlock(columns, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                double[] row = new double[k];
+                for (int r = from; r < to; ++r) {
+                    int offset = r * k;
+                    for (int q = 0; q < k; ++q) {
+                        int col = kept[q];
+                        double sum = 0;
+                        for (int i = 0; i < k; ++i)
+                            sum += rotated[offset + i] * vm[i * l + col];
+                        row[q] = sum;
+                    }
+                    System.arraycopy(row, 0, rotated, offset, k);
+                }
+            }
+        });
+        double[] added = new double[c * k];
+        for (int j = 0; j < c; ++j)
+            for (int q = 0; q < k; ++q)
+                added[j * k + q] = vm[(k + j) * l + kept[q]];
+        appendV(added, c);
+    }
+
+    /**
+     * Returns the products {@code U^T d} of the columns, as the rows of a
+     * row-major matrix.  The cells of each column are added by increasing
+     * row.
+     */
+    private double[] leftProducts(final SparseDoubleVector[] newColumns) {
+        for (SparseDoubleVector column : newColumns)
+            if (column.length() > rows)
+                throw new IllegalArgumentException(
+                    "Cannot add a column of length " + column.length() +
+                    " to a matrix of " + rows + " rows");
+        final double[] products = new double[newColumns.length * dimensions];
+        RowBlocks.forEachBlock(newColumns.length, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int j = from; j < to; ++j) {
+                    int offset = j * dimensions;
+                    int[] nonZero =
+                        newColumns[j].getNonZeroIndices().clone();
+                    Arrays.sort(nonZero);
+                    for (int r : nonZero) {
+                        double value = newColumns[j].get(r);
+                        int uOffset = r * dimensions;
+                        for (int i = 0; i < dimensions; ++i)
+                            products[offset + i] += value * u[uOffset + i];
+                    }
+                }
+            }
+        });
+        return products;
+    }
+
+    /**
+     * Adds the rows to {@code V}, growing its array when it is full.
+     */
+    private void appendV(double[] added, int count) {
+        checkSize(columns + count);
+        int needed = (columns + count) * dimensions;
+        if (needed > v.length) {
+            long capacity = Math.max((long) v.length * 2, needed);
+            v = Arrays.copyOf(v, (int) Math.min(capacity, Integer.MAX_VALUE));
+        }
+        System.arraycopy(added, 0, v, columns * dimensions,
+                         count * dimensions);
+        columns += count;
+    }
+
+    /**
+     * Drops the room for more columns before the decomposition is written.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (v.length != columns * dimensions)
+            v = Arrays.copyOf(v, columns * dimensions);
+        out.defaultWriteObject();
+    }
+}
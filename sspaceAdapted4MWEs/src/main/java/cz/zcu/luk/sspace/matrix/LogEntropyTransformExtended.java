@@ -72,9 +72,6 @@ public class LogEntropyTransformExtended extends BaseTransformExtended
 
     private static final long serialVersionUID = 1L;
 
-    // LK added
-    private double entropyForGivenRowCashed;
-
     /**
      * The logger for reporting the status of the transformation.
      */
@@ -306,11 +303,11 @@ public class LogEntropyTransformExtended extends BaseTransformExtended
 
                     // Scale the entropy by the log of the number of columns.
                     entropyForGivenRow = 1 + (entropyForGivenRow / log2(row.length()));
-                    entropyForGivenRowCashed = entropyForGivenRow;
+                    setRowCache(entropyForGivenRow);
                     System.out.print("!");
                 }
                 else {
-                    entropyForGivenRow = entropyForGivenRowCashed;
+                    entropyForGivenRow = getRowCache();
                 }
 
                 if (row.get(column) == 0d) {
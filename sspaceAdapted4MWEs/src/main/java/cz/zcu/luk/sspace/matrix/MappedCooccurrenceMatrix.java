@@ -0,0 +1,773 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.vector.DoubleVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+import edu.ucla.sspace.vector.SparseHashDoubleVector;
+import edu.ucla.sspace.vector.Vectors;
+
+import java.io.File;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A concurrent, thread-safe, growable {@code SparseMatrix} whose entries are
+ * kept off the Java heap in memory-mapped files, so that the size of the
+ * co-occurrence matrix is bounded by the available disk space and page cache
+ * rather than by the heap.<p>
+ *
+ * Every non-zero cell is stored once as a fixed-size record holding the packed
+ * (row, column) key, the value and the previous records of the same row and of
+ * the same column.  The records are appended to a single file and never move,
+ * which chains the cells of each row and of each column together; the heads of
+ * the chains are kept in two more mapped files.  Cells are located through open-addressing tables of record
+ * numbers, one per stripe, which are mapped files as well and are rehashed
+ * into a new file when they fill up.  The stripe of a cell is selected by its
+ * row, so all updates of a row are guarded by the same lock, and the chain of
+ * a column is extended under a lock selected by the column.<p>
+ *
+ * Row and column operations therefore run in {@code O(k)}, where {@code k} is
+ * the number of non-zero entries in the row or column, which is what {@code
+ * retainColumns}-style post-processing needs to stream the matrix row by row
+ * without an on-heap copy.  Cells whose value returns to zero keep their
+ * record and are skipped when read.<p>
+ *
+ * The backing files are created in the provided directory and unlinked as
+ * soon as they are mapped; their space is reclaimed once the mappings are
+ * garbage collected or the JVM exits.  At most {@link Integer#MAX_VALUE}
+ * distinct cells can be stored, and at most half of {@value
+ * #MAX_STRIPE_CAPACITY} in the rows of one stripe; adding more throws an
+ * {@link IllegalStateException}.
+ *
+ * @see CooccurrenceMatrices
+ */
+public class MappedCooccurrenceMatrix implements CooccurrenceMatrix {
+
+    /**
+     * The number of bytes of a record: the packed key, the value and the
+     * numbers of the previous records of the row and of the column plus one.
+     */
+    private static final int RECORD_BYTES = 24;
+
+    /**
+     * The number of records mapped at once.
+     */
+    private static final int RECORDS_PER_CHUNK = (1 << 26) / RECORD_BYTES;
+
+    /**
+     * The number of row or column heads mapped at once.
+     */
+    private static final int HEADS_PER_CHUNK = 1 << 20;
+
+    /**
+     * The initial number of slots of each stripe table.
+     */
+    private static final int INITIAL_STRIPE_CAPACITY = 1024;
+
+    /**
+     * The largest number of slots of a stripe table, which keeps the table
+     * within a single mapping.
+     */
+    private static final int MAX_STRIPE_CAPACITY = 1 << 28;
+
+    /**
+     * The directory holding the backing files, or {@code null} for the
+     * default temporary directory.
+     */
+    private final File directory;
+
+    /**
+     * The cell records, in order of creation.
+     */
+    private final MappedRegion records;
+
+    /**
+     * The number of the last record of each row plus one, or zero if the row
+     * is empty.
+     */
+    private final MappedRegion rowHeads;
+
+    /**
+     * The number of the last record of each column plus one, or zero if the
+     * column is empty.
+     */
+    private final MappedRegion columnHeads;
+
+    /**
+     * The locks guarding the heads of the columns.  The number of locks is
+     * always a power of two.
+     */
+    private final Object[] columnLocks;
+
+    /**
+     * The number of records created so far.
+     */
+    private final AtomicInteger recordCount;
+
+    /**
+     * The stripes locating the records.  The number of stripes is always a
+     * power of two.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The number of low-order bits of the hash used to select the stripe.
+     */
+    private final int stripeMask;
+
+    /**
+     * The number of rows represented in this matrix.
+     */
+    private final AtomicInteger rows;
+
+    /**
+     * The number of columns represented in this matrix.
+     */
+    private final AtomicInteger cols;
+
+    /**
+     * Creates a {@code MappedCooccurrenceMatrix} with 0 rows and 0 columns
+     * whose files are kept in the default temporary directory.
+     */
+    public MappedCooccurrenceMatrix() {
+        this(null);
+    }
+
+    /**
+     * Creates a {@code MappedCooccurrenceMatrix} with 0 rows and 0 columns
+     * whose files are kept in {@code directory}, using a number of stripes
+     * based on the available processors.
+     *
+     * @param directory the directory for the backing files, or {@code null}
+     *        for the default temporary directory
+     */
+    public MappedCooccurrenceMatrix(File directory) {
+        this(directory,
+             (System.getenv().get("PBS_NUM_PPN") == null ?
+                Runtime.getRuntime().availableProcessors() :
+                (Integer.parseInt(System.getenv().get("PBS_NUM_PPN")) - 1))
+             * 16);
+    }
+
+    /**
+     * Creates a {@code MappedCooccurrenceMatrix} with 0 rows and 0 columns
+     * whose files are kept in {@code directory}, using at least {@code
+     * concurrencyLevel} stripes.
+     *
+     * @param directory the directory for the backing files, or {@code null}
+     *        for the default temporary directory
+     * @param concurrencyLevel the estimated number of concurrently updating
+     *        threads times the desired number of stripes per thread
+     */
+    public MappedCooccurrenceMatrix(File directory, int concurrencyLevel) {
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException(
+                "concurrencyLevel must be positive: " + concurrencyLevel);
+        this.directory = directory;
+        records = new MappedRegion(
+            directory, "cooc-records", RECORDS_PER_CHUNK * RECORD_BYTES);
+        rowHeads = new MappedRegion(
+            directory, "cooc-rows", HEADS_PER_CHUNK * 4);
+        columnHeads = new MappedRegion(
+            directory, "cooc-cols", HEADS_PER_CHUNK * 4);
+        recordCount = new AtomicInteger(0);
+
+        int numStripes = 1;
+        while (numStripes < concurrencyLevel)
+            numStripes <<= 1;
+        stripes = new Stripe[numStripes];
+        for (int i = 0; i < numStripes; ++i)
+            stripes[i] = new Stripe();
+        stripeMask = numStripes - 1;
+        columnLocks = new Object[numStripes];
+        for (int i = 0; i < numStripes; ++i)
+            columnLocks[i] = new Object();
+
+        rows = new AtomicInteger(0);
+        cols = new AtomicInteger(0);
+    }
+
+    /**
+     * Packs the row and column into a single non-negative key.
+     */
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Spreads the bits of the key so that both the stripe and the slot within
+     * the stripe are well distributed.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Returns the stripe responsible for the cells of the provided row.
+     */
+    private Stripe stripeFor(int row) {
+        return stripes[(int) (mix(row) >>> 40) & stripeMask];
+    }
+
+    /**
+     * Returns the lock guarding the head of the provided column.
+     */
+    private Object columnLockFor(int col) {
+        return columnLocks[(int) (mix(col) >>> 40) & stripeMask];
+    }
+
+    private ByteBuffer recordChunk(int record) {
+        return records.chunk(record / RECORDS_PER_CHUNK);
+    }
+
+    private static int recordOffset(int record) {
+        return (record % RECORDS_PER_CHUNK) * RECORD_BYTES;
+    }
+
+    private long keyOf(int record) {
+        return recordChunk(record).getLong(recordOffset(record));
+    }
+
+    private double valueOf(int record) {
+        return recordChunk(record).getDouble(recordOffset(record) + 8);
+    }
+
+    private void setValue(int record, double value) {
+        recordChunk(record).putDouble(recordOffset(record) + 8, value);
+    }
+
+    /**
+     * Returns the number of the previous record of the same row plus one, or
+     * zero if the record is the first of its row.
+     */
+    private int previousOf(int record) {
+        return recordChunk(record).getInt(recordOffset(record) + 16);
+    }
+
+    /**
+     * Returns the number of the previous record of the same column plus one,
+     * or zero if the record is the first of its column.
+     */
+    private int previousInColumnOf(int record) {
+        return recordChunk(record).getInt(recordOffset(record) + 20);
+    }
+
+    private int rowHead(int row) {
+        return rowHeads.chunk(row / HEADS_PER_CHUNK)
+            .getInt((row % HEADS_PER_CHUNK) * 4);
+    }
+
+    private void setRowHead(int row, int head) {
+        rowHeads.chunk(row / HEADS_PER_CHUNK)
+            .putInt((row % HEADS_PER_CHUNK) * 4, head);
+    }
+
+    private int columnHead(int col) {
+        return columnHeads.chunk(col / HEADS_PER_CHUNK)
+            .getInt((col % HEADS_PER_CHUNK) * 4);
+    }
+
+    private void setColumnHead(int col, int head) {
+        columnHeads.chunk(col / HEADS_PER_CHUNK)
+            .putInt((col % HEADS_PER_CHUNK) * 4, head);
+    }
+
+    /**
+     * Appends a record for a new cell and links it into its row and column.
+     * Must be called while holding the lock of the row's stripe.
+     *
+     * @return the number of the new record
+     */
+    private int append(int row, int col, double value) {
+        int record = recordCount.getAndIncrement();
+        if (record < 0)
+            throw new IllegalStateException(
+                "Too many non-zero cells for a mapped co-occurrence matrix");
+        ByteBuffer chunk = recordChunk(record);
+        int offset = recordOffset(record);
+        chunk.putLong(offset, key(row, col));
+        chunk.putDouble(offset + 8, value);
+        chunk.putInt(offset + 16, rowHead(row));
+        setRowHead(row, record + 1);
+        synchronized (columnLockFor(col)) {
+            chunk.putInt(offset + 20, columnHead(col));
+            setColumnHead(col, record + 1);
+        }
+        return record;
+    }
+
+    /**
+     * Stores the value of the cell.  Must be called while holding the lock of
+     * the row's stripe.
+     *
+     * @return the previous value of the cell
+     */
+    private double put(Stripe s, int row, int col, double value) {
+        long k = key(row, col);
+        int record = s.find(k);
+        if (record < 0) {
+            if (value != 0) {
+                if (s.isFull())
+                    throw new IllegalStateException(
+                        "Too many non-zero cells in the rows of a stripe of " +
+                        "a mapped co-occurrence matrix");
+                s.insert(k, append(row, col, value));
+            }
+            return 0;
+        }
+        double oldVal = valueOf(record);
+        setValue(record, value);
+        return oldVal;
+    }
+
+    /**
+     * Returns the value of the cell.  Must be called while holding the lock of
+     * the row's stripe.
+     */
+    private double get(Stripe s, int row, int col) {
+        int record = s.find(key(row, col));
+        return (record < 0) ? 0 : valueOf(record);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double addAndGet(int row, int col, double delta) {
+        checkIndices(row, col, true);
+        Stripe s = stripeFor(row);
+        s.lock();
+        try {
+            double newVal = get(s, row, col) + delta;
+            put(s, row, col, newVal);
+            return newVal;
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getAndAdd(int row, int col, double delta) {
+        checkIndices(row, col, true);
+        Stripe s = stripeFor(row);
+        s.lock();
+        try {
+            double oldVal = get(s, row, col);
+            put(s, row, col, oldVal + delta);
+            return oldVal;
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * Verify that the given row and column value is non-negative, and
+     * optionally expand the size of the matrix if the row or column are outside
+     * the current bounds.
+     */
+    private void checkIndices(int row, int col, boolean expand) {
+         if (row < 0 || col < 0) {
+             throw new ArrayIndexOutOfBoundsException();
+         }
+         if (expand) {
+             int r = row + 1;
+             int cur = 0;
+             while (r > (cur = rows.get()) && !rows.compareAndSet(cur, r))
+                 ;
+             int c = col + 1;
+             cur = 0;
+             while (c > (cur = cols.get()) && !cols.compareAndSet(cur, c))
+                 ;
+         }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int columns() {
+        return cols.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int rows() {
+        return rows.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double get(int row, int col) {
+        checkIndices(row, col, false);
+        if (row >= rows.get())
+            return 0;
+        Stripe s = stripeFor(row);
+        s.lock();
+        try {
+            return get(s, row, col);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void set(int row, int col, double val) {
+        checkIndices(row, col, true);
+        Stripe s = stripeFor(row);
+        s.lock();
+        try {
+            put(s, row, col, val);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * Acquires the locks of all stripes, in index order.
+     */
+    private void lockAll() {
+        for (Stripe s : stripes)
+            s.lock();
+    }
+
+    /**
+     * Releases the locks of all stripes.
+     */
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; --i)
+            stripes[i].unlock();
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned column reflects the size of
+     * matrix at the time of the call, which may be different from earlier calls
+     * to {@link #rows()}
+     */
+    public double[] getColumn(int column) {
+        return getColumnVector(column).toArray();
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned row vector reflects the size of
+     * matrix at the time of the call, which may be different from earlier calls
+     * to {@link #rows()}.
+     */
+    public SparseDoubleVector getColumnVector(int column) {
+        checkIndices(0, column, false);
+        lockAll();
+        try {
+            return getColumnVectorUnsafe(column);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SparseDoubleVector getColumnVectorUnsafe(int column) {
+        SparseDoubleVector colVec = new SparseHashDoubleVector(rows.get());
+        if (column >= cols.get())
+            return colVec;
+        for (int r = columnHead(column); r != 0;
+                 r = previousInColumnOf(r - 1)) {
+            double value = valueOf(r - 1);
+            if (value != 0)
+                colVec.set((int) (keyOf(r - 1) >>> 32), value);
+        }
+        return colVec;
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned row reflects the size of matrix
+     * at the time of the call, which may be different from earlier calls to
+     * {@link #columns()}.
+     */
+    public double[] getRow(int row) {
+        return getRowVector(row).toArray();
+    }
+
+    /**
+     * {@inheritDoc} The length of the returned row vector reflects the size of
+     * matrix at the time of the call, which may be different from earlier calls
+     * to {@link #columns()}.
+     */
+    public SparseDoubleVector getRowVector(int row) {
+        checkIndices(row, 0, false);
+        if (row >= rows.get())
+            return new SparseHashDoubleVector(cols.get());
+        Stripe s = stripeFor(row);
+        s.lock();
+        try {
+            return getRowVectorUnsafe(row);
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SparseDoubleVector getRowVectorUnsafe(int row) {
+        SparseDoubleVector rowVec = new SparseHashDoubleVector(cols.get());
+        if (row >= rows.get())
+            return rowVec;
+        for (int r = rowHead(row); r != 0; r = previousOf(r - 1)) {
+            double value = valueOf(r - 1);
+            if (value != 0)
+                rowVec.set((int) keyOf(r - 1), value);
+        }
+        return rowVec;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumn(int column, double[] values) {
+        setColumn(column, Vectors.asVector(values));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setColumn(int column, DoubleVector rowValues) {
+        checkIndices(rowValues.length(), column, true);
+        int r = rows.get();
+        lockAll();
+        try {
+            for (int row = 0; row < r; ++row)
+                put(stripeFor(row), row, column, rowValues.get(row));
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRow(int row, double[] columns) {
+        setRow(row, Vectors.asVector(columns));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setRow(int row, DoubleVector colValues) {
+        checkIndices(row, colValues.length(), true);
+        int c = cols.get();
+        Stripe s = stripeFor(row);
+        s.lock();
+        try {
+            for (int col = 0; col < c; ++col)
+                put(s, row, col, colValues.get(col));
+        } finally {
+            s.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double[][] toDenseArray() {
+        lockAll();
+        try {
+            int r = rows.get();
+            int c = cols.get();
+            double[][] m = new double[r][c];
+            int n = recordCount.get();
+            for (int record = 0; record < n; ++record) {
+                long k = keyOf(record);
+                int row = (int) (k >>> 32);
+                int col = (int) k;
+                if (row < r && col < c)
+                    m[row][col] = valueOf(record);
+            }
+            return m;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * A lock-guarded linear-probing hash table from packed keys to record
+     * numbers, stored in a mapped file.  Slots hold the record number plus one,
+     * so that an unused slot reads as zero.  All methods must be called while
+     * holding the lock.
+     */
+    private final class Stripe extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private MappedRegion table;
+
+        private ByteBuffer slots;
+
+        private int capacity;
+
+        private int size;
+
+        Stripe() {
+            allocate(INITIAL_STRIPE_CAPACITY);
+            size = 0;
+        }
+
+        private void allocate(int capacity) {
+            table = new MappedRegion(directory, "cooc-stripe", capacity * 4);
+            slots = table.chunk(0);
+            this.capacity = capacity;
+        }
+
+        /**
+         * Returns the number of the record holding the key, or {@code -1} if
+         * the key is not stored.
+         */
+        int find(long key) {
+            int mask = capacity - 1;
+            int i = (int) mix(key) & mask;
+            for (int n = 0; n < capacity; ++n) {
+                int s = slots.getInt(i * 4);
+                if (s == 0)
+                    return -1;
+                if (keyOf(s - 1) == key)
+                    return s - 1;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns {@code true} if no more keys may be stored, once the table
+         * has reached its largest capacity and is half full.
+         */
+        boolean isFull() {
+            return capacity == MAX_STRIPE_CAPACITY && size * 2 >= capacity;
+        }
+
+        /**
+         * Adds the record for a key that is not yet stored.  The table must
+         * not be full.
+         */
+        void insert(long key, int record) {
+            place(key, record);
+            // Keep the load factor at or below one half
+            if (++size * 2 > capacity && capacity < MAX_STRIPE_CAPACITY)
+                rehash(capacity << 1);
+        }
+
+        private void place(long key, int record) {
+            int mask = capacity - 1;
+            int i = (int) mix(key) & mask;
+            for (int n = 0; n < capacity; ++n) {
+                if (slots.getInt(i * 4) == 0) {
+                    slots.putInt(i * 4, record + 1);
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            throw new IllegalStateException("The stripe table is full");
+        }
+
+        private void rehash(int newCapacity) {
+            MappedRegion oldTable = table;
+            ByteBuffer oldSlots = slots;
+            int oldCapacity = capacity;
+            allocate(newCapacity);
+            for (int i = 0; i < oldCapacity; ++i) {
+                int s = oldSlots.getInt(i * 4);
+                if (s != 0)
+                    place(keyOf(s - 1), s - 1);
+            }
+            oldTable.close();
+        }
+    }
+
+    /**
+     * A growable region of a file that is mapped in fixed-size chunks.  Chunks
+     * are mapped on first use and never remapped, so a chunk obtained by one
+     * thread stays valid while other threads grow the region.
+     */
+    private static final class MappedRegion {
+
+        private final FileChannel channel;
+
+        private final int chunkBytes;
+
+        private volatile MappedByteBuffer[] chunks;
+
+        /**
+         * Creates an empty region in a new temporary file of {@code
+         * directory}.
+         */
+        MappedRegion(File directory, String prefix, int chunkBytes) {
+            this.chunkBytes = chunkBytes;
+            chunks = new MappedByteBuffer[0];
+            try {
+                File file = File.createTempFile(prefix, ".dat", directory);
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                // The open channel and its mappings stay valid after the file
+                // is unlinked, so nothing is left behind on disk
+                if (!file.delete())
+                    file.deleteOnExit();
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        }
+
+        /**
+         * Returns the chunk with the provided index, mapping it and any
+         * preceding gap of the file if needed.  Newly mapped chunks read as
+         * zeros.
+         */
+        ByteBuffer chunk(int c) {
+            MappedByteBuffer[] cur = chunks;
+            if (c < cur.length && cur[c] != null)
+                return cur[c];
+            return map(c);
+        }
+
+        private synchronized MappedByteBuffer map(int c) {
+            MappedByteBuffer[] cur = chunks;
+            if (c >= cur.length)
+                cur = Arrays.copyOf(cur, Math.max(c + 1, cur.length * 2));
+            if (cur[c] == null) {
+                try {
+                    cur[c] = channel.map(FileChannel.MapMode.READ_WRITE,
+                                         (long) c * chunkBytes, chunkBytes);
+                } catch (IOException ioe) {
+                    throw new IOError(ioe);
+                }
+            }
+            // Publish the new chunk
+            chunks = cur;
+            return cur[c];
+        }
+
+        /**
+         * Closes the file.  Existing mappings remain usable until they are
+         * garbage collected, but no new chunks can be mapped.
+         */
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.ArrayMatrix;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+
+/**
+ * Multithreaded kernels for the products of {@link
+ * edu.ucla.sspace.matrix.Matrices}, which apply when the operands are {@link
+ * ArrayMatrix} or {@link SparseMatrix} instances and the result is an {@code
+ * ArrayMatrix}.  The rows of the result are computed on blocks of {@value
+ * #ROWS_PER_TASK} rows in parallel, with the threads of the {@link
+ * edu.ucla.sspace.util.WorkQueue}, in primitive row-major arrays which are
+ * copied into the result once a block is done.<p>
+ *
+ * For a product {@code m1 m2}, each task groups the non-zero cells of its
+ * block of {@code m1} by column, and then reads each row of {@code m2} which
+ * they need once, adding it to all the rows of the block which use it.  So
+ * the rows of {@code m2} are read once per block instead of once per cell of
+ * the result, and the zero cells of {@code m1}, such as those of a sparse
+ * query, cost nothing.  The products are summed in increasing order of the
+ * inner index, as by the sequential loops.
+ */
+public class MatrixKernels {
+
+    /**
+     * The number of rows of the result computed by one task.
+     */
+    static final int ROWS_PER_TASK = 64;
+
+    /**
+     * Uninstantiable.
+     */
+    private MatrixKernels() { }
+
+    /**
+     * Returns {@code true} if the kernels can read the matrix, that is, if it
+     * is an {@link ArrayMatrix} or a {@link SparseMatrix}, whose rows may be
+     * read by several threads at once.
+     */
+    public static boolean isSupported(Matrix matrix) {
+        return matrix instanceof ArrayMatrix || matrix instanceof SparseMatrix;
+    }
+
+    /**
+     * Sets {@code result} to the product of the matrices.
+     *
+     * @param result an {@link ArrayMatrix} of {@code m1.rows()} rows and
+     *        {@code m2.columns()} columns
+     */
+    public static void multiply(final Matrix m1, final Matrix m2,
+                                final Matrix result) {
+        checkResult(result, m1.rows(), m2.columns());
+        final int inner = m1.columns();
+        final int columns = m2.columns();
+        RowBlocks.forEachBlock(m1.rows(), ROWS_PER_TASK,
+                               new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                int rows = to - from;
+
+                // The non-zero cells of the block of m1, by column
+                int[] columnStarts = new int[inner + 1];
+                int[][] rowColumns = new int[rows][];
+                double[][] rowValues = new double[rows][];
+                for (int i = 0; i < rows; ++i) {
+                    readRow(m1, from + i, rowColumns, rowValues, i);
+                    for (int col : rowColumns[i])
+                        columnStarts[col + 1]++;
+                }
+                for (int k = 0; k < inner; ++k)
+                    columnStarts[k + 1] += columnStarts[k];
+                int[] cellRows = new int[columnStarts[inner]];
+                double[] cellValues = new double[columnStarts[inner]];
+                int[] next = new int[inner];
+                System.arraycopy(columnStarts, 0, next, 0, inner);
+                for (int i = 0; i < rows; ++i) {
+                    for (int j = 0; j < rowColumns[i].length; ++j) {
+                        int n = next[rowColumns[i][j]]++;
+                        cellRows[n] = i;
+                        cellValues[n] = rowValues[i][j];
+                    }
+                    rowColumns[i] = null;
+                    rowValues[i] = null;
+                }
+
+                double[][] block = new double[rows][columns];
+                for (int k = 0; k < inner; ++k) {
+                    int start = columnStarts[k];
+                    int end = columnStarts[k + 1];
+                    if (start == end)
+                        continue;
+                    if (m2 instanceof SparseMatrix) {
+                        SparseDoubleVector row =
+                            ((SparseMatrix) m2).getRowVector(k);
+                        int[] nonZero = row.getNonZeroIndices();
+                        double[] values = new double[nonZero.length];
+                        for (int j = 0; j < nonZero.length; ++j)
+                            values[j] = row.get(nonZero[j]);
+                        for (int n = start; n < end; ++n) {
+                            double[] out = block[cellRows[n]];
+                            double a = cellValues[n];
+                            for (int j = 0; j < nonZero.length; ++j)
+                                out[nonZero[j]] += a * values[j];
+                        }
+                    } else {
+                        double[] row = m2.getRow(k);
+                        for (int n = start; n < end; ++n) {
+                            double[] out = block[cellRows[n]];
+                            double a = cellValues[n];
+                            for (int j = 0; j < columns; ++j)
+                                out[j] += a * row[j];
+                        }
+                    }
+                }
+                for (int i = 0; i < rows; ++i)
+                    result.setRow(from + i, block[i]);
+            }
+        });
+    }
+
+    /**
+     * Sets {@code result} to the product of the diagonal matrix with the
+     * diagonal {@code diagonal} and the matrix {@code m}.
+     *
+     * @param result an {@link ArrayMatrix} of the size of {@code m}
+     */
+    public static void multiplyLeftDiag(final double[] diagonal,
+                                        final Matrix m, final Matrix result) {
+        checkResult(result, m.rows(), m.columns());
+        RowBlocks.forEachBlock(m.rows(), ROWS_PER_TASK,
+                               new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int r = from; r < to; ++r) {
+                    double element = diagonal[r];
+                    double[] row = m.getRow(r);
+                    for (int c = 0; c < row.length; ++c)
+                        row[c] = element * row[c];
+                    result.setRow(r, row);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets {@code result} to the product of the matrix {@code m} and the
+     * diagonal matrix with the diagonal {@code diagonal}.
+     *
+     * @param result an {@link ArrayMatrix} of the size of {@code m}
+     */
+    public static void multiplyRightDiag(final Matrix m,
+                                         final double[] diagonal,
+                                         final Matrix result) {
+        checkResult(result, m.rows(), m.columns());
+        RowBlocks.forEachBlock(m.rows(), ROWS_PER_TASK,
+                               new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int r = from; r < to; ++r) {
+                    double[] row = m.getRow(r);
+                    for (int c = 0; c < row.length; ++c)
+                        row[c] = diagonal[c] * row[c];
+                    result.setRow(r, row);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the product of the matrix and the sparse vector, taken as a
+     * column.  The non-zero cells of the vector are read once and summed in
+     * the order of {@link SparseDoubleVector#getNonZeroIndices()}.
+     */
+    public static double[] multiply(final Matrix matrix,
+                                    SparseDoubleVector vector) {
+        final int[] nonZero = vector.getNonZeroIndices();
+        final double[] values = new double[nonZero.length];
+        for (int j = 0; j < nonZero.length; ++j)
+            values[j] = vector.get(nonZero[j]);
+        final double[] result = new double[matrix.rows()];
+        RowBlocks.forEachBlock(matrix.rows(), new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; ++i) {
+                    double sum = 0;
+                    for (int j = 0; j < nonZero.length; ++j)
+                        sum += values[j] * matrix.get(i, nonZero[j]);
+                    result[i] = sum;
+                }
+            }
+        });
+        return result;
+    }
+
+    private static void checkResult(Matrix result, int rows, int columns) {
+        if (!(result instanceof ArrayMatrix))
+            throw new IllegalArgumentException(
+                "The result must be an ArrayMatrix");
+        if (result.rows() != rows || result.columns() != columns)
+            throw new IllegalArgumentException(
+                "The result must be " + rows + " x " + columns);
+    }
+
+    /**
+     * Stores the columns and the values of the non-zero cells of the row of
+     * the matrix at {@code index} of the arrays.
+     */
+    private static void readRow(Matrix matrix, int row, int[][] columns,
+                                double[][] values, int index) {
+        if (matrix instanceof SparseMatrix) {
+            SparseDoubleVector rowVec =
+                ((SparseMatrix) matrix).getRowVector(row);
+            int[] nonZero = rowVec.getNonZeroIndices();
+            double[] vals = new double[nonZero.length];
+            for (int j = 0; j < nonZero.length; ++j)
+                vals[j] = rowVec.get(nonZero[j]);
+            columns[index] = nonZero;
+            values[index] = vals;
+            return;
+        }
+        double[] dense = matrix.getRow(row);
+        int cells = 0;
+        for (double v : dense)
+            if (v != 0)
+                cells++;
+        int[] nonZero = new int[cells];
+        double[] vals = new double[cells];
+        cells = 0;
+        for (int col = 0; col < dense.length; ++col) {
+            if (dense[col] != 0) {
+                nonZero[cells] = col;
+                vals[cells++] = dense[col];
+            }
+        }
+        columns[index] = nonZero;
+        values[index] = vals;
+    }
+}
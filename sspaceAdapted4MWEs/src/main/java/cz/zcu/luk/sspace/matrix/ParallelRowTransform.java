@@ -0,0 +1,134 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.GlobalTransform;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.util.Arrays;
+
+
+/**
+ * Applies a transform to the rows of a sparse matrix on disjoint blocks of
+ * rows, which are processed in parallel by {@link RowBlocks}.  The statistics
+ * of a {@link GlobalTransform} are read-only once they have been extracted, so
+ * the blocks need no locking, and each block writes only to its own range of
+ * the compressed sparse row arrays of the result.
+ */
+class ParallelRowTransform {
+
+    private ParallelRowTransform() { }
+
+    /**
+     * Transforms the non-zero cells of the matrix.  The values of a {@link
+     * CompressedSparseRowMatrix} are transformed in place and the matrix is
+     * returned.  Any other matrix is left unchanged: the number of non-zero
+     * cells of each of its rows is counted first, so that the arrays of the
+     * returned {@code CompressedSparseRowMatrix} are allocated once, and the
+     * transformed cells of each block are then written straight into them.
+     */
+    static SparseMatrix transform(final SparseMatrix matrix,
+                                  final GlobalTransform transform) {
+        int rows = matrix.rows();
+        if (matrix instanceof CompressedSparseRowMatrix) {
+            CompressedSparseRowMatrix csr = (CompressedSparseRowMatrix) matrix;
+            final int[] rowStarts = csr.rowStarts();
+            final int[] columnIndices = csr.columnIndices();
+            final double[] values = csr.values();
+            RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+                public void run(int from, int to) {
+                    for (int row = from; row < to; ++row) {
+                        for (int i = rowStarts[row]; i < rowStarts[row + 1];
+                                ++i) {
+                            if (values[i] != 0)
+                                values[i] = transform.transform(
+                                    row, columnIndices[i], values[i]);
+                        }
+                    }
+                }
+            });
+            return csr;
+        }
+
+        final int[] rowStarts = new int[rows + 1];
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row)
+                    rowStarts[row + 1] =
+                        matrix.getRowVector(row).getNonZeroIndices().length;
+            }
+        });
+        for (int row = 0; row < rows; ++row)
+            rowStarts[row + 1] += rowStarts[row];
+
+        final int[] columnIndices = new int[rowStarts[rows]];
+        final double[] values = new double[rowStarts[rows]];
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    SparseDoubleVector rowVec = matrix.getRowVector(row);
+                    int[] nonZero = rowVec.getNonZeroIndices();
+                    int offset = rowStarts[row];
+                    if (nonZero.length != rowStarts[row + 1] - offset)
+                        throw new IllegalStateException(
+                            "The matrix was modified while transformed");
+                    System.arraycopy(nonZero, 0, columnIndices, offset,
+                                     nonZero.length);
+                    Arrays.sort(columnIndices, offset, rowStarts[row + 1]);
+                    for (int i = offset; i < rowStarts[row + 1]; ++i) {
+                        int col = columnIndices[i];
+                        values[i] = transform.transform(
+                            row, col, rowVec.get(col));
+                    }
+                }
+            }
+        });
+        return new CompressedSparseRowMatrix(
+            rows, matrix.columns(), rowStarts, columnIndices, values);
+    }
+
+    /**
+     * Transforms each row of the matrix with {@link
+     * TransformExtended#transformRow(edu.ucla.sspace.vector.DoubleVector)
+     * transformRow}, and returns the transformed rows in a new {@link
+     * CompressedSparseRowMatrix}.  The transform must be safe to call from
+     * several threads.
+     */
+    static CompressedSparseRowMatrix transformRows(
+            final Matrix matrix, final TransformExtended transform) {
+        int rows = matrix.rows();
+        final int[][] rowColumns = new int[rows][];
+        final double[][] rowValues = new double[rows][];
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    SparseDoubleVector rowVec =
+                        transform.transformRow(matrix.getRowVector(row));
+                    int[] nonZero = rowVec.getNonZeroIndices().clone();
+                    Arrays.sort(nonZero);
+                    double[] vals = new double[nonZero.length];
+                    for (int i = 0; i < nonZero.length; ++i)
+                        vals[i] = rowVec.get(nonZero[i]);
+                    rowColumns[row] = nonZero;
+                    rowValues[row] = vals;
+                }
+            }
+        });
+
+        int[] rowStarts = new int[rows + 1];
+        for (int row = 0; row < rows; ++row)
+            rowStarts[row + 1] = rowStarts[row] + rowColumns[row].length;
+        int[] columnIndices = new int[rowStarts[rows]];
+        double[] values = new double[rowStarts[rows]];
+        for (int row = 0; row < rows; ++row) {
+            int n = rowColumns[row].length;
+            System.arraycopy(rowColumns[row], 0, columnIndices,
+                             rowStarts[row], n);
+            System.arraycopy(rowValues[row], 0, values, rowStarts[row], n);
+            rowColumns[row] = null;
+            rowValues[row] = null;
+        }
+        return new CompressedSparseRowMatrix(
+            rows, matrix.columns(), rowStarts, columnIndices, values);
+    }
+}
@@ -0,0 +1,510 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+
+/**
+ * Reads, writes and merges partial co-occurrence files, which let a corpus be
+ * split into shards that are processed by separate JVMs.  Each shard writes
+ * the counts of its documents to a partial file, the partial files are summed
+ * by {@link #merge(File, List)}, and the merged file is loaded into a single
+ * model before its space is processed.<p>
+ *
+ * A partial file consists of named sections, each holding one sparse matrix
+ * whose rows and columns are keyed by terms rather than by the indices of the
+ * JVM that wrote it.  The terms of a section are stored in increasing {@link
+ * String#compareTo(String) lexicographic order} and the cells refer to their
+ * positions in these lists.  The vocabulary of a merge is the sorted union of
+ * the vocabularies of its inputs, so it is deterministic and the positions of
+ * every input map to it monotonically.  As the cells are also sorted, the
+ * merge is a streaming k-way merge, which holds only the term lists and one
+ * cell per input in memory.  A merged file is itself a partial file, so
+ * merges may be nested.<p>
+ *
+ * The format is written with {@link DataOutputStream}, so numbers are
+ * big-endian and terms are in modified UTF-8:
+ *
+ * <pre>
+ *   int    {@link #MAGIC}
+ *   int    the number of sections
+ *   for each section:
+ *     UTF    the section name
+ *     int    R, the number of row terms, followed by R UTF row terms
+ *     int    C, the number of column terms, followed by C UTF column terms
+ *     for each non-zero cell, in increasing order of row and then column:
+ *       int    the position of the row term
+ *       int    the position of the column term
+ *       double the value
+ *     int    -1, ending the cells of the section
+ * </pre>
+ *
+ * The files being merged must have the same sections in the same order.
+ */
+public class PartialCooccurrences {
+
+    private static final Logger LOGGER =
+        Logger.getLogger(PartialCooccurrences.class.getName());
+
+    /**
+     * The first int of every partial file, "PCO1" in ASCII.
+     */
+    public static final int MAGIC = 0x50434F31;
+
+    /**
+     * Uninstantiable
+     */
+    private PartialCooccurrences() { }
+
+    /**
+     * A source of the rows of a section being written.
+     */
+    public interface RowSource {
+
+        /**
+         * Returns the counts of the row whose term has the specified index in
+         * the row terms given to {@link Writer#writeSection}, with columns
+         * indexed like the column terms, or {@code null} if the row is empty.
+         */
+        SparseDoubleVector getRow(int row);
+    }
+
+    /**
+     * Writes the sections of a partial file.
+     */
+    public static class Writer {
+
+        private final DataOutputStream out;
+
+        private final int sections;
+
+        private int written;
+
+        /**
+         * Creates the file and writes its header.
+         *
+         * @param file the file to write
+         * @param sections the number of sections that will be written
+         */
+        public Writer(File file, int sections) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(sections);
+            this.sections = sections;
+        }
+
+        /**
+         * Writes a section whose rows and columns are indexed by their
+         * position in {@code rowTerms} and {@code columnTerms}.  The terms
+         * need not be sorted and may contain {@code null} for unused indices,
+         * but must not contain duplicates.
+         */
+        public void writeSection(String name, String[] rowTerms,
+                                 String[] columnTerms, RowSource rows)
+                throws IOException {
+            if (written == sections)
+                throw new IllegalStateException(
+                    "All " + sections + " sections have been written");
+            int[] rowOrder = sortedOrder(rowTerms);
+            int[] colOrder = sortedOrder(columnTerms);
+            int[] colRank = new int[columnTerms.length];
+            Arrays.fill(colRank, -1);
+            for (int i = 0; i < colOrder.length; ++i)
+                colRank[colOrder[i]] = i;
+
+            out.writeUTF(name);
+            writeTerms(rowTerms, rowOrder);
+            writeTerms(columnTerms, colOrder);
+            for (int i = 0; i < rowOrder.length; ++i) {
+                SparseDoubleVector row = rows.getRow(rowOrder[i]);
+                if (row == null)
+                    continue;
+                int[] nonZero = row.getNonZeroIndices();
+                long[] cells = new long[nonZero.length];
+                int n = 0;
+                for (int col : nonZero) {
+                    if (col >= colRank.length || colRank[col] < 0)
+                        throw new IllegalArgumentException(
+                            "Column " + col + " of section " + name +
+                            " has no term");
+                    cells[n++] = ((long) colRank[col] << 32) | col;
+                }
+                Arrays.sort(cells);
+                for (long cell : cells) {
+                    double value = row.get((int) cell);
+                    if (value == 0)
+                        continue;
+                    out.writeInt(i);
+                    out.writeInt((int) (cell >>> 32));
+                    out.writeDouble(value);
+                }
+            }
+            out.writeInt(-1);
+            written++;
+        }
+
+        private void writeTerms(String[] terms, int[] order)
+                throws IOException {
+            out.writeInt(order.length);
+            for (int i : order)
+                out.writeUTF(terms[i]);
+        }
+
+        /**
+         * Returns the indices of the non-null terms in the order of the
+         * terms.
+         */
+        private static int[] sortedOrder(final String[] terms) {
+            List<Integer> order = new ArrayList<Integer>(terms.length);
+            for (int i = 0; i < terms.length; ++i)
+                if (terms[i] != null)
+                    order.add(i);
+            Collections.sort(order,
+                new Comparator<Integer>() {
+                    public int compare(Integer a, Integer b) {
+                        return terms[a].compareTo(terms[b]);
+                    }
+                });
+            int[] sorted = new int[order.size()];
+            for (int i = 0; i < sorted.length; ++i) {
+                sorted[i] = order.get(i);
+                if (i > 0 && terms[sorted[i - 1]].equals(terms[sorted[i]]))
+                    throw new IllegalArgumentException(
+                        "Duplicate term: " + terms[sorted[i]]);
+            }
+            return sorted;
+        }
+
+        /**
+         * Finishes the file.
+         *
+         * @throws IllegalStateException if fewer sections were written than
+         *         announced
+         */
+        public void close() throws IOException {
+            out.close();
+            if (written != sections)
+                throw new IllegalStateException(
+                    "Only " + written + " of " + sections +
+                    " sections were written");
+        }
+    }
+
+    /**
+     * Reads the sections of a partial file in order.  After {@link
+     * #nextSection()} has returned a section's name, its terms are available
+     * and its cells are read with {@link #nextCell()}.
+     */
+    public static class Reader {
+
+        private final DataInputStream in;
+
+        private int sectionsLeft;
+
+        private String[] rowTerms;
+
+        private String[] columnTerms;
+
+        private boolean cellsLeft;
+
+        private int row;
+
+        private int column;
+
+        private double value;
+
+        /**
+         * Opens the file and reads its header.
+         *
+         * @throws IOException if the file is not a partial file
+         */
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException(file + " is not a partial file");
+            }
+            sectionsLeft = in.readInt();
+        }
+
+        /**
+         * Returns the number of sections that have not been started.
+         */
+        public int sectionsLeft() {
+            return sectionsLeft;
+        }
+
+        /**
+         * Skips the rest of the current section and reads the header of the
+         * next one.
+         *
+         * @return the name of the section, or {@code null} if there are none
+         *         left
+         */
+        public String nextSection() throws IOException {
+            while (cellsLeft)
+                nextCell();
+            if (sectionsLeft == 0)
+                return null;
+            sectionsLeft--;
+            String name = in.readUTF();
+            rowTerms = readTerms();
+            columnTerms = readTerms();
+            cellsLeft = true;
+            return name;
+        }
+
+        private String[] readTerms() throws IOException {
+            String[] terms = new String[in.readInt()];
+            for (int i = 0; i < terms.length; ++i)
+                terms[i] = in.readUTF();
+            return terms;
+        }
+
+        /**
+         * Returns the row terms of the current section, in increasing order.
+         */
+        public String[] rowTerms() {
+            return rowTerms;
+        }
+
+        /**
+         * Returns the column terms of the current section, in increasing
+         * order.
+         */
+        public String[] columnTerms() {
+            return columnTerms;
+        }
+
+        /**
+         * Reads the next cell of the current section.
+         *
+         * @return {@code false} if the section has no more cells
+         */
+        public boolean nextCell() throws IOException {
+            if (!cellsLeft)
+                return false;
+            row = in.readInt();
+            if (row < 0) {
+                cellsLeft = false;
+                return false;
+            }
+            column = in.readInt();
+            value = in.readDouble();
+            return true;
+        }
+
+        /**
+         * Returns the position of the row term of the current cell.
+         */
+        public int row() {
+            return row;
+        }
+
+        /**
+         * Returns the position of the column term of the current cell.
+         */
+        public int column() {
+            return column;
+        }
+
+        /**
+         * Returns the value of the current cell.
+         */
+        public double value() {
+            return value;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Sums the partial files into a new partial file, streaming the cells of
+     * every section.
+     *
+     * @param output the merged file to write
+     * @param inputs the partial files to merge
+     *
+     * @throws IllegalArgumentException if the inputs do not have the same
+     *         sections
+     */
+    public static void merge(File output, List<File> inputs)
+            throws IOException {
+        if (inputs.isEmpty())
+            throw new IllegalArgumentException("No partial files to merge");
+        final Reader[] readers = new Reader[inputs.size()];
+        try {
+            for (int i = 0; i < readers.length; ++i)
+                readers[i] = new Reader(inputs.get(i));
+            int sections = readers[0].sectionsLeft();
+            for (Reader r : readers)
+                if (r.sectionsLeft() != sections)
+                    throw new IllegalArgumentException(
+                        "The partial files have different sections");
+
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output),
+                                         1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(sections);
+                for (int s = 0; s < sections; ++s)
+                    mergeSection(readers, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (Reader r : readers)
+                if (r != null)
+                    r.close();
+        }
+    }
+
+    /**
+     * Merges the next section of every reader into {@code out}.
+     */
+    private static void mergeSection(final Reader[] readers,
+                                     DataOutputStream out)
+            throws IOException {
+        String name = readers[0].nextSection();
+        for (int i = 1; i < readers.length; ++i)
+            if (!name.equals(readers[i].nextSection()))
+                throw new IllegalArgumentException(
+                    "The partial files have different sections");
+
+        String[][] rowTerms = new String[readers.length][];
+        String[][] colTerms = new String[readers.length][];
+        for (int i = 0; i < readers.length; ++i) {
+            rowTerms[i] = readers[i].rowTerms();
+            colTerms[i] = readers[i].columnTerms();
+        }
+        String[] rows = union(rowTerms);
+        String[] cols = union(colTerms);
+        final int[][] rowMaps = new int[readers.length][];
+        final int[][] colMaps = new int[readers.length][];
+        for (int i = 0; i < readers.length; ++i) {
+            rowMaps[i] = positions(rowTerms[i], rows);
+            colMaps[i] = positions(colTerms[i], cols);
+        }
+        LOGGER.info("Merging section " + name + " of " + readers.length +
+                    " partial files: " + rows.length + " rows, " +
+                    cols.length + " columns");
+
+        out.writeUTF(name);
+        out.writeInt(rows.length);
+        for (String t : rows)
+            out.writeUTF(t);
+        out.writeInt(cols.length);
+        for (String t : cols)
+            out.writeUTF(t);
+
+        // Each queued reader is positioned on its next cell, ordered by the
+        // cell's position in the merged vocabularies
+        final long[] keys = new long[readers.length];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+            readers.length, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return (keys[a] < keys[b]) ? -1
+                        : (keys[a] > keys[b]) ? 1 : 0;
+                }
+            });
+        for (int i = 0; i < readers.length; ++i)
+            if (advance(readers, rowMaps, colMaps, keys, i))
+                queue.add(i);
+
+        long cells = 0;
+        while (!queue.isEmpty()) {
+            int i = queue.poll();
+            long key = keys[i];
+            double sum = readers[i].value();
+            if (advance(readers, rowMaps, colMaps, keys, i))
+                queue.add(i);
+            while (!queue.isEmpty() && keys[queue.peek()] == key) {
+                int j = queue.poll();
+                sum += readers[j].value();
+                if (advance(readers, rowMaps, colMaps, keys, j))
+                    queue.add(j);
+            }
+            if (sum == 0)
+                continue;
+            out.writeInt((int) (key >>> 32));
+            out.writeInt((int) key);
+            out.writeDouble(sum);
+            cells++;
+        }
+        out.writeInt(-1);
+        LOGGER.info("Merged section " + name + ": " + cells + " cells");
+    }
+
+    /**
+     * Reads the next cell of a reader and stores its merged position in
+     * {@code keys}.
+     */
+    private static boolean advance(Reader[] readers, int[][] rowMaps,
+                                   int[][] colMaps, long[] keys, int i)
+            throws IOException {
+        if (!readers[i].nextCell())
+            return false;
+        keys[i] = ((long) rowMaps[i][readers[i].row()] << 32)
+            | colMaps[i][readers[i].column()];
+        return true;
+    }
+
+    /**
+     * Returns the sorted union of sorted term lists.
+     */
+    private static String[] union(String[][] termLists) {
+        List<String> union = new ArrayList<String>();
+        int[] next = new int[termLists.length];
+        while (true) {
+            String min = null;
+            for (int i = 0; i < termLists.length; ++i)
+                if (next[i] < termLists[i].length
+                        && (min == null
+                            || termLists[i][next[i]].compareTo(min) < 0))
+                    min = termLists[i][next[i]];
+            if (min == null)
+                break;
+            union.add(min);
+            for (int i = 0; i < termLists.length; ++i)
+                if (next[i] < termLists[i].length
+                        && termLists[i][next[i]].equals(min))
+                    next[i]++;
+        }
+        return union.toArray(new String[union.size()]);
+    }
+
+    /**
+     * Returns the position of each of the sorted {@code terms} in the sorted
+     * {@code union}.
+     */
+    private static int[] positions(String[] terms, String[] union) {
+        int[] positions = new int[terms.length];
+        int j = 0;
+        for (int i = 0; i < terms.length; ++i) {
+            while (!union[j].equals(terms[i]))
+                j++;
+            positions[i] = j;
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,86 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.util.WorkQueue;
+import edu.ucla.sspace.util.WorkerThread;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Runs work on disjoint blocks of the rows of a matrix in parallel, with the
+ * threads of the {@link WorkQueue}.  When the work is started by a task of the
+ * queue, the blocks are run by the calling thread instead, since waiting for
+ * other tasks of the queue from one of its threads may never return.
+ */
+public class RowBlocks {
+
+    /**
+     * The number of rows processed by one task.
+     */
+    public static final int ROWS_PER_TASK = 1024;
+
+    private RowBlocks() { }
+
+    /**
+     * The work done on a block of rows.
+     */
+    public interface RowBlock {
+
+        /**
+         * Processes the rows from {@code from} inclusive to {@code to}
+         * exclusive.
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the work on consecutive blocks of the rows in parallel, and waits
+     * for all of them to finish.  An exception thrown by a block is rethrown
+     * once all the blocks have finished.
+     */
+    public static void forEachBlock(int rows, RowBlock block) {
+        forEachBlock(rows, ROWS_PER_TASK, block);
+    }
+
+    /**
+     * Runs the work on consecutive blocks of {@code rowsPerTask} rows in
+     * parallel, and waits for all of them to finish.  An exception thrown by
+     * a block is rethrown once all the blocks have finished.
+     */
+    public static void forEachBlock(int rows, int rowsPerTask,
+                                    final RowBlock block) {
+        int tasks = (rows + rowsPerTask - 1) / rowsPerTask;
+        if (tasks == 0)
+            return;
+        if (Thread.currentThread() instanceof WorkerThread) {
+            for (int from = 0; from < rows; from += rowsPerTask)
+                block.run(from, Math.min(from + rowsPerTask, rows));
+            return;
+        }
+        final AtomicReference<Throwable> failure =
+            new AtomicReference<Throwable>();
+        WorkQueue workQueue = WorkQueue.getWorkQueue();
+        Object key = workQueue.registerTaskGroup(tasks);
+        for (int t = 0; t < tasks; ++t) {
+            final int from = t * rowsPerTask;
+            final int to = Math.min(from + rowsPerTask, rows);
+            workQueue.add(key, new Runnable() {
+                public void run() {
+                    try {
+                        block.run(from, to);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (Error e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        workQueue.await(key);
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+    }
+}
@@ -0,0 +1,264 @@
+package cz.zcu.luk.sspace.matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A concurrent index of the non-zero structure of a sparse matrix, which
+ * records for each row the columns that hold a value and for each column the
+ * rows that hold a value.  The index is maintained incrementally as cells
+ * become non-zero or zero, so reading the structure of a row or column costs
+ * time proportional to its number of non-zero values, regardless of how many
+ * modifications were made to the rest of the matrix.<p>
+ *
+ * Each row and column is a small primitive hash set guarded by its own
+ * monitor.  Callers that need the index to be exact must update it while
+ * holding the lock of the affected cell, so that the insertion and removal of
+ * the same cell are applied in order.
+ *
+ * @see AtomicGrowingSparseHashMatrix
+ * @see AtomicStripedSparseMatrix
+ */
+public class RowColumnIndex implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The sets of non-zero columns, indexed by row.
+     */
+    private final IndexLines rowToCols;
+
+    /**
+     * The sets of non-zero rows, indexed by column.
+     */
+    private final IndexLines colToRows;
+
+    /**
+     * Creates an empty index.
+     */
+    public RowColumnIndex() {
+        rowToCols = new IndexLines();
+        colToRows = new IndexLines();
+    }
+
+    /**
+     * Records that the cell at ({@code row}, {@code col}) became non-zero.
+     */
+    public void add(int row, int col) {
+        rowToCols.line(row, true).add(col);
+        colToRows.line(col, true).add(row);
+    }
+
+    /**
+     * Records that the cell at ({@code row}, {@code col}) became zero.
+     */
+    public void remove(int row, int col) {
+        IntSet cols = rowToCols.line(row, false);
+        if (cols != null)
+            cols.remove(col);
+        IntSet rows = colToRows.line(col, false);
+        if (rows != null)
+            rows.remove(row);
+    }
+
+    /**
+     * Returns the columns of {@code row} that currently hold a non-zero value,
+     * in no particular order.
+     */
+    public int[] columnsOf(int row) {
+        IntSet cols = rowToCols.line(row, false);
+        return (cols == null) ? new int[0] : cols.toArray();
+    }
+
+    /**
+     * Returns the rows of {@code col} that currently hold a non-zero value, in
+     * no particular order.
+     */
+    public int[] rowsOf(int col) {
+        IntSet rows = colToRows.line(col, false);
+        return (rows == null) ? new int[0] : rows.toArray();
+    }
+
+    /**
+     * Returns the number of non-zero values in {@code row}.
+     */
+    public int rowSize(int row) {
+        IntSet cols = rowToCols.line(row, false);
+        return (cols == null) ? 0 : cols.size();
+    }
+
+    /**
+     * Returns the number of non-zero values in {@code col}.
+     */
+    public int columnSize(int col) {
+        IntSet rows = colToRows.line(col, false);
+        return (rows == null) ? 0 : rows.size();
+    }
+
+    /**
+     * A growable array of {@link IntSet}s.  The array is split into fixed-size
+     * chunks that are never replaced once created, so a set is never lost when
+     * the directory of chunks grows concurrently with its creation.
+     */
+    private static final class IndexLines implements java.io.Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int CHUNK_BITS = 10;
+
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        private volatile AtomicReferenceArray<IntSet>[] chunks;
+
+        IndexLines() {
+            chunks = newChunks(0);
+        }
+
+        /**
+         * Returns an empty directory of chunks of the provided length.
+         */
+        @SuppressWarnings("unchecked")
+        private static AtomicReferenceArray<IntSet>[] newChunks(int length) {
+            AtomicReferenceArray<?>[] chunks =
+                new AtomicReferenceArray<?>[length];
+            return (AtomicReferenceArray<IntSet>[]) chunks;
+        }
+
+        /**
+         * Returns the set for the line, creating it if {@code create} is {@code
+         * true}, or {@code null} if it does not exist and should not be
+         * created.
+         */
+        IntSet line(int index, boolean create) {
+            int c = index >>> CHUNK_BITS;
+            AtomicReferenceArray<IntSet>[] cur = chunks;
+            AtomicReferenceArray<IntSet> chunk = (c < cur.length)
+                ? cur[c] : null;
+            if (chunk == null) {
+                if (!create)
+                    return null;
+                chunk = chunk(c);
+            }
+            int i = index & (CHUNK_SIZE - 1);
+            IntSet set = chunk.get(i);
+            if (set == null && create) {
+                chunk.compareAndSet(i, null, new IntSet());
+                set = chunk.get(i);
+            }
+            return set;
+        }
+
+        /**
+         * Returns the chunk with the provided index, growing the directory as
+         * needed.
+         */
+        private synchronized AtomicReferenceArray<IntSet> chunk(int c) {
+            AtomicReferenceArray<IntSet>[] cur = chunks;
+            if (c >= cur.length) {
+                AtomicReferenceArray<IntSet>[] grown =
+                    Arrays.copyOf(cur, Math.max(c + 1, cur.length * 2));
+                chunks = grown;
+                cur = grown;
+            }
+            if (cur[c] == null)
+                cur[c] = new AtomicReferenceArray<IntSet>(CHUNK_SIZE);
+            return cur[c];
+        }
+    }
+
+    /**
+     * A synchronized linear-probing hash set of non-negative {@code int}
+     * values.
+     */
+    private static final class IntSet implements java.io.Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int EMPTY = -1;
+
+        private int[] slots;
+
+        private int size;
+
+        IntSet() {
+            slots = new int[4];
+            Arrays.fill(slots, EMPTY);
+            size = 0;
+        }
+
+        /**
+         * Spreads the value over all the bits, since the slot is taken from
+         * the low bits of the hash and those of the product depend only on
+         * the low bits of the value.
+         */
+        private static int hash(int v) {
+            int h = v * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private int slot(int v) {
+            int mask = slots.length - 1;
+            int i = hash(v) & mask;
+            int s;
+            while ((s = slots[i]) != EMPTY && s != v)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        synchronized void add(int v) {
+            int i = slot(v);
+            if (slots[i] != EMPTY)
+                return;
+            slots[i] = v;
+            // Keep the load factor below three quarters
+            if (++size * 4 > slots.length * 3) {
+                int[] old = slots;
+                slots = new int[old.length << 1];
+                Arrays.fill(slots, EMPTY);
+                for (int o : old)
+                    if (o != EMPTY)
+                        slots[slot(o)] = o;
+            }
+        }
+
+        synchronized void remove(int v) {
+            int i = slot(v);
+            if (slots[i] == EMPTY)
+                return;
+            // Shift back the following entries of the probe sequence so that
+            // no tombstones are needed
+            int mask = slots.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                int s = slots[j];
+                if (s == EMPTY)
+                    break;
+                int ideal = hash(s) & mask;
+                boolean inRange = (i <= j)
+                    ? (i < ideal && ideal <= j)
+                    : (i < ideal || ideal <= j);
+                if (inRange)
+                    continue;
+                slots[i] = s;
+                i = j;
+            }
+            slots[i] = EMPTY;
+            size--;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int[] toArray() {
+            int[] arr = new int[size];
+            int n = 0;
+            for (int s : slots)
+                if (s != EMPTY)
+                    arr[n++] = s;
+            return arr;
+        }
+    }
+}
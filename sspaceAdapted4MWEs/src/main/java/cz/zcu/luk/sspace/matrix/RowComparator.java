@@ -23,11 +23,13 @@ package cz.zcu.luk.sspace.matrix;
 
 import edu.ucla.sspace.common.Similarity;
 import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.similarity.CosineSimilarity;
 import edu.ucla.sspace.similarity.SimilarityFunction;
 import edu.ucla.sspace.util.BoundedSortedMultiMap;
 import edu.ucla.sspace.util.MultiMap;
 import edu.ucla.sspace.util.SortedMultiMap;
 import edu.ucla.sspace.util.WorkQueue;
+import edu.ucla.sspace.vector.DoubleVector;
 import edu.ucla.sspace.vector.Vector;
 
 
@@ -152,8 +154,17 @@ public class RowComparator {
         }
 
         public void run() {
-            Double similarity = simFunction.sim(
-                    row, m.getRowVector(otherRow));
+            DoubleVector other = m.getRowVector(otherRow);
+            // Rows of a frozen matrix are compared directly, without copying
+            // their indices
+            Double similarity =
+                (simFunction instanceof CosineSimilarity
+                 && row instanceof FrozenSparseMatrix.SparseRow
+                 && other instanceof FrozenSparseMatrix.SparseRow)
+                ? FrozenSparseMatrix.SparseRow.cosineSimilarity(
+                      (FrozenSparseMatrix.SparseRow) row,
+                      (FrozenSparseMatrix.SparseRow) other)
+                : simFunction.sim(row, other);
             
             // lock on the Map, as it is not thread-safe
             synchronized(mostSimilar) {
@@ -0,0 +1,576 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.ArrayMatrix;
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.matrix.MatrixBuilder;
+import edu.ucla.sspace.matrix.MatrixFile;
+import edu.ucla.sspace.matrix.MatrixIO;
+import edu.ucla.sspace.matrix.SparseMatrix;
+import edu.ucla.sspace.matrix.SvdlibcSparseBinaryMatrixBuilder;
+import edu.ucla.sspace.matrix.factorization.AbstractSvd;
+import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
+import edu.ucla.sspace.vector.CompactSparseVector;
+import edu.ucla.sspace.vector.SparseDoubleVector;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+
+/**
+ * A truncated singular value decomposition computed in memory with the
+ * randomized algorithm of Halko, Martinsson and Tropp (2011).  The range of
+ * the matrix is sampled by multiplying it with a random Gaussian matrix of
+ * {@code dimensions + oversampling} columns, refined by a few power
+ * iterations, and the matrix is then projected onto the orthonormal basis of
+ * the sample, where the decomposition of the small projected matrix is exact.
+ * All the products with the sparse matrix and the orthonormalizations run on
+ * blocks of rows in parallel, with the threads of the {@link
+ * edu.ucla.sspace.util.WorkQueue}, and the sparse matrix is used directly in
+ * its {@link CompressedSparseRowMatrix} form, without writing it to a file.
+ * The result is deterministic for a given seed.<p>
+ *
+ * This class defines the following configurable properties, which are read
+ * from the system properties by the default constructor:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #OVERSAMPLING_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@value #DEFAULT_OVERSAMPLING}
+ *
+ * <dd style="padding-top: .5em">The number of sampled columns beyond the
+ *      requested dimensions.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #POWER_ITERATIONS_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@value #DEFAULT_POWER_ITERATIONS}
+ *
+ * <dd style="padding-top: .5em">The number of power iterations, each of
+ *      which sharpens the decay of the sampled singular values, at the cost of
+ *      two more products with the matrix.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #SEED_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> {@code 0}
+ *
+ * <dd style="padding-top: .5em">The seed of the random sample.<p>
+ *
+ * </dl>
+ *
+ * If the matrix has fewer rows or columns than the requested dimensions, the
+ * missing singular values are zero, with zero singular vectors.
+ */
+public class SingularValueDecompositionRandomized extends AbstractSvd
+        implements SingularValueDecomposition, java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG =
+        Logger.getLogger(SingularValueDecompositionRandomized.class.getName());
+
+    private static final String PROPERTY_PREFIX =
+        "cz.zcu.luk.sspace.matrix.SingularValueDecompositionRandomized";
+
+    /**
+     * The property for the number of sampled columns beyond the requested
+     * dimensions.
+     */
+    public static final String OVERSAMPLING_PROPERTY =
+        PROPERTY_PREFIX + ".oversampling";
+
+    /**
+     * The property for the number of power iterations.
+     */
+    public static final String POWER_ITERATIONS_PROPERTY =
+        PROPERTY_PREFIX + ".powerIterations";
+
+    /**
+     * The property for the seed of the random sample.
+     */
+    public static final String SEED_PROPERTY = PROPERTY_PREFIX + ".seed";
+
+    public static final int DEFAULT_OVERSAMPLING = 10;
+
+    public static final int DEFAULT_POWER_ITERATIONS = 2;
+
+    /**
+     * The relative norm below which a column is taken to be in the span of the
+     * previous ones when a basis is orthonormalized.
+     */
+    private static final double RANK_TOLERANCE = 1e-10;
+
+    private final int oversampling;
+
+    private final int powerIterations;
+
+    private final long seed;
+
+    /**
+     * Creates the decomposition configured by the system properties.
+     */
+    public SingularValueDecompositionRandomized() {
+        this(System.getProperties());
+    }
+
+    /**
+     * Creates the decomposition configured by the properties.
+     */
+    public SingularValueDecompositionRandomized(Properties props) {
+        this(Integer.parseInt(props.getProperty(OVERSAMPLING_PROPERTY,
+                 String.valueOf(DEFAULT_OVERSAMPLING))),
+             Integer.parseInt(props.getProperty(POWER_ITERATIONS_PROPERTY,
+                 String.valueOf(DEFAULT_POWER_ITERATIONS))),
+             Long.parseLong(props.getProperty(SEED_PROPERTY, "0")));
+    }
+
+    /**
+     * Creates the decomposition.
+     *
+     * @param oversampling the number of sampled columns beyond the requested
+     *        dimensions
+     * @param powerIterations the number of power iterations
+     * @param seed the seed of the random sample
+     */
+    public SingularValueDecompositionRandomized(int oversampling,
+                                                int powerIterations,
+                                                long seed) {
+        if (oversampling < 0 || powerIterations < 0)
+            throw new IllegalArgumentException(
+                "The oversampling and the power iterations must be " +
+                "non-negative");
+        this.oversampling = oversampling;
+        this.powerIterations = powerIterations;
+        this.seed = seed;
+    }
+
+    /**
+     * {@inheritDoc}  The matrix is read into memory.
+     */
+    public void factorize(MatrixFile mFile, int dimensions) {
+        Matrix matrix;
+        try {
+            matrix = MatrixIO.readMatrix(mFile.getFile(), mFile.getFormat(),
+                                         Matrix.Type.SPARSE_IN_MEMORY);
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+        if (matrix instanceof SparseMatrix) {
+            factorize((SparseMatrix) matrix, dimensions);
+            return;
+        }
+        SparseDoubleVector[] rows = new SparseDoubleVector[matrix.rows()];
+        for (int row = 0; row < rows.length; ++row)
+            rows[row] = new CompactSparseVector(matrix.getRow(row));
+        factorize(CompressedSparseRowMatrix.fromRows(
+                      rows, identity(matrix.columns())),
+                  dimensions);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void factorize(SparseMatrix matrix, int dimensions) {
+        if (dimensions <= 0)
+            throw new IllegalArgumentException(
+                "The number of dimensions must be positive: " + dimensions);
+        final CompressedSparseRowMatrix a = compressed(matrix);
+        final CompressedSparseRowMatrix at = transpose(a);
+        factorize(new Product() {
+            public int rows() {
+                return a.rows();
+            }
+            public int columns() {
+                return a.columns();
+            }
+            public double[] multiply(double[] x, int l) {
+                return SingularValueDecompositionRandomized.multiply(a, x, l);
+            }
+            public double[] multiplyTransposed(double[] y, int l) {
+                return SingularValueDecompositionRandomized.multiply(at, y, l);
+            }
+        }, dimensions);
+    }
+
+    /**
+     * Decomposes the matrix of which only the products are known.
+     */
+    void factorize(Product a, int dimensions) {
+        if (dimensions <= 0)
+            throw new IllegalArgumentException(
+                "The number of dimensions must be positive: " + dimensions);
+        int m = a.rows();
+        int n = a.columns();
+        int l = Math.min(dimensions + oversampling, Math.min(m, n));
+        if ((long) Math.max(m, n) * Math.max(l, dimensions)
+                > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                "The matrix is too large for the randomized decomposition");
+        LOG.info("Factorizing a " + m + " x " + n + " matrix with " + l +
+                 " sampled columns and " + powerIterations +
+                 " power iterations");
+
+        double[] u = new double[m * dimensions];
+        double[] vt = new double[dimensions * n];
+        double[] sigma = new double[dimensions];
+        if (l > 0) {
+            // Sample the range of the matrix, and refine the sample with the
+            // power iterations, orthonormalizing in between to keep the small
+            // singular values from being lost to rounding
+            double[] y = a.multiply(gaussian(n, l), l);
+            for (int i = 0; i < powerIterations; ++i) {
+                orthonormalize(y, m, l, null);
+                double[] z = a.multiplyTransposed(y, l);
+                orthonormalize(z, n, l, null);
+                y = a.multiply(z, l);
+            }
+            double[] q = y;
+            orthonormalize(q, m, l, null);
+
+            // Decompose B = Q^T A through the QR decomposition of its
+            // transpose: B^T = Q2 R, with R = Ur S Vr^T, so that
+            // A = (Q Vr) S (Q2 Ur)^T
+            double[] q2 = a.multiplyTransposed(q, l);
+            double[] r = new double[l * l];
+            orthonormalize(q2, n, l, r);
+            double[] ur = new double[l * l];
+            double[] vr = new double[l * l];
+            double[] s = new double[l];
+            jacobi(r, l, ur, s, vr);
+
+            Integer[] order = new Integer[l];
+            for (int j = 0; j < l; ++j)
+                order[j] = j;
+            final double[] values = s;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(values[o2], values[o1]);
+                }
+            });
+            int k = Math.min(dimensions, l);
+            int[] kept = new int[k];
+            for (int j = 0; j < k; ++j) {
+                kept[j] = order[j];
+                sigma[j] = s[kept[j]];
+            }
+            project(q, m, l, vr, kept, u, dimensions);
+            double[] v = new double[n * dimensions];
+            project(q2, n, l, ur, kept, v, dimensions);
+            for (int col = 0; col < n; ++col)
+                for (int j = 0; j < dimensions; ++j)
+                    vt[j * n + col] = v[col * dimensions + j];
+        }
+
+        U = new ArrayMatrix(m, dimensions, u);
+        scaledDataClasses = false;
+        V = new ArrayMatrix(dimensions, n, vt);
+        scaledClassFeatures = false;
+        singularValues = sigma;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public MatrixBuilder getBuilder() {
+        return new SvdlibcSparseBinaryMatrixBuilder();
+    }
+
+    /**
+     * A matrix which the decomposition uses only through its products with
+     * dense matrices.  The dense matrices are in row-major order.
+     */
+    interface Product {
+
+        int rows();
+
+        int columns();
+
+        /**
+         * Returns the product of the matrix and the {@code columns()} by
+         * {@code l} matrix {@code x}.
+         */
+        double[] multiply(double[] x, int l);
+
+        /**
+         * Returns the product of the transpose of the matrix and the {@code
+         * rows()} by {@code l} matrix {@code y}.
+         */
+        double[] multiplyTransposed(double[] y, int l);
+    }
+
+    private static int[] identity(int size) {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; ++i)
+            indices[i] = i;
+        return indices;
+    }
+
+    /**
+     * Returns the matrix in compressed sparse row form, copying it only if
+     * it is not in that form already.
+     */
+    private static CompressedSparseRowMatrix compressed(
+            final SparseMatrix matrix) {
+        if (matrix instanceof CompressedSparseRowMatrix)
+            return (CompressedSparseRowMatrix) matrix;
+        final SparseDoubleVector[] rows =
+            new SparseDoubleVector[matrix.rows()];
+        RowBlocks.forEachBlock(rows.length, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row)
+                    rows[row] = matrix.getRowVector(row);
+            }
+        });
+        return CompressedSparseRowMatrix.fromRows(
+            rows, identity(matrix.columns()));
+    }
+
+    /**
+     * Returns the transpose of the matrix, with the rows sorted by column.
+     */
+    private static CompressedSparseRowMatrix transpose(
+            CompressedSparseRowMatrix matrix) {
+        int rows = matrix.rows();
+        int columns = matrix.columns();
+        int[] rowStarts = matrix.rowStarts();
+        int[] columnIndices = matrix.columnIndices();
+        double[] values = matrix.values();
+        int cells = rowStarts[rows];
+        int[] starts = new int[columns + 1];
+        for (int i = 0; i < cells; ++i)
+            starts[columnIndices[i] + 1]++;
+        for (int col = 0; col < columns; ++col)
+            starts[col + 1] += starts[col];
+        int[] next = Arrays.copyOf(starts, columns);
+        int[] indices = new int[cells];
+        double[] cellValues = new double[cells];
+        for (int row = 0; row < rows; ++row) {
+            for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i) {
+                int n = next[columnIndices[i]]++;
+                indices[n] = row;
+                cellValues[n] = values[i];
+            }
+        }
+        return new CompressedSparseRowMatrix(
+            columns, rows, starts, indices, cellValues);
+    }
+
+    /**
+     * Returns a {@code rows} by {@code l} matrix of independent standard
+     * Gaussian values, in row-major order.  Each block of rows is drawn from
+     * its own generator, so the values do not depend on the scheduling of
+     * the blocks.
+     */
+    private double[] gaussian(int rows, final int l) {
+        final double[] omega = new double[rows * l];
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                Random random = new Random(seed + from);
+                for (int i = from * l; i < to * l; ++i)
+                    omega[i] = random.nextGaussian();
+            }
+        });
+        return omega;
+    }
+
+    /**
+     * Returns the product of the sparse matrix and the dense row-major matrix
+     * {@code x} of {@code l} columns, in row-major order.
+     */
+    private static double[] multiply(CompressedSparseRowMatrix matrix,
+                                     final double[] x, final int l) {
+        final int[] rowStarts = matrix.rowStarts();
+        final int[] columnIndices = matrix.columnIndices();
+        final double[] values = matrix.values();
+        final double[] y = new double[matrix.rows() * l];
+        RowBlocks.forEachBlock(matrix.rows(), new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    int offset = row * l;
+                    for (int i = rowStarts[row]; i < rowStarts[row + 1]; ++i) {
+                        double v = values[i];
+                        int xOffset = columnIndices[i] * l;
+                        for (int j = 0; j < l; ++j)
+                            y[offset + j] += v * x[xOffset + j];
+                    }
+                }
+            }
+        });
+        return y;
+    }
+
+    /**
+     * Orthonormalizes the columns of the dense row-major {@code rows} by
+     * {@code l} matrix in place, with the classical Gram-Schmidt process
+     * repeated twice for each column, which keeps the columns orthogonal to
+     * the working precision.  A column in the span of the previous ones is
+     * set to zero.
+     *
+     * @param r if not {@code null}, receives the upper triangular {@code l} by
+     *        {@code l} factor of the QR decomposition, in row-major order
+     */
+    static void orthonormalize(final double[] y, int rows, final int l,
+                               double[] r) {
+        int blocks = (rows + RowBlocks.ROWS_PER_TASK - 1)
+            / RowBlocks.ROWS_PER_TASK;
+        final double[][] partials = new double[blocks][l];
+        for (int j = 0; j < l; ++j) {
+            final int col = j;
+            double norm =
+                Math.sqrt(dot(y, rows, l, col, col, col + 1, partials)[0]);
+            double original = norm;
+            for (int pass = 0; pass < 2 && col > 0 && norm > 0; ++pass) {
+                final double[] coefficients =
+                    dot(y, rows, l, col, 0, col, partials);
+                RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+                    public void run(int from, int to) {
+                        for (int row = from; row < to; ++row) {
+                            int offset = row * l;
+                            double sum = 0;
+                            for (int i = 0; i < col; ++i)
+                                sum += coefficients[i] * y[offset + i];
+                            y[offset + col] -= sum;
+                        }
+                    }
+                });
+                if (r != null)
+                    for (int i = 0; i < col; ++i)
+                        r[i * l + col] += coefficients[i];
+                norm = Math.sqrt(
+                    dot(y, rows, l, col, col, col + 1, partials)[0]);
+            }
+            final double scale =
+                (norm > RANK_TOLERANCE * original) ? 1 / norm : 0;
+            RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+                public void run(int from, int to) {
+                    for (int row = from; row < to; ++row)
+                        y[row * l + col] *= scale;
+                }
+            });
+            if (r != null)
+                r[col * l + col] = (scale == 0) ? 0 : norm;
+        }
+    }
+
+    /**
+     * Returns the dot products of column {@code col} of the dense row-major
+     * matrix with its columns from {@code first}, inclusive, to {@code last},
+     * exclusive.  The partial sums of the blocks are added in the order of the
+     * blocks, so the result does not depend on their scheduling.
+     */
+    private static double[] dot(final double[] y, int rows, final int l,
+                                final int col, final int first,
+                                final int last, final double[][] partials) {
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                double[] partial = partials[from / RowBlocks.ROWS_PER_TASK];
+                Arrays.fill(partial, 0, last - first, 0);
+                for (int row = from; row < to; ++row) {
+                    int offset = row * l;
+                    double v = y[offset + col];
+                    for (int i = first; i < last; ++i)
+                        partial[i - first] += y[offset + i] * v;
+                }
+            }
+        });
+        double[] sums = new double[last - first];
+        for (double[] partial : partials)
+            for (int i = 0; i < sums.length; ++i)
+                sums[i] += partial[i];
+        return sums;
+    }
+
+    /**
+     * Computes the singular value decomposition {@code r = u s v^T} of the
+     * small row-major {@code l} by {@code l} matrix with the one-sided Jacobi
+     * method, which rotates pairs of columns of {@code r} until all of them
+     * are orthogonal.
+     */
+    static void jacobi(double[] r, int l, double[] u, double[] s,
+                       double[] v) {
+        double[] w = Arrays.copyOf(r, r.length);
+        Arrays.fill(v, 0);
+        for (int i = 0; i < l; ++i)
+            v[i * l + i] = 1;
+        for (int sweep = 0; sweep < 60; ++sweep) {
+            boolean rotated = false;
+            for (int p = 0; p < l - 1; ++p) {
+                for (int q = p + 1; q < l; ++q) {
+                    double alpha = 0;
+                    double beta = 0;
+                    double gamma = 0;
+                    for (int i = 0; i < l; ++i) {
+                        double wp = w[i * l + p];
+                        double wq = w[i * l + q];
+                        alpha += wp * wp;
+                        beta += wq * wq;
+                        gamma += wp * wq;
+                    }
+                    if (gamma == 0
+                            || Math.abs(gamma) <= 1e-15
+                               * Math.sqrt(alpha * beta))
+                        continue;
+                    rotated = true;
+                    double zeta = (beta - alpha) / (2 * gamma);
+                    double t = Math.signum(zeta)
+                        / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+                    if (zeta == 0)
+                        t = 1;
+                    double c = 1 / Math.sqrt(1 + t * t);
+                    double sn = c * t;
+                    rotate(w, l, p, q, c, sn);
+                    rotate(v, l, p, q, c, sn);
+                }
+            }
+            if (!rotated)
+                break;
+        }
+        for (int j = 0; j < l; ++j) {
+            double norm = 0;
+            for (int i = 0; i < l; ++i)
+                norm += w[i * l + j] * w[i * l + j];
+            norm = Math.sqrt(norm);
+            s[j] = norm;
+            for (int i = 0; i < l; ++i)
+                u[i * l + j] = (norm > 0) ? w[i * l + j] / norm : 0;
+        }
+    }
+
+    private static void rotate(double[] a, int l, int p, int q, double c,
+                               double s) {
+        for (int i = 0; i < l; ++i) {
+            double ap = a[i * l + p];
+            double aq = a[i * l + q];
+            a[i * l + p] = c * ap - s * aq;
+            a[i * l + q] = s * ap + c * aq;
+        }
+    }
+
+    /**
+     * Multiplies the dense row-major {@code rows} by {@code l} matrix by the
+     * kept columns of the small row-major {@code l} by {@code l} matrix, into
+     * the first columns of the row-major {@code rows} by {@code width}
+     * result.
+     */
+    private static void project(final double[] basis, int rows, final int l,
+                                final double[] small, final int[] kept,
+                                final double[] result, final int width) {
+        RowBlocks.forEachBlock(rows, new RowBlocks.RowBlock() {
+            public void run(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    int offset = row * l;
+                    for (int j = 0; j < kept.length; ++j) {
+                        double sum = 0;
+                        for (int i = 0; i < l; ++i)
+                            sum += basis[offset + i] * small[i * l + kept[j]];
+                        result[row * width + j] = sum;
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,276 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.MatrixFile;
+import edu.ucla.sspace.matrix.MatrixIO.Format;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Properties;
+
+
+/**
+ * A truncated singular value decomposition of a matrix which does not fit in
+ * memory, computed with the randomized algorithm of {@link
+ * SingularValueDecompositionRandomized} directly over a matrix file in the
+ * {@link Format#SVDLIBC_SPARSE_BINARY SVDLIBC_SPARSE_BINARY} format.  Each
+ * product with the matrix or its transpose is one sequential pass over the
+ * file, so the decomposition reads the file {@code 2 * powerIterations + 2}
+ * times, and it holds only the dense {@code rows} by {@code l} and {@code
+ * columns} by {@code l} blocks of the algorithm and a chunk of the cells of
+ * the file, where {@code l} is the number of dimensions plus the
+ * oversampling.<p>
+ *
+ * The cells of each chunk are grouped by the block of rows of the product
+ * they add to, and the blocks are processed in parallel with the threads of
+ * the {@link edu.ucla.sspace.util.WorkQueue}.  The cells of a block are added
+ * in the order of the file, so the result does not depend on the scheduling
+ * of the blocks.<p>
+ *
+ * This class takes the properties of {@link
+ * SingularValueDecompositionRandomized}.  Matrices in memory and files in any
+ * other format are decomposed in memory.
+ */
+public class SingularValueDecompositionStreaming
+        extends SingularValueDecompositionRandomized {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of cells of the file processed at once.
+     */
+    private static final int CELLS_PER_CHUNK = 1 << 20;
+
+    /**
+     * The number of bytes read from the file at once.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Creates the decomposition configured by the system properties.
+     */
+    public SingularValueDecompositionStreaming() {
+        super();
+    }
+
+    /**
+     * Creates the decomposition configured by the properties.
+     */
+    public SingularValueDecompositionStreaming(Properties props) {
+        super(props);
+    }
+
+    /**
+     * Creates the decomposition.
+     *
+     * @param oversampling the number of sampled columns beyond the requested
+     *        dimensions
+     * @param powerIterations the number of power iterations
+     * @param seed the seed of the random sample
+     */
+    public SingularValueDecompositionStreaming(int oversampling,
+                                               int powerIterations,
+                                               long seed) {
+        super(oversampling, powerIterations, seed);
+    }
+
+    /**
+     * {@inheritDoc}  A file in the {@code SVDLIBC_SPARSE_BINARY} format is
+     * read once for each product with the matrix, and never loaded.
+     */
+    public void factorize(MatrixFile mFile, int dimensions) {
+        if (mFile.getFormat() != Format.SVDLIBC_SPARSE_BINARY) {
+            super.factorize(mFile, dimensions);
+            return;
+        }
+        final File file = mFile.getFile();
+        final int[] header = readHeader(file);
+        factorize(new Product() {
+            public int rows() {
+                return header[0];
+            }
+            public int columns() {
+                return header[1];
+            }
+            public double[] multiply(double[] x, int l) {
+                return pass(file, header, x, l, false);
+            }
+            public double[] multiplyTransposed(double[] y, int l) {
+                return pass(file, header, y, l, true);
+            }
+        }, dimensions);
+    }
+
+    /**
+     * Returns the rows, columns and non-zero cells of the matrix file.
+     */
+    private static int[] readHeader(File file) {
+        try {
+            CellReader reader = new CellReader(file);
+            try {
+                int[] header = new int[] {
+                    reader.nextInt(), reader.nextInt(), reader.nextInt() };
+                if (header[0] < 0 || header[1] < 0 || header[2] < 0)
+                    throw new IllegalArgumentException(
+                        "Not a sparse SVDLIBC matrix file: " + file);
+                return header;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Returns the product of the matrix in the file, or of its transpose, and
+     * the dense row-major matrix {@code x} of {@code l} columns, reading the
+     * file once.
+     */
+    private static double[] pass(File file, int[] header, final double[] x,
+                                 final int l, final boolean transposed) {
+        int rows = header[0];
+        int columns = header[1];
+        final int targets = (transposed) ? columns : rows;
+        final double[] product = new double[targets * l];
+        int blocks = (targets + RowBlocks.ROWS_PER_TASK - 1)
+            / RowBlocks.ROWS_PER_TASK;
+
+        // The row, column and value of each cell of the chunk, and the cells
+        // of the chunk grouped by the block of the product they add to
+        int chunk = Math.min(CELLS_PER_CHUNK, header[2]);
+        final int[] cellRows = new int[chunk];
+        final int[] cellColumns = new int[chunk];
+        final float[] cellValues = new float[chunk];
+        final int[] blockCells = new int[chunk];
+        final int[] blockStarts = new int[blocks + 1];
+
+        try {
+            CellReader reader = new CellReader(file);
+            try {
+                // The header was read before
+                reader.nextInt();
+                reader.nextInt();
+                reader.nextInt();
+                int col = 0;
+                int remaining = 0;
+                long cellsLeft = header[2];
+                while (cellsLeft > 0) {
+                    int cells = 0;
+                    while (cells < chunk && cellsLeft > 0) {
+                        while (remaining == 0) {
+                            if (col == columns)
+                                throw new IllegalArgumentException(
+                                    "The matrix file has fewer cells than " +
+                                    "its header: " + file);
+                            remaining = reader.nextInt();
+                            if (remaining < 0)
+                                throw new IllegalArgumentException(
+                                    "Not a sparse SVDLIBC matrix file: " +
+                                    file);
+                            col++;
+                        }
+                        int row = reader.nextInt();
+                        if (row < 0 || row >= rows)
+                            throw new IllegalArgumentException(
+                                "The matrix file has a cell outside of its " +
+                                "rows: " + file);
+                        cellRows[cells] = row;
+                        cellColumns[cells] = col - 1;
+                        cellValues[cells] = reader.nextFloat();
+                        cells++;
+                        remaining--;
+                        cellsLeft--;
+                    }
+
+                    // Group the cells by block, keeping the order of the file
+                    int[] targetIndices = (transposed) ? cellColumns : cellRows;
+                    Arrays.fill(blockStarts, 0);
+                    for (int i = 0; i < cells; ++i)
+                        blockStarts[targetIndices[i]
+                                    / RowBlocks.ROWS_PER_TASK + 1]++;
+                    for (int b = 0; b < blocks; ++b)
+                        blockStarts[b + 1] += blockStarts[b];
+                    int[] next = Arrays.copyOf(blockStarts, blocks);
+                    for (int i = 0; i < cells; ++i)
+                        blockCells[next[targetIndices[i]
+                                        / RowBlocks.ROWS_PER_TASK]++] = i;
+
+                    RowBlocks.forEachBlock(targets, new RowBlocks.RowBlock() {
+                        public void run(int from, int to) {
+                            int b = from / RowBlocks.ROWS_PER_TASK;
+                            for (int i = blockStarts[b]; i < blockStarts[b + 1];
+                                    ++i) {
+                                int cell = blockCells[i];
+                                int target = (transposed)
+                                    ? cellColumns[cell] : cellRows[cell];
+                                int source = (transposed)
+                                    ? cellRows[cell] : cellColumns[cell];
+                                double v = cellValues[cell];
+                                int offset = target * l;
+                                int xOffset = source * l;
+                                for (int j = 0; j < l; ++j)
+                                    product[offset + j] += v * x[xOffset + j];
+                            }
+                        }
+                    });
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+        return product;
+    }
+
+    /**
+     * Reads the big-endian ints and floats of a file sequentially through a
+     * buffer.
+     */
+    private static class CellReader {
+
+        private final FileInputStream in;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        CellReader(File file) throws IOException {
+            in = new FileInputStream(file);
+            channel = in.getChannel();
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0)
+                    throw new EOFException("The matrix file is truncated");
+            }
+            buffer.flip();
+        }
+
+        int nextInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        float nextFloat() throws IOException {
+            require(4);
+            return buffer.getFloat();
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package cz.zcu.luk.sspace.matrix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOError;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Co-occurrence counts that are never held in memory as a whole.  Each
+ * processing thread sums its (row, column, weight) triples in a bounded {@link
+ * CooccurrenceBuffer}; whenever a buffer holds {@code bufferSize} distinct
+ * cells, it is sorted and written to disk as a run.  Once all counts have been
+ * added, the runs are combined by a k-way merge that sums the counts of equal
+ * cells and streams the result, in increasing order of row and column, to an
+ * {@link EntryVisitor}, into a {@link CompressedSparseRowMatrix} or directly
+ * into a file in the {@code SVDLIBC_SPARSE_BINARY} format.  At most {@value
+ * #MAX_MERGE_FAN_IN} runs are read at once: when there are more, groups of
+ * them are first merged into longer runs, in as many passes as needed.  The
+ * memory and the open files needed therefore depend on the buffer size and on
+ * the size of the output, not on the size of the corpus.<p>
+ *
+ * {@link #add(int, int, double)} may be called concurrently.  The merging
+ * methods must only be called after all threads have finished adding counts;
+ * they may be called several times, each call reading the runs again.
+ */
+public class SpilledCooccurrenceCounts {
+
+    /**
+     * The default number of distinct cells a thread buffers before spilling.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The number of bytes buffered when reading and writing runs.
+     */
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * The largest number of runs read at once by a merge.
+     */
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    /**
+     * The directory for the run files, or {@code null} for the default
+     * temporary directory.
+     */
+    private final File directory;
+
+    /**
+     * The number of distinct cells a buffer may hold before being spilled.
+     */
+    private final int bufferSize;
+
+    /**
+     * All buffers created so far, so that they can be spilled before merging.
+     */
+    private final Queue<CooccurrenceBuffer> allBuffers;
+
+    /**
+     * The buffer of each processing thread.
+     */
+    private final ThreadLocal<CooccurrenceBuffer> buffers;
+
+    /**
+     * The sorted runs written so far.
+     */
+    private final Queue<File> runs;
+
+    /**
+     * Creates empty counts whose runs are written to {@code directory}.
+     *
+     * @param directory the directory for the run files, or {@code null} for
+     *        the default temporary directory
+     * @param bufferSize the number of distinct cells each thread buffers
+     *        before writing a run
+     */
+    public SpilledCooccurrenceCounts(File directory, int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException(
+                "bufferSize must be positive: " + bufferSize);
+        this.directory = directory;
+        this.bufferSize = bufferSize;
+        allBuffers = new ConcurrentLinkedQueue<CooccurrenceBuffer>();
+        runs = new ConcurrentLinkedQueue<File>();
+        // The buffers start small and grow up to the buffer size, so a
+        // thread that processes few documents does not take a full buffer
+        buffers = new ThreadLocal<CooccurrenceBuffer>() {
+            protected CooccurrenceBuffer initialValue() {
+                CooccurrenceBuffer b = new CooccurrenceBuffer();
+                allBuffers.add(b);
+                return b;
+            }
+        };
+    }
+
+    /**
+     * Adds {@code weight} to the count of the cell, spilling the buffer of the
+     * calling thread if it is full.
+     */
+    public void add(int row, int col, double weight) {
+        CooccurrenceBuffer b = buffers.get();
+        b.add(row, col, weight);
+        if (b.size() >= bufferSize)
+            spill(b);
+    }
+
+    /**
+     * Returns the number of runs written so far.
+     */
+    public int runCount() {
+        return runs.size();
+    }
+
+    /**
+     * Writes the buffered cells as a new sorted run and empties the buffer.
+     */
+    private void spill(CooccurrenceBuffer b) {
+        long[] keys = new long[b.size()];
+        double[] values = new double[b.size()];
+        int n = b.sorted(keys, values);
+        try {
+            File run = createRun();
+            DataOutputStream out = openRun(run);
+            try {
+                for (int i = 0; i < n; ++i) {
+                    if (values[i] == 0)
+                        continue;
+                    out.writeLong(keys[i]);
+                    out.writeDouble(values[i]);
+                }
+            } finally {
+                out.close();
+            }
+            runs.add(run);
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+        b.clear();
+    }
+
+    private File createRun() throws IOException {
+        File run = File.createTempFile("cooc-run", ".dat", directory);
+        run.deleteOnExit();
+        return run;
+    }
+
+    private static DataOutputStream openRun(File run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(run), IO_BUFFER_BYTES));
+    }
+
+    /**
+     * Spills the cells still buffered by any thread.
+     */
+    private void spillAll() {
+        for (CooccurrenceBuffer b : allBuffers)
+            if (b.size() > 0)
+                spill(b);
+    }
+
+    /**
+     * Merges all runs and passes every cell with a non-zero count to the
+     * visitor, in increasing order of row and column.
+     */
+    public void merge(EntryVisitor visitor) {
+        spillAll();
+        reduceRuns();
+        mergeRuns(new ArrayList<File>(runs), visitor);
+    }
+
+    /**
+     * Merges groups of {@value #MAX_MERGE_FAN_IN} runs into single runs until
+     * no more than {@value #MAX_MERGE_FAN_IN} runs are left.  The merged runs
+     * are queued after the others, so each pass reads every cell once.
+     */
+    private void reduceRuns() {
+        while (runs.size() > MAX_MERGE_FAN_IN) {
+            List<File> group = new ArrayList<File>(MAX_MERGE_FAN_IN);
+            while (group.size() < MAX_MERGE_FAN_IN)
+                group.add(runs.poll());
+            try {
+                File merged = createRun();
+                final DataOutputStream out = openRun(merged);
+                try {
+                    mergeRuns(group, new EntryVisitor() {
+                        public void visit(int row, int col, double value) {
+                            try {
+                                out.writeLong(CooccurrenceBuffer.key(row, col));
+                                out.writeDouble(value);
+                            } catch (IOException ioe) {
+                                throw new IOError(ioe);
+                            }
+                        }
+                    });
+                } finally {
+                    out.close();
+                }
+                runs.add(merged);
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+            for (File run : group)
+                run.delete();
+        }
+    }
+
+    /**
+     * Merges the runs and passes every cell with a non-zero count to the
+     * visitor, in increasing order of row and column.
+     */
+    private static void mergeRuns(List<File> files, EntryVisitor visitor) {
+        PriorityQueue<Run> queue = new PriorityQueue<Run>();
+        try {
+            for (File f : files) {
+                Run r = new Run(f);
+                if (r.advance())
+                    queue.add(r);
+            }
+            while (!queue.isEmpty()) {
+                Run r = queue.poll();
+                long key = r.key;
+                double sum = r.value;
+                if (r.advance())
+                    queue.add(r);
+                while (!queue.isEmpty() && queue.peek().key == key) {
+                    Run other = queue.poll();
+                    sum += other.value;
+                    if (other.advance())
+                        queue.add(other);
+                }
+                if (sum != 0)
+                    visitor.visit((int) (key >>> 32), (int) key, sum);
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        } finally {
+            for (Run r : queue)
+                r.close();
+        }
+    }
+
+    /**
+     * Returns the new index of {@code index}, or {@code -1} if it is not
+     * retained.  A {@code null} map retains every index below {@code size}.
+     */
+    private static int map(int[] map, int index, int size) {
+        if (map == null)
+            return (index < size) ? index : -1;
+        return (index < map.length) ? map[index] : -1;
+    }
+
+    /**
+     * Merges all runs into a compressed sparse row matrix, keeping only the
+     * selected rows and columns.
+     *
+     * @param rowMap the new row of each original row, or {@code -1} to drop
+     *        it; {@code null} keeps the rows below {@code rows} in place
+     * @param rows the number of rows of the result
+     * @param colMap the new column of each original column, or {@code -1} to
+     *        drop it; {@code null} keeps the columns below {@code columns} in
+     *        place
+     * @param columns the number of columns of the result
+     */
+    public CompressedSparseRowMatrix toMatrix(final int[] rowMap,
+                                              final int rows,
+                                              final int[] colMap,
+                                              final int columns) {
+        // Count the cells of each row in a first pass, so that the cells can
+        // be placed directly at their final positions in the second one
+        final int[] rowStarts = new int[rows + 1];
+        merge(new EntryVisitor() {
+            public void visit(int row, int col, double value) {
+                int r = map(rowMap, row, rows);
+                if (r >= 0 && map(colMap, col, columns) >= 0)
+                    rowStarts[r + 1]++;
+            }
+        });
+        for (int r = 0; r < rows; ++r)
+            rowStarts[r + 1] += rowStarts[r];
+
+        final int[] columnIndices = new int[rowStarts[rows]];
+        final double[] values = new double[rowStarts[rows]];
+        final int[] next = Arrays.copyOf(rowStarts, rows);
+        merge(new EntryVisitor() {
+            public void visit(int row, int col, double value) {
+                int r = map(rowMap, row, rows);
+                int c = map(colMap, col, columns);
+                if (r >= 0 && c >= 0) {
+                    columnIndices[next[r]] = c;
+                    values[next[r]++] = value;
+                }
+            }
+        });
+        CompressedSparseRowMatrix.sortRows(rowStarts, columnIndices, values);
+        return new CompressedSparseRowMatrix(
+            rows, columns, rowStarts, columnIndices, values);
+    }
+
+    /**
+     * Merges all runs into a file in the {@code SVDLIBC_SPARSE_BINARY} format,
+     * keeping only the selected rows and columns.  The format is column-major,
+     * so the cells are written in place at the offsets computed by a first
+     * counting pass, which needs memory only for the column offsets.
+     *
+     * @param output the file to write
+     * @param rowMap the new row of each original row, or {@code -1} to drop
+     *        it; {@code null} keeps the rows below {@code rows} in place
+     * @param rows the number of rows of the result
+     * @param colMap the new column of each original column, or {@code -1} to
+     *        drop it; {@code null} keeps the columns below {@code columns} in
+     *        place
+     * @param columns the number of columns of the result
+     */
+    public void writeSparseBinary(File output,
+                                  final int[] rowMap, final int rows,
+                                  final int[] colMap, final int columns) {
+        final int[] colCounts = new int[columns];
+        merge(new EntryVisitor() {
+            public void visit(int row, int col, double value) {
+                int c = map(colMap, col, columns);
+                if (c >= 0 && map(rowMap, row, rows) >= 0)
+                    colCounts[c]++;
+            }
+        });
+
+        // Each column is its number of cells followed by a (row, value) pair
+        // per cell
+        final long[] next = new long[columns];
+        long nonZero = 0;
+        long offset = 12;
+        for (int c = 0; c < columns; ++c) {
+            next[c] = offset + 4;
+            offset += 4 + 8L * colCounts[c];
+            nonZero += colCounts[c];
+        }
+        if (nonZero > Integer.MAX_VALUE)
+            throw new IllegalStateException(
+                "Too many non-zero cells for the SVDLIBC format: " + nonZero);
+
+        try {
+            final MappedOutput out = new MappedOutput(output, offset);
+            try {
+                out.putInt(0, rows);
+                out.putInt(4, columns);
+                out.putInt(8, (int) nonZero);
+                for (int c = 0; c < columns; ++c)
+                    out.putInt(next[c] - 4, colCounts[c]);
+                merge(new EntryVisitor() {
+                    public void visit(int row, int col, double value) {
+                        int r = map(rowMap, row, rows);
+                        int c = map(colMap, col, columns);
+                        if (r >= 0 && c >= 0) {
+                            out.putInt(next[c], r);
+                            out.putFloat(next[c] + 4, (float) value);
+                            next[c] += 8;
+                        }
+                    }
+                });
+                // The rows of a column arrive in the order of the original
+                // rows, which a row map may have permuted
+                if (rowMap != null)
+                    sortColumns(out, colCounts);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            throw new IOError(ioe);
+        }
+    }
+
+    /**
+     * Sorts the cells of each column of a written file by row.
+     */
+    private static void sortColumns(MappedOutput out, int[] colCounts) {
+        long offset = 12;
+        for (int c = 0; c < colCounts.length; ++c) {
+            long start = offset + 4;
+            int n = colCounts[c];
+            offset = start + 8L * n;
+            boolean sorted = true;
+            for (int i = 1; i < n && sorted; ++i)
+                sorted = out.getInt(start + 8L * (i - 1))
+                    < out.getInt(start + 8L * i);
+            if (sorted)
+                continue;
+            long[] order = new long[n];
+            float[] values = new float[n];
+            for (int i = 0; i < n; ++i) {
+                order[i] = ((long) out.getInt(start + 8L * i) << 32) | i;
+                values[i] = out.getFloat(start + 8L * i + 4);
+            }
+            Arrays.sort(order);
+            for (int i = 0; i < n; ++i) {
+                out.putInt(start + 8L * i, (int) (order[i] >>> 32));
+                out.putFloat(start + 8L * i + 4, values[(int) order[i]]);
+            }
+        }
+    }
+
+    /**
+     * Deletes all runs and discards any buffered counts.
+     */
+    public void close() {
+        for (CooccurrenceBuffer b : allBuffers)
+            b.clear();
+        File run;
+        while ((run = runs.poll()) != null)
+            run.delete();
+    }
+
+    /**
+     * Receives the merged cells of the counts.
+     */
+    public interface EntryVisitor {
+
+        /**
+         * Called once for every cell with a non-zero count.
+         */
+        void visit(int row, int col, double value);
+    }
+
+    /**
+     * A run being read during the merge, positioned at its current cell.
+     */
+    private static final class Run implements Comparable<Run> {
+
+        private final DataInputStream in;
+
+        long key;
+
+        double value;
+
+        Run(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), IO_BUFFER_BYTES));
+        }
+
+        /**
+         * Moves to the next cell of the run, closing the run and returning
+         * {@code false} if it is exhausted.
+         */
+        boolean advance() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException eof) {
+                close();
+                return false;
+            }
+            value = in.readDouble();
+            return true;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ioe) {
+                throw new IOError(ioe);
+            }
+        }
+
+        public int compareTo(Run other) {
+            return (key < other.key) ? -1 : ((key == other.key) ? 0 : 1);
+        }
+    }
+
+    /**
+     * A file of a fixed size written through memory-mapped windows.  Adjacent
+     * windows overlap by a few bytes, so that a value starting in a window can
+     * always be accessed through that window alone.
+     */
+    private static final class MappedOutput {
+
+        private static final int WINDOW_BYTES = 1 << 28;
+
+        private static final int OVERLAP_BYTES = 8;
+
+        private final RandomAccessFile file;
+
+        private final MappedByteBuffer[] windows;
+
+        MappedOutput(File output, long size) throws IOException {
+            file = new RandomAccessFile(output, "rw");
+            file.setLength(0);
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            windows = new MappedByteBuffer[
+                (int) ((size + WINDOW_BYTES - 1) / WINDOW_BYTES)];
+            for (int w = 0; w < windows.length; ++w) {
+                long start = (long) w * WINDOW_BYTES;
+                long length = Math.min(
+                    WINDOW_BYTES + OVERLAP_BYTES, size - start);
+                windows[w] = channel.map(
+                    FileChannel.MapMode.READ_WRITE, start, length);
+            }
+        }
+
+        private MappedByteBuffer window(long position) {
+            return windows[(int) (position / WINDOW_BYTES)];
+        }
+
+        private static int offset(long position) {
+            return (int) (position % WINDOW_BYTES);
+        }
+
+        void putInt(long position, int value) {
+            window(position).putInt(offset(position), value);
+        }
+
+        void putFloat(long position, float value) {
+            window(position).putFloat(offset(position), value);
+        }
+
+        int getInt(long position) {
+            return window(position).getInt(offset(position));
+        }
+
+        float getFloat(long position) {
+            return window(position).getFloat(offset(position));
+        }
+
+        void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cz.zcu.luk.sspace.matrix;
+
+import edu.ucla.sspace.matrix.SVD;
+import edu.ucla.sspace.matrix.factorization.SingularValueDecomposition;
+
+
+/**
+ * Selects a {@link SingularValueDecomposition} by name, for the {@code
+ * --svdAlgorithm} option of the main classes.  The names of {@link
+ * SVD.Algorithm} select the implementations of the S-Space package, and
+ * {@value #RANDOMIZED} selects {@link SingularValueDecompositionRandomized}
+ * and {@value #STREAMING} selects {@link SingularValueDecompositionStreaming}.
+ */
+public class SvdAlgorithms {
+
+    /**
+     * The name of {@link SingularValueDecompositionRandomized}.
+     */
+    public static final String RANDOMIZED = "RANDOMIZED";
+
+    /**
+     * The name of {@link SingularValueDecompositionStreaming}.
+     */
+    public static final String STREAMING = "STREAMING";
+
+    /**
+     * Uninstantiable.
+     */
+    private SvdAlgorithms() { }
+
+    /**
+     * Returns the decomposition with the name, which is not case sensitive.
+     *
+     * @throws IllegalArgumentException if no decomposition has the name
+     */
+    public static SingularValueDecomposition getFactorization(String name) {
+        if (RANDOMIZED.equalsIgnoreCase(name))
+            return new SingularValueDecompositionRandomized();
+        if (STREAMING.equalsIgnoreCase(name))
+            return new SingularValueDecompositionStreaming();
+        return SVD.getFactorization(SVD.Algorithm.valueOf(name.toUpperCase()));
+    }
+}
@@ -54,9 +54,6 @@ public class TfIdfTransformCorrectedExtended extends BaseTransformExtended
 
     private static final long serialVersionUID = 1L;
 
-    // LK added
-    private double docsWithTermCountCashed;
-
     /**
      * {@inheritDoc}
      */
@@ -165,12 +162,12 @@ public class TfIdfTransformCorrectedExtended extends BaseTransformExtended
             double tf = row.get(column);
 
             if (column == 0) { // hack - the method is called for the whole row from the first column..
-                docsWithTermCountCashed = VectorMath.getNonZeroIndices(row);
+                setRowCache(VectorMath.getNonZeroIndices(row));
             }
 
             if (tf == 0.0) return 0.0; // clear that result is 0..
 
-            double idf = Math.log(totalDocCount / (docsWithTermCountCashed + 1));
+            double idf = Math.log(totalDocCount / (getRowCache() + 1));
             return tf * idf;
         }
     }
@@ -53,9 +53,6 @@ public class TfLogIdfTransformExtended extends BaseTransformExtended
 
     private static final long serialVersionUID = 1L;
 
-    // LK added
-    private double docsWithTermCountCashed;
-
     /**
      * {@inheritDoc}
      */
@@ -171,12 +168,12 @@ public class TfLogIdfTransformExtended extends BaseTransformExtended
             double tf = Math.log(row.get(column) + 1);
 
             if (column == 0) { // hack - the method is called for the whole row from the first column..
-                docsWithTermCountCashed = VectorMath.getNonZeroIndices(row);
+                setRowCache(VectorMath.getNonZeroIndices(row));
             }
 
             if (tf == 0.0) return 0.0; // clear that result is 0..
 
-            double idf = Math.log(totalDocCount / (docsWithTermCountCashed + 1));
+            double idf = Math.log(totalDocCount / (getRowCache() + 1));
             return tf * idf;
         }
     }
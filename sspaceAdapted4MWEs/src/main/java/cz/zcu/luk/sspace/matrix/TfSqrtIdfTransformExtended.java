@@ -54,9 +54,6 @@ public class TfSqrtIdfTransformExtended extends BaseTransformExtended
 
     private static final long serialVersionUID = 1L;
 
-    // LK added
-    private double docsWithTermCountCashed;
-
     /**
      * {@inheritDoc}
      */
@@ -172,12 +169,12 @@ public class TfSqrtIdfTransformExtended extends BaseTransformExtended
             double tf = Math.sqrt(row.get(column));
 
             if (column == 0) { // hack - the method is called for the whole row from the first column..
-                docsWithTermCountCashed = VectorMath.getNonZeroIndices(row);
+                setRowCache(VectorMath.getNonZeroIndices(row));
             }
 
             if (tf == 0.0) return 0.0; // clear that result is 0..
 
-            double idf = Math.log(totalDocCount / (docsWithTermCountCashed + 1));
+            double idf = Math.log(totalDocCount / (getRowCache() + 1));
             return tf * idf;
         }
     }
@@ -0,0 +1,132 @@
+package cz.zcu.luk.sspace.matrix;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * A set of per-thread {@link CooccurrenceBuffer}s that accumulate the
+ * co-occurrences of many documents before merging them into a shared {@link
+ * CooccurrenceMatrix}.  Each processing thread obtains its own buffer with
+ * {@link #get()}, adds the counts of a document to it and calls {@link
+ * #documentFinished(CooccurrenceBuffer)}, which flushes the buffer once it
+ * holds at least {@code flushThreshold} distinct cells.  Once all documents
+ * have been processed, {@link #flushAll()} must be called to merge the
+ * remaining counts of every thread.<p>
+ *
+ * A thread holds the monitor of its buffer while it adds the counts of a
+ * document, and the buffers are flushed under the same monitor, so {@link
+ * #flushAll()} may also be called while documents are being processed.  It
+ * then merges the counts of the documents finished so far, waiting for the
+ * documents being counted.<p>
+ *
+ * If {@link EntropyStatistics} are provided, every flush also reports its
+ * changes to them, so that the entropy of the rows and columns is known as
+ * soon as the counts are merged.
+ */
+public class ThreadLocalCooccurrenceBuffers {
+
+    /**
+     * The default number of distinct cells a thread buffers before flushing.
+     * The buffers start small and grow up to this size, so a thread that
+     * processes few documents does not take the memory of a full buffer.
+     */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 1 << 20;
+
+    /**
+     * The matrix into which the buffers are flushed.
+     */
+    private final CooccurrenceMatrix matrix;
+
+    /**
+     * The statistics updated by every flush, or {@code null} if none are
+     * kept.
+     */
+    private final EntropyStatistics stats;
+
+    /**
+     * The number of distinct cells a buffer may hold before being flushed.
+     */
+    private final int flushThreshold;
+
+    /**
+     * All buffers created so far, so that they can be flushed at the end of
+     * processing from a different thread.
+     */
+    private final Queue<CooccurrenceBuffer> allBuffers;
+
+    /**
+     * The buffer of each processing thread.
+     */
+    private final ThreadLocal<CooccurrenceBuffer> buffers;
+
+    /**
+     * Creates the buffers for the provided matrix.
+     *
+     * @param matrix the matrix into which the buffered counts are merged
+     * @param flushThreshold the number of distinct cells a thread buffers
+     *        before flushing; a non-positive value flushes after every
+     *        document
+     */
+    public ThreadLocalCooccurrenceBuffers(CooccurrenceMatrix matrix,
+                                          int flushThreshold) {
+        this(matrix, flushThreshold, null);
+    }
+
+    /**
+     * Creates the buffers for the provided matrix, reporting the merged
+     * counts to {@code stats}.
+     *
+     * @param matrix the matrix into which the buffered counts are merged
+     * @param flushThreshold the number of distinct cells a thread buffers
+     *        before flushing; a non-positive value flushes after every
+     *        document
+     * @param stats the statistics to update whenever counts are merged, or
+     *        {@code null} if none are kept
+     */
+    public ThreadLocalCooccurrenceBuffers(CooccurrenceMatrix matrix,
+                                          int flushThreshold,
+                                          EntropyStatistics stats) {
+        this.matrix = matrix;
+        this.stats = stats;
+        this.flushThreshold = flushThreshold;
+        this.allBuffers = new ConcurrentLinkedQueue<CooccurrenceBuffer>();
+        this.buffers = new ThreadLocal<CooccurrenceBuffer>() {
+            protected CooccurrenceBuffer initialValue() {
+                CooccurrenceBuffer b = new CooccurrenceBuffer();
+                allBuffers.add(b);
+                return b;
+            }
+        };
+    }
+
+    /**
+     * Returns the buffer of the calling thread.
+     */
+    public CooccurrenceBuffer get() {
+        return buffers.get();
+    }
+
+    /**
+     * Flushes the buffer into the matrix if it has reached the flush
+     * threshold.
+     */
+    public void documentFinished(CooccurrenceBuffer buffer) {
+        synchronized (buffer) {
+            if (buffer.size() >= flushThreshold)
+                buffer.flushTo(matrix, stats);
+        }
+    }
+
+    /**
+     * Flushes the buffers of all threads into the matrix.  A buffer whose
+     * thread is counting a document is flushed once the thread releases it.
+     */
+    public void flushAll() {
+        for (CooccurrenceBuffer b : allBuffers) {
+            synchronized (b) {
+                b.flushTo(matrix, stats);
+            }
+        }
+    }
+}
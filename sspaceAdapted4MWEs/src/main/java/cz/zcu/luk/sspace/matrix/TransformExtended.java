@@ -21,6 +21,8 @@
 
 package cz.zcu.luk.sspace.matrix;
 
+import edu.ucla.sspace.matrix.Matrix;
+import edu.ucla.sspace.matrix.SparseMatrix;
 import edu.ucla.sspace.matrix.Transform;
 import edu.ucla.sspace.vector.DoubleVector;
 import edu.ucla.sspace.vector.SparseDoubleVector;
@@ -39,4 +41,23 @@ import edu.ucla.sspace.vector.SparseDoubleVector;
 public interface TransformExtended extends Transform {
 
     SparseDoubleVector transformRow(DoubleVector row);
+
+    /**
+     * Transforms each row of the matrix with {@link #transformRow(DoubleVector)
+     * transformRow}, once the initial matrix has been transformed.
+     *
+     * @return the transformed rows
+     */
+    SparseMatrix transformRows(Matrix matrix);
+
+    /**
+     * Transforms a column which was not part of the initial matrix, such as a
+     * new document of a term-document matrix, with the statistics of the
+     * initial matrix, once the initial matrix has been transformed.  Only the
+     * non-zero cells of the column are transformed, and the others are left
+     * at zero.
+     *
+     * @return the transformed column
+     */
+    SparseDoubleVector transformColumn(SparseDoubleVector column);
 }
@@ -36,6 +36,9 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+import cz.zcu.luk.sspace.text.CompoundMatcher;
+import cz.zcu.luk.sspace.text.SlidingWindow;
+
 /**
  * A co-occurrence based approach to statistical semantics that uses a
  * randomized projection of a full co-occurrence matrix to perform
@@ -287,6 +290,12 @@ public class RandomIndexingCompounds implements SemanticSpace, Filterable {
 
     private Set<String> compounds;
 
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
     /**
      * Creates a new {@code RandomIndexing} instance using the provided
      * properites for configuration.
@@ -334,6 +343,9 @@ public class RandomIndexingCompounds implements SemanticSpace, Filterable {
         semanticFilter = new HashSet<String>();
 
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
 
     }
 
@@ -448,30 +460,16 @@ public class RandomIndexingCompounds implements SemanticSpace, Filterable {
      * @param document {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
-        Queue<String> prevWords = new ArrayDeque<String>(windowSize);
-        Queue<String> nextWords = new ArrayDeque<String>(windowSize);
-
-        // LK added
-        String removed = "";
-        String removedOld = "";
-
-        Iterator<String> documentTokens =
-            IteratorFactory.tokenizeOrdered(document);
+        // The words around the focus word are its context.  The two words which
+        // have left the window are kept for the contexts of the compounds that
+        // end at the focus word.
+        SlidingWindow window = new SlidingWindow(
+            windowSize, windowSize, 2, null, null, compoundMatcher);
+        window.reset(IteratorFactory.tokenizeOrdered(document));
+        int[] compoundContext = new int[windowSize + 2];
 
-        String focusWord = null;
-
-        // prefetch the first windowSize words
-        for (int i = 0; i < windowSize && documentTokens.hasNext(); ++i)
-            nextWords.offer(documentTokens.next());
-
-        while (!nextWords.isEmpty()) {
-            focusWord = nextWords.remove();
-
-            // shift over the window to the next word
-            if (documentTokens.hasNext()) {
-                String windowEdge = documentTokens.next();
-                nextWords.offer(windowEdge);
-            }
+        while (window.next()) {
+            String focusWord = window.token(0);
 
             // If we are filtering the semantic vectors, check whether this word
             // should have its semantics calculated.  In addition, if there is a
@@ -488,176 +486,98 @@ public class RandomIndexingCompounds implements SemanticSpace, Filterable {
                 // Sum up the index vector for all the surrounding words.  If
                 // permutations are enabled, permute the index vector based on
                 // its relative position to the focus word.
-                int permutations = -(prevWords.size());
-                for (String word : prevWords) {
-                    // Skip the addition of any words that are excluded from the
-                    // filter set.  Note that by doing the exclusion here, we
-                    // ensure that the token stream maintains its existing
-                    // ordering, which is necessary when permutations are taken
-                    // into account.
-                    if (word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                        ++permutations;
-                        continue;
-                    }
-
-                    TernaryVector iv = wordToIndexVector.get(word);
-                    if (usePermutations) {
-                        iv = permutationFunc.permute(iv, permutations);
-                        ++permutations;
-                    }
-
-                    add(focusMeaning, iv);
-                }
-
-                // Repeat for the words in the forward window.
-                permutations = 1;
-                for (String word : nextWords) {
-                    // Skip the addition of any words that are excluded from the
-                    // filter set.  Note that by doing the exclusion here, we
-                    // ensure that the token stream maintains its existing
-                    // ordering, which is necessary when permutations are taken
-                    // into account.
-                    if (word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                        ++permutations;
-                        continue;
-                    }
-
-                    TernaryVector iv = wordToIndexVector.get(word);
-                    if (usePermutations) {
-                        iv = permutationFunc.permute(iv, permutations);
-                        ++permutations;
-                    }
-
-                    add(focusMeaning, iv);
+                for (int i = -window.before(); i <= window.after(); ++i) {
+                    if (i != 0)
+                        addContext(focusMeaning, window.token(i), i);
                 }
             }
 
-
-
             // LK added
-            if (compounds != null) {
-                String[] prevWordsArr = prevWords.toArray(new String[0]);
-                String prevPrevWord = null;
-                String prevWord = null;
-                if (prevWordsArr.length > 2) {
-                    prevPrevWord = prevWordsArr[prevWordsArr.length - 2];
-                }
-                if (prevWordsArr.length > 1) {
-                    prevWord = prevWordsArr[prevWordsArr.length - 1];
-                }
-                String possibleCompoundTrigram = prevPrevWord + " " + prevWord + " " + focusWord;
-                String possibleCompoundBigram = prevWord + " " + focusWord;
-                String compound = null;
+            if (compoundMatcher != null) {
+                int before = window.before();
+                int match = CompoundMatcher.NONE;
                 int compoundSize = 0;
-                if (isCompound(possibleCompoundTrigram)) {
-                    compound = mapTrigramCompound(possibleCompoundTrigram);
+                if (before > 2)
+                    match = window.trigram(0);
+                if (match != CompoundMatcher.NONE)
                     compoundSize = 3;
-                }
-                else if (isCompound(possibleCompoundBigram)) {
-                    compound = possibleCompoundBigram;
+                else if (before > 1) {
+                    match = window.bigram(0);
                     compoundSize = 2;
                 }
+                String compound = (match != CompoundMatcher.NONE)
+                    ? compoundMatcher.compound(match)
+                    : null;
                 if (compound != null) {
                     IntegerVector focusMeaning = getSemanticVector(compound);
 
                     // Sum up the index vector for all the surrounding words.  If
                     // permutations are enabled, permute the index vector based on
                     // its relative position to the focus word.
-                    int permutations = -(prevWords.size());
-
-                    // LK added..
-                    ArrayList<String> prevWordsList = new ArrayList<String>();
-                    if (compoundSize == 3) {
-                        if (!removedOld.equals("")) prevWordsList.add(removedOld);
-                        // if removed is "" and removedOld is not empty.. than add..
-                        if (!removedOld.equals("") || !removed.equals("")) prevWordsList.add(removed);
-                        for (int i = 0; i < prevWordsArr.length-2; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-                    else if (compoundSize == 2) {
-                        if (!removed.equals("")) prevWordsList.add(removed);
-                        for (int i = 0; i < prevWordsArr.length-1; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-
-                    for (String word : prevWordsList) {
-                        // Skip the addition of any words that are excluded from the
-                        // filter set.  Note that by doing the exclusion here, we
-                        // ensure that the token stream maintains its existing
-                        // ordering, which is necessary when permutations are taken
-                        // into account.
-                        if (word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                            ++permutations;
-                            continue;
-                        }
-
-                        TernaryVector iv = wordToIndexVector.get(word);
-                        if (usePermutations) {
-                            iv = permutationFunc.permute(iv, permutations);
-                            ++permutations;
-                        }
-
-                        add(focusMeaning, iv);
-                        //System.out.println("adding prev: " + compound + ", "+ word);
-                    }
+                    int contexts = compoundContext(
+                        window, compoundSize, compoundContext);
+                    int permutations = -before;
+                    for (int i = 0; i < contexts; ++i)
+                        addContext(focusMeaning,
+                                   window.token(compoundContext[i]),
+                                   permutations++);
 
                     // Repeat for the words in the forward window.
-                    permutations = 1;
-                    for (String word : nextWords) {
-                        // Skip the addition of any words that are excluded from the
-                        // filter set.  Note that by doing the exclusion here, we
-                        // ensure that the token stream maintains its existing
-                        // ordering, which is necessary when permutations are taken
-                        // into account.
-                        if (word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                            ++permutations;
-                            continue;
-                        }
-
-                        TernaryVector iv = wordToIndexVector.get(word);
-                        if (usePermutations) {
-                            iv = permutationFunc.permute(iv, permutations);
-                            ++permutations;
-                        }
-
-                        add(focusMeaning, iv);
-                        //System.out.println("adding after: " + compound + ", "+ word);
-                    }
+                    for (int i = 1; i <= window.after(); ++i)
+                        addContext(focusMeaning, window.token(i), i);
                 }
             }
-
-            // Last put this focus word in the prev words and shift off the
-            // front of the previous word window if it now contains more words
-            // than the maximum window size
-            prevWords.offer(focusWord);
-            if (prevWords.size() > windowSize) {
-                // LK changed.. from.. prevWords.remove();
-                removedOld = removed;
-                removed = prevWords.remove();
-            }
         }
 
         document.close();
     }
 
+    /**
+     * Adds the index vector of a word in the window, permuted by its position
+     * relative to the focus word if permutations are enabled, to the semantics
+     * of the focus.  Words that are excluded by the filter are skipped.  Note
+     * that by doing the exclusion here, we ensure that the token stream
+     * maintains its existing ordering, which is necessary when permutations
+     * are taken into account.
+     */
+    private void addContext(IntegerVector focusMeaning, String word,
+                            int permutations) {
+        if (word.equals(IteratorFactory.EMPTY_TOKEN))
+            return;
+
+        TernaryVector iv = wordToIndexVector.get(word);
+        if (usePermutations)
+            iv = permutationFunc.permute(iv, permutations);
 
-    /*
-    * LK added
-    */
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
+        add(focusMeaning, iv);
     }
 
     /**
-     * LK added
-     */
-    private String mapTrigramCompound(String possibleCompound) {
-        String[] wordsInTrigram = possibleCompound.split(" ");
-        // remove the word in the middle
-        return wordsInTrigram[0] + " " + wordsInTrigram[2];
+     * LK added.. stores the offsets of the words before the compound of {@code
+     * compoundSize} words that ends at the focus word of {@code window} in
+     * {@code offsets} and returns their number.  The words before the
+     * compound which have already left the window are included as well, but
+     * only if they, or the word that left before them, are not empty.
+     */
+    private static int compoundContext(SlidingWindow window,
+                                       int compoundSize,
+                                       int[] offsets) {
+        int before = window.before();
+        String removed = window.token(-before - 1, "");
+        String removedOld = window.token(-before - 2, "");
+        int count = 0;
+        if (compoundSize == 3) {
+            if (!removedOld.equals(""))
+                offsets[count++] = -before - 2;
+            // if removed is "" and removedOld is not empty.. than add..
+            if (!removedOld.equals("") || !removed.equals(""))
+                offsets[count++] = -before - 1;
+        }
+        else if (!removed.equals(""))
+            offsets[count++] = -before - 1;
+        for (int offset = -before; offset <= -compoundSize; ++offset)
+            offsets[count++] = offset;
+        return count;
     }
 
     /**
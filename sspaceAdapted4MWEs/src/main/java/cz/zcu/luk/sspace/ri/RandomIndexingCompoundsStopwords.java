@@ -36,7 +36,9 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 import cz.zcu.luk.sspace.common.WordTransformer;
+import cz.zcu.luk.sspace.text.CompoundMatcher;
 import cz.zcu.luk.sspace.text.IteratorFactoryStopwords;
+import cz.zcu.luk.sspace.text.SlidingWindow;
 
 /**
  * A co-occurrence based approach to statistical semantics that uses a
@@ -289,6 +291,12 @@ public class RandomIndexingCompoundsStopwords implements SemanticSpace, Filterab
 
     private Set<String> compounds;
 
+    /**
+     * The matcher of {@link #compounds}, or {@code null} if compounds are not
+     * taken into account.
+     */
+    private final CompoundMatcher compoundMatcher;
+
     /**
      * Creates a new {@code RandomIndexing} instance using the provided
      * properites for configuration.
@@ -336,6 +344,9 @@ public class RandomIndexingCompoundsStopwords implements SemanticSpace, Filterab
         semanticFilter = new HashSet<String>();
 
         this.compounds = compounds;
+        compoundMatcher = (compounds != null)
+            ? new CompoundMatcher(compounds)
+            : null;
 
     }
 
@@ -450,32 +461,16 @@ public class RandomIndexingCompoundsStopwords implements SemanticSpace, Filterab
      * @param document {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
-        Queue<String> prevWords = new ArrayDeque<String>(windowSize);
-        Queue<String> nextWords = new ArrayDeque<String>(windowSize);
-
-        // LK added
-        String removed = null;
-        String removedOld = null;
-
-        Iterator<String> documentTokens =
-            IteratorFactoryStopwords.tokenizeOrdered(document);
-
-        String focusWord = null;
+        // The words around the focus word are its context.  The two words which
+        // have left the window are kept for the contexts of the compounds that
+        // end at the focus word.
+        SlidingWindow window = new SlidingWindow(
+            windowSize, windowSize, 2, null, null, compoundMatcher);
+        window.reset(IteratorFactoryStopwords.tokenizeOrdered(document));
+        int[] compoundContext = new int[windowSize + 2];
 
-        // prefetch the first windowSize words
-        for (int i = 0; i < windowSize && documentTokens.hasNext(); ++i)
-            nextWords.offer(documentTokens.next());
-
-        while (!nextWords.isEmpty()) {
-            // LK changed
-            String possibleWord = nextWords.remove();
-            focusWord = WordTransformer.getWord(possibleWord);
-
-            // shift over the window to the next word
-            if (documentTokens.hasNext()) {
-                String windowEdge = documentTokens.next();
-                nextWords.offer(windowEdge);
-            }
+        while (window.next()) {
+            String focusWord = WordTransformer.getWord(window.token(0));
 
             // If we are filtering the semantic vectors, check whether this word
             // should have its semantics calculated.  In addition, if there is a
@@ -492,187 +487,91 @@ public class RandomIndexingCompoundsStopwords implements SemanticSpace, Filterab
                 // Sum up the index vector for all the surrounding words.  If
                 // permutations are enabled, permute the index vector based on
                 // its relative position to the focus word.
-                int permutations = -(prevWords.size());
-                for (String possibleW : prevWords) {
-                    // Skip the addition of any words that are excluded from the
-                    // filter set.  Note that by doing the exclusion here, we
-                    // ensure that the token stream maintains its existing
-                    // ordering, which is necessary when permutations are taken
-                    // into account.
-                    String word = WordTransformer.getWord(possibleW);
-                    if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN)) {
-                        ++permutations;
-                        continue;
-                    }
-
-                    TernaryVector iv = wordToIndexVector.get(word);
-                    if (usePermutations) {
-                        iv = permutationFunc.permute(iv, permutations);
-                        ++permutations;
-                    }
-
-                    add(focusMeaning, iv);
-                }
-
-                // Repeat for the words in the forward window.
-                permutations = 1;
-                for (String possibleW : nextWords) {
-                    // Skip the addition of any words that are excluded from the
-                    // filter set.  Note that by doing the exclusion here, we
-                    // ensure that the token stream maintains its existing
-                    // ordering, which is necessary when permutations are taken
-                    // into account.
-                    String word = WordTransformer.getWord(possibleW);
-                    if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN)) {
-                        ++permutations;
-                        continue;
-                    }
-
-                    TernaryVector iv = wordToIndexVector.get(word);
-                    if (usePermutations) {
-                        iv = permutationFunc.permute(iv, permutations);
-                        ++permutations;
-                    }
-
-                    add(focusMeaning, iv);
+                for (int i = -window.before(); i <= window.after(); ++i) {
+                    if (i != 0)
+                        addContext(focusMeaning, window.token(i), i);
                 }
             }
 
             // LK added
-            if (compounds != null) {
-                String[] prevWordsArr = prevWords.toArray(new String[0]);
-                String prevPrevWord = null;
-                String prevWord = null;
-                String possibleCompoundTrigram = "NOT_A_COMPOUND";
-                String possibleCompoundBigram = "NOT_A_COMPOUND";
-                if (prevWordsArr.length > 1) {
-                    prevPrevWord = prevWordsArr[prevWordsArr.length - 2];
-                    prevWord = prevWordsArr[prevWordsArr.length - 1];
-                    possibleCompoundTrigram = WordTransformer.getWord(prevPrevWord) + " " +
-                            WordTransformer.getRealWord(prevWord) + " " + WordTransformer.getWord(focusWord);
-                }
-                if (prevWordsArr.length > 0) {
-                    prevWord = prevWordsArr[prevWordsArr.length - 1];
-                    possibleCompoundBigram = WordTransformer.getWord(prevWord) + " " +
-                            WordTransformer.getWord(focusWord);
-                }
-
-                String compound = null;
+            if (compoundMatcher != null) {
+                int before = window.before();
+                int match = CompoundMatcher.NONE;
                 int compoundSize = 0;
-                if (isCompound(possibleCompoundTrigram)) {
-                    compound = mapTrigramCompound(possibleCompoundTrigram);
+                if (before > 1)
+                    match = window.trigram(0);
+                if (match != CompoundMatcher.NONE)
                     compoundSize = 3;
-                }
-                else if (isCompound(possibleCompoundBigram)) {
-                    compound = possibleCompoundBigram;
+                else if (before > 0) {
+                    match = window.bigram(0);
                     compoundSize = 2;
                 }
+                String compound = (match != CompoundMatcher.NONE)
+                    ? compoundMatcher.compound(match)
+                    : null;
                 if (compound != null) {
                     IntegerVector focusMeaning = getSemanticVector(compound);
 
                     // Sum up the index vector for all the surrounding words.  If
                     // permutations are enabled, permute the index vector based on
                     // its relative position to the focus word.
-                    int permutations = -(prevWords.size());
-
-                    // LK added..
-                    ArrayList<String> prevWordsList = new ArrayList<String>();
-                    if (compoundSize == 3) {
-                        if (removedOld != null) {
-                            prevWordsList.add(removedOld);
-                        }
-                        if (removed != null) {
-                            prevWordsList.add(removed);
-                        }
-                        for (int i = 0; i < prevWordsArr.length-2; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-                    else if (compoundSize == 2) {
-                        if (removed != null) prevWordsList.add(removed);
-                        for (int i = 0; i < prevWordsArr.length-1; i++) {
-                            prevWordsList.add(prevWordsArr[i]);
-                        }
-                    }
-
-                    for (String possibleW : prevWordsList) {
-                        // Skip the addition of any words that are excluded from the
-                        // filter set.  Note that by doing the exclusion here, we
-                        // ensure that the token stream maintains its existing
-                        // ordering, which is necessary when permutations are taken
-                        // into account.
-                        String word = WordTransformer.getWord(possibleW);
-                        if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN)) {
-                            ++permutations;
-                            continue;
-                        }
-
-                        TernaryVector iv = wordToIndexVector.get(word);
-                        if (usePermutations) {
-                            iv = permutationFunc.permute(iv, permutations);
-                            ++permutations;
-                        }
-
-                        add(focusMeaning, iv);
-                        //System.out.println("adding prev: " + compound + ", "+ word);
-                    }
+                    int contexts = compoundContext(
+                        window, compoundSize, compoundContext);
+                    int permutations = -before;
+                    for (int i = 0; i < contexts; ++i)
+                        addContext(focusMeaning,
+                                   window.token(compoundContext[i]),
+                                   permutations++);
 
                     // Repeat for the words in the forward window.
-                    permutations = 1;
-                    for (String possibleW : nextWords) {
-                        // Skip the addition of any words that are excluded from the
-                        // filter set.  Note that by doing the exclusion here, we
-                        // ensure that the token stream maintains its existing
-                        // ordering, which is necessary when permutations are taken
-                        // into account.
-                        String word = WordTransformer.getWord(possibleW);
-                        if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN)) {
-                            ++permutations;
-                            continue;
-                        }
-
-                        TernaryVector iv = wordToIndexVector.get(word);
-                        if (usePermutations) {
-                            iv = permutationFunc.permute(iv, permutations);
-                            ++permutations;
-                        }
-
-                        add(focusMeaning, iv);
-                        //System.out.println("adding after: " + compound + ", "+ word);
-                    }
+                    for (int i = 1; i <= window.after(); ++i)
+                        addContext(focusMeaning, window.token(i), i);
                 }
             }
-
-            // Last put this focus word in the prev words and shift off the
-            // front of the previous word window if it now contains more words
-            // than the maximum window size
-            prevWords.offer(possibleWord);
-            if (prevWords.size() > windowSize) {
-                // LK changed.. from.. prevWords.remove();
-                removedOld = removed;
-                removed = prevWords.remove();
-            }
         }
 
         document.close();
     }
 
+    /**
+     * Adds the index vector of a word in the window, permuted by its position
+     * relative to the focus word if permutations are enabled, to the semantics
+     * of the focus.  Words that are excluded by the filter are skipped.  Note
+     * that by doing the exclusion here, we ensure that the token stream
+     * maintains its existing ordering, which is necessary when permutations
+     * are taken into account.
+     */
+    private void addContext(IntegerVector focusMeaning, String word,
+                            int permutations) {
+        word = WordTransformer.getWord(word);
+        if (word.equals(IteratorFactoryStopwords.EMPTY_TOKEN))
+            return;
 
-    /*
-    * LK added
-    */
-    private boolean isCompound(String possibleCompound) {
-        if (compounds.contains(possibleCompound)) return true;
-        else return false;
+        TernaryVector iv = wordToIndexVector.get(word);
+        if (usePermutations)
+            iv = permutationFunc.permute(iv, permutations);
+
+        add(focusMeaning, iv);
     }
 
     /**
-     * LK added
-     */
-    private String mapTrigramCompound(String possibleCompound) {
-        String[] wordsInTrigram = possibleCompound.split(" ");
-        // remove the word in the middle
-        return wordsInTrigram[0] + " " + wordsInTrigram[2];
+     * LK added.. stores the offsets of the words before the compound of {@code
+     * compoundSize} words that ends at the focus word of {@code window} in
+     * {@code offsets} and returns their number.  The words before the
+     * compound which have already left the window are included as well.
+     */
+    private static int compoundContext(SlidingWindow window,
+                                       int compoundSize,
+                                       int[] offsets) {
+        int before = window.before();
+        int count = 0;
+        if (compoundSize == 3 && window.has(-before - 2))
+            offsets[count++] = -before - 2;
+        if (window.has(-before - 1))
+            offsets[count++] = -before - 1;
+        for (int offset = -before; offset <= -compoundSize; ++offset)
+            offsets[count++] = offset;
+        return count;
     }
 
     /**
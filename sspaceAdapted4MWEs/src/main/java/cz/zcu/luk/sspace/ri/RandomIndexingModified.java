@@ -36,6 +36,8 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+import cz.zcu.luk.sspace.text.SlidingWindow;
+
 /**
  * A co-occurrence based approach to statistical semantics that uses a
  * randomized projection of a full co-occurrence matrix to perform
@@ -439,26 +441,13 @@ public class RandomIndexingModified implements SemanticSpace, Filterable {
      * @param document {@inheritDoc}
      */
     public void processDocument(BufferedReader document) throws IOException {
-        Queue<String> prevWords = new ArrayDeque<String>(windowSize);
-        Queue<String> nextWords = new ArrayDeque<String>(windowSize);
-
-        Iterator<String> documentTokens =
-            IteratorFactory.tokenizeOrdered(document);
-
-        String focusWord = null;
-
-        // prefetch the first windowSize words
-        for (int i = 0; i < windowSize && documentTokens.hasNext(); ++i)
-            nextWords.offer(documentTokens.next());
+        // The words around the focus word are its context.
+        SlidingWindow window =
+            new SlidingWindow(windowSize, windowSize, 0, null, null);
+        window.reset(IteratorFactory.tokenizeOrdered(document));
 
-        while (!nextWords.isEmpty()) {
-            focusWord = nextWords.remove();
-
-            // shift over the window to the next word
-            if (documentTokens.hasNext()) {
-                String windowEdge = documentTokens.next();
-                nextWords.offer(windowEdge);
-            }
+        while (window.next()) {
+            String focusWord = window.token(0);
 
             // If we are filtering the semantic vectors, check whether this word
             // should have its semantics calculated.  In addition, if there is a
@@ -475,62 +464,36 @@ public class RandomIndexingModified implements SemanticSpace, Filterable {
                 // Sum up the index vector for all the surrounding words.  If
                 // permutations are enabled, permute the index vector based on
                 // its relative position to the focus word.
-                int permutations = -(prevWords.size());
-                for (String word : prevWords) {
-                    // Skip the addition of any words that are excluded from the
-                    // filter set.  Note that by doing the exclusion here, we
-                    // ensure that the token stream maintains its existing
-                    // ordering, which is necessary when permutations are taken
-                    // into account.
-                    if (word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                        ++permutations;
-                        continue;
-                    }
-
-                    TernaryVector iv = wordToIndexVector.get(word);
-                    if (usePermutations) {
-                        iv = permutationFunc.permute(iv, permutations);
-                        ++permutations;
-                    }
-
-                    add(focusMeaning, iv);
+                for (int i = -window.before(); i <= window.after(); ++i) {
+                    if (i != 0)
+                        addContext(focusMeaning, window.token(i), i);
                 }
-
-                // Repeat for the words in the forward window.
-                permutations = 1;
-                for (String word : nextWords) {
-                    // Skip the addition of any words that are excluded from the
-                    // filter set.  Note that by doing the exclusion here, we
-                    // ensure that the token stream maintains its existing
-                    // ordering, which is necessary when permutations are taken
-                    // into account.
-                    if (word.equals(IteratorFactory.EMPTY_TOKEN)) {
-                        ++permutations;
-                        continue;
-                    }
-
-                    TernaryVector iv = wordToIndexVector.get(word);
-                    if (usePermutations) {
-                        iv = permutationFunc.permute(iv, permutations);
-                        ++permutations;
-                    }
-
-                    add(focusMeaning, iv);
-                }
-            }
-
-            // Last put this focus word in the prev words and shift off the
-            // front of the previous word window if it now contains more words
-            // than the maximum window size
-            prevWords.offer(focusWord);
-            if (prevWords.size() > windowSize) {
-                prevWords.remove();
             }
         }
 
         document.close();
     }
 
+    /**
+     * Adds the index vector of a word in the window, permuted by its position
+     * relative to the focus word if permutations are enabled, to the semantics
+     * of the focus.  Words that are excluded by the filter are skipped.  Note
+     * that by doing the exclusion here, we ensure that the token stream
+     * maintains its existing ordering, which is necessary when permutations
+     * are taken into account.
+     */
+    private void addContext(IntegerVector focusMeaning, String word,
+                            int permutations) {
+        if (word.equals(IteratorFactory.EMPTY_TOKEN))
+            return;
+
+        TernaryVector iv = wordToIndexVector.get(word);
+        if (usePermutations)
+            iv = permutationFunc.permute(iv, permutations);
+
+        add(focusMeaning, iv);
+    }
+
     /**
      * Does nothing.
      *
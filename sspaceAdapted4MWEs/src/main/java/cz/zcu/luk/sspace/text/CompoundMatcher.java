@@ -0,0 +1,265 @@
+package cz.zcu.luk.sspace.text;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A matcher of the two- and three-word compounds of a compound list, compiled
+ * once into a trie over int word ids.  A token is looked up in a hash map once
+ * to get its id, and a compound ending at it is then found with one probe of
+ * the trie for a bigram and two for a trigram, without building any strings.
+ * The models count the middle word of a trigram out of its compound, so a
+ * trigram {@code "first middle last"} is reported as the compound {@code
+ * "first last"}, the same compound as the bigram of those two words.<p>
+ *
+ * The words of the trigrams keep their ids in the middle position when they
+ * are flagged as stopwords by {@link IteratorFactoryStopwords}, while a flagged
+ * stopword never starts or ends a compound.  Tokens that are not flagged have
+ * the same id in all positions, so the matcher is used in the same way for the
+ * token streams of {@link edu.ucla.sspace.text.IteratorFactory}.  The tokens of
+ * a {@link TokenIdIterator} are looked up by their {@link
+ * TokenIdIterator#token() token}: a token has its outer id unless it is a
+ * {@link TokenIdIterator#stopword() stopword}, and always its middle id.<p>
+ *
+ * Entries of the compound list with fewer than two or more than three words
+ * are ignored.  A matcher is immutable and may be shared by all the processing
+ * threads.
+ *
+ * @see SlidingWindow
+ */
+public class CompoundMatcher implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The id returned for the words and compounds which are not known.
+     */
+    public static final int NONE = -1;
+
+    /**
+     * The ids of the words of the compounds.  The node of the trie reached
+     * from the root by a word is its id plus one, and the deeper nodes are
+     * numbered from -1 down, so they never collide with the words.
+     */
+    private final Map<String, Integer> wordIds;
+
+    /**
+     * The ids of the words of the compounds in the middle of a trigram,
+     * including the stopword-flagged forms of the words.
+     */
+    private final Map<String, Integer> middleIds;
+
+    /**
+     * The compounds reported by the matcher, indexed by their ids.
+     */
+    private final String[] compounds;
+
+    /**
+     * The keys of the edges of the trie, packed from the parent node and the
+     * word id, in an open-addressing table.  A key of 0 marks a free slot.
+     */
+    private long[] edgeKeys;
+
+    /**
+     * The child node of each edge of the trie.
+     */
+    private int[] edgeNodes;
+
+    private int edges;
+
+    /**
+     * The id of the compound that ends at each deeper node {@code -1 - i} of
+     * the trie at index {@code i}, or {@link #NONE}.
+     */
+    private int[] nodeCompounds;
+
+    /**
+     * The number of deeper nodes.
+     */
+    private int nodes;
+
+    /**
+     * Compiles the matcher from a list of compounds, whose words are
+     * separated by single spaces.
+     */
+    public CompoundMatcher(Collection<String> compoundList) {
+        wordIds = new HashMap<String, Integer>();
+        middleIds = new HashMap<String, Integer>();
+        Map<String, Integer> compoundIds = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+
+        // First collect the words, which take the nodes following the root
+        List<String[]> entries = new ArrayList<String[]>(compoundList.size());
+        for (String compound : compoundList) {
+            String[] words = compound.split(" ");
+            if (words.length < 2 || words.length > 3)
+                continue;
+            entries.add(words);
+            for (String word : words)
+                wordId(word);
+        }
+        nodes = 0;
+        nodeCompounds = new int[Math.max(16, 2 * entries.size())];
+        Arrays.fill(nodeCompounds, NONE);
+        edgeKeys = new long[Math.max(16, Integer.highestOneBit(
+            Math.max(1, 2 * entries.size())) * 2)];
+        edgeNodes = new int[edgeKeys.length];
+
+        for (String[] words : entries) {
+            String name = (words.length == 3)
+                ? words[0] + " " + words[2]
+                : words[0] + " " + words[1];
+            Integer id = compoundIds.get(name);
+            if (id == null) {
+                id = names.size();
+                compoundIds.put(name, id);
+                names.add(name);
+            }
+            int node = wordIds.get(words[0]) + 1;
+            for (int i = 1; i < words.length; ++i)
+                node = addChild(node, wordIds.get(words[i]));
+            nodeCompounds[-1 - node] = id;
+
+            // The middle word of a trigram also matches as a stopword
+            if (words.length == 3)
+                middleIds.put(words[1] + IteratorFactoryStopwords.STOPWORD_FLAG,
+                              wordIds.get(words[1]));
+        }
+        compounds = names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Returns the id of the word, assigning a new one if needed.
+     */
+    private int wordId(String word) {
+        Integer id = wordIds.get(word);
+        if (id == null) {
+            id = wordIds.size();
+            wordIds.put(word, id);
+            middleIds.put(word, id);
+        }
+        return id;
+    }
+
+    private static long edgeKey(int node, int word) {
+        return ((long) node << 32) | (word & 0xFFFFFFFFL);
+    }
+
+    private int edgeSlot(long key) {
+        int mask = edgeKeys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (edgeKeys[slot] != 0 && edgeKeys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private int addChild(int node, int word) {
+        long key = edgeKey(node, word);
+        int slot = edgeSlot(key);
+        if (edgeKeys[slot] == key)
+            return edgeNodes[slot];
+        if (nodes == nodeCompounds.length) {
+            int size = nodeCompounds.length;
+            nodeCompounds = Arrays.copyOf(nodeCompounds, 2 * size);
+            Arrays.fill(nodeCompounds, size, nodeCompounds.length, NONE);
+        }
+        int child = -1 - nodes++;
+        edgeKeys[slot] = key;
+        edgeNodes[slot] = child;
+        if (++edges * 2 > edgeKeys.length)
+            rehash();
+        return child;
+    }
+
+    private void rehash() {
+        long[] keys = edgeKeys;
+        int[] children = edgeNodes;
+        edgeKeys = new long[2 * keys.length];
+        edgeNodes = new int[edgeKeys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != 0) {
+                int slot = edgeSlot(keys[i]);
+                edgeKeys[slot] = keys[i];
+                edgeNodes[slot] = children[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the child of the node for the word, or 0 if it has none.
+     */
+    private int child(int node, int word) {
+        long key = edgeKey(node, word);
+        int slot = edgeSlot(key);
+        return (edgeKeys[slot] == key) ? edgeNodes[slot] : 0;
+    }
+
+    /**
+     * Returns the id of a token as the first or the last word of a compound,
+     * or {@link #NONE} if it is not a word of any compound.
+     */
+    public int outerId(String token) {
+        Integer id = wordIds.get(token);
+        return (id == null) ? NONE : id.intValue();
+    }
+
+    /**
+     * Returns the id of a token as the middle word of a trigram, which may be
+     * a flagged stopword, or {@link #NONE} if it is not a word of any
+     * compound.
+     */
+    public int middleId(String token) {
+        Integer id = middleIds.get(token);
+        return (id == null) ? NONE : id.intValue();
+    }
+
+    /**
+     * Returns the id of the compound of the two words, given by their {@link
+     * #outerId(String) outer ids}, or {@link #NONE}.
+     */
+    public int bigram(int first, int second) {
+        if (first < 0 || second < 0)
+            return NONE;
+        int node = child(first + 1, second);
+        return (node == 0) ? NONE : nodeCompounds[-1 - node];
+    }
+
+    /**
+     * Returns the id of the compound of the three words, which is reported
+     * under the name of its first and last word, or {@link #NONE}.
+     *
+     * @param first the outer id of the first word
+     * @param middle the {@link #middleId(String) middle id} of the second word
+     * @param last the outer id of the last word
+     */
+    public int trigram(int first, int middle, int last) {
+        if (first < 0 || middle < 0 || last < 0)
+            return NONE;
+        int node = child(first + 1, middle);
+        if (node == 0)
+            return NONE;
+        node = child(node, last);
+        return (node == 0) ? NONE : nodeCompounds[-1 - node];
+    }
+
+    /**
+     * Returns the compound with the id, with the middle word of a trigram
+     * removed.
+     */
+    public String compound(int id) {
+        return compounds[id];
+    }
+
+    /**
+     * Returns the number of distinct compounds reported by the matcher.
+     */
+    public int size() {
+        return compounds.length;
+    }
+}
@@ -21,6 +21,7 @@
 
 package cz.zcu.luk.sspace.text;
 
+import edu.ucla.sspace.basis.BasisMapping;
 import edu.ucla.sspace.text.CompoundWordIterator;
 import edu.ucla.sspace.text.FilteredIterator;
 import edu.ucla.sspace.text.Stemmer;
@@ -411,6 +412,27 @@ public class IteratorFactoryStopwords {
             : new WordReplacementIterator(baseIterator, replacementMap);
     }
 
+    /**
+     * Tokenizes the contents of the reader according to the system
+     * configuration and returns an iterator over the dimensions of all the
+     * tokens in {@code basis}, in their original order.  Instead of the tokens
+     * with the {@link #STOPWORD_FLAG} returned by {@link
+     * #tokenizeOrdered(BufferedReader) tokenizeOrdered}, the iterator reports
+     * the stopwords through {@link TokenIdIterator#stopword()}, and does not
+     * add them to the basis.
+     *
+     * @param reader a reader whose contents are to be tokenized
+     * @param basis the basis which assigns the dimensions of the tokens
+     *
+     * @return an iterator over the dimensions of all of the tokens in the
+     *         reader
+     */
+    public static TokenIdIterator tokenizeOrderedIds(
+            BufferedReader reader, BasisMapping<String, String> basis) {
+        return new TokenIdIterator(
+            getUnfilteredIterator(reader), filter, stemmer, basis);
+    }
+
     /**
      * Returns an iterator for the basic tokenization of the stream before
      * filtering has been applied to the tokens.
@@ -421,6 +443,29 @@ public class IteratorFactoryStopwords {
      */
     private static Iterator<String> getBaseIterator(BufferedReader reader,
                                                     boolean keepOrdering) {
+        Iterator<String> finalIterator = getUnfilteredIterator(reader);
+
+        // STEP 4: APPLY TOKEN FILTERING
+        if (filter != null) {
+            finalIterator = (keepOrdering)
+                ? new OrderPreservingFilteredIteratorStopwords(finalIterator, filter)
+                : new FilteredIterator(finalIterator, filter);
+        }
+
+        // STEP 5: APPLY STEMMING
+        if (stemmer != null) 
+            finalIterator = new StemmingIterator(finalIterator, stemmer);
+
+        return finalIterator;
+    }
+
+    /**
+     * Returns an iterator over the tokens of the stream after the token
+     * replacement, the compound tokenizing and the token limiting, which are
+     * applied before the filtering.
+     */
+    private static Iterator<String> getUnfilteredIterator(
+            BufferedReader reader) {
 
         // The final iterator is how the stream will be tokenized after all the
         // tokenizing options have been applied.  This value is iteratively set
@@ -459,17 +504,6 @@ public class IteratorFactoryStopwords {
             finalIterator = new LimitedIterator<String>(
                     finalIterator, wordLimit);
 
-        // STEP 4: APPLY TOKEN FILTERING
-        if (filter != null) {
-            finalIterator = (keepOrdering)
-                ? new OrderPreservingFilteredIteratorStopwords(finalIterator, filter)
-                : new FilteredIterator(finalIterator, filter);
-        }
-
-        // STEP 5: APPLY STEMMING
-        if (stemmer != null) 
-            finalIterator = new StemmingIterator(finalIterator, stemmer);
-
         return finalIterator;
     }
 }
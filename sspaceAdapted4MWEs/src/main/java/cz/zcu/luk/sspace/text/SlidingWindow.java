@@ -0,0 +1,380 @@
+package cz.zcu.luk.sspace.text;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A window that slides over the tokens of a document, one focus token at a
+ * time, for the models that count the co-occurrences of a focus token with the
+ * tokens around it (HAL, COALS and Random Indexing).  The tokens are kept in a
+ * ring buffer of fixed size, so moving the window to the next focus token does
+ * not allocate, and the tokens are addressed by their offset from the focus
+ * token: negative offsets before it, positive after it.<p>
+ *
+ * The window holds up to {@code before} tokens before the focus token, up to
+ * {@code after} tokens after it and, in addition, up to {@code history} tokens
+ * that have just left the window on the left.  These are needed by the models
+ * that match compounds which start outside the window.<p>
+ *
+ * Each token is mapped to an int id by the {@link Indexer} of the window, if
+ * it has one.  The id is looked up when it is first requested and is then kept
+ * with the token while it stays in the window, so the ids are assigned in the
+ * same order as when the models looked each token up at the point of its use.
+ * Tokens with a negative id, such as the {@link
+ * IteratorFactoryStopwords#EMPTY_TOKEN empty token} of the filtered words, are
+ * not visited as contexts.<p>
+ *
+ * The weight of each distance from the focus token is computed once, when the
+ * window is created, and is passed to the {@link PairVisitor} with each
+ * context.<p>
+ *
+ * If the window is given a {@link CompoundMatcher}, the bigram and the trigram
+ * compounds that end at each token are matched as the token enters the window,
+ * and are then available at every offset at which the token is held.  The
+ * tokens before the start of the document are not part of any compound.<p>
+ *
+ * A window is not thread-safe; each thread should use its own instance.  It
+ * may be {@link #reset(Iterator) reset} to process another document.
+ */
+public class SlidingWindow {
+
+    /**
+     * Maps the tokens of the window to their ids.
+     */
+    public interface Indexer {
+
+        /**
+         * Returns the id of the token, or a negative value if the token should
+         * not be counted.
+         */
+        int index(String token);
+    }
+
+    /**
+     * Receives the focus and context pairs of a window.
+     */
+    public interface PairVisitor {
+
+        /**
+         * Called for each context token of the focus.
+         *
+         * @param focus the id of the focus
+         * @param context the id of the context token
+         * @param distance the offset of the context token from the focus token
+         * @param weight the weight of the distance
+         */
+        void pair(int focus, int context, int distance, double weight);
+    }
+
+    /**
+     * The id of a token whose id has not been looked up yet.
+     */
+    private static final int UNRESOLVED = Integer.MIN_VALUE;
+
+    private final int before;
+
+    private final int after;
+
+    private final int history;
+
+    private final String[] tokens;
+
+    private final int[] ids;
+
+    /**
+     * The weight of each distance, indexed by the distance plus {@code
+     * before}.
+     */
+    private final double[] weights;
+
+    private final Indexer indexer;
+
+    private final CompoundMatcher matcher;
+
+    /**
+     * The {@link CompoundMatcher#outerId(String) outer ids} of the tokens, if
+     * the window has a matcher.
+     */
+    private final int[] outerIds;
+
+    /**
+     * The {@link CompoundMatcher#middleId(String) middle ids} of the tokens,
+     * if the window has a matcher.
+     */
+    private final int[] middleIds;
+
+    /**
+     * The bigram compound that ends at each token, if the window has a
+     * matcher.
+     */
+    private final int[] bigrams;
+
+    /**
+     * The trigram compound that ends at each token, if the window has a
+     * matcher.
+     */
+    private final int[] trigrams;
+
+    private Iterator<String> source;
+
+    /**
+     * The position of the focus token in the document.
+     */
+    private int focus;
+
+    /**
+     * The number of tokens read from the document.
+     */
+    private int end;
+
+    /**
+     * Creates a window.
+     *
+     * @param before the number of tokens before the focus token
+     * @param after the number of tokens after the focus token
+     * @param history the number of tokens kept after they leave the window
+     * @param weights the weight of each distance from {@code -before} to
+     *        {@code after}, indexed by the distance plus {@code before}, or
+     *        {@code null} if all distances weigh 1
+     * @param indexer the mapping of the tokens to their ids, or {@code null}
+     *        if only the tokens are used
+     */
+    public SlidingWindow(int before, int after, int history,
+                         double[] weights, Indexer indexer) {
+        this(before, after, history, weights, indexer, null);
+    }
+
+    /**
+     * Creates a window which matches compounds.
+     *
+     * @param before the number of tokens before the focus token
+     * @param after the number of tokens after the focus token
+     * @param history the number of tokens kept after they leave the window
+     * @param weights the weight of each distance from {@code -before} to
+     *        {@code after}, indexed by the distance plus {@code before}, or
+     *        {@code null} if all distances weigh 1
+     * @param indexer the mapping of the tokens to their ids, or {@code null}
+     *        if only the tokens are used
+     * @param matcher the matcher of the compounds that end at each token, or
+     *        {@code null} if no compounds are matched
+     */
+    public SlidingWindow(int before, int after, int history,
+                         double[] weights, Indexer indexer,
+                         CompoundMatcher matcher) {
+        if (before < 0 || after < 0 || history < 0)
+            throw new IllegalArgumentException(
+                "The window sizes must be non-negative");
+        if (weights != null && weights.length != before + after + 1)
+            throw new IllegalArgumentException(
+                "Expected " + (before + after + 1) + " weights, got " +
+                weights.length);
+        this.before = before;
+        this.after = after;
+        this.history = history;
+        this.indexer = indexer;
+        if (weights == null) {
+            weights = new double[before + after + 1];
+            Arrays.fill(weights, 1);
+        }
+        this.weights = weights;
+        this.matcher = matcher;
+        int capacity = history + before + 1 + after;
+        if (matcher != null) {
+            // The two tokens before each new token are needed to match the
+            // compounds that end at it
+            capacity = Math.max(capacity, 3);
+            outerIds = new int[capacity];
+            middleIds = new int[capacity];
+            bigrams = new int[capacity];
+            trigrams = new int[capacity];
+        }
+        else {
+            outerIds = null;
+            middleIds = null;
+            bigrams = null;
+            trigrams = null;
+        }
+        tokens = new String[capacity];
+        ids = new int[capacity];
+        source = null;
+        focus = -1;
+        end = 0;
+    }
+
+    /**
+     * Starts sliding the window over a new document.  The first call to
+     * {@link #next()} moves the focus to the first token of the document.
+     */
+    public void reset(Iterator<String> documentTokens) {
+        source = documentTokens;
+        focus = -1;
+        end = 0;
+        // Drop the references to the tokens of the previous document
+        Arrays.fill(tokens, null);
+    }
+
+    /**
+     * Moves the focus to the next token of the document.
+     *
+     * @return {@code false} if the document has no more tokens
+     */
+    public boolean next() {
+        focus++;
+        while (end <= focus + after && source.hasNext()) {
+            int slot = end % tokens.length;
+            tokens[slot] = source.next();
+            ids[slot] = UNRESOLVED;
+            if (matcher != null)
+                match(slot);
+            end++;
+        }
+        return focus < end;
+    }
+
+    /**
+     * Returns the number of tokens before the focus token which are inside
+     * the window.
+     */
+    public int before() {
+        return Math.min(focus, before);
+    }
+
+    /**
+     * Returns the number of tokens after the focus token which are inside the
+     * window.
+     */
+    public int after() {
+        return Math.min(end - focus - 1, after);
+    }
+
+    /**
+     * Returns whether the token at the offset from the focus token is held by
+     * the window, which includes its history on the left.
+     */
+    public boolean has(int offset) {
+        int position = focus + offset;
+        return position >= 0 && position < end
+            && offset >= -(before + history) && offset <= after;
+    }
+
+    /**
+     * Returns the token at the offset from the focus token.
+     *
+     * @throws IndexOutOfBoundsException if the window does not hold the token
+     */
+    public String token(int offset) {
+        return tokens[slot(offset)];
+    }
+
+    /**
+     * Returns the token at the offset from the focus token, or {@code
+     * missing} if the window does not hold the token.
+     */
+    public String token(int offset, String missing) {
+        return has(offset) ? tokens[slot(offset)] : missing;
+    }
+
+    /**
+     * Returns the id of the token at the offset from the focus token.
+     *
+     * @throws IndexOutOfBoundsException if the window does not hold the token
+     * @throws IllegalStateException if the window has no {@link Indexer}
+     */
+    public int id(int offset) {
+        if (indexer == null)
+            throw new IllegalStateException("The window has no indexer");
+        int slot = slot(offset);
+        int id = ids[slot];
+        if (id == UNRESOLVED) {
+            id = indexer.index(tokens[slot]);
+            ids[slot] = id;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the weight of the distance from the focus token.
+     */
+    public double weight(int distance) {
+        return weights[distance + before];
+    }
+
+    /**
+     * Passes each token with a non-negative id between the offsets {@code
+     * from} and {@code to}, inclusive, to the visitor as a context of {@code
+     * focusId}.  The focus token itself and the offsets outside of the window
+     * are skipped.  The tokens are visited from left to right.
+     *
+     * @param focusId the id to pass as the focus
+     */
+    public void visit(int focusId, int from, int to, PairVisitor visitor) {
+        from = Math.max(from, -before());
+        to = Math.min(to, after());
+        for (int offset = from; offset <= to; ++offset) {
+            if (offset == 0)
+                continue;
+            int context = id(offset);
+            if (context >= 0)
+                visitor.pair(focusId, context, offset, weight(offset));
+        }
+    }
+
+    /**
+     * Matches the compounds that end at the token which has just been read
+     * into the slot, at position {@code end} of the document.
+     */
+    private void match(int slot) {
+        String token = tokens[slot];
+        int outer = matcher.outerId(token);
+        outerIds[slot] = outer;
+        middleIds[slot] = matcher.middleId(token);
+        int bigram = CompoundMatcher.NONE;
+        int trigram = CompoundMatcher.NONE;
+        if (outer >= 0 && end > 0) {
+            int prev = (end - 1) % tokens.length;
+            bigram = matcher.bigram(outerIds[prev], outer);
+            if (end > 1) {
+                int prevPrev = (end - 2) % tokens.length;
+                trigram = matcher.trigram(
+                    outerIds[prevPrev], middleIds[prev], outer);
+            }
+        }
+        bigrams[slot] = bigram;
+        trigrams[slot] = trigram;
+    }
+
+    /**
+     * Returns the id of the bigram compound in the {@link CompoundMatcher} of
+     * the window that ends at the offset from the focus token, or {@link
+     * CompoundMatcher#NONE}.
+     *
+     * @throws IndexOutOfBoundsException if the window does not hold the token
+     * @throws IllegalStateException if the window has no matcher
+     */
+    public int bigram(int offset) {
+        if (matcher == null)
+            throw new IllegalStateException("The window has no matcher");
+        return bigrams[slot(offset)];
+    }
+
+    /**
+     * Returns the id of the trigram compound in the {@link CompoundMatcher} of
+     * the window that ends at the offset from the focus token, or {@link
+     * CompoundMatcher#NONE}.
+     *
+     * @throws IndexOutOfBoundsException if the window does not hold the token
+     * @throws IllegalStateException if the window has no matcher
+     */
+    public int trigram(int offset) {
+        if (matcher == null)
+            throw new IllegalStateException("The window has no matcher");
+        return trigrams[slot(offset)];
+    }
+
+    private int slot(int offset) {
+        if (!has(offset))
+            throw new IndexOutOfBoundsException(
+                "No token at offset " + offset);
+        return (focus + offset) % tokens.length;
+    }
+}
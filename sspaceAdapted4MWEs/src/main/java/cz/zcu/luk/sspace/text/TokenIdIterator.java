@@ -0,0 +1,114 @@
+package cz.zcu.luk.sspace.text;
+
+import edu.ucla.sspace.basis.BasisMapping;
+import edu.ucla.sspace.text.Stemmer;
+import edu.ucla.sspace.text.TokenFilter;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over the dimensions of the tokens of a document in a {@link
+ * BasisMapping}, in their original order.  It takes the place of the {@code
+ * String} tokens returned by {@link
+ * IteratorFactoryStopwords#tokenizeOrdered(java.io.BufferedReader)
+ * tokenizeOrdered}: a token rejected by the filter is not returned with the
+ * {@link IteratorFactoryStopwords#STOPWORD_FLAG} appended, but with the id
+ * {@code -1} and the {@link #stopword()} bit set, so the models do not have to
+ * strip the flag, and allocate a new string, to get the stopword back.  The
+ * stopwords are neither stemmed nor added to the basis; the models that match
+ * them in compounds get them from {@link #token()}.<p>
+ *
+ * If the basis is read only, the tokens which it does not know have the id
+ * {@code -1} as well.  An iterator is not thread-safe; it is created by {@link
+ * IteratorFactoryStopwords#tokenizeOrderedIds(java.io.BufferedReader,
+ * BasisMapping) tokenizeOrderedIds}.
+ */
+public class TokenIdIterator {
+
+    /**
+     * The tokens before filtering.
+     */
+    private final Iterator<String> tokens;
+
+    /**
+     * The filter which marks the stopwords, or {@code null}.
+     */
+    private final TokenFilter filter;
+
+    /**
+     * The stemmer applied to the accepted tokens, or {@code null}.
+     */
+    private final Stemmer stemmer;
+
+    private final BasisMapping<String, String> basis;
+
+    /**
+     * The token last returned by {@link #next()}.
+     */
+    private String token;
+
+    /**
+     * Whether the token last returned by {@link #next()} was rejected by the
+     * filter.
+     */
+    private boolean stopword;
+
+    TokenIdIterator(Iterator<String> tokens, TokenFilter filter,
+                    Stemmer stemmer, BasisMapping<String, String> basis) {
+        this.tokens = tokens;
+        this.filter = filter;
+        this.stemmer = stemmer;
+        this.basis = basis;
+        token = null;
+        stopword = false;
+    }
+
+    /**
+     * Returns {@code true} if the document has more tokens.
+     */
+    public boolean hasNext() {
+        return tokens.hasNext();
+    }
+
+    /**
+     * Returns the dimension of the next token of the document, or {@code -1}
+     * if it is a stopword.
+     */
+    public int next() {
+        if (!tokens.hasNext())
+            throw new NoSuchElementException();
+        token = tokens.next();
+        stopword = filter != null && !filter.accept(token);
+        if (stopword)
+            return -1;
+        if (stemmer != null)
+            token = stemmer.stem(token);
+        return basis.getDimension(token);
+    }
+
+    /**
+     * Returns the token last returned by {@link #next()}, stemmed unless it
+     * is a stopword.
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * Returns the next token of the document itself, such as a document
+     * header, without filtering it or looking it up in the vocabulary.
+     */
+    public String nextToken() {
+        stopword = false;
+        return tokens.next();
+    }
+
+    /**
+     * Returns whether the token last returned by {@link #next()} is a
+     * stopword, that is whether it was rejected by the filter.
+     */
+    public boolean stopword() {
+        return stopword;
+    }
+}
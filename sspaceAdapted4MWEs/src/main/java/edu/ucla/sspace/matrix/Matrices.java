@@ -45,6 +45,8 @@ import edu.ucla.sspace.vector.DenseVector;
 import edu.ucla.sspace.vector.DoubleVector;
 import edu.ucla.sspace.vector.SparseDoubleVector;
 
+import cz.zcu.luk.sspace.matrix.MatrixKernels;
+
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -314,6 +316,11 @@ public class Matrices {
 
     private static Matrix multiplyRightDiag(Matrix m1, Matrix m2) {
         Matrix resultMatrix = create(m1.rows(), m2.columns(), true);
+        if (resultMatrix instanceof ArrayMatrix
+                && MatrixKernels.isSupported(m1)) {
+            MatrixKernels.multiplyRightDiag(m1, diagonal(m2), resultMatrix);
+            return resultMatrix;
+        }
         for (int r = 0; r < m1.rows(); ++r) {
             double[] row = m1.getRow(r);
             for (int c = 0; c < m2.columns(); ++c) {
@@ -324,6 +331,16 @@ public class Matrices {
         return resultMatrix;
     }
 
+    /**
+     * Returns the diagonal of a square matrix.
+     */
+    private static double[] diagonal(Matrix m) {
+        double[] diagonal = new double[m.rows()];
+        for (int i = 0; i < diagonal.length; ++i)
+            diagonal[i] = m.get(i, i);
+        return diagonal;
+    }
+
     private static Matrix multiplyBothDiag(Matrix m1, Matrix m2) {
         Matrix resultMatrix = new DiagonalMatrix(m1.rows());
         for (int i = 0; i < m1.rows(); ++i)
@@ -333,6 +350,11 @@ public class Matrices {
 
     private static Matrix multiplyLeftDiag(Matrix m1, Matrix m2) {
         Matrix resultMatrix = create(m1.rows(), m2.columns(), true);
+        if (resultMatrix instanceof ArrayMatrix
+                && MatrixKernels.isSupported(m2)) {
+            MatrixKernels.multiplyLeftDiag(diagonal(m1), m2, resultMatrix);
+            return resultMatrix;
+        }
         for (int r = 0; r < m1.rows(); ++r) {
             double element = m1.get(r, r);
             double[] m2Row = m2.getRow(r);
@@ -376,6 +398,12 @@ public class Matrices {
 
         int size = m1.columns();
         Matrix resultMatrix = create(m1.rows(), m2.columns(), true);
+        if (resultMatrix instanceof ArrayMatrix
+                && MatrixKernels.isSupported(m1)
+                && MatrixKernels.isSupported(m2)) {
+            MatrixKernels.multiply(m1, m2, resultMatrix);
+            return resultMatrix;
+        }
         for (int r = 0; r < m1.rows(); ++r) {
             double[] row = m1.getRow(r);
             for (int c = 0; c < m2.columns(); ++c) {
@@ -450,12 +478,17 @@ public class Matrices {
     }
 
     public static DoubleVector multiplyByTransposedMatrix(SparseDoubleVector sparseVector, Matrix matrix) {
+        if (MatrixKernels.isSupported(matrix))
+            return new DenseVector(
+                MatrixKernels.multiply(matrix, sparseVector));
+
         //System.out.println(matrix.rows() + " x " + matrix.columns());
         DoubleVector result = new DenseVector(matrix.rows()); // due to transposition rows instead of columns!
 
+        int[] nonZero = sparseVector.getNonZeroIndices();
         for (int i = 0; i < result.length(); i++) {
             double resultValue = 0;
-            for (int nz : sparseVector.getNonZeroIndices()) {
+            for (int nz : nonZero) {
                 resultValue += sparseVector.get(nz) * matrix.get(i, nz); // due to transposition rows nz and i swapped!
             }
             result.set(i, resultValue);
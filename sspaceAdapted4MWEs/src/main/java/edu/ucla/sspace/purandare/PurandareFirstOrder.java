@@ -64,7 +64,7 @@ import cz.zcu.luk.sspace.matrix.*;
  * </ul> 
  *
  *
- * This class offers one configurable parameter.
+ * This class offers two configurable parameters.
  *
  * <dl style="margin-left: 1em">
  *
@@ -79,6 +79,15 @@ import cz.zcu.luk.sspace.matrix.*;
  *      used, or if the corpus contains many frequently used words after
  *      filtering.<p>
  *
+ * <dt> <i>Property:</i> <code><b>{@value
+ *      cz.zcu.luk.sspace.matrix.CooccurrenceMatrices#MATRIX_TYPE_PROPERTY}
+ *      </b></code> <br>
+ *      <i>Default:</i> unset
+ *
+ * <dd style="padding-top: .5em">If set, the co-occurrences are accumulated in
+ *      the sparse {@link cz.zcu.luk.sspace.matrix.CooccurrenceMatrix} selected
+ *      by this property instead of a dense {@link AtomicGrowingMatrix}.<p>
+ *
  * </dl></p> 
  *
  * @author David Jurgens
@@ -177,7 +186,9 @@ public class PurandareFirstOrder implements SemanticSpace {
      * properties for configuration
      */
     public PurandareFirstOrder(Properties props) {
-	cooccurrenceMatrix = new AtomicGrowingMatrix();
+        cooccurrenceMatrix = (CooccurrenceMatrices.isConfigured(props))
+            ? CooccurrenceMatrices.create(props)
+            : new AtomicGrowingMatrix();
         termToIndex = new ConcurrentHashMap<String,Integer>();
         termToVector = new ConcurrentHashMap<String,DoubleVector>();
         termCounts = new CopyOnWriteArrayList<AtomicInteger>();